@@ -1642,6 +1642,34 @@ public long getTimeDuration(String name, long defaultValue, TimeUnit unit) {
     return unit.convert(Long.parseLong(vStr), vUnit.unit());
   }
 
+  /**
+   * Return time duration in the given time unit, like
+   * {@link #getTimeDuration(String, long, TimeUnit)}, for a property whose
+   * value may be given without a unit in a coarser unit than the one needed.
+   * @param name Property name
+   * @param defaultValue Value returned if no mapping exists, in defaultUnit.
+   * @param defaultUnit Unit of the default value and of a stored property
+   *        without a suffix.
+   * @param returnUnit Unit to convert the value to.
+   * @throws NumberFormatException If the property stripped of its unit is not
+   *         a number
+   */
+  public long getTimeDuration(String name, long defaultValue,
+      TimeUnit defaultUnit, TimeUnit returnUnit) {
+    String vStr = get(name);
+    if (null == vStr) {
+      return returnUnit.convert(defaultValue, defaultUnit);
+    }
+    vStr = vStr.trim();
+    ParsedTimeDuration vUnit = ParsedTimeDuration.unitFor(vStr);
+    if (null == vUnit) {
+      vUnit = ParsedTimeDuration.unitFor(defaultUnit);
+    } else {
+      vStr = vStr.substring(0, vStr.lastIndexOf(vUnit.suffix()));
+    }
+    return returnUnit.convert(Long.parseLong(vStr), vUnit.unit());
+  }
+
   /**
    * Get the value of the <code>name</code> property as a <code>Pattern</code>.
    * If no such property is specified, or if the specified value is not a valid
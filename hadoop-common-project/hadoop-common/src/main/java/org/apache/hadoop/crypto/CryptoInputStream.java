@@ -40,6 +40,7 @@
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.Seekable;
 import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.util.IdentityHashStore;
 
 import com.google.common.base.Preconditions;
 
@@ -104,6 +105,15 @@ public class CryptoInputStream extends FilterInputStream implements
   private final Queue<Decryptor> decryptorPool = 
       new ConcurrentLinkedQueue<Decryptor>();
   
+  /**
+   * The buffers returned by {@link #read(ByteBufferPool, int, EnumSet)} which
+   * hold a decrypted copy of a read-only buffer of the wrapped stream, such 
+   * as the memory map of a short-circuit replica, and the pools they go back
+   * to when released.
+   */
+  private final IdentityHashStore<ByteBuffer, ByteBufferPool> 
+      decryptedBuffers = new IdentityHashStore<ByteBuffer, ByteBufferPool>(0);
+  
   public CryptoInputStream(InputStream in, CryptoCodec codec, 
       int bufferSize, byte[] key, byte[] iv) throws IOException {
     this(in, codec, bufferSize, key, iv, 
@@ -585,11 +595,16 @@ public ByteBuffer read(ByteBufferPool bufferPool, int maxLength,
         ((Seekable) in).seek(getPos());
         resetStreamOffset(getPos());
       }
-      final ByteBuffer buffer = ((HasEnhancedByteBufferAccess) in).
+      ByteBuffer buffer = ((HasEnhancedByteBufferAccess) in).
           read(bufferPool, maxLength, opts);
       if (buffer != null) {
         final int n = buffer.remaining();
         if (n > 0) {
+          if (buffer.isReadOnly()) {
+            // The data is mapped from the file, e.g. a short-circuit replica,
+            // and cannot be decrypted in place.
+            buffer = copyReadOnlyBuffer(bufferPool, buffer);
+          }
           streamOffset += buffer.remaining(); // Read n bytes
           final int pos = buffer.position();
           decrypt(buffer, n, pos);
@@ -602,8 +617,49 @@ public ByteBuffer read(ByteBufferPool bufferPool, int maxLength,
     }
   }
 
+  /**
+   * Copy the data of a read-only buffer of the wrapped stream to a buffer of
+   * the pool, and release the read-only buffer.
+   */
+  private ByteBuffer copyReadOnlyBuffer(ByteBufferPool bufferPool, 
+      ByteBuffer buffer) {
+    if (bufferPool == null) {
+      ((HasEnhancedByteBufferAccess) in).releaseBuffer(buffer);
+      throw new UnsupportedOperationException("The data of the wrapped " +
+          "stream must be copied to be decrypted, and you did not provide " +
+          "a ByteBufferPool.");
+    }
+    final int n = buffer.remaining();
+    ByteBuffer copy = bufferPool.getBuffer(buffer.isDirect(), n);
+    boolean success = false;
+    try {
+      copy.clear();
+      copy.limit(n);
+      copy.put(buffer.duplicate());
+      copy.flip();
+      synchronized (decryptedBuffers) {
+        decryptedBuffers.put(copy, bufferPool);
+      }
+      success = true;
+    } finally {
+      if (!success) {
+        bufferPool.putBuffer(copy);
+      }
+      ((HasEnhancedByteBufferAccess) in).releaseBuffer(buffer);
+    }
+    return copy;
+  }
+
   @Override
   public void releaseBuffer(ByteBuffer buffer) {
+    ByteBufferPool bufferPool;
+    synchronized (decryptedBuffers) {
+      bufferPool = decryptedBuffers.remove(buffer);
+    }
+    if (bufferPool != null) {
+      bufferPool.putBuffer(buffer);
+      return;
+    }
     try {
       ((HasEnhancedByteBufferAccess) in).releaseBuffer(buffer);
     } catch (ClassCastException e) {
@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Interface filesystems can implement to list several directories with one
+ * call to the remote service instead of one call per directory.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Unstable
+public interface BatchListingOperations {
+  /**
+   * List the statuses of the entries of several directories. The listings
+   * are returned in the order of the given paths, but the listing of a
+   * large directory may be split into several consecutive
+   * {@link PartialListing}s. A path which cannot be listed does not fail
+   * the whole call: its {@link PartialListing#get()} throws the error.
+   *
+   * @param paths the directories to list
+   * @param glob  if not null, only the entries whose names match this glob
+   *              pattern are returned
+   * @return an iterator over the partial listings of the paths
+   * @throws IOException if the listing cannot be started
+   */
+  RemoteIterator<PartialListing<FileStatus>> batchedListStatusIterator(
+      List<Path> paths, String glob) throws IOException;
+
+  /**
+   * Like {@link #batchedListStatusIterator(List, String)}, but the
+   * statuses also carry the block locations of the files.
+   */
+  RemoteIterator<PartialListing<LocatedFileStatus>>
+      batchedListLocatedStatusIterator(List<Path> paths, String glob)
+      throws IOException;
+}
@@ -22,15 +22,20 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.AclEntry;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.Progressable;
 
@@ -199,6 +204,85 @@ public int read(long position, byte[] b, int off, int len)
       checker.close();
       return nread;
     }
+
+    /**
+     * Read the ranges, merged and aligned to the checksum chunks, with
+     * vectored reads of the data and checksum files, and verify them.
+     */
+    @Override
+    public void readVectored(List<? extends FileRange> ranges,
+        ByteBufferPool bufferPool) throws IOException {
+      if (!needChecksum()) {
+        datas.readVectored(ranges, bufferPool);
+        return;
+      }
+      final long fileLength =
+          fs.getRawFileSystem().getFileStatus(file).getLen();
+      final List<FileRange> sorted = VectoredReadUtils.prepareRanges(ranges);
+      final List<CombinedFileRange> merged =
+          new ArrayList<CombinedFileRange>();
+      final List<FileRange> dataRanges = new ArrayList<FileRange>();
+      final List<FileRange> sumRanges = new ArrayList<FileRange>();
+      for (CombinedFileRange combined : VectoredReadUtils.mergeSortedRanges(
+          sorted, bytesPerSum, VectoredReadUtils.DEFAULT_MAX_GAP,
+          VectoredReadUtils.DEFAULT_MAX_MERGED_SIZE)) {
+        boolean inFile = false;
+        for (FileRange range : combined.getUnderlying()) {
+          if (range.getOffset() + range.getLength() > fileLength) {
+            VectoredReadUtils.fail(range, new EOFException(
+                "End of file reached before reading " + range + " of "
+                    + file));
+          } else {
+            inFile = true;
+          }
+        }
+        if (!inFile) {
+          continue;
+        }
+        final long start = combined.getOffset();
+        final long end = Math.min(fileLength, start + combined.getLength());
+        final long numChunks = (end - start + bytesPerSum - 1) / bytesPerSum;
+        merged.add(combined);
+        dataRanges.add(new FileRange(start, (int) (end - start)));
+        sumRanges.add(new FileRange(getChecksumFilePos(start),
+            (int) numChunks * CHECKSUM_SIZE));
+      }
+      datas.readVectored(dataRanges, bufferPool);
+      sums.readVectored(sumRanges, bufferPool);
+
+      final DataChecksum checksum = DataChecksum.newDataChecksum(
+          DataChecksum.Type.CRC32, bytesPerSum);
+      for (int i = 0; i < merged.size(); i++) {
+        final CombinedFileRange combined = merged.get(i);
+        ByteBuffer data = null;
+        ByteBuffer sum = null;
+        try {
+          data = dataRanges.get(i).getData().get();
+          sum = sumRanges.get(i).getData().get();
+          checksum.verifyChunkedSums(data, sum, file.toString(),
+              combined.getOffset());
+          VectoredReadUtils.complete(combined, data, bufferPool);
+          data = null;
+        } catch (ExecutionException e) {
+          VectoredReadUtils.fail(combined, e.getCause());
+        } catch (ChecksumException e) {
+          VectoredReadUtils.fail(combined, e);
+        } catch (InterruptedException e) {
+          for (int j = i; j < merged.size(); j++) {
+            VectoredReadUtils.fail(merged.get(j), e);
+          }
+          throw new InterruptedIOException(
+              "Interrupted reading the ranges of " + file);
+        } finally {
+          if (data != null) {
+            bufferPool.putBuffer(data);
+          }
+          if (sum != null) {
+            bufferPool.putBuffer(sum);
+          }
+        }
+      }
+    }
     
     @Override
     public void close() throws IOException {
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * A range of a file which covers several {@link FileRange}s, to read them
+ * at once.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class CombinedFileRange {
+  private final long offset;
+  private long end;
+  private final List<FileRange> underlying = new ArrayList<FileRange>();
+
+  CombinedFileRange(long offset, long end, FileRange first) {
+    this.offset = offset;
+    this.end = end;
+    underlying.add(first);
+  }
+
+  /**
+   * Extend this range to cover another range.
+   * @param start the start of the range to cover
+   * @param rangeEnd the end of the range to cover
+   * @param range the range
+   * @param maxGap the largest gap to read over to merge a range
+   * @param maxSize the largest size of the merged range
+   * @return whether this range now covers the range
+   */
+  boolean merge(long start, long rangeEnd, FileRange range, int maxGap,
+      int maxSize) {
+    if (start - end > maxGap) {
+      return false;
+    }
+    final long newEnd = Math.max(end, rangeEnd);
+    if (newEnd - offset > maxSize) {
+      return false;
+    }
+    end = newEnd;
+    underlying.add(range);
+    return true;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return (int) (end - offset);
+  }
+
+  /** @return the ranges this range covers, in order of their offsets */
+  public List<FileRange> getUnderlying() {
+    return underlying;
+  }
+
+  @Override
+  public String toString() {
+    return "range[" + offset + "," + end + ") of " + underlying;
+  }
+}
@@ -57,6 +57,14 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
       "ipc.client.rpc-timeout.ms";
   /** Default value for IPC_CLIENT_RPC_TIMEOUT_KEY. */
   public static final int IPC_CLIENT_RPC_TIMEOUT_DEFAULT = 0;
+  /**
+   * Maximum number of asynchronous calls of a client which may be
+   * outstanding on a connection; further calls wait for a slot.
+   */
+  public static final String IPC_CLIENT_ASYNC_CALLS_MAX_KEY =
+      "ipc.client.async.calls.max";
+  /** Default value for IPC_CLIENT_ASYNC_CALLS_MAX_KEY. */
+  public static final int IPC_CLIENT_ASYNC_CALLS_MAX_DEFAULT = 100;
   /** Responses larger than this will be logged */
   public static final String  IPC_SERVER_RPC_MAX_RESPONSE_SIZE_KEY =
     "ipc.server.max.response.size";
@@ -68,6 +76,21 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
     "ipc.server.read.threadpool.size";
   /** Default value for IPC_SERVER_RPC_READ_THREADS_KEY */
   public static final int     IPC_SERVER_RPC_READ_THREADS_DEFAULT = 1;
+  /** Number of threads in RPC server writing responses to the socket */
+  public static final String  IPC_SERVER_RPC_RESPONDER_THREADS_KEY =
+    "ipc.server.responder.threadpool.size";
+  /** Default value for IPC_SERVER_RPC_RESPONDER_THREADS_KEY */
+  public static final int     IPC_SERVER_RPC_RESPONDER_THREADS_DEFAULT = 1;
+  /**
+   * How long an RPC server holds a coordinated call which is ahead of its
+   * state, see {@link org.apache.hadoop.ipc.AlignmentContext}, before it
+   * fails the call with a StandbyException
+   */
+  public static final String  IPC_SERVER_COORDINATED_CALL_MAX_WAIT_MS_KEY =
+    "ipc.server.coordinated-call.max-wait.ms";
+  /** Default value for IPC_SERVER_COORDINATED_CALL_MAX_WAIT_MS_KEY */
+  public static final long    IPC_SERVER_COORDINATED_CALL_MAX_WAIT_MS_DEFAULT =
+    1000;
   
   /** Number of pending connections that may be queued per socket reader */
   public static final String IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_KEY =
@@ -106,6 +106,16 @@ public class CommonConfigurationKeysPublic {
   public static final String  FS_TRASH_INTERVAL_KEY = "fs.trash.interval";
   /** Default value for FS_TRASH_INTERVAL_KEY */
   public static final long    FS_TRASH_INTERVAL_DEFAULT = 0;
+  /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
+  public static final String  FS_GLOB_LIST_STATUS_NUM_THREADS_KEY =
+    "fs.glob.list-status.num-threads";
+  /** Default value for FS_GLOB_LIST_STATUS_NUM_THREADS_KEY */
+  public static final int     FS_GLOB_LIST_STATUS_NUM_THREADS_DEFAULT = 1;
+  /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
+  public static final String  FS_GLOB_BATCHED_LISTING_KEY =
+    "fs.glob.batched-listing";
+  /** Default value for FS_GLOB_BATCHED_LISTING_KEY */
+  public static final boolean FS_GLOB_BATCHED_LISTING_DEFAULT = false;
 
   /** See <a href="{@docRoot}/../core-default.html">core-default.xml</a> */
   public static final String  IO_MAPFILE_BLOOM_SIZE_KEY =
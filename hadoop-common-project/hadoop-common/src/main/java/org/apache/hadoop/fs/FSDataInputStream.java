@@ -21,6 +21,7 @@
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -35,7 +36,7 @@
 public class FSDataInputStream extends DataInputStream
     implements Seekable, PositionedReadable, 
       ByteBufferReadable, HasFileDescriptor, CanSetDropBehind, CanSetReadahead,
-      HasEnhancedByteBufferAccess, CanUnbuffer {
+      HasEnhancedByteBufferAccess, CanUnbuffer, VectoredReadable {
   /**
    * Map ByteBuffers that we have handed out to readers to ByteBufferPool 
    * objects
@@ -230,4 +231,14 @@ public void unbuffer() {
           "support unbuffering.");
     }
   }
+
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) throws IOException {
+    if (in instanceof VectoredReadable) {
+      ((VectoredReadable) in).readVectored(ranges, bufferPool);
+    } else {
+      VectoredReadUtils.readVectored(this, ranges, bufferPool);
+    }
+  }
 }
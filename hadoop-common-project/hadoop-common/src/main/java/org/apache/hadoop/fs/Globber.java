@@ -17,15 +17,32 @@
  */
 package org.apache.hadoop.fs;
 
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.FS_GLOB_BATCHED_LISTING_DEFAULT;
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.FS_GLOB_BATCHED_LISTING_KEY;
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.FS_GLOB_LIST_STATUS_NUM_THREADS_DEFAULT;
+import static org.apache.hadoop.fs.CommonConfigurationKeysPublic.FS_GLOB_LIST_STATUS_NUM_THREADS_KEY;
+
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.LogFactory;
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @InterfaceAudience.Private
 @InterfaceStability.Unstable
@@ -36,12 +53,29 @@ class Globber {
   private final FileContext fc;
   private final Path pathPattern;
   private final PathFilter filter;
+  /** The number of threads to list the candidates of a component with. */
+  private final int numThreads;
+  /** Whether to list the candidates of a component with batched calls. */
+  private final boolean batchedListing;
+  /** Created when the candidates are first listed concurrently. */
+  private ExecutorService executor;
   
   public Globber(FileSystem fs, Path pathPattern, PathFilter filter) {
     this.fs = fs;
     this.fc = null;
     this.pathPattern = pathPattern;
     this.filter = filter;
+    Configuration conf = fs.getConf();
+    if (conf != null) {
+      this.numThreads = conf.getInt(FS_GLOB_LIST_STATUS_NUM_THREADS_KEY,
+          FS_GLOB_LIST_STATUS_NUM_THREADS_DEFAULT);
+      this.batchedListing = fs instanceof BatchListingOperations &&
+          conf.getBoolean(FS_GLOB_BATCHED_LISTING_KEY,
+              FS_GLOB_BATCHED_LISTING_DEFAULT);
+    } else {
+      this.numThreads = 1;
+      this.batchedListing = false;
+    }
   }
 
   public Globber(FileContext fc, Path pathPattern, PathFilter filter) {
@@ -49,6 +83,8 @@ public Globber(FileContext fc, Path pathPattern, PathFilter filter) {
     this.fc = fc;
     this.pathPattern = pathPattern;
     this.filter = filter;
+    this.numThreads = 1;
+    this.batchedListing = false;
   }
 
   private FileStatus getFileStatus(Path path) throws IOException {
@@ -75,6 +111,155 @@ private FileStatus[] listStatus(Path path) throws IOException {
     }
   }
 
+  /**
+   * List the children of a directory.  A path which turns out to be a file
+   * has no children.
+   */
+  private FileStatus[] listChildren(Path path) throws IOException {
+    FileStatus[] children = listStatus(path);
+    if (children.length == 1) {
+      // If we get back only one result, this could be either a listing
+      // of a directory with one entry, or it could reflect the fact
+      // that what we listed resolved to a file.
+      //
+      // Unfortunately, we can't just compare the returned paths to
+      // figure this out.  Consider the case where you have /a/b, where
+      // b is a symlink to "..".  In that case, listing /a/b will give
+      // back "/a/b" again.  If we just went by returned pathname, we'd
+      // incorrectly conclude that /a/b was a file and should not match
+      // /a/*/*.  So we use getFileStatus of the path we just listed to
+      // disambiguate.
+      FileStatus status = getFileStatus(path);
+      if (status == null || !status.isDirectory()) {
+        return new FileStatus[0];
+      }
+    }
+    return children;
+  }
+
+  /**
+   * List the children of each candidate, in the order of the candidates.
+   *
+   * @param candidates the candidates to list
+   * @param component the glob pattern which the children will be matched
+   *                  against
+   */
+  private List<FileStatus[]> listCandidates(List<FileStatus> candidates,
+      String component) throws IOException {
+    if (batchedListing && candidates.size() > 1) {
+      return listCandidatesBatched(candidates, component);
+    }
+    List<Callable<FileStatus[]>> calls =
+        new ArrayList<Callable<FileStatus[]>>(candidates.size());
+    for (final FileStatus candidate : candidates) {
+      calls.add(new Callable<FileStatus[]>() {
+        @Override
+        public FileStatus[] call() throws IOException {
+          return listChildren(candidate.getPath());
+        }
+      });
+    }
+    return callAll(calls);
+  }
+
+  /**
+   * List the candidates with batched calls, in which the file system
+   * matches the children against the component.  The candidates which
+   * cannot be listed that way, such as the ones behind a symlink, are
+   * listed again one by one.
+   */
+  private List<FileStatus[]> listCandidatesBatched(List<FileStatus> candidates,
+      String component) throws IOException {
+    final List<Path> paths = new ArrayList<Path>(candidates.size());
+    final Map<Path, Integer> indices = new HashMap<Path, Integer>();
+    final List<List<FileStatus>> children =
+        new ArrayList<List<FileStatus>>(candidates.size());
+    for (FileStatus candidate : candidates) {
+      Path path = fs.makeQualified(candidate.getPath());
+      indices.put(path, paths.size());
+      paths.add(path);
+      children.add(new ArrayList<FileStatus>());
+    }
+    RemoteIterator<PartialListing<FileStatus>> it =
+        ((BatchListingOperations) fs).batchedListStatusIterator(paths,
+            component);
+    while (it.hasNext()) {
+      PartialListing<FileStatus> listing = it.next();
+      Integer idx = indices.get(listing.getListedPath());
+      if (idx == null) {
+        throw new IOException("Unexpected listing of " +
+            listing.getListedPath());
+      }
+      if (children.get(idx) == null) {
+        continue;
+      }
+      try {
+        children.get(idx).addAll(listing.get());
+      } catch (IOException e) {
+        children.set(idx, null);
+      }
+    }
+    List<FileStatus[]> listings = new ArrayList<FileStatus[]>(paths.size());
+    for (int i = 0; i < paths.size(); i++) {
+      List<FileStatus> c = children.get(i);
+      if (c == null) {
+        listings.add(listChildren(candidates.get(i).getPath()));
+      } else if (c.size() == 1 && !c.get(0).isDirectory() &&
+          c.get(0).getPath().equals(paths.get(i))) {
+        // a file lists as itself
+        listings.add(new FileStatus[0]);
+      } else {
+        listings.add(c.toArray(new FileStatus[c.size()]));
+      }
+    }
+    return listings;
+  }
+
+  /**
+   * Run the calls, concurrently if the globber has several threads, and
+   * return their results in order.
+   */
+  private <T> List<T> callAll(List<Callable<T>> calls) throws IOException {
+    List<T> results = new ArrayList<T>(calls.size());
+    if (numThreads <= 1 || calls.size() <= 1) {
+      for (Callable<T> call : calls) {
+        try {
+          results.add(call.call());
+        } catch (Exception e) {
+          Throwables.propagateIfPossible(e, IOException.class);
+          throw new IOException(e);
+        }
+      }
+      return results;
+    }
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(numThreads,
+          new ThreadFactoryBuilder().setDaemon(true)
+              .setNameFormat("Globber-%d").build());
+    }
+    List<Future<T>> futures = new ArrayList<Future<T>>(calls.size());
+    for (Callable<T> call : calls) {
+      futures.add(executor.submit(call));
+    }
+    try {
+      for (Future<T> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while globbing " +
+          pathPattern);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IOException(e.getCause());
+    } finally {
+      for (Future<T> future : futures) {
+        future.cancel(true);
+      }
+    }
+    return results;
+  }
+
   private Path fixRelativePart(Path path) {
     if (fs != null) {
       return fs.fixRelativePart(path);
@@ -135,6 +320,17 @@ private String authorityFromPath(Path path) throws IOException {
   }
 
   public FileStatus[] glob() throws IOException {
+    try {
+      return doGlob();
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+        executor = null;
+      }
+    }
+  }
+
+  private FileStatus[] doGlob() throws IOException {
     // First we get the scheme and authority of the pattern that was passed
     // in.
     String scheme = schemeFromPath(pathPattern);
@@ -212,26 +408,14 @@ public FileStatus[] glob() throws IOException {
           }
           continue;
         }
-        for (FileStatus candidate : candidates) {
-          if (globFilter.hasPattern()) {
-            FileStatus[] children = listStatus(candidate.getPath());
-            if (children.length == 1) {
-              // If we get back only one result, this could be either a listing
-              // of a directory with one entry, or it could reflect the fact
-              // that what we listed resolved to a file.
-              //
-              // Unfortunately, we can't just compare the returned paths to
-              // figure this out.  Consider the case where you have /a/b, where
-              // b is a symlink to "..".  In that case, listing /a/b will give
-              // back "/a/b" again.  If we just went by returned pathname, we'd
-              // incorrectly conclude that /a/b was a file and should not match
-              // /a/*/*.  So we use getFileStatus of the path we just listed to
-              // disambiguate.
-              if (!getFileStatus(candidate.getPath()).isDirectory()) {
-                continue;
-              }
-            }
-            for (FileStatus child : children) {
+        if (globFilter.hasPattern()) {
+          // The candidates are listed together, concurrently or in batches
+          // if the globber is configured to.
+          List<FileStatus[]> listings =
+              listCandidates(candidates, components.get(componentIdx));
+          for (int i = 0; i < candidates.size(); i++) {
+            FileStatus candidate = candidates.get(i);
+            for (FileStatus child : listings.get(i)) {
               if (componentIdx < components.size() - 1) {
                 // Don't try to recurse into non-directories.  See HADOOP-10957.
                 if (!child.isDirectory()) continue; 
@@ -243,14 +427,25 @@ public FileStatus[] glob() throws IOException {
                 newCandidates.add(child);
               }
             }
-          } else {
-            // When dealing with non-glob components, use getFileStatus 
-            // instead of listStatus.  This is an optimization, but it also
-            // is necessary for correctness in HDFS, since there are some
-            // special HDFS directories like .reserved and .snapshot that are
-            // not visible to listStatus, but which do exist.  (See HADOOP-9877)
-            FileStatus childStatus = getFileStatus(
-                new Path(candidate.getPath(), component));
+          }
+        } else {
+          // When dealing with non-glob components, use getFileStatus 
+          // instead of listStatus.  This is an optimization, but it also
+          // is necessary for correctness in HDFS, since there are some
+          // special HDFS directories like .reserved and .snapshot that are
+          // not visible to listStatus, but which do exist.  (See HADOOP-9877)
+          List<Callable<FileStatus>> calls =
+              new ArrayList<Callable<FileStatus>>(candidates.size());
+          for (final FileStatus candidate : candidates) {
+            final Path child = new Path(candidate.getPath(), component);
+            calls.add(new Callable<FileStatus>() {
+              @Override
+              public FileStatus call() throws IOException {
+                return getFileStatus(child);
+              }
+            });
+          }
+          for (FileStatus childStatus : callAll(calls)) {
             if (childStatus != null) {
               newCandidates.add(childStatus);
             }
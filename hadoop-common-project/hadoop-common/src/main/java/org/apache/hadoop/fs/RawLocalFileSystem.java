@@ -33,14 +33,19 @@
 import java.io.FileDescriptor;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.io.nativeio.NativeIOException;
@@ -99,11 +104,15 @@ public void initialize(URI uri, Configuration conf) throws IOException {
    * For open()'s FSInputStream.
    *******************************************************/
   class LocalFSFileInputStream extends FSInputStream implements HasFileDescriptor {
+    private final File file;
     private FileInputStream fis;
     private long position;
+    /** for the reads of readVectored(), opened by the first of them */
+    private AsynchronousFileChannel asyncChannel;
 
     public LocalFSFileInputStream(Path f) throws IOException {
-      fis = new FileInputStream(pathToFile(f));
+      file = pathToFile(f);
+      fis = new FileInputStream(file);
     }
     
     @Override
@@ -132,7 +141,14 @@ public boolean seekToNewSource(long targetPos) throws IOException {
     @Override
     public int available() throws IOException { return fis.available(); }
     @Override
-    public void close() throws IOException { fis.close(); }
+    public void close() throws IOException {
+      fis.close();
+      synchronized (this) {
+        if (asyncChannel != null) {
+          asyncChannel.close();
+        }
+      }
+    }
     @Override
     public boolean markSupported() { return false; }
     
@@ -188,6 +204,74 @@ public long skip(long n) throws IOException {
       return value;
     }
 
+    /**
+     * Read each range with asynchronous reads of the file straight into its
+     * buffer. Merging the ranges would save nothing but system calls.
+     */
+    @Override
+    public void readVectored(List<? extends FileRange> ranges,
+        ByteBufferPool bufferPool) throws IOException {
+      final AsynchronousFileChannel channel;
+      synchronized (this) {
+        if (asyncChannel == null) {
+          asyncChannel = AsynchronousFileChannel.open(file.toPath(),
+              StandardOpenOption.READ);
+        }
+        channel = asyncChannel;
+      }
+      final List<FileRange> sorted = VectoredReadUtils.prepareRanges(ranges);
+      for (FileRange range : sorted) {
+        final ByteBuffer buffer =
+            VectoredReadUtils.allocate(bufferPool, range.getLength());
+        channel.read(buffer, range.getOffset(), range,
+            new RangeReadHandler(channel, buffer, bufferPool));
+      }
+    }
+
+    /** Read a range until its buffer is full */
+    private class RangeReadHandler
+        implements CompletionHandler<Integer, FileRange> {
+      private final AsynchronousFileChannel channel;
+      private final ByteBuffer buffer;
+      private final ByteBufferPool bufferPool;
+
+      RangeReadHandler(AsynchronousFileChannel channel, ByteBuffer buffer,
+          ByteBufferPool bufferPool) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.bufferPool = bufferPool;
+      }
+
+      @Override
+      public void completed(Integer nread, FileRange range) {
+        if (nread < 0) {
+          failed(new EOFException("End of file reached before reading "
+              + range + " of " + file), range);
+          return;
+        }
+        if (nread > 0) {
+          statistics.incrementBytesRead(nread);
+        }
+        if (buffer.hasRemaining()) {
+          try {
+            channel.read(buffer, range.getOffset() + buffer.position(), range,
+                this);
+          } catch (RuntimeException e) {
+            failed(e, range);
+          }
+          return;
+        }
+        buffer.flip();
+        VectoredReadUtils.complete(range, buffer);
+      }
+
+      @Override
+      public void failed(Throwable t, FileRange range) {
+        bufferPool.putBuffer(buffer);
+        VectoredReadUtils.fail(range, t);
+      }
+    }
+
     @Override
     public FileDescriptor getFileDescriptor() throws IOException {
       return fis.getFD();
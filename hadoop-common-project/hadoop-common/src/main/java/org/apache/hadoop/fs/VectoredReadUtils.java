@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Utility methods for the implementations of {@link VectoredReadable}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public final class VectoredReadUtils {
+  /** The largest gap the default implementation reads over to merge ranges */
+  public static final int DEFAULT_MAX_GAP = 4 * 1024;
+  /** The largest range the default implementation merges ranges into */
+  public static final int DEFAULT_MAX_MERGED_SIZE = 1024 * 1024;
+
+  private static final Comparator<FileRange> BY_OFFSET =
+      new Comparator<FileRange>() {
+        @Override
+        public int compare(FileRange a, FileRange b) {
+          return Long.compare(a.getOffset(), b.getOffset());
+        }
+      };
+
+  private VectoredReadUtils() {
+  }
+
+  /**
+   * Check the ranges of a vectored read, and give each range new data to
+   * complete.
+   * @return the ranges sorted by offset
+   * @throws IllegalArgumentException if a range is invalid or ranges overlap
+   */
+  public static List<FileRange> prepareRanges(
+      List<? extends FileRange> ranges) {
+    final List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+    Collections.sort(sorted, BY_OFFSET);
+    FileRange prev = null;
+    for (FileRange range : sorted) {
+      if (range.getOffset() < 0 || range.getLength() < 0) {
+        throw new IllegalArgumentException("Invalid " + range);
+      }
+      if (prev != null
+          && prev.getOffset() + prev.getLength() > range.getOffset()) {
+        throw new IllegalArgumentException(prev + " overlaps " + range);
+      }
+      prev = range;
+    }
+    for (FileRange range : sorted) {
+      range.setData(SettableFuture.<ByteBuffer>create());
+    }
+    return sorted;
+  }
+
+  /**
+   * Merge sorted ranges which are close to each other.
+   * @param sorted the ranges, sorted by offset
+   * @param chunkSize the merged ranges start and end at multiples of this,
+   *                  except at the end of the file
+   * @param maxGap the largest gap to read over to merge two ranges
+   * @param maxSize the largest size of a merged range, unless a range alone
+   *                is larger
+   * @return the merged ranges, sorted by offset
+   */
+  public static List<CombinedFileRange> mergeSortedRanges(
+      List<? extends FileRange> sorted, int chunkSize, int maxGap,
+      int maxSize) {
+    final List<CombinedFileRange> merged = new ArrayList<CombinedFileRange>();
+    CombinedFileRange current = null;
+    for (FileRange range : sorted) {
+      final long start = range.getOffset() / chunkSize * chunkSize;
+      final long end = (range.getOffset() + range.getLength() + chunkSize - 1)
+          / chunkSize * chunkSize;
+      if (current == null
+          || !current.merge(start, end, range, maxGap, maxSize)) {
+        current = new CombinedFileRange(start, end, range);
+        merged.add(current);
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Get a buffer for the data of a range.
+   * @return a heap buffer from the pool, or a new one if the pool has none
+   *         large enough, with the position at 0 and the limit at length
+   */
+  public static ByteBuffer allocate(ByteBufferPool bufferPool, int length) {
+    ByteBuffer buffer = bufferPool.getBuffer(false, length);
+    if (buffer.capacity() < length || !buffer.hasArray()) {
+      bufferPool.putBuffer(buffer);
+      buffer = ByteBuffer.allocate(length);
+    }
+    buffer.clear();
+    buffer.limit(length);
+    return buffer;
+  }
+
+  /** Complete the data of a range prepared by {@link #prepareRanges}. */
+  public static void complete(FileRange range, ByteBuffer data) {
+    ((SettableFuture<ByteBuffer>) range.getData()).set(data);
+  }
+
+  /** Fail the data of a range prepared by {@link #prepareRanges}. */
+  public static void fail(FileRange range, Throwable t) {
+    ((SettableFuture<ByteBuffer>) range.getData()).setException(t);
+  }
+
+  /** Fail the data of all the ranges a merged range covers. */
+  public static void fail(CombinedFileRange combined, Throwable t) {
+    for (FileRange range : combined.getUnderlying()) {
+      fail(range, t);
+    }
+  }
+
+  /**
+   * Complete the ranges a merged range covers from the data read for it,
+   * but for the ranges already failed.
+   * @param combined the merged range
+   * @param data the data of the merged range, from position 0 up to at least
+   *             the end of its last range
+   * @param bufferPool the pool of the buffers, which gets data back unless
+   *                   it is passed on as the data of a range
+   */
+  public static void complete(CombinedFileRange combined, ByteBuffer data,
+      ByteBufferPool bufferPool) {
+    final List<FileRange> ranges = new ArrayList<FileRange>();
+    for (FileRange range : combined.getUnderlying()) {
+      if (!range.getData().isDone()) {
+        ranges.add(range);
+      }
+    }
+    if (ranges.size() == 1 && ranges.get(0).getOffset() == combined.getOffset()
+        && data.hasArray()) {
+      // the data is all the range's, but for the chunk alignment
+      data.position(0);
+      data.limit(ranges.get(0).getLength());
+      complete(ranges.get(0), data);
+      return;
+    }
+    for (FileRange range : ranges) {
+      final ByteBuffer slice = data.duplicate();
+      slice.position((int) (range.getOffset() - combined.getOffset()));
+      slice.limit(slice.position() + range.getLength());
+      final ByteBuffer buffer = allocate(bufferPool, range.getLength());
+      buffer.put(slice);
+      buffer.flip();
+      complete(range, buffer);
+    }
+    bufferPool.putBuffer(data);
+  }
+
+  /**
+   * Read ranges with positioned reads, for streams which have no better way.
+   * @see VectoredReadable#readVectored
+   */
+  public static void readVectored(PositionedReadable stream,
+      List<? extends FileRange> ranges, ByteBufferPool bufferPool) {
+    final List<FileRange> sorted = prepareRanges(ranges);
+    for (CombinedFileRange combined : mergeSortedRanges(sorted, 1,
+        DEFAULT_MAX_GAP, DEFAULT_MAX_MERGED_SIZE)) {
+      try {
+        readFully(stream, combined, bufferPool);
+      } catch (EOFException e) {
+        // the last ranges are past the end of the file, read the others
+        for (FileRange range : combined.getUnderlying()) {
+          try {
+            readFully(stream, new CombinedFileRange(range.getOffset(),
+                range.getOffset() + range.getLength(), range), bufferPool);
+          } catch (IOException ioe) {
+            fail(range, ioe);
+          }
+        }
+      } catch (IOException e) {
+        fail(combined, e);
+      }
+    }
+  }
+
+  private static void readFully(PositionedReadable stream,
+      CombinedFileRange combined, ByteBufferPool bufferPool)
+      throws IOException {
+    final ByteBuffer data = allocate(bufferPool, combined.getLength());
+    try {
+      stream.readFully(combined.getOffset(), data.array(),
+          data.arrayOffset(), combined.getLength());
+    } catch (IOException e) {
+      bufferPool.putBuffer(data);
+      throw e;
+    }
+    complete(combined, data, bufferPool);
+  }
+}
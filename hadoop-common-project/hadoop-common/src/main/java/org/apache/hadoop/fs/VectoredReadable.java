@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.io.ByteBufferPool;
+
+/**
+ * FSDataInputStreams implement this interface to indicate that they can read
+ * a batch of byte ranges at once, merging the nearby ranges and reading the
+ * others concurrently where they can.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface VectoredReadable {
+  /**
+   * Read the given ranges of the file. This does not change the current
+   * offset of the stream, and is thread-safe.
+   * <p>
+   * The data of each range is set as its {@link FileRange#getData()}: a
+   * buffer from bufferPool, with the data between position 0 and the limit.
+   * It fails with an EOFException if the range goes past the end of the
+   * file. The reads may still be running when this method returns. The caller
+   * puts the buffers back into the pool once it is done with them.
+   *
+   * @param ranges the ranges to read, which must not overlap
+   * @param bufferPool the pool of the buffers for the data
+   * @throws IllegalArgumentException if a range is invalid or ranges overlap
+   * @throws IOException if the reads could not be started
+   */
+  public void readVectored(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) throws IOException;
+}
@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * Aligns the state seen by a client with the state of the servers it talks
+ * to, e.g. the transaction id of a namespace served by several NameNodes.
+ * <p>
+ * A server stamps its last seen state id into every response, and a client
+ * sends the highest state id it has seen with every request. A server holds
+ * a coordinated call, whose state id it has not reached yet, in the call
+ * queue until it catches up, so the call observes every change the client
+ * has seen before.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+
+  /**
+   * Server side: set the state of the server in the response header.
+   */
+  void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /**
+   * Client side: learn the state of the server from a response header.
+   */
+  void receiveResponseState(RpcResponseHeaderProto header);
+
+  /**
+   * Client side: set the state seen by the client in the request header.
+   */
+  void updateRequestState(RpcRequestHeaderProto.Builder header);
+
+  /**
+   * Server side: the state id the server has reached.
+   */
+  long getLastSeenStateId();
+
+  /**
+   * Server side: whether calls of the given method must wait for the server
+   * to reach the state id of the client before they are processed.
+   */
+  boolean isCoordinatedCall(String protocolName, String methodName);
+}
@@ -36,6 +36,7 @@
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.security.PrivilegedExceptionAction;
 import java.util.Arrays;
 import java.util.Hashtable;
@@ -43,11 +44,14 @@
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -93,6 +97,8 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
@@ -136,6 +142,11 @@ public static void setCallIdAndRetryCount(int cid, int rc) {
 
   private final boolean fallbackAllowed;
   private final byte[] clientId;
+
+  // Slots for asynchronous calls, per connection
+  private final int maxAsyncCalls;
+  private final ConcurrentMap<ConnectionId, Semaphore> asyncCallSlots =
+      new ConcurrentHashMap<ConnectionId, Semaphore>();
   
   final static int CONNECTION_CONTEXT_CALL_ID = -3;
   
@@ -317,6 +328,7 @@ static class Call {
     IOException error;          // exception, null if success
     final RPC.RpcKind rpcKind;      // Rpc EngineKind
     boolean done;               // true when call is done
+    AlignmentContext alignmentContext; // tracks the server state, or null
 
     private Call(RPC.RpcKind rpcKind, Writable param) {
       this.rpcKind = rpcKind;
@@ -370,6 +382,46 @@ public synchronized Writable getRpcResponse() {
     }
   }
 
+  /**
+   * A call whose caller does not wait for it. The response, or the exception
+   * a synchronous call would have thrown, completes a future instead, and
+   * the slot the call took on its connection is given back.
+   */
+  private static class AsyncCall extends Call {
+    private final SettableFuture<Writable> future = SettableFuture.create();
+    private final InetSocketAddress address;
+    private final Semaphore slots;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    private AsyncCall(RPC.RpcKind rpcKind, Writable param,
+        InetSocketAddress address, Semaphore slots) {
+      super(rpcKind, param);
+      this.address = address;
+      this.slots = slots;
+    }
+
+    @Override
+    protected synchronized void callComplete() {
+      super.callComplete();
+      release();
+      if (error == null) {
+        future.set(rpcResponse);
+      } else if (error instanceof RemoteException) {
+        future.setException(error);
+      } else { // local exception
+        future.setException(NetUtils.wrapException(address.getHostName(),
+            address.getPort(), NetUtils.getHostname(), 0, error));
+      }
+    }
+
+    /** Give back the slot, at most once. */
+    void release() {
+      if (released.compareAndSet(false, true)) {
+        slots.release();
+      }
+    }
+  }
+
   /** Thread that reads responses and notifies callers.  Each connection owns a
    * socket connected to a remote address.  Calls are multiplexed through this
    * socket: responses may be delivered out of order. */
@@ -1016,13 +1068,11 @@ public void sendRpcRequest(final Call call)
       // 1) RpcRequestHeader  - is serialized Delimited hence contains length
       // 2) RpcRequest
       //
-      // Items '1' and '2' are prepared here. 
-      final DataOutputBuffer d = new DataOutputBuffer();
+      // The whole frame is prepared here. 
       RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
           call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id, call.retry,
-          clientId);
-      header.writeDelimitedTo(d);
-      call.rpcRequest.write(d);
+          clientId, call.alignmentContext);
+      final byte[] frame = serializeRpcRequest(header, call.rpcRequest);
 
       synchronized (sendRpcRequestLock) {
         Future<?> senderFuture = sendParamsExecutor.submit(new Runnable() {
@@ -1037,10 +1087,7 @@ public void run() {
                 if (LOG.isDebugEnabled())
                   LOG.debug(getName() + " sending #" + call.id);
          
-                byte[] data = d.getData();
-                int totalLength = d.getLength();
-                out.writeInt(totalLength); // Total Length
-                out.write(data, 0, totalLength);// RpcRequestHeader + RpcRequest
+                out.write(frame); // Total Length + RpcRequestHeader + RpcRequest
                 out.flush();
               }
             } catch (IOException e) {
@@ -1048,10 +1095,6 @@ public void run() {
               // unrecoverable state (eg half a call left on the wire).
               // So, close the connection, killing any outstanding calls
               markClosed(e);
-            } finally {
-              //the buffer is just an in-memory buffer, but it is still polite to
-              // close early
-              IOUtils.closeStream(d);
             }
           }
         });
@@ -1072,9 +1115,55 @@ public void run() {
       }
     }
 
+    /**
+     * Serialize a call into a frame, including its length prefix. The size of
+     * a protobuf request is known up front, so it is written straight into an
+     * array of the size of the frame; other requests go through a growing
+     * buffer and are copied once.
+     */
+    private byte[] serializeRpcRequest(RpcRequestHeaderProto header,
+        Writable rpcRequest) throws IOException {
+      int headerLength = header.getSerializedSize();
+      int length = CodedOutputStream.computeRawVarint32Size(headerLength)
+          + headerLength;
+      if (rpcRequest instanceof ProtobufRpcEngine.RpcWrapper) {
+        ProtobufRpcEngine.RpcWrapper wrapper =
+            (ProtobufRpcEngine.RpcWrapper) rpcRequest;
+        length += wrapper.getLength();
+        byte[] frame = new byte[4 + length];
+        ByteBuffer.wrap(frame).putInt(length);
+        CodedOutputStream cos =
+            CodedOutputStream.newInstance(frame, 4, length);
+        cos.writeRawVarint32(headerLength);
+        header.writeTo(cos);
+        wrapper.writeTo(cos);
+        cos.checkNoSpaceLeft();
+        return frame;
+      }
+      DataOutputBuffer d = new DataOutputBuffer();
+      d.writeInt(0); // length, filled in below
+      header.writeDelimitedTo(d);
+      rpcRequest.write(d);
+      byte[] frame = Arrays.copyOf(d.getData(), d.getLength());
+      ByteBuffer.wrap(frame).putInt(frame.length - 4);
+      return frame;
+    }
+
     /* Receive a response.
      * Because only one receiver, so no synchronization on in.
      */
+    /**
+     * Pass the state id of a response to the alignment context of its call,
+     * before the caller sees the response, so that its next call carries
+     * the state id. FATAL responses have no call.
+     */
+    private void receiveResponseState(Call call,
+        RpcResponseHeaderProto header) {
+      if (call != null && call.alignmentContext != null) {
+        call.alignmentContext.receiveResponseState(header);
+      }
+    }
+
     private void receiveRpcResponse() {
       if (shouldCloseConnection.get()) {
         return;
@@ -1100,6 +1189,7 @@ private void receiveRpcResponse() {
           Writable value = ReflectionUtils.newInstance(valueClass, conf);
           value.readFields(in);                 // read value
           calls.remove(callId);
+          receiveResponseState(call, header);
           call.setRpcResponse(value);
           
           // verify that length was correct
@@ -1135,6 +1225,7 @@ private void receiveRpcResponse() {
               new RemoteException(exceptionClassName, errorMsg, erCode));
           if (status == RpcStatusProto.ERROR) {
             calls.remove(callId);
+            receiveResponseState(call, header);
             call.setException(re);
           } else if (status == RpcStatusProto.FATAL) {
             // Close the connection
@@ -1165,6 +1256,9 @@ private synchronized void close() {
       synchronized (connections) {
         if (connections.get(remoteId) == this) {
           connections.remove(remoteId);
+          // the calls still holding slots are failed below, the next
+          // connection starts with all of them
+          asyncCallSlots.remove(remoteId);
         }
       }
 
@@ -1222,6 +1316,9 @@ public Client(Class<? extends Writable> valueClass, Configuration conf,
         CommonConfigurationKeys.IPC_CLIENT_FALLBACK_TO_SIMPLE_AUTH_ALLOWED_DEFAULT);
     this.clientId = ClientId.getClientId();
     this.sendParamsExecutor = clientExcecutorFactory.refAndGetInstance();
+    this.maxAsyncCalls = conf.getInt(
+        CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY,
+        CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_DEFAULT);
   }
 
   /**
@@ -1448,7 +1545,31 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
   public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
       ConnectionId remoteId, int serviceClass,
       AtomicBoolean fallbackToSimpleAuth) throws IOException {
+    return call(rpcKind, rpcRequest, remoteId, serviceClass,
+        fallbackToSimpleAuth, null);
+  }
+
+  /**
+   * Make a call, passing <code>rpcRequest</code>, to the IPC server defined by
+   * <code>remoteId</code>, returning the rpc response.
+   *
+   * @param rpcKind
+   * @param rpcRequest -  contains serialized method and method parameters
+   * @param remoteId - the target rpc server
+   * @param serviceClass - service class for RPC
+   * @param fallbackToSimpleAuth - set to true or false during this method to
+   *   indicate if a secure client falls back to simple auth
+   * @param alignmentContext - state alignment context, or null
+   * @returns the rpc response
+   * Throws exceptions if there are network problems or if the remote code
+   * threw an exception.
+   */
+  public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
+      ConnectionId remoteId, int serviceClass,
+      AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+      throws IOException {
     final Call call = createCall(rpcKind, rpcRequest);
+    call.alignmentContext = alignmentContext;
     Connection connection = getConnection(remoteId, call, serviceClass,
       fallbackToSimpleAuth);
     try {
@@ -1489,6 +1610,81 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
     }
   }
 
+  /**
+   * Make a call, passing <code>rpcRequest</code>, to the IPC server defined by
+   * <code>remoteId</code>, without waiting for the response. The call is
+   * sent over the same connection as synchronous calls, and fails the
+   * returned future with the exception {@link #call} would have thrown.
+   * <p>
+   * At most <code>ipc.client.async.calls.max</code> asynchronous calls may
+   * be outstanding on a connection; beyond that this method waits until one
+   * of them completes.
+   *
+   * @param rpcKind
+   * @param rpcRequest -  contains serialized method and method parameters
+   * @param remoteId - the target rpc server
+   * @param serviceClass - service class for RPC
+   * @param fallbackToSimpleAuth - set to true or false during this method to
+   *   indicate if a secure client falls back to simple auth
+   * @return a future for the rpc response
+   * @throws IOException if the connection could not be set up, or the
+   *   caller was interrupted while waiting for a slot
+   */
+  public ListenableFuture<Writable> asyncCall(RPC.RpcKind rpcKind,
+      Writable rpcRequest, ConnectionId remoteId, int serviceClass,
+      AtomicBoolean fallbackToSimpleAuth) throws IOException {
+    return asyncCall(rpcKind, rpcRequest, remoteId, serviceClass,
+        fallbackToSimpleAuth, null);
+  }
+
+  /**
+   * Like {@link #asyncCall(RPC.RpcKind, Writable, ConnectionId, int,
+   * AtomicBoolean)}, tracking the state of the server in the given
+   * alignment context.
+   */
+  public ListenableFuture<Writable> asyncCall(RPC.RpcKind rpcKind,
+      Writable rpcRequest, ConnectionId remoteId, int serviceClass,
+      AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+      throws IOException {
+    Semaphore slots = asyncCallSlots.get(remoteId);
+    if (slots == null) {
+      Semaphore newSlots = new Semaphore(maxAsyncCalls);
+      slots = asyncCallSlots.putIfAbsent(remoteId, newSlots);
+      if (slots == null) {
+        slots = newSlots;
+      }
+    }
+    try {
+      slots.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a slot for "
+          + "an asynchronous call to " + remoteId);
+    }
+
+    final AsyncCall call = new AsyncCall(rpcKind, rpcRequest,
+        remoteId.getAddress(), slots);
+    call.alignmentContext = alignmentContext;
+    Connection connection;
+    try {
+      connection = getConnection(remoteId, call, serviceClass,
+          fallbackToSimpleAuth);
+    } catch (IOException e) {
+      call.release();
+      throw e;
+    }
+    try {
+      connection.sendRpcRequest(call);
+    } catch (RejectedExecutionException e) {
+      call.setException(new IOException("connection has been closed", e));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("interrupted waiting to send rpc request to server", e);
+      call.setException(new IOException(e));
+    }
+    return call.future;
+  }
+
   // for unit testing only
   @InterfaceAudience.Private
   @InterfaceStability.Unstable
@@ -1497,6 +1693,13 @@ Set<ConnectionId> getConnectionIds() {
       return connections.keySet();
     }
   }
+
+  // for unit testing only
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  Set<ConnectionId> getAsyncCallSlotIds() {
+    return asyncCallSlots.keySet();
+  }
   
   /** Get a connection from the pool, or create a new one and add it to the
    * pool.  Connections to a given ConnectionId are reused. */
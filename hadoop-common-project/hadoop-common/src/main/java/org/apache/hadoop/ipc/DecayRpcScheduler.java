@@ -27,7 +27,6 @@
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.logging.Log;
@@ -43,7 +42,8 @@
  * The decay RPC scheduler counts incoming requests in a map, then
  * decays the counts at a fixed time interval. The scheduler is optimized
  * for large periods (on the order of seconds), as it offloads work to the
- * decay sweep.
+ * decay sweep. The counts are kept in {@link StripedCounter}s, so that many
+ * handlers counting calls of the same identity do not contend on one word.
  */
 public class DecayRpcScheduler implements RpcScheduler, DecayRpcSchedulerMXBean {
   /**
@@ -84,12 +84,17 @@ public class DecayRpcScheduler implements RpcScheduler, DecayRpcSchedulerMXBean
 
   public static final Log LOG = LogFactory.getLog(DecayRpcScheduler.class);
 
+  // Stripes of the count of a single identity. Kept small since there is a
+  // count for each identity seen during the last few decay periods.
+  private static final int IDENTITY_COUNT_STRIPES = 4;
+
   // Track the number of calls for each schedulable identity
-  private final ConcurrentHashMap<Object, AtomicLong> callCounts =
-    new ConcurrentHashMap<Object, AtomicLong>();
+  private final ConcurrentHashMap<Object, StripedCounter> callCounts =
+    new ConcurrentHashMap<Object, StripedCounter>();
 
-  // Should be the sum of all AtomicLongs in callCounts
-  private final AtomicLong totalCalls = new AtomicLong();
+  // Should be the sum of all counters in callCounts
+  private final StripedCounter totalCalls =
+    new StripedCounter(Runtime.getRuntime().availableProcessors());
 
   // Pre-computed scheduling decisions during the decay sweep are
   // atomically swapped in as a read-only map
@@ -245,18 +250,17 @@ private static double[] getDefaultThresholds(int numQueues) {
    */
   private void decayCurrentCounts() {
     long total = 0;
-    Iterator<Map.Entry<Object, AtomicLong>> it =
+    Iterator<Map.Entry<Object, StripedCounter>> it =
       callCounts.entrySet().iterator();
 
     while (it.hasNext()) {
-      Map.Entry<Object, AtomicLong> entry = it.next();
-      AtomicLong count = entry.getValue();
+      Map.Entry<Object, StripedCounter> entry = it.next();
+      StripedCounter count = entry.getValue();
 
-      // Compute the next value by reducing it by the decayFactor
-      long currentValue = count.get();
-      long nextValue = (long)(currentValue * decayFactor);
+      // Reduce the count by the decayFactor
+      count.decay(decayFactor);
+      long nextValue = count.sum();
       total += nextValue;
-      count.set(nextValue);
 
       if (nextValue == 0) {
         // We will clean up unused keys here. An interesting optimization might
@@ -279,11 +283,11 @@ private void decayCurrentCounts() {
   private void recomputeScheduleCache() {
     Map<Object, Integer> nextCache = new HashMap<Object, Integer>();
 
-    for (Map.Entry<Object, AtomicLong> entry : callCounts.entrySet()) {
+    for (Map.Entry<Object, StripedCounter> entry : callCounts.entrySet()) {
       Object id = entry.getKey();
-      AtomicLong value = entry.getValue();
+      StripedCounter value = entry.getValue();
 
-      long snapshot = value.get();
+      long snapshot = value.sum();
       int computedLevel = computePriorityLevel(snapshot);
 
       nextCache.put(id, computedLevel);
@@ -294,31 +298,33 @@ private void recomputeScheduleCache() {
   }
 
   /**
-   * Get the number of occurrences and increment atomically.
+   * Get the number of occurrences and increment. The returned value may
+   * include increments made concurrently by other threads.
    * @param identity the identity of the user to increment
    * @return the value before incrementation
    */
   private long getAndIncrement(Object identity) throws InterruptedException {
     // We will increment the count, or create it if no such count exists
-    AtomicLong count = this.callCounts.get(identity);
+    StripedCounter count = this.callCounts.get(identity);
     if (count == null) {
       // Create the count since no such count exists.
-      count = new AtomicLong(0);
+      count = new StripedCounter(IDENTITY_COUNT_STRIPES);
 
-      // Put it in, or get the AtomicInteger that was put in by another thread
-      AtomicLong otherCount = callCounts.putIfAbsent(identity, count);
+      // Put it in, or get the counter that was put in by another thread
+      StripedCounter otherCount = callCounts.putIfAbsent(identity, count);
       if (otherCount != null) {
         count = otherCount;
       }
     }
 
     // Update the total
-    totalCalls.getAndIncrement();
+    totalCalls.increment();
 
     // At this point value is guaranteed to be not null. It may however have
     // been clobbered from callCounts. Nonetheless, we return what
     // we have.
-    return count.getAndIncrement();
+    count.increment();
+    return count.sum() - 1;
   }
 
   /**
@@ -327,7 +333,7 @@ private long getAndIncrement(Object identity) throws InterruptedException {
    * @return scheduling decision from 0 to numQueues - 1
    */
   private int computePriorityLevel(long occurrences) {
-    long totalCallSnapshot = totalCalls.get();
+    long totalCallSnapshot = totalCalls.sum();
 
     double proportion = 0;
     if (totalCallSnapshot > 0) {
@@ -406,8 +412,8 @@ public int getPriorityLevel(Schedulable obj) {
   public Map<Object, Long> getCallCountSnapshot() {
     HashMap<Object, Long> snapshot = new HashMap<Object, Long>();
 
-    for (Map.Entry<Object, AtomicLong> entry : callCounts.entrySet()) {
-      snapshot.put(entry.getKey(), entry.getValue().get());
+    for (Map.Entry<Object, StripedCounter> entry : callCounts.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue().sum());
     }
 
     return Collections.unmodifiableMap(snapshot);
@@ -415,7 +421,7 @@ public Map<Object, Long> getCallCountSnapshot() {
 
   @VisibleForTesting
   public long getTotalCallSnapshot() {
-    return totalCalls.get();
+    return totalCalls.sum();
   }
 
   /**
@@ -494,7 +500,7 @@ public int getUniqueIdentityCount() {
   }
 
   public long getTotalCallVolume() {
-    return totalCalls.get();
+    return totalCalls.sum();
   }
 
   public String getSchedulingDecisionSummary() {
@@ -514,7 +520,7 @@ public String getSchedulingDecisionSummary() {
   public String getCallVolumeSummary() {
     try {
       ObjectMapper om = new ObjectMapper();
-      return om.writeValueAsString(callCounts);
+      return om.writeValueAsString(getCallCountSnapshot());
     } catch (Exception e) {
       return "Error: " + e.getMessage();
     }
@@ -43,7 +43,7 @@
  * A queue with multiple levels for each priority.
  */
 public class FairCallQueue<E extends Schedulable> extends AbstractQueue<E>
-  implements BlockingQueue<E> {
+  implements BlockingQueue<E>, FairCallQueueStats {
   // Configuration Keys
   public static final int    IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT = 4;
   public static final String IPC_CALLQUEUE_PRIORITY_LEVELS_KEY =
@@ -115,7 +115,7 @@ public FairCallQueue(int capacity, String ns, Configuration conf) {
    * This will affect the FairCallQueue's overall capacity.
    * @throws IllegalArgumentException on invalid queue count
    */
-  private static int parseNumQueues(String ns, Configuration conf) {
+  static int parseNumQueues(String ns, Configuration conf) {
     int retval = conf.getInt(ns + "." + IPC_CALLQUEUE_PRIORITY_LEVELS_KEY,
       IPC_CALLQUEUE_PRIORITY_LEVELS_DEFAULT);
     if(retval < 1) {
@@ -147,6 +147,27 @@ private BlockingQueue<E> getFirstNonEmptyQueue(int startIdx) {
     return null;
   }
 
+  /**
+   * Get the priority level of a call from the scheduler. A call which comes
+   * back to the queue, e.g. after waiting for the server to reach the state
+   * of its client, keeps its first level so that the scheduler does not
+   * count it twice.
+   */
+  static int getPriorityLevel(RpcScheduler scheduler, Schedulable e,
+      int numLevels) {
+    if (!(e instanceof Server.Call)) {
+      return scheduler.getPriorityLevel(e);
+    }
+    Server.Call call = (Server.Call) e;
+    int priorityLevel = call.getPriorityLevel();
+    if (priorityLevel < 0) {
+      priorityLevel = scheduler.getPriorityLevel(e);
+      call.setPriorityLevel(priorityLevel);
+    }
+    // the queue may have fewer levels since it was refreshed
+    return Math.min(priorityLevel, numLevels - 1);
+  }
+
   /* AbstractQueue and BlockingQueue methods */
 
   /**
@@ -161,9 +182,9 @@ private BlockingQueue<E> getFirstNonEmptyQueue(int startIdx) {
    */
   @Override
   public void put(E e) throws InterruptedException {
-    int priorityLevel = scheduler.getPriorityLevel(e);
-
     final int numLevels = this.queues.size();
+    int priorityLevel = getPriorityLevel(scheduler, e, numLevels);
+
     while (true) {
       BlockingQueue<E> q = this.queues.get(priorityLevel);
       boolean res = q.offer(e);
@@ -192,7 +213,7 @@ public void put(E e) throws InterruptedException {
   @Override
   public boolean offer(E e, long timeout, TimeUnit unit)
       throws InterruptedException {
-    int priorityLevel = scheduler.getPriorityLevel(e);
+    int priorityLevel = getPriorityLevel(scheduler, e, this.queues.size());
     BlockingQueue<E> q = this.queues.get(priorityLevel);
     boolean ret = q.offer(e, timeout, unit);
 
@@ -203,7 +224,7 @@ public boolean offer(E e, long timeout, TimeUnit unit)
 
   @Override
   public boolean offer(E e) {
-    int priorityLevel = scheduler.getPriorityLevel(e);
+    int priorityLevel = getPriorityLevel(scheduler, e, this.queues.size());
     BlockingQueue<E> q = this.queues.get(priorityLevel);
     boolean ret = q.offer(e);
 
@@ -368,14 +389,16 @@ public int remainingCapacity() {
   /**
    * MetricsProxy is a singleton because we may init multiple
    * FairCallQueues, but the metrics system cannot unregister beans cleanly.
+   * It is shared with {@link LockFreeFairCallQueue}, so that either queue
+   * publishes the same bean.
    */
-  private static final class MetricsProxy implements FairCallQueueMXBean {
+  static final class MetricsProxy implements FairCallQueueMXBean {
     // One singleton per namespace
     private static final HashMap<String, MetricsProxy> INSTANCES =
       new HashMap<String, MetricsProxy>();
 
     // Weakref for delegate, so we don't retain it forever if it can be GC'd
-    private WeakReference<FairCallQueue<? extends Schedulable>> delegate;
+    private WeakReference<FairCallQueueStats> delegate;
 
     // Keep track of how many objects we registered
     private int revisionNumber = 0;
@@ -394,15 +417,14 @@ public static synchronized MetricsProxy getInstance(String namespace) {
       return mp;
     }
 
-    public void setDelegate(FairCallQueue<? extends Schedulable> obj) {
-      this.delegate
-          = new WeakReference<FairCallQueue<? extends Schedulable>>(obj);
+    public void setDelegate(FairCallQueueStats obj) {
+      this.delegate = new WeakReference<FairCallQueueStats>(obj);
       this.revisionNumber++;
     }
 
     @Override
     public int[] getQueueSizes() {
-      FairCallQueue<? extends Schedulable> obj = this.delegate.get();
+      FairCallQueueStats obj = this.delegate.get();
       if (obj == null) {
         return new int[]{};
       }
@@ -412,7 +434,7 @@ public int[] getQueueSizes() {
 
     @Override
     public long[] getOverflowedCalls() {
-      FairCallQueue<? extends Schedulable> obj = this.delegate.get();
+      FairCallQueueStats obj = this.delegate.get();
       if (obj == null) {
         return new long[]{};
       }
@@ -426,6 +448,7 @@ public long[] getOverflowedCalls() {
   }
 
   // FairCallQueueMXBean
+  @Override
   public int[] getQueueSizes() {
     int numQueues = queues.size();
     int[] sizes = new int[numQueues];
@@ -435,6 +458,7 @@ public int[] getQueueSizes() {
     return sizes;
   }
 
+  @Override
   public long[] getOverflowedCalls() {
     int numQueues = queues.size();
     long[] calls = new long[numQueues];
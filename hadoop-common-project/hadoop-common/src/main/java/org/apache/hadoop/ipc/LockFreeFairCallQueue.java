@@ -0,0 +1,325 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.apache.commons.lang.NotImplementedException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * A queue with multiple levels for each priority, like {@link FairCallQueue},
+ * whose levels are {@link MpmcRingBuffer}s, entered with a CAS instead of a
+ * lock.
+ * <p>
+ * Calls are placed by a {@link DecayRpcScheduler} and drawn by a
+ * {@link WeightedRoundRobinMultiplexer}, configured with the same keys as
+ * for the FairCallQueue. Instead of the lock and condition shared by all
+ * consumers, a semaphore counts the calls which may be taken. While calls
+ * are queued a handler gets a permit with a CAS; it parks on the semaphore
+ * only when the whole queue is empty. Producers never take a lock; a put into
+ * a full queue retries periodically until there is room in the last level.
+ * <p>
+ * The queue is not lock-free in the strict sense. A handler holding a permit
+ * waits for the call it counts if the producer has claimed a position but
+ * not published the call yet, and take blocks while the queue is empty.
+ * <p>
+ * To use it set <code>ipc.&lt;port&gt;.callqueue.impl</code> to
+ * <code>org.apache.hadoop.ipc.LockFreeFairCallQueue</code>.
+ */
+public class LockFreeFairCallQueue<E extends Schedulable>
+    extends AbstractQueue<E> implements BlockingQueue<E>, FairCallQueueStats {
+  public static final Log LOG = LogFactory.getLog(LockFreeFairCallQueue.class);
+
+  // How long a put or a timed offer waits before retrying a full level
+  private static final long RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /* The queues */
+  private final ArrayList<MpmcRingBuffer<E>> queues;
+
+  /* Number of calls which can be taken, released after a call is queued */
+  private final Semaphore available = new Semaphore(0);
+
+  /* Scheduler picks which queue to place in */
+  private RpcScheduler scheduler;
+
+  /* Multiplexer picks which queue to draw from */
+  private RpcMultiplexer multiplexer;
+
+  /* Statistic tracking */
+  private final ArrayList<AtomicLong> overflowedCalls;
+
+  /**
+   * Create a LockFreeFairCallQueue.
+   * @param capacity the total size of all sub-queues
+   * @param ns the prefix to use for configuration
+   * @param conf the configuration to read from
+   * Notes: Each sub-queue has a capacity of `capacity / numSubqueues`.
+   * The first or the highest priority sub-queue has an excess capacity
+   * of `capacity % numSubqueues`
+   */
+  public LockFreeFairCallQueue(int capacity, String ns, Configuration conf) {
+    int numQueues = FairCallQueue.parseNumQueues(ns, conf);
+    LOG.info("LockFreeFairCallQueue is in use with " + numQueues +
+        " queues with total capacity of " + capacity);
+
+    this.queues = new ArrayList<MpmcRingBuffer<E>>(numQueues);
+    this.overflowedCalls = new ArrayList<AtomicLong>(numQueues);
+    int queueCapacity = capacity / numQueues;
+    int capacityForFirstQueue = queueCapacity + (capacity % numQueues);
+    for (int i = 0; i < numQueues; i++) {
+      if (i == 0) {
+        this.queues.add(new MpmcRingBuffer<E>(capacityForFirstQueue));
+      } else {
+        this.queues.add(new MpmcRingBuffer<E>(queueCapacity));
+      }
+      this.overflowedCalls.add(new AtomicLong(0));
+    }
+
+    this.scheduler = new DecayRpcScheduler(numQueues, ns, conf);
+    this.multiplexer = new WeightedRoundRobinMultiplexer(numQueues, ns, conf);
+
+    // Make this the active source of metrics
+    FairCallQueue.MetricsProxy mp = FairCallQueue.MetricsProxy.getInstance(ns);
+    mp.setDelegate(this);
+  }
+
+  /**
+   * Queue the call in the given level and make it available to takers.
+   */
+  private boolean offerToLevel(E e, int priorityLevel) {
+    if (queues.get(priorityLevel).offer(e)) {
+      available.release();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Remove a call for which a permit of {@link #available} was acquired.
+   * Levels are searched starting with the one picked by the multiplexer.
+   * The permit guarantees a call was published, but the head of its level
+   * may be a position whose producer has not published its call yet, so
+   * retry until one of them is.
+   */
+  private E removeNext() {
+    final int numQueues = queues.size();
+    final int startIdx = multiplexer.getAndAdvanceCurrentIndex();
+    for (;;) {
+      for (int i = 0; i < numQueues; i++) {
+        E e = queues.get((startIdx + i) % numQueues).poll();
+        if (e != null) {
+          return e;
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  /* AbstractQueue and BlockingQueue methods */
+
+  /**
+   * Put and offer follow the same pattern:
+   * 1. Get a priorityLevel from the scheduler
+   * 2. Get the nth sub-queue matching this priorityLevel
+   * 3. delegate the call to this sub-queue.
+   *
+   * But differ in how they handle overflow:
+   * - Put will move on to the next queue until it lands on the last queue
+   * - Offer does not attempt other queues on overflow
+   */
+  @Override
+  public void put(E e) throws InterruptedException {
+    final int numLevels = queues.size();
+    for (int level = FairCallQueue.getPriorityLevel(scheduler, e, numLevels);
+        level < numLevels; level++) {
+      if (offerToLevel(e, level)) {
+        return;
+      }
+      overflowedCalls.get(level).getAndIncrement();
+    }
+
+    // That was the last one, we will wait for room in the last queue
+    while (!offerToLevel(e, numLevels - 1)) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      LockSupport.parkNanos(this, RETRY_NANOS);
+    }
+  }
+
+  @Override
+  public boolean offer(E e, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    int priorityLevel =
+        FairCallQueue.getPriorityLevel(scheduler, e, queues.size());
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!offerToLevel(e, priorityLevel)) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      LockSupport.parkNanos(this, Math.min(remaining, RETRY_NANOS));
+    }
+    return true;
+  }
+
+  @Override
+  public boolean offer(E e) {
+    return offerToLevel(e,
+        FairCallQueue.getPriorityLevel(scheduler, e, queues.size()));
+  }
+
+  @Override
+  public E take() throws InterruptedException {
+    available.acquire();
+    return removeNext();
+  }
+
+  @Override
+  public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+    if (!available.tryAcquire(timeout, unit)) {
+      return null;
+    }
+    return removeNext();
+  }
+
+  @Override
+  public E poll() {
+    if (!available.tryAcquire()) {
+      return null;
+    }
+    return removeNext();
+  }
+
+  /**
+   * Peek provides no strict consistency.
+   */
+  @Override
+  public E peek() {
+    for (MpmcRingBuffer<E> q : queues) {
+      E e = q.peek();
+      if (e != null) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Size returns the sum of all sub-queue sizes.
+   * Note: size provides no strict consistency, and should not be used to
+   * control queue IO.
+   */
+  @Override
+  public int size() {
+    int size = 0;
+    for (MpmcRingBuffer<E> q : queues) {
+      size += q.size();
+    }
+    return size;
+  }
+
+  /**
+   * Iterator is not implemented, as it is not needed.
+   */
+  @Override
+  public Iterator<E> iterator() {
+    throw new NotImplementedException();
+  }
+
+  /**
+   * drainTo takes calls in the order of the multiplexer. Note that draining
+   * into a fair call queue will likely schedule the calls differently.
+   */
+  @Override
+  public int drainTo(Collection<? super E> c, int maxElements) {
+    int drained = 0;
+    while (drained < maxElements && available.tryAcquire()) {
+      c.add(removeNext());
+      drained++;
+    }
+    return drained;
+  }
+
+  @Override
+  public int drainTo(Collection<? super E> c) {
+    return drainTo(c, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns maximum remaining capacity. This does not reflect how much you can
+   * ideally fit in this queue, as that would depend on the scheduler's
+   * decisions.
+   */
+  @Override
+  public int remainingCapacity() {
+    int sum = 0;
+    for (MpmcRingBuffer<E> q : queues) {
+      sum += q.remainingCapacity();
+    }
+    return sum;
+  }
+
+  // FairCallQueueMXBean
+  @Override
+  public int[] getQueueSizes() {
+    int numQueues = queues.size();
+    int[] sizes = new int[numQueues];
+    for (int i = 0; i < numQueues; i++) {
+      sizes[i] = queues.get(i).size();
+    }
+    return sizes;
+  }
+
+  @Override
+  public long[] getOverflowedCalls() {
+    int numQueues = queues.size();
+    long[] calls = new long[numQueues];
+    for (int i = 0; i < numQueues; i++) {
+      calls[i] = overflowedCalls.get(i).get();
+    }
+    return calls;
+  }
+
+  // For testing
+  @VisibleForTesting
+  public void setScheduler(RpcScheduler newScheduler) {
+    this.scheduler = newScheduler;
+  }
+
+  @VisibleForTesting
+  public void setMultiplexer(RpcMultiplexer newMux) {
+    this.multiplexer = newMux;
+  }
+}
@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue for multiple producers and multiple consumers which takes
+ * no lock.
+ * <p>
+ * Producers claim positions from the tail and consumers from the head, each
+ * with a single CAS. Every slot carries a sequence number telling which
+ * position may use it next: a slot of position p is free for the producer of
+ * p while its sequence is p, holds the element of p once its sequence is
+ * p + 1, and is freed for the next lap by setting it to p + capacity.
+ * <p>
+ * offer and poll never block. poll may return null while another element is
+ * already in the buffer, if the producer of the head position has claimed it
+ * but not yet published its element. Likewise offer may find the buffer full
+ * while the consumer of a position has claimed it but not yet freed its slot.
+ * A thread stalled between its claim and the write which follows it thus
+ * holds up the others at that position: the buffer is not lock-free in the
+ * strict sense.
+ */
+class MpmcRingBuffer<E> {
+  private final int capacity;
+  private final AtomicReferenceArray<E> elements;
+  private final AtomicLongArray sequences;
+  // next position to poll
+  private final AtomicLong head = new AtomicLong();
+  // next position to offer
+  private final AtomicLong tail = new AtomicLong();
+
+  MpmcRingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be at least 1");
+    }
+    this.capacity = capacity;
+    this.elements = new AtomicReferenceArray<E>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  private int slot(long position) {
+    return (int) (position % capacity);
+  }
+
+  /**
+   * @return false if the buffer is full
+   */
+  boolean offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    for (;;) {
+      long pos = tail.get();
+      int slot = slot(pos);
+      long seq = sequences.get(slot);
+      if (seq == pos) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          // ordered by the volatile write of the sequence below
+          elements.lazySet(slot, e);
+          sequences.set(slot, pos + 1);
+          return true;
+        }
+      } else if (seq < pos) {
+        // the element of the previous lap has not been polled yet
+        return false;
+      }
+      // else another producer took pos, retry at the new tail
+    }
+  }
+
+  /**
+   * @return the element at the head, or null if there is none to poll
+   */
+  E poll() {
+    for (;;) {
+      long pos = head.get();
+      int slot = slot(pos);
+      long seq = sequences.get(slot);
+      if (seq == pos + 1) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          E e = elements.get(slot);
+          elements.lazySet(slot, null);
+          sequences.set(slot, pos + capacity);
+          return e;
+        }
+      } else if (seq < pos + 1) {
+        // empty, or the element of pos is not published yet
+        return null;
+      }
+      // else another consumer took pos, retry at the new head
+    }
+  }
+
+  /**
+   * Like poll, but leaves the element in the buffer. The element may be
+   * polled by another thread by the time it is returned.
+   */
+  E peek() {
+    long pos = head.get();
+    int slot = slot(pos);
+    if (sequences.get(slot) == pos + 1) {
+      return elements.get(slot);
+    }
+    return null;
+  }
+
+  /**
+   * @return the number of claimed positions which have not been polled,
+   * including those whose element is not published yet.
+   */
+  int size() {
+    // read head first, so that size is not negative
+    long h = head.get();
+    long t = tail.get();
+    return (int) Math.max(0, Math.min(capacity, t - h));
+  }
+
+  int remainingCapacity() {
+    return capacity - size();
+  }
+
+  int capacity() {
+    return capacity;
+  }
+}
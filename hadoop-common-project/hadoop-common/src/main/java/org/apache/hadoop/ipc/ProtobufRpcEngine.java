@@ -25,6 +25,7 @@
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -53,7 +54,11 @@
 import org.apache.htrace.TraceScope;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.BlockingService;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors.MethodDescriptor;
 import com.google.protobuf.GeneratedMessage;
@@ -76,6 +81,50 @@ public class ProtobufRpcEngine implements RpcEngine {
 
   private static final ClientCache CLIENTS = new ClientCache();
 
+  private static final ThreadLocal<Boolean> ASYNC_MODE =
+      new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+          return false;
+        }
+      };
+
+  private static final ThreadLocal<ListenableFuture<Message>>
+      ASYNC_RETURN_MESSAGE = new ThreadLocal<ListenableFuture<Message>>();
+
+  /**
+   * Set whether calls made by this thread through protobuf proxies are
+   * asynchronous. An asynchronous call returns null at once; the response
+   * is fetched with {@link #getAsyncReturnMessage()} right after the call.
+   * Asynchronous calls are not retried by a retry proxy, since a failure is
+   * only seen when the response arrives.
+   */
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  public static void setAsynchronousMode(boolean async) {
+    ASYNC_MODE.set(async);
+  }
+
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  public static boolean isAsynchronousMode() {
+    return ASYNC_MODE.get();
+  }
+
+  /**
+   * @return the response of the last asynchronous call made by this thread,
+   *   which fails with the IOException the call would have thrown
+   */
+  @InterfaceAudience.Private
+  @InterfaceStability.Unstable
+  @SuppressWarnings("unchecked")
+  public static <T extends Message> ListenableFuture<T>
+      getAsyncReturnMessage() {
+    ListenableFuture<Message> future = ASYNC_RETURN_MESSAGE.get();
+    ASYNC_RETURN_MESSAGE.remove();
+    return (ListenableFuture<T>) future;
+  }
+
   public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
       InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
       SocketFactory factory, int rpcTimeout) throws IOException {
@@ -98,9 +147,21 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
       InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
       SocketFactory factory, int rpcTimeout, RetryPolicy connectionRetryPolicy,
       AtomicBoolean fallbackToSimpleAuth) throws IOException {
+    return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+      InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
+      SocketFactory factory, int rpcTimeout, RetryPolicy connectionRetryPolicy,
+      AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+      throws IOException {
 
     final Invoker invoker = new Invoker(protocol, addr, ticket, conf, factory,
-        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth);
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth,
+        alignmentContext);
     return new ProtocolProxy<T>(protocol, (T) Proxy.newProxyInstance(
         protocol.getClassLoader(), new Class[]{protocol}, invoker), false);
   }
@@ -125,15 +186,18 @@ private static class Invoker implements RpcInvocationHandler {
     private final long clientProtocolVersion;
     private final String protocolName;
     private AtomicBoolean fallbackToSimpleAuth;
+    private AlignmentContext alignmentContext;
 
     private Invoker(Class<?> protocol, InetSocketAddress addr,
         UserGroupInformation ticket, Configuration conf, SocketFactory factory,
         int rpcTimeout, RetryPolicy connectionRetryPolicy,
-        AtomicBoolean fallbackToSimpleAuth) throws IOException {
+        AtomicBoolean fallbackToSimpleAuth, AlignmentContext alignmentContext)
+        throws IOException {
       this(protocol, Client.ConnectionId.getConnectionId(
           addr, protocol, ticket, rpcTimeout, connectionRetryPolicy, conf),
           conf, factory);
       this.fallbackToSimpleAuth = fallbackToSimpleAuth;
+      this.alignmentContext = alignmentContext;
     }
     
     /**
@@ -224,11 +288,16 @@ public Object invoke(Object proxy, Method method, Object[] args)
 
 
       Message theRequest = (Message) args[1];
+      if (isAsynchronousMode()) {
+        asyncInvoke(method, rpcRequestHeader, theRequest, traceScope);
+        return null;
+      }
       final RpcResponseWrapper val;
       try {
         val = (RpcResponseWrapper) client.call(RPC.RpcKind.RPC_PROTOCOL_BUFFER,
             new RpcRequestWrapper(rpcRequestHeader, theRequest), remoteId,
-            fallbackToSimpleAuth);
+            RPC.RPC_SERVICE_CLASS_DEFAULT, fallbackToSimpleAuth,
+            alignmentContext);
 
       } catch (Throwable e) {
         if (LOG.isTraceEnabled()) {
@@ -273,6 +342,44 @@ public Object invoke(Object proxy, Method method, Object[] args)
       return returnMessage;
     }
 
+    /**
+     * Send the request without waiting, and leave the future of the response
+     * message for {@link #getAsyncReturnMessage()}.
+     */
+    private void asyncInvoke(final Method method,
+        RequestHeaderProto rpcRequestHeader, Message theRequest,
+        TraceScope traceScope) throws ServiceException {
+      final Message prototype;
+      ListenableFuture<Writable> future;
+      try {
+        prototype = getReturnProtoType(method);
+        future = client.asyncCall(RPC.RpcKind.RPC_PROTOCOL_BUFFER,
+            new RpcRequestWrapper(rpcRequestHeader, theRequest), remoteId,
+            RPC.RPC_SERVICE_CLASS_DEFAULT, fallbackToSimpleAuth,
+            alignmentContext);
+      } catch (Throwable e) {
+        throw new ServiceException(e);
+      } finally {
+        if (traceScope != null) traceScope.close();
+      }
+      ASYNC_RETURN_MESSAGE.set(Futures.transform(future,
+          new AsyncFunction<Writable, Message>() {
+            @Override
+            public ListenableFuture<Message> apply(Writable val)
+                throws Exception {
+              Message returnMessage = prototype.newBuilderForType()
+                  .mergeFrom(((RpcResponseWrapper) val).theResponseRead)
+                  .build();
+              if (LOG.isTraceEnabled()) {
+                LOG.trace(Thread.currentThread().getId() + ": Response <- " +
+                    remoteId + ": " + method.getName() +
+                    " {" + TextFormat.shortDebugString(returnMessage) + "}");
+              }
+              return Futures.immediateFuture(returnMessage);
+            }
+          }));
+    }
+
     @Override
     public void close() throws IOException {
       if (!isClosed) {
@@ -302,6 +409,20 @@ public ConnectionId getConnectionId() {
 
   interface RpcWrapper extends Writable {
     int getLength();
+
+    /**
+     * Serialize straight into a coded stream, e.g. one over the array of a
+     * whole RPC frame, without the intermediate buffers of
+     * {@link #write(DataOutput)}. Writes exactly {@link #getLength()} bytes.
+     */
+    void writeTo(CodedOutputStream out) throws IOException;
+
+    /**
+     * Read from a range of the array holding the RPC frame. Unlike
+     * {@link #readFields(DataInput)} the message bytes are not copied out of
+     * the array, so it must not be reused while this wrapper is in use.
+     */
+    void readFrom(byte[] buf, int offset, int length) throws IOException;
   }
   /**
    * Wrapper for Protocol Buffer Requests
@@ -314,7 +435,10 @@ interface RpcWrapper extends Writable {
     implements RpcWrapper {
     T requestHeader;
     Message theRequest; // for clientSide, the request is here
-    byte[] theRequestRead; // for server side, the request is here
+    // for server side, the request is here, in a range of the array
+    byte[] theRequestRead;
+    int theRequestOffset;
+    int theRequestLength;
 
     public RpcMessageWithHeader() {
     }
@@ -332,16 +456,49 @@ public void write(DataOutput out) throws IOException {
       theRequest.writeDelimitedTo(os);
     }
 
+    @Override
+    public void writeTo(CodedOutputStream out) throws IOException {
+      out.writeRawVarint32(requestHeader.getSerializedSize());
+      requestHeader.writeTo(out);
+      out.writeRawVarint32(theRequest.getSerializedSize());
+      theRequest.writeTo(out);
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
-      requestHeader = parseHeaderFrom(readVarintBytes(in));
-      theRequestRead = readMessageRequest(in);
+      byte[] header = readVarintBytes(in);
+      requestHeader = parseHeaderFrom(header, 0, header.length);
+      theRequestRead = hasMessage() ? readVarintBytes(in) : null;
+      theRequestOffset = 0;
+      theRequestLength = theRequestRead == null ? 0 : theRequestRead.length;
+    }
+
+    @Override
+    public void readFrom(byte[] buf, int offset, int length)
+        throws IOException {
+      CodedInputStream in = CodedInputStream.newInstance(buf, offset, length);
+      int headerLength = in.readRawVarint32();
+      requestHeader = parseHeaderFrom(buf, offset + in.getTotalBytesRead(),
+          headerLength);
+      in.skipRawBytes(headerLength);
+      if (hasMessage()) {
+        theRequestLength = in.readRawVarint32();
+        theRequestOffset = offset + in.getTotalBytesRead();
+        in.skipRawBytes(theRequestLength);
+        theRequestRead = buf;
+      } else {
+        theRequestRead = null;
+        theRequestOffset = 0;
+        theRequestLength = 0;
+      }
     }
 
-    abstract T parseHeaderFrom(byte[] bytes) throws IOException;
+    abstract T parseHeaderFrom(byte[] bytes, int offset, int length)
+        throws IOException;
 
-    byte[] readMessageRequest(DataInput in) throws IOException {
-      return readVarintBytes(in);
+    /** @return whether a message follows the header which was read */
+    boolean hasMessage() {
+      return true;
     }
 
     private static byte[] readVarintBytes(DataInput in) throws IOException {
@@ -356,7 +513,12 @@ public T getMessageHeader() {
     }
 
     public byte[] getMessageBytes() {
-      return theRequestRead;
+      if (theRequestRead == null || (theRequestOffset == 0
+          && theRequestLength == theRequestRead.length)) {
+        return theRequestRead;
+      }
+      return Arrays.copyOfRange(theRequestRead, theRequestOffset,
+          theRequestOffset + theRequestLength);
     }
     
     @Override
@@ -366,7 +528,7 @@ public int getLength() {
       if (theRequest != null) {
         reqLen = theRequest.getSerializedSize();
       } else if (theRequestRead != null ) {
-        reqLen = theRequestRead.length;
+        reqLen = theRequestLength;
       } else {
         throw new IllegalArgumentException(
             "getLength on uninitialized RpcWrapper");      
@@ -376,6 +538,15 @@ public int getLength() {
     }
   }
   
+  /**
+   * @return the header naming the protocol and method of a request read by
+   * the server, or null if it is not a protobuf request
+   */
+  static RequestHeaderProto getRequestHeader(Writable request) {
+    return request instanceof RpcRequestWrapper ?
+        ((RpcRequestWrapper) request).requestHeader : null;
+  }
+
   private static class RpcRequestWrapper
   extends RpcMessageWithHeader<RequestHeaderProto> {
     @SuppressWarnings("unused")
@@ -387,8 +558,9 @@ public RpcRequestWrapper(
     }
     
     @Override
-    RequestHeaderProto parseHeaderFrom(byte[] bytes) throws IOException {
-      return RequestHeaderProto.parseFrom(bytes);
+    RequestHeaderProto parseHeaderFrom(byte[] bytes, int offset, int length)
+        throws IOException {
+      return RequestHeaderProto.PARSER.parseFrom(bytes, offset, length);
     }
     
     @Override
@@ -409,8 +581,9 @@ public RpcRequestMessageWrapper(
     }
     
     @Override
-    RpcRequestHeaderProto parseHeaderFrom(byte[] bytes) throws IOException {
-      return RpcRequestHeaderProto.parseFrom(bytes);
+    RpcRequestHeaderProto parseHeaderFrom(byte[] bytes, int offset,
+        int length) throws IOException {
+      return RpcRequestHeaderProto.PARSER.parseFrom(bytes, offset, length);
     }
   }
 
@@ -425,20 +598,21 @@ public RpcResponseMessageWrapper(
     }
     
     @Override
-    byte[] readMessageRequest(DataInput in) throws IOException {
+    boolean hasMessage() {
       // error message contain no message body
       switch (requestHeader.getStatus()) {
         case ERROR:
         case FATAL:
-          return null;
+          return false;
         default:
-          return super.readMessageRequest(in);
+          return true;
       }
     }
     
     @Override
-    RpcResponseHeaderProto parseHeaderFrom(byte[] bytes) throws IOException {
-      return RpcResponseHeaderProto.parseFrom(bytes);
+    RpcResponseHeaderProto parseHeaderFrom(byte[] bytes, int offset,
+        int length) throws IOException {
+      return RpcResponseHeaderProto.PARSER.parseFrom(bytes, offset, length);
     }
   }
 
@@ -467,12 +641,25 @@ public void write(DataOutput out) throws IOException {
       theResponse.writeDelimitedTo(os);   
     }
 
+    @Override
+    public void writeTo(CodedOutputStream out) throws IOException {
+      out.writeRawVarint32(theResponse.getSerializedSize());
+      theResponse.writeTo(out);
+    }
+
     @Override
     public void readFields(DataInput in) throws IOException {
       int length = ProtoUtil.readRawVarint32(in);
       theResponseRead = new byte[length];
       in.readFully(theResponseRead);
     }
+
+    @Override
+    public void readFrom(byte[] buf, int offset, int length)
+        throws IOException {
+      CodedInputStream in = CodedInputStream.newInstance(buf, offset, length);
+      theResponseRead = in.readRawBytes(in.readRawVarint32());
+    }
     
     @Override
     public int getLength() {
@@ -605,7 +792,8 @@ public Writable call(RPC.Server server, String protocol,
         }
         Message prototype = service.getRequestPrototype(methodDescriptor);
         Message param = prototype.newBuilderForType()
-            .mergeFrom(request.theRequestRead).build();
+            .mergeFrom(request.theRequestRead, request.theRequestOffset,
+                request.theRequestLength).build();
         
         Message result;
         long startTime = Time.now();
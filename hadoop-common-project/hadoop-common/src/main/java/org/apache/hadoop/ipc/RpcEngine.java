@@ -52,6 +52,18 @@ <T> ProtocolProxy<T> getProxy(Class<T> protocol,
                   RetryPolicy connectionRetryPolicy,
                   AtomicBoolean fallbackToSimpleAuth) throws IOException;
 
+  /**
+   * Construct a client-side proxy object whose calls keep the state seen by
+   * the client in the given {@link AlignmentContext}.
+   */
+  <T> ProtocolProxy<T> getProxy(Class<T> protocol,
+                  long clientVersion, InetSocketAddress addr,
+                  UserGroupInformation ticket, Configuration conf,
+                  SocketFactory factory, int rpcTimeout,
+                  RetryPolicy connectionRetryPolicy,
+                  AtomicBoolean fallbackToSimpleAuth,
+                  AlignmentContext alignmentContext) throws IOException;
+
   /** 
    * Construct a server for a protocol implementation instance.
    * 
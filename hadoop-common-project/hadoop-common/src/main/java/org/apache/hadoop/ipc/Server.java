@@ -40,6 +40,7 @@
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -59,6 +60,7 @@
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -90,6 +92,7 @@
 import org.apache.hadoop.ipc.metrics.RpcDetailedMetrics;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
 import org.apache.hadoop.ipc.protobuf.IpcConnectionContextProtos.IpcConnectionContextProto;
+import org.apache.hadoop.ipc.protobuf.ProtobufRpcEngineProtos.RequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcKindProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
@@ -125,6 +128,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Message;
 import com.google.protobuf.Message.Builder;
@@ -355,10 +359,21 @@ public static boolean isRpcInvocation() {
     return CurCall.get() != null;
   }
 
+  /**
+   * Return true if the current call is coordinated, i.e. it waited for the
+   * server to reach the state id of its client.
+   * @see AlignmentContext
+   */
+  public static boolean isCoordinatedCall() {
+    Call call = CurCall.get();
+    return call != null && call.isCoordinated();
+  }
+
   private String bindAddress; 
   private int port;                               // port we listen on
   private int handlerCount;                       // number of handler threads
   private int readThreads;                        // number of read threads
+  private int responderThreads;                   // number of responders
   private int readerPendingConnectionQueue;         // number of connections to queue per read thread
   private Class<? extends Writable> rpcRequestClass;   // class used for deserializing the rpc request
   final protected RpcMetrics rpcMetrics;
@@ -382,9 +397,15 @@ public static boolean isRpcInvocation() {
   // maintains the set of client connections and handles idle timeouts
   private ConnectionManager connectionManager;
   private Listener listener = null;
-  private Responder responder = null;
+  private Responder[] responders = null;
+  private final AtomicInteger currentResponder = new AtomicInteger();
   private Handler[] handlers = null;
 
+  private volatile AlignmentContext alignmentContext = null;
+  private final long coordinatedCallMaxWaitMs;
+  private final CoordinatedCallWaiter coordinatedCallWaiter =
+      new CoordinatedCallWaiter();
+
   private boolean logSlowRPC = false;
 
   /**
@@ -581,6 +602,10 @@ public static class Call implements Schedulable {
     private final RPC.RpcKind rpcKind;
     private final byte[] clientId;
     private final Span traceSpan; // the tracing span on the server side
+    // the state id of the client of a coordinated call
+    private long clientStateId = Long.MIN_VALUE;
+    // the priority level the call queue gave the call, -1 if none yet
+    private int priorityLevel = -1;
 
     private Call(Call call) {
       this(call.callId, call.retryCount, call.rpcRequest, call.connection,
@@ -617,6 +642,18 @@ public String toString() {
           + retryCount;
     }
 
+    private boolean isCoordinated() {
+      return clientStateId != Long.MIN_VALUE;
+    }
+
+    int getPriorityLevel() {
+      return priorityLevel;
+    }
+
+    void setPriorityLevel(int priorityLevel) {
+      this.priorityLevel = priorityLevel;
+    }
+
     public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
     }
@@ -763,7 +800,8 @@ private synchronized void doRunLoop() {
             }
           } catch (InterruptedException e) {
             if (running) {                      // unexpected -- log it
-              LOG.info(Thread.currentThread().getName() + " unexpectedly interrupted", e);
+              LOG.info(Thread.currentThread().getName()
+                + " unexpectedly interrupted", e);
             }
           } catch (IOException ex) {
             LOG.error("Error in Reader", ex);
@@ -943,15 +981,23 @@ Reader getReader() {
     }
   }
 
-  // Sends responses of RPC back to clients.
+  // The next responder in round-robin order, for a new connection.
+  private Responder getResponder() {
+    return responders[
+        (currentResponder.getAndIncrement() & Integer.MAX_VALUE)
+        % responders.length];
+  }
+
+  // Sends responses of RPC back to clients. Each connection is served by one
+  // responder, so that its responses are sent in order.
   private class Responder extends Thread {
     private final Selector writeSelector;
     private int pending;         // connections waiting to register
     
     final static int PURGE_INTERVAL = 900000; // 15mins
 
-    Responder() throws IOException {
-      this.setName("IPC Server Responder");
+    Responder(String name) throws IOException {
+      this.setName(name);
       this.setDaemon(true);
       writeSelector = Selector.open(); // create a selector
       pending = 0;
@@ -1116,9 +1162,17 @@ private boolean processResponse(LinkedList<Call> responseQueue,
             LOG.debug(Thread.currentThread().getName() + ": responding to " + call);
           }
           //
-          // Send as much data as we can in the non-blocking fashion
+          // Send as much data as we can in the non-blocking fashion. Small
+          // responses queued behind this one go out in the same write.
           //
-          int numBytes = channelWrite(channel, call.rpcResponse);
+          int numBytes;
+          if (numElements > 1
+              && call.rpcResponse.remaining() < NIO_BUFFER_LIMIT) {
+            numBytes = channelWrite(channel,
+                gatherResponses(call, responseQueue));
+          } else {
+            numBytes = channelWrite(channel, call.rpcResponse);
+          }
           if (numBytes < 0) {
             return true;
           }
@@ -1126,7 +1180,14 @@ private boolean processResponse(LinkedList<Call> responseQueue,
             //Clear out the response buffer so it can be collected
             call.rpcResponse = null;
             call.connection.decRpcCount();
-            if (numElements == 1) {    // last call fully processes.
+            // and the ones fully written along with it
+            while (!responseQueue.isEmpty()
+                && !responseQueue.getFirst().rpcResponse.hasRemaining()) {
+              Call sent = responseQueue.removeFirst();
+              sent.rpcResponse = null;
+              sent.connection.decRpcCount();
+            }
+            if (responseQueue.isEmpty()) { // last call fully processes.
               done = true;             // no more data for this channel.
             } else {
               done = false;            // more calls pending to be sent.
@@ -1176,6 +1237,29 @@ private boolean processResponse(LinkedList<Call> responseQueue,
       return done;
     }
 
+    /**
+     * Collect the response of the given call, followed by those queued after
+     * it, for a single gathering write. Stops before the total size would
+     * exceed {@link #NIO_BUFFER_LIMIT}, so that the JDK does not need a
+     * larger temporary direct buffer than for a single response.
+     */
+    private ByteBuffer[] gatherResponses(Call first,
+        LinkedList<Call> responseQueue) {
+      List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+      buffers.add(first.rpcResponse);
+      int size = first.rpcResponse.remaining();
+      for (Call next : responseQueue) {
+        int remaining = next.rpcResponse.remaining();
+        if (buffers.size() == MAX_GATHERED_RESPONSES
+            || size + remaining > NIO_BUFFER_LIMIT) {
+          break;
+        }
+        buffers.add(next.rpcResponse);
+        size += remaining;
+      }
+      return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
     //
     // Enqueue a response from the application.
     //
@@ -1267,6 +1351,8 @@ public class Connection {
     private ByteBuffer data;
     private ByteBuffer dataLengthBuffer;
     private LinkedList<Call> responseQueue;
+    // writes the responses of this connection
+    private final Responder responder;
     // number of outstanding rpcs
     private AtomicInteger rpcCount = new AtomicInteger();
     private long lastContact;
@@ -1316,6 +1402,7 @@ public Connection(SocketChannel channel, long lastContact) {
       }
       this.remotePort = socket.getPort();
       this.responseQueue = new LinkedList<Call>();
+      this.responder = getResponder();
       if (socketSendBufferSize != 0) {
         try {
           socket.setSendBufferSize(socketSendBufferSize);
@@ -1338,6 +1425,10 @@ public String getHostAddress() {
     public InetAddress getHostInetAddress() {
       return addr;
     }
+
+    private AlignmentContext getAlignmentContext() {
+      return alignmentContext;
+    }
     
     public void setLastContact(long lastContact) {
       this.lastContact = lastContact;
@@ -1905,10 +1996,23 @@ private void processOneRpc(byte[] buf)
       int callId = -1;
       int retry = RpcConstants.INVALID_RETRY_COUNT;
       try {
-        final DataInputStream dis =
-            new DataInputStream(new ByteArrayInputStream(buf));
-        final RpcRequestHeaderProto header =
-            decodeProtobufFromStream(RpcRequestHeaderProto.newBuilder(), dis);
+        // parse the header in place, and leave the stream at the request
+        final RpcRequestHeaderProto header;
+        final DataInputStream dis;
+        try {
+          CodedInputStream cis = CodedInputStream.newInstance(buf);
+          int headerLength = cis.readRawVarint32();
+          int headerOffset = cis.getTotalBytesRead();
+          header = RpcRequestHeaderProto.PARSER.parseFrom(buf, headerOffset,
+              headerLength);
+          int requestOffset = headerOffset + headerLength;
+          dis = new DataInputStream(new ByteArrayInputStream(buf,
+              requestOffset, buf.length - requestOffset));
+        } catch (Exception e) {
+          throw new WrappedRpcServerException(
+              RpcErrorCodeProto.FATAL_DESERIALIZING_REQUEST,
+              "Error decoding RpcRequestHeaderProto: " + e);
+        }
         callId = header.getCallId();
         retry = header.getRetryCount();
         if (LOG.isDebugEnabled()) {
@@ -1923,7 +2027,7 @@ private void processOneRpc(byte[] buf)
               RpcErrorCodeProto.FATAL_INVALID_RPC_HEADER,
               "Connection context not established");
         } else {
-          processRpcRequest(header, dis);
+          processRpcRequest(header, dis, buf);
         }
       } catch (WrappedRpcServerException wrse) { // inform client of error
         Throwable ioe = wrse.getCause();
@@ -1970,13 +2074,14 @@ private void checkRpcHeaders(RpcRequestHeaderProto header)
      * have been already read
      * @param header - RPC request header
      * @param dis - stream to request payload
+     * @param buf - the array of the whole request, which dis reads from
      * @throws WrappedRpcServerException - due to fatal rpc layer issues such
      *   as invalid header or deserialization error. In this case a RPC fatal
      *   status response will later be sent back to client.
      * @throws InterruptedException
      */
     private void processRpcRequest(RpcRequestHeaderProto header,
-        DataInputStream dis) throws WrappedRpcServerException,
+        DataInputStream dis, byte[] buf) throws WrappedRpcServerException,
         InterruptedException {
       Class<? extends Writable> rpcRequestClass = 
           getRpcRequestWrapper(header.getRpcKind());
@@ -1991,7 +2096,15 @@ private void processRpcRequest(RpcRequestHeaderProto header,
       Writable rpcRequest;
       try { //Read the rpc request
         rpcRequest = ReflectionUtils.newInstance(rpcRequestClass, conf);
-        rpcRequest.readFields(dis);
+        if (rpcRequest instanceof ProtobufRpcEngine.RpcWrapper) {
+          // the buffer belongs to this request, so the request can be
+          // parsed from it without copying
+          int offset = buf.length - dis.available();
+          ((ProtobufRpcEngine.RpcWrapper) rpcRequest).readFrom(buf, offset,
+              buf.length - offset);
+        } else {
+          rpcRequest.readFields(dis);
+        }
       } catch (Throwable t) { // includes runtime exception from newInstance
         LOG.warn("Unable to read call parameters for client " +
                  getHostAddress() + "on connection protocol " +
@@ -2013,6 +2126,16 @@ private void processRpcRequest(RpcRequestHeaderProto header,
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()),
           header.getClientId().toByteArray(), traceSpan);
 
+      if (alignmentContext != null && header.hasStateId()) {
+        RequestHeaderProto requestHeader =
+            ProtobufRpcEngine.getRequestHeader(rpcRequest);
+        if (requestHeader != null && alignmentContext.isCoordinatedCall(
+            requestHeader.getDeclaringClassProtocolName(),
+            requestHeader.getMethodName())) {
+          call.clientStateId = header.getStateId();
+        }
+      }
+
       if (callQueue.isClientBackoffEnabled()) {
         // if RPC queue is full, we will ask the RPC client to back off by
         // throwing RetriableException. Whether RPC client will honor
@@ -2190,6 +2313,13 @@ public void run() {
             LOG.info(Thread.currentThread().getName() + ": skipped " + call);
             continue;
           }
+          if (isAheadOfServer(call)
+              && Time.now() - call.timestamp < coordinatedCallMaxWaitMs
+              && coordinatedCallWaiter.park(call)) {
+            // The server has not caught up with the client yet. The call
+            // comes back once it has, or to fail after the max wait.
+            continue;
+          }
           String errorClass = null;
           String error = null;
           RpcStatusProto returnStatus = RpcStatusProto.SUCCESS;
@@ -2202,6 +2332,13 @@ public void run() {
           }
 
           try {
+            if (isAheadOfServer(call)) {
+              throw new StandbyException("Server state id "
+                  + alignmentContext.getLastSeenStateId()
+                  + " has not reached the state id " + call.clientStateId
+                  + " of the client after "
+                  + (Time.now() - call.timestamp) + " ms");
+            }
             // Make the call as the user via Subject.doAs, thus associating
             // the call with the Subject
             if (call.connection.user == null) {
@@ -2357,6 +2494,12 @@ protected Server(String bindAddress, int port,
           CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_KEY,
           CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_DEFAULT);
     }
+    this.responderThreads = conf.getInt(
+        CommonConfigurationKeys.IPC_SERVER_RPC_RESPONDER_THREADS_KEY,
+        CommonConfigurationKeys.IPC_SERVER_RPC_RESPONDER_THREADS_DEFAULT);
+    this.coordinatedCallMaxWaitMs = conf.getLong(
+        CommonConfigurationKeys.IPC_SERVER_COORDINATED_CALL_MAX_WAIT_MS_KEY,
+        CommonConfigurationKeys.IPC_SERVER_COORDINATED_CALL_MAX_WAIT_MS_DEFAULT);
     this.readerPendingConnectionQueue = conf.getInt(
         CommonConfigurationKeys.IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_KEY,
         CommonConfigurationKeys.IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_DEFAULT);
@@ -2389,8 +2532,16 @@ protected Server(String bindAddress, int port,
         CommonConfigurationKeysPublic.IPC_SERVER_LOG_SLOW_RPC,
         CommonConfigurationKeysPublic.IPC_SERVER_LOG_SLOW_RPC_DEFAULT));
 
-    // Create the responder here
-    responder = new Responder();
+    // Create the responders here
+    responders = new Responder[Math.max(1, responderThreads)];
+    if (responders.length == 1) {
+      responders[0] = new Responder("IPC Server Responder");
+    } else {
+      for (int i = 0; i < responders.length; i++) {
+        responders[i] = new Responder(
+            "IPC Server Responder #" + (i + 1) + " for port " + port);
+      }
+    }
     
     if (secretManager != null || UserGroupInformation.isSecurityEnabled()) {
       SaslRpcServer.init(conf);
@@ -2477,6 +2628,13 @@ private static void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    if (call.connection != null) {
+      AlignmentContext alignmentContext =
+          call.connection.getAlignmentContext();
+      if (alignmentContext != null) {
+        alignmentContext.updateResponseState(headerBuilder);
+      }
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2485,12 +2643,22 @@ private static void setupResponse(ByteArrayOutputStream responseBuf,
           headerLen;
       try {
         if (rv instanceof ProtobufRpcEngine.RpcWrapper) {
+          // The length is known up front, so serialize straight into an
+          // array of the size of the frame, rather than growing responseBuf
+          // and copying it out.
           ProtobufRpcEngine.RpcWrapper resWrapper = 
               (ProtobufRpcEngine.RpcWrapper) rv;
           fullLength += resWrapper.getLength();
-          out.writeInt(fullLength);
-          header.writeDelimitedTo(out);
-          rv.write(out);
+          byte[] frame = new byte[4 + fullLength];
+          ByteBuffer.wrap(frame).putInt(fullLength);
+          CodedOutputStream cos =
+              CodedOutputStream.newInstance(frame, 4, fullLength);
+          cos.writeRawVarint32(headerLen);
+          header.writeTo(cos);
+          resWrapper.writeTo(cos);
+          cos.checkNoSpaceLeft();
+          call.setResponse(ByteBuffer.wrap(frame));
+          return;
         } else { // Have to serialize to buffer to get len
           final DataOutputBuffer buf = new DataOutputBuffer();
           rv.write(buf);
@@ -2593,7 +2761,9 @@ Configuration getConf() {
 
   /** Starts the service.  Must be called before any calls will be handled. */
   public synchronized void start() {
-    responder.start();
+    for (Responder responder : responders) {
+      responder.start();
+    }
     listener.start();
     handlers = new Handler[handlerCount];
     
@@ -2616,7 +2786,10 @@ public synchronized void stop() {
     }
     listener.interrupt();
     listener.doStop();
-    responder.interrupt();
+    for (Responder responder : responders) {
+      responder.interrupt();
+    }
+    coordinatedCallWaiter.interrupt();
     notifyAll();
     this.rpcMetrics.shutdown();
     this.rpcDetailedMetrics.shutdown();
@@ -2744,12 +2917,173 @@ public int getNumReaders() {
     return readThreads;
   }
 
+  /**
+   * The number of responder threads for this server.
+   * @return The number of responder threads.
+   */
+  public int getNumResponders() {
+    return responders.length;
+  }
+
+  /**
+   * Set the context which aligns the state of this server with its clients.
+   * @param alignmentContext the context, or null to not coordinate calls
+   */
+  public void setAlignmentContext(AlignmentContext alignmentContext) {
+    this.alignmentContext = alignmentContext;
+  }
+
+  /**
+   * @return whether the call is coordinated and its client has seen a state
+   * this server has not reached yet.
+   */
+  private boolean isAheadOfServer(Call call) {
+    return call.isCoordinated()
+        && call.clientStateId > alignmentContext.getLastSeenStateId();
+  }
+
+  /**
+   * Tell the server that the state id of its alignment context has advanced,
+   * so that the coordinated calls waiting for it go back to the call queue.
+   */
+  public void notifyStateIdAdvanced() {
+    coordinatedCallWaiter.stateIdAdvanced();
+  }
+
+  /**
+   * Holds the coordinated calls whose client has seen a state this server
+   * has not reached yet, by that state id, so that they do not occupy a
+   * handler or the call queue while they wait. A call goes back to the call
+   * queue when the server reaches its state id, see
+   * {@link #notifyStateIdAdvanced()}, or after waiting for
+   * coordinatedCallMaxWaitMs since it was received, to fail. The thread
+   * starts with the first call it holds.
+   */
+  private class CoordinatedCallWaiter extends Thread {
+    private final TreeMap<Long, List<Call>> waitingCalls =
+        new TreeMap<Long, List<Call>>();
+    // the earliest time a waiting call has to fail
+    private long nextDeadline = Long.MAX_VALUE;
+    private boolean started = false;
+
+    CoordinatedCallWaiter() {
+      this.setName("IPC Server coordinated call waiter on " + port);
+      this.setDaemon(true);
+    }
+
+    /**
+     * Hold the call until the server reaches its state id.
+     * @return false if the server has reached the state id meanwhile
+     */
+    synchronized boolean park(Call call) {
+      if (!isAheadOfServer(call)) {
+        return false;
+      }
+      if (!started) {
+        start();
+        started = true;
+      }
+      List<Call> calls = waitingCalls.get(call.clientStateId);
+      if (calls == null) {
+        calls = new ArrayList<Call>();
+        waitingCalls.put(call.clientStateId, calls);
+      }
+      calls.add(call);
+      long deadline = call.timestamp + coordinatedCallMaxWaitMs;
+      if (deadline < nextDeadline) {
+        nextDeadline = deadline;
+        notify();
+      }
+      return true;
+    }
+
+    synchronized void stateIdAdvanced() {
+      if (!waitingCalls.isEmpty() && !isWaitingFor(waitingCalls.firstKey())) {
+        notify();
+      }
+    }
+
+    private boolean isWaitingFor(long stateId) {
+      AlignmentContext context = alignmentContext;
+      return context != null && stateId > context.getLastSeenStateId();
+    }
+
+    @Override
+    public void run() {
+      LOG.info(Thread.currentThread().getName() + ": starting");
+      SERVER.set(Server.this);
+      while (running) {
+        try {
+          for (Call call : takeReleasedCalls()) {
+            callQueue.put(call);
+          }
+        } catch (InterruptedException e) {
+          if (running) {
+            LOG.info(Thread.currentThread().getName() + " unexpectedly interrupted", e);
+          }
+        }
+      }
+      LOG.info(Thread.currentThread().getName() + ": exiting");
+    }
+
+    /**
+     * Wait until some calls can go back to the call queue, because the
+     * server has reached their state id or they have waited too long.
+     */
+    private synchronized List<Call> takeReleasedCalls()
+        throws InterruptedException {
+      while (true) {
+        List<Call> released = new ArrayList<Call>();
+        Iterator<Map.Entry<Long, List<Call>>> it =
+            waitingCalls.entrySet().iterator();
+        while (it.hasNext()) {
+          Map.Entry<Long, List<Call>> entry = it.next();
+          if (isWaitingFor(entry.getKey())) {
+            break;
+          }
+          released.addAll(entry.getValue());
+          it.remove();
+        }
+        long now = Time.now();
+        if (now >= nextDeadline) {
+          nextDeadline = Long.MAX_VALUE;
+          for (it = waitingCalls.entrySet().iterator(); it.hasNext();) {
+            List<Call> calls = it.next().getValue();
+            for (Iterator<Call> ci = calls.iterator(); ci.hasNext();) {
+              Call call = ci.next();
+              long deadline = call.timestamp + coordinatedCallMaxWaitMs;
+              if (deadline <= now) {
+                released.add(call);
+                ci.remove();
+              } else {
+                nextDeadline = Math.min(nextDeadline, deadline);
+              }
+            }
+            if (calls.isEmpty()) {
+              it.remove();
+            }
+          }
+        }
+        if (!released.isEmpty()) {
+          return released;
+        }
+        wait(nextDeadline == Long.MAX_VALUE ? 0 : nextDeadline - now);
+      }
+    }
+  }
+
   /**
    * When the read or write buffer size is larger than this limit, i/o will be 
    * done in chunks of this size. Most RPC requests and responses would be
    * be smaller.
    */
   private static int NIO_BUFFER_LIMIT = 8*1024; //should not be more than 64KB.
+
+  /**
+   * Maximum number of queued responses of a connection which are sent with
+   * a single gathering write.
+   */
+  private static final int MAX_GATHERED_RESPONSES = 16;
   
   /**
    * This is a wrapper around {@link WritableByteChannel#write(ByteBuffer)}.
@@ -2773,6 +3107,20 @@ private int channelWrite(WritableByteChannel channel,
   }
   
   
+  /**
+   * This is a wrapper around
+   * {@link GatheringByteChannel#write(ByteBuffer[])}, for buffers whose total
+   * size is at most {@link #NIO_BUFFER_LIMIT}.
+   */
+  private int channelWrite(GatheringByteChannel channel,
+                           ByteBuffer[] buffers) throws IOException {
+    int count = (int) channel.write(buffers);
+    if (count > 0) {
+      rpcMetrics.incrSentBytes(count);
+    }
+    return count;
+  }
+
   /**
    * This is a wrapper around {@link ReadableByteChannel#read(ByteBuffer)}.
    * If the amount of data is large, it writes to channel in smaller chunks. 
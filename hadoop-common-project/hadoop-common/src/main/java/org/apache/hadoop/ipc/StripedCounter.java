@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A long counter which spreads concurrent updates over several cells, picked
+ * by the id of the updating thread, so that handler and reader threads
+ * counting calls at the same time do not all retry a CAS on a single word.
+ * Reads sum the cells and are not atomic with respect to concurrent updates.
+ */
+class StripedCounter {
+  // Cells are a cache line apart, so that updates to neighbouring cells do
+  // not invalidate each other.
+  private static final int CELL_SPACING = 8;
+
+  private final AtomicLongArray cells;
+  private final int mask;
+
+  /**
+   * @param stripes the number of cells, rounded up to a power of two
+   */
+  StripedCounter(int stripes) {
+    int n = 1;
+    while (n < stripes) {
+      n <<= 1;
+    }
+    this.cells = new AtomicLongArray(n * CELL_SPACING);
+    this.mask = n - 1;
+  }
+
+  private int cell() {
+    return ((int) Thread.currentThread().getId() & mask) * CELL_SPACING;
+  }
+
+  void add(long delta) {
+    cells.addAndGet(cell(), delta);
+  }
+
+  void increment() {
+    add(1);
+  }
+
+  /**
+   * Set the counter to the given value. Updates made concurrently to other
+   * cells may be lost.
+   */
+  void set(long value) {
+    for (int i = CELL_SPACING; i < cells.length(); i += CELL_SPACING) {
+      cells.set(i, 0);
+    }
+    cells.set(0, value);
+  }
+
+  long sum() {
+    long sum = 0;
+    for (int i = 0; i < cells.length(); i += CELL_SPACING) {
+      sum += cells.get(i);
+    }
+    return sum;
+  }
+
+  /**
+   * Multiply every cell by the given factor, rounding down. Increments made
+   * concurrently are either decayed or kept whole, never lost.
+   * @return the amount removed from the counter
+   */
+  long decay(double factor) {
+    long removed = 0;
+    for (int i = 0; i < cells.length(); i += CELL_SPACING) {
+      long current;
+      long next;
+      do {
+        current = cells.get(i);
+        next = (long) (current * factor);
+      } while (!cells.compareAndSet(i, current, next));
+      removed += current - next;
+    }
+    return removed;
+  }
+}
@@ -298,7 +298,27 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
                          int rpcTimeout, RetryPolicy connectionRetryPolicy,
                          AtomicBoolean fallbackToSimpleAuth)
     throws IOException {    
+    return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+      rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+  }
 
+  /** Construct a client-side proxy object that implements the named protocol,
+   * talking to a server at the named address. 
+   * @param <T>*/
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+                         InetSocketAddress addr, UserGroupInformation ticket,
+                         Configuration conf, SocketFactory factory,
+                         int rpcTimeout, RetryPolicy connectionRetryPolicy,
+                         AtomicBoolean fallbackToSimpleAuth,
+                         AlignmentContext alignmentContext)
+    throws IOException {    
+
+    if (alignmentContext != null) {
+      throw new UnsupportedOperationException(
+          "Not supported: alignmentContext=" + alignmentContext);
+    }
     if (connectionRetryPolicy != null) {
       throw new UnsupportedOperationException(
           "Not supported: connectionRetryPolicy=" + connectionRetryPolicy);
@@ -0,0 +1,76 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.util;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * A {@link Lock} which can be released by a try-with-resources block:
+ * <pre>
+ * try (AutoCloseableLock l = lock.acquire()) {
+ *   ...
+ * }
+ * </pre>
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public class AutoCloseableLock implements AutoCloseable {
+  private final Lock lock;
+
+  /** Wrap a new {@link ReentrantLock}. */
+  public AutoCloseableLock() {
+    this(new ReentrantLock());
+  }
+
+  public AutoCloseableLock(Lock lock) {
+    this.lock = lock;
+  }
+
+  /**
+   * Acquire the lock, waiting for it if needed.
+   * @return this, to be closed in order to release the lock
+   */
+  public AutoCloseableLock acquire() {
+    lock.lock();
+    return this;
+  }
+
+  /** Release the lock. */
+  public void release() {
+    lock.unlock();
+  }
+
+  /** Release the lock, as the end of a try-with-resources block does. */
+  @Override
+  public void close() {
+    release();
+  }
+
+  /**
+   * Acquire the lock only if it is free at the time of the call.
+   * @return true if the lock was acquired
+   */
+  public boolean tryLock() {
+    return lock.tryLock();
+  }
+}
@@ -801,6 +801,15 @@ public void testTimeDuration() {
       assertEquals(1 + ptd.suffix(), conf.get("test.time.unit"));
       assertEquals(1, conf.getTimeDuration("test.time.unit", 2, ptd.unit()));
     }
+
+    // values without a unit are in the default unit
+    assertEquals(40000L, conf.getTimeDuration("test.time.Y", 40, SECONDS,
+        MILLISECONDS));
+    assertEquals(30000L, conf.getTimeDuration("test.time.X", 40, SECONDS,
+        MILLISECONDS));
+    conf.set("test.time.X", "100ms");
+    assertEquals(100L, conf.getTimeDuration("test.time.X", 40, SECONDS,
+        MILLISECONDS));
   }
 
   public void testPattern() throws IOException {
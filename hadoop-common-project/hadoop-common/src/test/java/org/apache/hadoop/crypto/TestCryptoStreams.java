@@ -39,7 +39,9 @@
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.junit.AfterClass;
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class TestCryptoStreams extends CryptoStreamsTestBase {
   /**
@@ -49,6 +51,12 @@ public class TestCryptoStreams extends CryptoStreamsTestBase {
    */
   private byte[] buf;
   private int bufLen;
+  /**
+   * Whether the wrapped stream returns read-only buffers from zero-copy 
+   * reads, like the memory maps of short-circuit replicas.
+   */
+  private boolean readOnlyBuffers;
+  private int releasedBuffers;
   
   @BeforeClass
   public static void init() throws Exception {
@@ -84,8 +92,29 @@ protected InputStream getInputStream(int bufferSize, byte[] key, byte[] iv)
       throws IOException {
     DataInputBuffer in = new DataInputBuffer();
     in.reset(buf, 0, bufLen);
-    return new CryptoInputStream(new FakeInputStream(in), codec, bufferSize, 
-        key, iv);
+    FakeInputStream fake = !readOnlyBuffers ? new FakeInputStream(in) :
+        new FakeInputStream(in) {
+          @Override
+          public ByteBuffer read(ByteBufferPool bufferPool, int maxLength,
+              EnumSet<ReadOption> opts) throws IOException {
+            ByteBuffer buffer = super.read(bufferPool, maxLength, opts);
+            return buffer == null ? null : buffer.asReadOnlyBuffer();
+          }
+
+          @Override
+          public void releaseBuffer(ByteBuffer buffer) {
+            Assert.assertTrue(buffer.isReadOnly());
+            releasedBuffers++;
+          }
+        };
+    return new CryptoInputStream(fake, codec, bufferSize, key, iv);
+  }
+  
+  @Test(timeout=120000)
+  public void testReadOnlyEnhancedByteBuffer() throws Exception {
+    readOnlyBuffers = true;
+    testHasEnhancedByteBufferAccess();
+    Assert.assertEquals(2, releasedBuffers);
   }
   
   private class FakeOutputStream extends OutputStream 
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test {@link VectoredReadable#readVectored} of the local file systems and
+ * the merging of the ranges.
+ */
+public class TestVectoredRead {
+  private static final String TEST_ROOT_DIR
+    = System.getProperty("test.build.data","build/test/data") + "/work-dir/vectored";
+  private static final int FILE_LEN = 100 * 1024 + 17;
+
+  private final File base = new File(TEST_ROOT_DIR);
+  private final Path path = new Path(TEST_ROOT_DIR, "file");
+  private final ByteBufferPool pool = new ElasticByteBufferPool();
+  private LocalFileSystem fs;
+  private byte[] data;
+
+  @Before
+  public void setup() throws IOException {
+    fs = FileSystem.getLocal(new Configuration());
+    fs.delete(new Path(TEST_ROOT_DIR), true);
+    data = new byte[FILE_LEN];
+    new Random(0xBEEFL).nextBytes(data);
+    FSDataOutputStream out = fs.create(path);
+    out.write(data);
+    out.close();
+  }
+
+  @After
+  public void after() {
+    FileUtil.fullyDelete(base);
+  }
+
+  private static List<FileRange> ranges() {
+    // not sorted, with ranges to merge, a large gap and an empty range
+    return Arrays.asList(new FileRange(5000, 100), new FileRange(0, 1000),
+        new FileRange(1100, 2000), new FileRange(60 * 1024, 0),
+        new FileRange(FILE_LEN - 3000, 3000));
+  }
+
+  private static ByteBuffer getData(FileRange range) throws Exception {
+    return range.getData().get(60, TimeUnit.SECONDS);
+  }
+
+  private void assertData(FileRange range) throws Exception {
+    ByteBuffer buffer = getData(range);
+    assertEquals(0, buffer.position());
+    assertEquals(range.getLength(), buffer.remaining());
+    byte[] read = new byte[range.getLength()];
+    buffer.get(read);
+    assertTrue("Wrong data for " + range, Arrays.equals(Arrays.copyOfRange(
+        data, (int) range.getOffset(),
+        (int) range.getOffset() + range.getLength()), read));
+    pool.putBuffer(buffer);
+  }
+
+  private void testReadVectored(FileSystem fs) throws Exception {
+    FSDataInputStream in = fs.open(path);
+    try {
+      List<FileRange> ranges = ranges();
+      in.readVectored(ranges, pool);
+      for (FileRange range : ranges) {
+        assertData(range);
+      }
+
+      // a range past the end of the file fails alone
+      FileRange inFile = new FileRange(FILE_LEN - 200, 100);
+      FileRange pastEof = new FileRange(FILE_LEN - 50, 100);
+      in.readVectored(Arrays.asList(inFile, pastEof), pool);
+      assertData(inFile);
+      try {
+        getData(pastEof);
+        fail("Read past the end of the file");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof EOFException);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testRawLocalFileSystem() throws Exception {
+    testReadVectored(fs.getRawFileSystem());
+  }
+
+  @Test(timeout = 60000)
+  public void testChecksumFileSystem() throws Exception {
+    testReadVectored(fs);
+  }
+
+  @Test(timeout = 60000)
+  public void testChecksumError() throws Exception {
+    RandomAccessFile file = new RandomAccessFile(fs.pathToFile(path), "rw");
+    try {
+      file.seek(5050);
+      file.write(data[5050] ^ 0xff);
+    } finally {
+      file.close();
+    }
+    FSDataInputStream in = fs.open(path);
+    try {
+      FileRange corrupt = new FileRange(5000, 100);
+      FileRange good = new FileRange(50000, 100);
+      in.readVectored(Arrays.asList(corrupt, good), pool);
+      assertData(good);
+      try {
+        getData(corrupt);
+        fail("Read a corrupt range");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof ChecksumException);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOverlappingRanges() throws Exception {
+    FSDataInputStream in = fs.open(path);
+    try {
+      in.readVectored(Arrays.asList(new FileRange(0, 100),
+          new FileRange(99, 100)), pool);
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testMergeSortedRanges() {
+    List<FileRange> sorted = VectoredReadUtils.prepareRanges(ranges());
+    List<CombinedFileRange> merged =
+        VectoredReadUtils.mergeSortedRanges(sorted, 1, 4096, 1024 * 1024);
+    assertEquals(3, merged.size());
+    assertEquals(0, merged.get(0).getOffset());
+    assertEquals(5100, merged.get(0).getLength());
+    assertEquals(3, merged.get(0).getUnderlying().size());
+    assertEquals(60 * 1024, merged.get(1).getOffset());
+    assertEquals(0, merged.get(1).getLength());
+
+    // aligned to chunks, and limited in size
+    merged = VectoredReadUtils.mergeSortedRanges(sorted, 512, 0, 4096);
+    assertEquals(4, merged.size());
+    assertEquals(0, merged.get(0).getOffset());
+    assertEquals(3584, merged.get(0).getLength());
+    assertEquals(4608, merged.get(1).getOffset());
+    assertEquals(512, merged.get(1).getLength());
+    merged = VectoredReadUtils.mergeSortedRanges(sorted, 512, 0, 3072);
+    assertEquals(5, merged.size());
+  }
+}
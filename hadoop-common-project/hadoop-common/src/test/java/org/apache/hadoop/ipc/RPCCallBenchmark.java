@@ -18,10 +18,14 @@
 package org.apache.hadoop.ipc;
 
 import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
 import java.net.InetSocketAddress;
 import java.security.PrivilegedExceptionAction;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
@@ -71,6 +75,8 @@ private static class MyOptions {
     private int msgSize = 1024;
     public Class<? extends RpcEngine> rpcEngine =
       WritableRpcEngine.class;
+    // null to use the default call queue
+    private Class<?> callQueueClass = null;
     
     private MyOptions(String args[]) {
       try {
@@ -141,6 +147,12 @@ private Options buildOptions() {
           .withDescription("engine to use")
           .create('e'));
       
+      opts.addOption(
+          OptionBuilder.withLongOpt("callqueue").hasArg(true)
+          .withArgName("default|fair|lockfree")
+          .withDescription("call queue of the server")
+          .create('q'));
+
       opts.addOption(
           OptionBuilder.withLongOpt("help").hasArg(false)
           .withDescription("show this screen")
@@ -193,6 +205,19 @@ private void processOptions(CommandLine line, Options opts)
         }
       }
       
+      if (line.hasOption('q')) {
+        String queue = line.getOptionValue('q');
+        if ("default".equals(queue)) {
+          callQueueClass = null;
+        } else if ("fair".equals(queue)) {
+          callQueueClass = FairCallQueue.class;
+        } else if ("lockfree".equals(queue)) {
+          callQueueClass = LockFreeFairCallQueue.class;
+        } else {
+          throw new ParseException("invalid call queue: " + queue);
+        }
+      }
+
       String[] remainingArgs = line.getArgs();
       if (remainingArgs.length != 0) {
         throw new ParseException("Extra arguments: " +
@@ -215,7 +240,9 @@ public String toString() {
       return "rpcEngine=" + rpcEngine + "\nserverThreads=" + serverThreads
           + "\nserverReaderThreads=" + serverReaderThreads + "\nclientThreads="
           + clientThreads + "\nhost=" + host + "\nport=" + getPort()
-          + "\nsecondsToRun=" + secondsToRun + "\nmsgSize=" + msgSize;
+          + "\nsecondsToRun=" + secondsToRun + "\nmsgSize=" + msgSize
+          + "\ncallQueue=" + (callQueueClass == null ?
+              "default" : callQueueClass.getName());
     }
   }
 
@@ -227,6 +254,11 @@ private Server startServer(MyOptions opts) throws IOException {
     }
     conf.setInt(CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_KEY,
         opts.serverReaderThreads);
+    if (opts.callQueueClass != null) {
+      conf.setClass(CommonConfigurationKeys.IPC_CALLQUEUE_NAMESPACE + "."
+          + opts.getPort() + "." + CommonConfigurationKeys.IPC_CALLQUEUE_IMPL_KEY,
+          opts.callQueueClass, BlockingQueue.class);
+    }
     
     RPC.Server server;
     // Get RPC server for server side implementation
@@ -259,6 +291,61 @@ private long getTotalCpuTime(Iterable<? extends Thread> threads) {
     }
     return total;
   }
+
+  /**
+   * @return the bytes allocated so far by each live thread of the JVM, or
+   *         null if the JVM does not measure them.
+   */
+  private static Map<Long, Long> getAllocatedBytes() {
+    if (!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+    com.sun.management.ThreadMXBean bean =
+        (com.sun.management.ThreadMXBean) threadBean;
+    if (!bean.isThreadAllocatedMemorySupported() ||
+        !bean.isThreadAllocatedMemoryEnabled()) {
+      return null;
+    }
+    Map<Long, Long> allocated = new HashMap<Long, Long>();
+    for (long tid : threadBean.getAllThreadIds()) {
+      long bytes = bean.getThreadAllocatedBytes(tid);
+      if (bytes >= 0) {
+        allocated.put(tid, bytes);
+      }
+    }
+    return allocated;
+  }
+
+  /**
+   * @return the bytes allocated between the two snapshots by the threads
+   *         live at both. The counts of a thread which is starting or ending
+   *         may be bogus, so a count going backwards is left out as well.
+   */
+  private static long getAllocatedBytes(Map<Long, Long> start,
+      Map<Long, Long> end) {
+    long total = 0;
+    for (Map.Entry<Long, Long> e : end.entrySet()) {
+      Long before = start.get(e.getKey());
+      if (before != null && e.getValue() >= before) {
+        total += e.getValue() - before;
+      }
+    }
+    return total;
+  }
+
+  /**
+   * @return the number of collections and their total time in ms, of all
+   *         the garbage collectors of the JVM.
+   */
+  private static long[] getGcCountAndTime() {
+    long[] countAndTime = new long[2];
+    for (GarbageCollectorMXBean gc :
+        ManagementFactory.getGarbageCollectorMXBeans()) {
+      countAndTime[0] += Math.max(0, gc.getCollectionCount());
+      countAndTime[1] += Math.max(0, gc.getCollectionTime());
+    }
+    return countAndTime;
+  }
   
   @Override
   public int run(String[] args) throws Exception {
@@ -278,6 +365,8 @@ public int run(String[] args) throws Exception {
         long totalCalls = 0;
         ctx.startThreads();
         long veryStart = System.nanoTime();
+        Map<Long, Long> allocatedStart = getAllocatedBytes();
+        long[] gcStart = getGcCountAndTime();
 
         // Loop printing results every second until the specified
         // time has elapsed
@@ -295,6 +384,8 @@ public int run(String[] args) throws Exception {
 
         if (totalCalls > 0) {
           long veryEnd = System.nanoTime();
+          Map<Long, Long> allocatedEnd = getAllocatedBytes();
+          long[] gcEnd = getGcCountAndTime();
           double callsPerSec =
             (totalCalls * 1000000000)/(veryEnd - veryStart);
           long cpuNanosClient = getTotalCpuTime(ctx.getTestThreads());
@@ -311,6 +402,13 @@ public int run(String[] args) throws Exception {
             System.out.println("CPU time per call on server: " +
                 (cpuNanosServer / totalCalls) + " ns");
           }
+          // the client and the server share the JVM when both are run
+          if (allocatedStart != null && allocatedEnd != null) {
+            System.out.println("Bytes allocated per call: " +
+                (getAllocatedBytes(allocatedStart, allocatedEnd) / totalCalls));
+          }
+          System.out.println("GC collections: " + (gcEnd[0] - gcStart[0]) +
+              ", GC time: " + (gcEnd[1] - gcStart[1]) + " ms");
         } else {
           System.out.println("No calls!");
         }
@@ -19,6 +19,8 @@
 package org.apache.hadoop.ipc;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import junit.framework.TestCase;
@@ -113,6 +115,21 @@ public void testOfferSucceedsWhenScheduledLowPriority() {
     assertEquals(6, fcq.size());
   }
 
+  public void testRequeuedCallKeepsPriorityLevel() throws Exception {
+    RpcScheduler sched = mock(RpcScheduler.class);
+    when(sched.getPriorityLevel(Matchers.<Schedulable>any())).thenReturn(1, 0);
+    fcq.setScheduler(sched);
+    Server.Call call = new Server.Call(0, 0, null, null);
+
+    fcq.put(call);
+    assertEquals(call, fcq.take());
+    // a call which comes back is not scheduled, nor counted, again
+    assertTrue(fcq.offer(call));
+    verify(sched, times(1)).getPriorityLevel(call);
+    assertEquals(1, call.getPriorityLevel());
+    assertEquals(call, fcq.take());
+  }
+
   public void testPeekNullWhenEmpty() {
     assertNull(fcq.peek());
   }
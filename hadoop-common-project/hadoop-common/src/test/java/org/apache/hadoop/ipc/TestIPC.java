@@ -47,6 +47,7 @@
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -81,6 +82,7 @@
 import org.mockito.stubbing.Answer;
 
 import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.primitives.Ints;
 
 /** Unit tests for IPC. */
@@ -233,6 +235,95 @@ public void testSerial() throws IOException, InterruptedException {
     internalTestSerial(3, true, 2, 5, 10);
   }
 
+  /**
+   * Asynchronous calls beyond the limit of outstanding calls wait for a
+   * slot, and each gets its own response.
+   */
+  @Test(timeout=60000)
+  public void testAsyncCalls() throws Exception {
+    conf.setInt(CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY, 2);
+    Server server = new TestServer(1, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      ConnectionId remoteId = ConnectionId.getConnectionId(addr, null, null,
+          0, conf);
+      List<ListenableFuture<Writable>> futures =
+          new ArrayList<ListenableFuture<Writable>>();
+      for (int i = 0; i < 20; i++) {
+        futures.add(client.asyncCall(RpcKind.RPC_BUILTIN, new LongWritable(i),
+            remoteId, RPC.RPC_SERVICE_CLASS_DEFAULT, null));
+      }
+      for (int i = 0; i < 20; i++) {
+        assertEquals(new LongWritable(i), futures.get(i).get());
+      }
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /**
+   * The slots for asynchronous calls of a connection go away with it.
+   */
+  @Test(timeout=60000)
+  public void testAsyncCallSlotsRemovedWithConnection() throws Exception {
+    Server server = new TestServer(1, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      ConnectionId remoteId = ConnectionId.getConnectionId(addr, null, null,
+          0, conf);
+      assertEquals(new LongWritable(1), client.asyncCall(RpcKind.RPC_BUILTIN,
+          new LongWritable(1), remoteId, RPC.RPC_SERVICE_CLASS_DEFAULT,
+          null).get());
+      assertEquals(Collections.singleton(remoteId),
+          client.getAsyncCallSlotIds());
+      client.stop();
+      assertTrue(client.getConnectionIds().isEmpty());
+      assertTrue(client.getAsyncCallSlotIds().isEmpty());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /**
+   * An asynchronous call fails with the exception thrown by the server.
+   */
+  @Test(timeout=60000)
+  public void testAsyncCallException() throws Exception {
+    TestServer server = new TestServer(1, false);
+    server.callListener = new Runnable() {
+      @Override
+      public void run() {
+        throw new RuntimeException("Injected fault");
+      }
+    };
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      ConnectionId remoteId = ConnectionId.getConnectionId(addr, null, null,
+          0, conf);
+      ListenableFuture<Writable> future = client.asyncCall(
+          RpcKind.RPC_BUILTIN, new LongWritable(1), remoteId,
+          RPC.RPC_SERVICE_CLASS_DEFAULT, null);
+      try {
+        future.get();
+        fail("Expected an exception to have been thrown");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof RemoteException);
+        assertTrue(e.getCause().getMessage().contains("Injected fault"));
+      }
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
   public void internalTestSerial(int handlerCount, boolean handlerSleep,
                          int clientCount, int callerCount, int callCount)
     throws IOException, InterruptedException {
@@ -0,0 +1,286 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import static org.apache.hadoop.ipc.FairCallQueue.IPC_CALLQUEUE_PRIORITY_LEVELS_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+
+public class TestLockFreeFairCallQueue {
+  private LockFreeFairCallQueue<Schedulable> fcq;
+
+  private Schedulable mockCall(String id) {
+    Schedulable mockCall = mock(Schedulable.class);
+    UserGroupInformation ugi = mock(UserGroupInformation.class);
+
+    when(ugi.getUserName()).thenReturn(id);
+    when(mockCall.getUserGroupInformation()).thenReturn(ugi);
+
+    return mockCall;
+  }
+
+  private static RpcScheduler scheduler(Integer first, Integer... rest) {
+    RpcScheduler sched = mock(RpcScheduler.class);
+    when(sched.getPriorityLevel(Matchers.<Schedulable>any()))
+        .thenReturn(first, rest);
+    return sched;
+  }
+
+  @Before
+  public void setUp() {
+    Configuration conf = new Configuration();
+    conf.setInt("ns." + IPC_CALLQUEUE_PRIORITY_LEVELS_KEY, 2);
+
+    fcq = new LockFreeFairCallQueue<Schedulable>(10, "ns", conf);
+  }
+
+  @Test
+  public void testRingBuffer() {
+    MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<Integer>(3);
+    assertNull(ring.poll());
+    // wrap around a few times
+    for (int lap = 0; lap < 3; lap++) {
+      for (int i = 0; i < 3; i++) {
+        assertTrue(ring.offer(i));
+      }
+      assertFalse(ring.offer(3));
+      assertEquals(3, ring.size());
+      assertEquals(0, ring.peek().intValue());
+      for (int i = 0; i < 3; i++) {
+        assertEquals(i, ring.poll().intValue());
+      }
+      assertNull(ring.poll());
+      assertNull(ring.peek());
+      assertEquals(0, ring.size());
+    }
+  }
+
+  @Test
+  public void testPollAndPeek() {
+    assertNull(fcq.poll());
+    assertNull(fcq.peek());
+
+    Schedulable call = mockCall("c");
+    assertTrue(fcq.offer(call));
+    assertEquals(call, fcq.peek());
+    assertEquals(1, fcq.size());
+    assertEquals(call, fcq.poll());
+    assertEquals(0, fcq.size());
+  }
+
+  @Test
+  public void testOfferFailsWhenLevelFull() throws InterruptedException {
+    fcq.setScheduler(scheduler(0));
+    for (int i = 0; i < 5; i++) {
+      assertTrue(fcq.offer(mockCall("c")));
+    }
+    // offer does not overflow into the next level
+    assertFalse(fcq.offer(mockCall("c")));
+    assertFalse(fcq.offer(mockCall("c"), 10, TimeUnit.MILLISECONDS));
+    assertEquals(5, fcq.size());
+    assertEquals(5, fcq.remainingCapacity());
+  }
+
+  @Test(timeout = 10000)
+  public void testPutOverflowsAndBlocks() throws InterruptedException {
+    fcq.setScheduler(scheduler(0));
+    for (int i = 0; i < 10; i++) {
+      fcq.put(mockCall("c"));
+    }
+    assertEquals(10, fcq.size());
+    assertEquals(0, fcq.remainingCapacity());
+    assertEquals(5, fcq.getOverflowedCalls()[0]);
+
+    // a put into the full queue waits until a call is taken from the last
+    // level
+    RpcMultiplexer q1mux = mock(RpcMultiplexer.class);
+    when(q1mux.getAndAdvanceCurrentIndex()).thenReturn(1);
+    fcq.setMultiplexer(q1mux);
+    final CountDownLatch putDone = new CountDownLatch(1);
+    Thread putter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          fcq.put(mockCall("c"));
+          putDone.countDown();
+        } catch (InterruptedException e) {
+          // unexpected, the latch is not counted down
+        }
+      }
+    };
+    putter.start();
+    assertFalse(putDone.await(100, TimeUnit.MILLISECONDS));
+    fcq.take();
+    assertTrue(putDone.await(5, TimeUnit.SECONDS));
+    assertEquals(10, fcq.size());
+  }
+
+  @Test(timeout = 10000)
+  public void testPollTimeoutAndTakeBlocks() throws InterruptedException {
+    assertNull(fcq.poll(10, TimeUnit.MILLISECONDS));
+
+    final Schedulable call = mockCall("c");
+    Thread putter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep(100);
+          fcq.put(call);
+        } catch (InterruptedException e) {
+          // the take below times out
+        }
+      }
+    };
+    putter.start();
+    assertEquals(call, fcq.take());
+    assertEquals(0, fcq.size());
+  }
+
+  @Test
+  public void testTakeTriesNextQueue() throws InterruptedException {
+    fcq.setScheduler(scheduler(1));
+    // A mux which only draws from q 0
+    RpcMultiplexer q0mux = mock(RpcMultiplexer.class);
+    when(q0mux.getAndAdvanceCurrentIndex()).thenReturn(0);
+    fcq.setMultiplexer(q0mux);
+
+    Schedulable call = mockCall("c");
+    fcq.put(call);
+
+    // Take from q1 even though mux said q0, since q0 empty
+    assertEquals(call, fcq.take());
+    assertEquals(0, fcq.size());
+  }
+
+  @Test
+  public void testDrainTo() {
+    fcq.setScheduler(scheduler(0, 1, 0));
+    for (int i = 0; i < 3; i++) {
+      fcq.offer(mockCall("c"));
+    }
+    List<Schedulable> drained = new ArrayList<Schedulable>();
+    assertEquals(2, fcq.drainTo(drained, 2));
+    assertEquals(1, fcq.size());
+    assertEquals(1, fcq.drainTo(drained));
+    assertEquals(3, drained.size());
+    assertNull(fcq.poll());
+  }
+
+  @Test(timeout = 60000)
+  public void testConcurrentPutAndTake() throws Exception {
+    final int numThreads = 4;
+    final int callsPerThread = 10000;
+    fcq.setScheduler(new RpcScheduler() {
+      @Override
+      public int getPriorityLevel(Schedulable obj) {
+        return obj.hashCode() & 1;
+      }
+    });
+
+    final List<Thread> threads = new ArrayList<Thread>();
+    final List<Set<Schedulable>> taken = new ArrayList<Set<Schedulable>>();
+    for (int t = 0; t < numThreads; t++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < callsPerThread; i++) {
+              fcq.put(new Schedulable() {
+                @Override
+                public UserGroupInformation getUserGroupInformation() {
+                  return null;
+                }
+              });
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+      final Set<Schedulable> set = new HashSet<Schedulable>();
+      taken.add(set);
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < callsPerThread; i++) {
+              set.add(fcq.take());
+            }
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    // every call was taken exactly once
+    Set<Schedulable> all = new HashSet<Schedulable>();
+    for (Set<Schedulable> set : taken) {
+      assertEquals(callsPerThread, set.size());
+      all.addAll(set);
+    }
+    assertEquals(numThreads * callsPerThread, all.size());
+    assertEquals(0, fcq.size());
+    assertNull(fcq.poll());
+  }
+
+  @Test
+  public void testFairCallQueueMXBean() throws Exception {
+    MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+    ObjectName mxbeanName = new ObjectName(
+        "Hadoop:service=ns,name=FairCallQueue");
+
+    fcq.setScheduler(scheduler(0));
+    fcq.put(mockCall("c"));
+    int[] queueSizes = (int[]) mbs.getAttribute(mxbeanName, "QueueSizes");
+    assertEquals(1, queueSizes[0]);
+    assertEquals(0, queueSizes[1]);
+    fcq.take();
+    queueSizes = (int[]) mbs.getAttribute(mxbeanName, "QueueSizes");
+    assertEquals(0, queueSizes[0]);
+    assertEquals(0, queueSizes[1]);
+  }
+}
@@ -19,18 +19,30 @@
 
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.apache.hadoop.test.MetricsAsserts.assertCounterGt;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.ipc.metrics.RpcMetrics;
 import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto.RpcErrorCodeProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto.OperationProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoRequestProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoResponseProto;
@@ -40,13 +52,17 @@
 import org.apache.hadoop.ipc.protobuf.TestRpcServiceProtos.TestProtobufRpc2Proto;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.ProtoUtil;
 import org.junit.Assert;
 import org.junit.Test;
 import org.junit.Before;
 import org.junit.After;
 
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.BlockingService;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
 
@@ -212,6 +228,125 @@ public static void testProtoBufRpc(TestRpcService client) throws Exception {
     }
   }
   
+  @Test (timeout=5000)
+  public void testAsyncProtoBufRpc() throws Exception {
+    TestRpcService client = getClient();
+    ProtobufRpcEngine.setAsynchronousMode(true);
+    try {
+      EchoRequestProto echoRequest = EchoRequestProto.newBuilder()
+          .setMessage("hello").build();
+      assertNull(client.echo(null, echoRequest));
+      ListenableFuture<EchoResponseProto> echoResponse =
+          ProtobufRpcEngine.getAsyncReturnMessage();
+      assertNull(ProtobufRpcEngine.getAsyncReturnMessage());
+
+      EmptyRequestProto emptyRequest = EmptyRequestProto.newBuilder().build();
+      assertNull(client.error(null, emptyRequest));
+      ListenableFuture<EmptyResponseProto> errorResponse =
+          ProtobufRpcEngine.getAsyncReturnMessage();
+
+      assertEquals("hello", echoResponse.get().getMessage());
+      try {
+        errorResponse.get();
+        Assert.fail("Expected exception is not thrown");
+      } catch (ExecutionException e) {
+        RemoteException re = (RemoteException) e.getCause();
+        Assert.assertNotNull(re.unwrapRemoteException(
+            RpcServerException.class));
+      }
+    } finally {
+      ProtobufRpcEngine.setAsynchronousMode(false);
+    }
+    // back to synchronous calls
+    assertEquals("hello", client.echo(null, EchoRequestProto.newBuilder()
+        .setMessage("hello").build()).getMessage());
+  }
+
+  /**
+   * Tracks a single state id, both as server and as client.
+   */
+  private static class StateIdContext implements AlignmentContext {
+    private final AtomicLong stateId = new AtomicLong();
+
+    @Override
+    public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+      header.setStateId(stateId.get());
+    }
+
+    @Override
+    public void receiveResponseState(RpcResponseHeaderProto header) {
+      stateId.set(Math.max(stateId.get(), header.getStateId()));
+    }
+
+    @Override
+    public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+      header.setStateId(stateId.get());
+    }
+
+    @Override
+    public long getLastSeenStateId() {
+      return stateId.get();
+    }
+
+    @Override
+    public boolean isCoordinatedCall(String protocolName, String methodName) {
+      return "echo".equals(methodName);
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testAlignmentContext() throws Exception {
+    final StateIdContext serverContext = new StateIdContext();
+    server.setAlignmentContext(serverContext);
+    StateIdContext clientContext = new StateIdContext();
+    TestRpcService client = RPC.getProtocolProxy(TestRpcService.class, 0,
+        addr, UserGroupInformation.getCurrentUser(), conf,
+        NetUtils.getDefaultSocketFactory(conf), 0, null, null,
+        clientContext).getProxy();
+    EchoRequestProto echoRequest = EchoRequestProto.newBuilder()
+        .setMessage("hello").build();
+    try {
+      // the client learns the state of the server
+      serverContext.stateId.set(10);
+      client.ping(null, EmptyRequestProto.newBuilder().build());
+      assertEquals(10, clientContext.getLastSeenStateId());
+
+      // a coordinated call ahead of the server waits for it
+      clientContext.stateId.set(12);
+      Thread advancer = new Thread() {
+        @Override
+        public void run() {
+          try {
+            Thread.sleep(200);
+          } catch (InterruptedException e) {
+            return;
+          }
+          serverContext.stateId.set(12);
+          server.notifyStateIdAdvanced();
+        }
+      };
+      advancer.start();
+      assertEquals("hello", client.echo(null, echoRequest).getMessage());
+      advancer.join();
+
+      // calls which are not coordinated do not wait
+      clientContext.stateId.set(20);
+      client.ping(null, EmptyRequestProto.newBuilder().build());
+
+      // a server which does not catch up fails the call
+      try {
+        client.echo(null, echoRequest);
+        Assert.fail("Expected exception is not thrown");
+      } catch (ServiceException e) {
+        RemoteException re = (RemoteException) e.getCause();
+        Assert.assertNotNull(re.unwrapRemoteException(
+            StandbyException.class));
+      }
+    } finally {
+      RPC.stopProxy(client);
+    }
+  }
+
   @Test (timeout=5000)
   public void testProtoBufRpc2() throws Exception {
     TestRpcService2 client = getClient2();
@@ -254,6 +389,76 @@ public void testProtoBufRandomException() throws Exception {
     }
   }
   
+  /**
+   * A request serialized into the middle of a frame is read back in place.
+   */
+  @Test
+  public void testRpcWrapperReadFromFrame() throws Exception {
+    RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
+        RPC.RpcKind.RPC_PROTOCOL_BUFFER, OperationProto.RPC_FINAL_PACKET, 7,
+        0, ClientId.getClientId());
+    EchoRequestProto echoRequest = EchoRequestProto.newBuilder()
+        .setMessage("hello").build();
+    ProtobufRpcEngine.RpcRequestMessageWrapper written =
+        new ProtobufRpcEngine.RpcRequestMessageWrapper(header, echoRequest);
+
+    int length = written.getLength();
+    byte[] frame = new byte[3 + length + 2];
+    CodedOutputStream cos = CodedOutputStream.newInstance(frame, 3, length);
+    written.writeTo(cos);
+    cos.checkNoSpaceLeft();
+
+    // same bytes as through the Writable interface
+    DataOutputBuffer out = new DataOutputBuffer();
+    written.write(out);
+    assertEquals(length, out.getLength());
+    assertArrayEquals(Arrays.copyOf(out.getData(), length),
+        Arrays.copyOfRange(frame, 3, 3 + length));
+
+    ProtobufRpcEngine.RpcRequestMessageWrapper read =
+        new ProtobufRpcEngine.RpcRequestMessageWrapper();
+    read.readFrom(frame, 3, length);
+    assertEquals(header, read.getMessageHeader());
+    assertEquals(length, read.getLength());
+    assertEquals(echoRequest,
+        EchoRequestProto.parseFrom(read.getMessageBytes()));
+  }
+
+  /**
+   * Concurrent calls of different sizes over one connection.
+   */
+  @Test(timeout = 20000)
+  public void testConcurrentEcho() throws Exception {
+    final TestRpcService2 client = getClient2();
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 8; t++) {
+      final String message = StringUtils.repeat("X", t * 64);
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          try {
+            EchoRequestProto echoRequest = EchoRequestProto.newBuilder()
+                .setMessage(message).build();
+            for (int i = 0; i < 500; i++) {
+              assertEquals(message, client.echo2(null, echoRequest)
+                  .getMessage());
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      });
+    }
+    for (Thread t : threads) {
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertNull(failure.get());
+  }
+
   @Test(timeout=6000)
   public void testExtraLongRpc() throws Exception {
     TestRpcService2 client = getClient2();
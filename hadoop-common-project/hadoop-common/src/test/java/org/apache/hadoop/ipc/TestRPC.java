@@ -41,6 +41,7 @@
 import java.net.InetSocketAddress;
 import java.net.SocketTimeoutException;
 import java.security.PrivilegedAction;
+import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -302,6 +303,17 @@ public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
         SocketFactory factory, int rpcTimeout,
         RetryPolicy connectionRetryPolicy, AtomicBoolean fallbackToSimpleAuth
         ) throws IOException {
+      return getProxy(protocol, clientVersion, addr, ticket, conf, factory,
+        rpcTimeout, connectionRetryPolicy, fallbackToSimpleAuth, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
+        InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
+        SocketFactory factory, int rpcTimeout,
+        RetryPolicy connectionRetryPolicy, AtomicBoolean fallbackToSimpleAuth,
+        AlignmentContext alignmentContext) throws IOException {
       T proxy = (T) Proxy.newProxyInstance(protocol.getClassLoader(),
               new Class[] { protocol }, new StoppedInvocationHandler());
       return new ProtocolProxy<T>(protocol, proxy, false);
@@ -377,6 +389,60 @@ public void testConfRpc() throws IOException {
     server.stop();    
   }
 
+  /**
+   * Connections of several users are spread over the configured responders,
+   * and each gets all of its responses.
+   */
+  @Test(timeout = 60000)
+  public void testMultipleResponders() throws Exception {
+    Configuration conf = new Configuration(this.conf);
+    conf.setInt(CommonConfigurationKeys.IPC_SERVER_RPC_RESPONDER_THREADS_KEY,
+        3);
+    final Server server = new RPC.Builder(conf).setProtocol(TestProtocol.class)
+        .setInstance(new TestImpl()).setBindAddress(ADDRESS).setPort(0)
+        .setNumHandlers(4).setVerbose(false).build();
+    assertEquals(3, server.getNumResponders());
+    server.start();
+    final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    final Configuration clientConf = conf;
+    ExecutorService executor = Executors.newFixedThreadPool(6);
+    try {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int i = 0; i < 6; i++) {
+        // a connection per user
+        final UserGroupInformation ugi =
+            UserGroupInformation.createRemoteUser("user" + i);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            return ugi.doAs(new PrivilegedExceptionAction<Void>() {
+              @Override
+              public Void run() throws Exception {
+                TestProtocol proxy = RPC.getProxy(TestProtocol.class,
+                    TestProtocol.versionID, addr, clientConf);
+                try {
+                  for (int j = 0; j < 200; j++) {
+                    String value = ugi.getUserName() + "-" + j;
+                    assertEquals(value, proxy.echo(value));
+                  }
+                } finally {
+                  RPC.stopProxy(proxy);
+                }
+                return null;
+              }
+            });
+          }
+        }));
+      }
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+      server.stop();
+    }
+  }
+
   @Test
   public void testProxyAddress() throws IOException {
     Server server = new RPC.Builder(conf).setProtocol(TestProtocol.class)
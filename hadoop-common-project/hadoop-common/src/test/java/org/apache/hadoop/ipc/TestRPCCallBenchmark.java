@@ -50,4 +50,18 @@ public void testBenchmarkWithProto() throws Exception {
       "--engine", "protobuf"});
     assertEquals(0, rc);
   }
+
+  @Test(timeout=20000)
+  public void testBenchmarkWithLockFreeFairCallQueue() throws Exception {
+    int rc = ToolRunner.run(new RPCCallBenchmark(),
+        new String[] {
+      "--clientThreads", "30",
+      "--serverThreads", "30",
+      "--time", "5",
+      "--serverReaderThreads", "4",
+      "--messageSize", "1024",
+      "--engine", "protobuf",
+      "--callqueue", "lockfree"});
+    assertEquals(0, rc);
+  }
 }
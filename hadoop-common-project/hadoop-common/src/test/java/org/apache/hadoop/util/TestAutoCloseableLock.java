@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+public class TestAutoCloseableLock {
+
+  @Test
+  public void testTryWithResources() {
+    ReentrantLock lock = new ReentrantLock();
+    AutoCloseableLock l = new AutoCloseableLock(lock);
+    try (AutoCloseableLock held = l.acquire()) {
+      assertTrue(lock.isHeldByCurrentThread());
+      try (AutoCloseableLock again = l.acquire()) {
+        assertEquals(2, lock.getHoldCount());
+      }
+      assertEquals(1, lock.getHoldCount());
+    }
+    assertFalse(lock.isLocked());
+  }
+
+  @Test(timeout = 10000)
+  public void testTryLock() throws Exception {
+    final AutoCloseableLock l = new AutoCloseableLock();
+    assertTrue(l.tryLock());
+    final boolean[] acquired = new boolean[1];
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        acquired[0] = l.tryLock();
+      }
+    };
+    t.start();
+    t.join();
+    assertFalse(acquired[0]);
+    l.release();
+  }
+}
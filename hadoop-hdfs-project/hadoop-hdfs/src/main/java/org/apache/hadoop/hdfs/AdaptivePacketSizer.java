@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Sizes the packets of a {@link DFSOutputStream} from its writes and the
+ * acks of its pipeline.
+ * <p>
+ * A writer which fills its packets gets packets large enough for
+ * dfs.client.write.max-packets-in-flight of them to hold twice the bandwidth-delay
+ * product of the pipeline, estimated from the rate of the acked bytes and
+ * the minimum round trip time of the acks. A writer which flushes before
+ * its packets are full gets packets of about twice what it flushes, so that
+ * it does not allocate and send buffers it leaves mostly empty.
+ * <p>
+ * Until both have been sampled, and unless a flushing writer asks for less,
+ * the packets keep the configured dfs.client-write-packet-size.
+ */
+@InterfaceAudience.Private
+class AdaptivePacketSizer {
+  /** The weight of a new sample in the moving averages */
+  private static final double ALPHA = 0.25;
+  /** The minimum round trip time older than this is forgotten */
+  @VisibleForTesting
+  static final long MIN_RTT_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+  /** The shortest interval of the samples of the ack rate */
+  private static final long MIN_RATE_INTERVAL_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final int defaultSize;
+  private final int minSize;
+  private final int maxSize;
+  private final int maxPackets;
+  private final DFSWriteMetrics metrics;
+
+  /** Moving average of the data bytes per packet, -1 before a sample */
+  private double avgPacketBytes = -1;
+  /** Moving average of the acked bytes per nanosecond, -1 before a sample */
+  private double ackedBytesPerNano = -1;
+  private long minRttNanos = -1;
+  private long minRttTime;
+  /** The start of the current sample of the ack rate, -1 before an ack */
+  private long rateStartTime = -1;
+  private long rateBytes;
+  private int packetSize;
+
+  /**
+   * @param defaultSize the configured packet size
+   * @param minSize the smallest packet size
+   * @param maxSize the largest packet size
+   * @param maxPackets the most packets queued or in flight in the pipeline
+   * @param metrics where to count the changes of the packet size, or null
+   */
+  AdaptivePacketSizer(int defaultSize, int minSize, int maxSize,
+      int maxPackets, DFSWriteMetrics metrics) {
+    this.minSize = Math.min(minSize, defaultSize);
+    this.maxSize = Math.max(maxSize, defaultSize);
+    this.defaultSize = defaultSize;
+    this.maxPackets = Math.max(maxPackets, 1);
+    this.metrics = metrics;
+    this.packetSize = defaultSize;
+  }
+
+  /**
+   * A packet was queued for sending.
+   * @param dataBytes the data in the packet
+   */
+  synchronized void packetQueued(int dataBytes) {
+    avgPacketBytes = avgPacketBytes < 0 ? dataBytes
+        : avgPacketBytes + ALPHA * (dataBytes - avgPacketBytes);
+  }
+
+  /**
+   * An ack was received.
+   * @param dataBytes the data in the acked packets
+   * @param rttNanos the time from sending the last acked packet to the ack
+   * @param now the current {@link System#nanoTime()}
+   */
+  synchronized void packetsAcked(long dataBytes, long rttNanos, long now) {
+    if (minRttNanos < 0 || rttNanos <= minRttNanos
+        || now - minRttTime > MIN_RTT_WINDOW_NANOS) {
+      minRttNanos = rttNanos;
+      minRttTime = now;
+    }
+    if (rateStartTime < 0) {
+      // the first ack only starts the clock
+      rateStartTime = now;
+      return;
+    }
+    rateBytes += dataBytes;
+    final long interval = now - rateStartTime;
+    if (interval >= Math.max(minRttNanos, MIN_RATE_INTERVAL_NANOS)) {
+      final double rate = (double) rateBytes / interval;
+      ackedBytesPerNano = ackedBytesPerNano < 0 ? rate
+          : ackedBytesPerNano + ALPHA * (rate - ackedBytesPerNano);
+      rateStartTime = now;
+      rateBytes = 0;
+    }
+  }
+
+  /** @return the size of the next packets */
+  synchronized int getPacketSize() {
+    long size = defaultSize;
+    if (ackedBytesPerNano >= 0 && minRttNanos >= 0) {
+      final double bdp = ackedBytesPerNano * minRttNanos;
+      size = Math.max(size, (long) (2 * bdp / maxPackets));
+    }
+    if (avgPacketBytes >= 0) {
+      size = Math.min(size,
+          (long) (2 * avgPacketBytes) + PacketHeader.PKT_MAX_HEADER_LEN);
+    }
+    size = Math.max(minSize, Math.min(maxSize, size));
+
+    // ignore small changes, which would only churn the buffers
+    if (Math.abs(size - packetSize) > packetSize / 4) {
+      if (metrics != null) {
+        if (size > packetSize) {
+          metrics.incPacketSizeIncreases();
+        } else {
+          metrics.incPacketSizeDecreases();
+        }
+      }
+      packetSize = (int) size;
+    }
+    return packetSize;
+  }
+}
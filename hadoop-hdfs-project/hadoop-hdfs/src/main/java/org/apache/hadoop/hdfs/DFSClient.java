@@ -81,6 +81,7 @@
 import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -88,6 +89,8 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -145,6 +148,7 @@
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.protocol.AclException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -281,6 +285,13 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory,
   private static final DFSHedgedReadMetrics HEDGED_READ_METRIC =
       new DFSHedgedReadMetrics();
   private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
+  private final DFSWriteMetrics writeMetrics = new DFSWriteMetrics();
+  private ThreadPoolExecutor vectoredReadThreadPool;
+  private final ReplicaLatencyTracker replicaLatencyTracker;
+  private final DFSMetadataCacheMetrics metadataCacheMetrics =
+      new DFSMetadataCacheMetrics();
+  /** The cache of file status and block locations, or null if disabled */
+  private final MetadataCache metadataCache;
   private final Sampler<?> traceSampler;
 
   /**
@@ -299,6 +310,20 @@ public static class Conf {
     final ChecksumOpt defaultChecksumOpt;
     final int writePacketSize;
     final int writeMaxPackets;
+    final boolean writePacketAdaptive;
+    final int writePacketMinSize;
+    final int writePacketMaxSize;
+    final boolean cumulativeAcks;
+    final int vectoredReadThreads;
+    final int vectoredReadMergeGap;
+    final int vectoredReadMaxMergedSize;
+    final boolean latencyAwareReads;
+    final float slowNodeFactor;
+    final long latencyExpiryMs;
+    final float hedgedReadThresholdPercentile;
+    final Collection<String> metadataCachePaths;
+    final long metadataCacheMaxEntries;
+    final long metadataCacheTtlMs;
     final ByteArrayManager.Conf writeByteArrayManagerConf;
     final int socketTimeout;
     private final int socketSendBufferSize;
@@ -380,6 +405,47 @@ public Conf(Configuration conf) {
       writeMaxPackets = conf.getInt(
           DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_IN_FLIGHT_KEY,
           DFSConfigKeys.DFS_CLIENT_WRITE_MAX_PACKETS_IN_FLIGHT_DEFAULT);
+      writePacketAdaptive = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_ADAPTIVE_ENABLED_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_ADAPTIVE_ENABLED_DEFAULT);
+      writePacketMinSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MIN_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MIN_SIZE_DEFAULT);
+      writePacketMaxSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MAX_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MAX_SIZE_DEFAULT);
+      cumulativeAcks = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_WRITE_CUMULATIVE_ACKS_ENABLED_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_CUMULATIVE_ACKS_ENABLED_DEFAULT);
+      vectoredReadThreads = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADS_DEFAULT);
+      vectoredReadMergeGap = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MERGE_GAP_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MERGE_GAP_DEFAULT);
+      vectoredReadMaxMergedSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_DEFAULT);
+      latencyAwareReads = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_AWARE_ENABLED_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_AWARE_ENABLED_DEFAULT);
+      slowNodeFactor = conf.getFloat(
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_AWARE_SLOW_NODE_FACTOR_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_AWARE_SLOW_NODE_FACTOR_DEFAULT);
+      latencyExpiryMs = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_AWARE_EXPIRY_MS_KEY,
+          DFSConfigKeys.DFS_CLIENT_READ_LATENCY_AWARE_EXPIRY_MS_DEFAULT);
+      hedgedReadThresholdPercentile = conf.getFloat(
+          DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE,
+          DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE);
+      metadataCachePaths = conf.getTrimmedStringCollection(
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_PATHS_KEY);
+      metadataCacheMaxEntries = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_KEY,
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_DEFAULT);
+      metadataCacheTtlMs = conf.getLong(
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_TTL_MS_KEY,
+          DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_TTL_MS_DEFAULT);
       
       final boolean byteArrayManagerEnabled = conf.getBoolean(
           DFSConfigKeys.DFS_CLIENT_WRITE_BYTE_ARRAY_MANAGER_ENABLED_KEY,
@@ -715,6 +781,14 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     this.hedgedReadThresholdMillis = conf.getLong(
         DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS,
         DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_MILLIS);
+    this.metadataCache = dfsClientConf.metadataCachePaths.isEmpty() ? null
+        : new MetadataCache(dfsClientConf.metadataCachePaths,
+            dfsClientConf.metadataCacheMaxEntries,
+            dfsClientConf.metadataCacheTtlMs, metadataCacheMetrics);
+    this.replicaLatencyTracker = new ReplicaLatencyTracker(
+        dfsClientConf.latencyAwareReads, dfsClientConf.slowNodeFactor,
+        dfsClientConf.latencyExpiryMs,
+        dfsClientConf.hedgedReadThresholdPercentile);
     int numThreads = conf.getInt(
         DFSConfigKeys.DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE,
         DFSConfigKeys.DEFAULT_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE);
@@ -965,6 +1039,9 @@ public synchronized void close() throws IOException {
       getLeaseRenewer().closeClient(this);
       // close connections to the namenode
       closeConnectionToNamenode();
+      if (vectoredReadThreadPool != null) {
+        vectoredReadThreadPool.shutdown();
+      }
     }
   }
 
@@ -1219,6 +1296,17 @@ public LocatedBlocks getLocatedBlocks(String src, long start, long length)
       throws IOException {
     TraceScope scope = getPathTraceScope("getBlockLocations", src);
     try {
+      if (metadataCache != null) {
+        LocatedBlocks cached =
+            metadataCache.getLocatedBlocks(src, start, length);
+        if (cached != null) {
+          return cached;
+        }
+        LocatedBlocks located =
+            callGetBlockLocations(namenode, src, start, length);
+        metadataCache.putLocatedBlocks(src, start, length, located);
+        return located;
+      }
       return callGetBlockLocations(namenode, src, start, length);
     } finally {
       scope.close();
@@ -1699,6 +1787,7 @@ public DFSOutputStream create(String src,
         src, masked, flag, createParent, replication, blockSize, progress,
         buffersize, dfsClientConf.createChecksum(checksumOpt),
         getFavoredNodesStr(favoredNodes));
+    invalidateCachedMetadata(src);
     beginFileLease(result.getFileId(), result);
     return result;
   }
@@ -1760,6 +1849,7 @@ public DFSOutputStream primitiveCreate(String src,
           flag, createParent, replication, blockSize, progress, buffersize,
           checksum, null);
     }
+    invalidateCachedMetadata(src);
     beginFileLease(result.getFileId(), result);
     return result;
   }
@@ -1786,6 +1876,7 @@ public void createSymlink(String target, String link, boolean createParent)
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(link);
       scope.close();
     }
   }
@@ -1816,6 +1907,7 @@ private DFSOutputStream callAppend(String src, int buffersize,
     try {
       LastBlockWithStatus blkWithStatus = namenode.append(src, clientName,
           new EnumSetWritable<>(flag, CreateFlag.class));
+      invalidateCachedMetadata(src);
       HdfsFileStatus status = blkWithStatus.getFileStatus();
       if (status == null) {
         DFSClient.LOG.debug("NameNode is on an older version, request file " +
@@ -1909,6 +2001,7 @@ public boolean setReplication(String src, short replication)
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -1931,6 +2024,7 @@ public void setStoragePolicy(String src, String policyName)
                                     UnresolvedPathException.class,
                                     SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -1965,6 +2059,8 @@ public boolean rename(String src, String dst) throws IOException {
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(src);
+      invalidateCachedMetadata(dst);
       scope.close();
     }
   }
@@ -1983,6 +2079,10 @@ public void concat(String trg, String [] srcs) throws IOException {
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(trg);
+      for (String src : srcs) {
+        invalidateCachedMetadata(src);
+      }
       scope.close();
     }
   }
@@ -2007,6 +2107,8 @@ public void rename(String src, String dst, Options.Rename... options)
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(src);
+      invalidateCachedMetadata(dst);
       scope.close();
     }
   }
@@ -2026,6 +2128,8 @@ public boolean truncate(String src, long newLength) throws IOException {
     } catch (RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
           UnresolvedPathException.class);
+    } finally {
+      invalidateCachedMetadata(src);
     }
   }
 
@@ -2058,6 +2162,7 @@ public boolean delete(String src, boolean recursive) throws IOException {
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -2102,6 +2207,25 @@ public DirectoryListing listPaths(String src,  byte[] startAfter,
     }
   }
 
+  /**
+   * Get partial listings of several directories with one call.
+   * The errors of listing each directory are returned in its listing.
+   *
+   * @see ClientProtocol#getBatchedListing(String[], byte[], boolean, String)
+   */
+  public BatchedDirectoryListing batchedListPaths(String[] srcs,
+      byte[] startAfter, boolean needLocation, String filter)
+      throws IOException {
+    checkOpen();
+    TraceScope scope = Trace.startSpan("batchedListPaths", traceSampler);
+    try {
+      return namenode.getBatchedListing(srcs, startAfter, needLocation,
+          filter);
+    } finally {
+      scope.close();
+    }
+  }
+
   /**
    * Get the file info for a specific file or directory.
    * @param src The string representation of the path to the file
@@ -2114,6 +2238,15 @@ public HdfsFileStatus getFileInfo(String src) throws IOException {
     checkOpen();
     TraceScope scope = getPathTraceScope("getFileInfo", src);
     try {
+      if (metadataCache != null) {
+        HdfsFileStatus cached = metadataCache.getFileInfo(src);
+        if (cached != null) {
+          return cached;
+        }
+        HdfsFileStatus status = namenode.getFileInfo(src);
+        metadataCache.putFileInfo(src, status);
+        return status;
+      }
       return namenode.getFileInfo(src);
     } catch(RemoteException re) {
       throw re.unwrapRemoteException(AccessControlException.class,
@@ -2462,6 +2595,7 @@ public void setPermission(String src, FsPermission permission)
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -2487,6 +2621,7 @@ public void setOwner(String src, String username, String groupname)
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);                                   
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -3126,6 +3261,7 @@ public void setTimes(String src, long mtime, long atime) throws IOException {
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -3190,6 +3326,7 @@ public void modifyAclEntries(String src, List<AclEntry> aclSpec)
                                      SnapshotAccessControlException.class,
                                      UnresolvedPathException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -3209,6 +3346,7 @@ public void removeAclEntries(String src, List<AclEntry> aclSpec)
                                      SnapshotAccessControlException.class,
                                      UnresolvedPathException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -3227,6 +3365,7 @@ public void removeDefaultAcl(String src) throws IOException {
                                      SnapshotAccessControlException.class,
                                      UnresolvedPathException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -3245,6 +3384,7 @@ public void removeAcl(String src) throws IOException {
                                      SnapshotAccessControlException.class,
                                      UnresolvedPathException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -3263,6 +3403,7 @@ public void setAcl(String src, List<AclEntry> aclSpec) throws IOException {
                                      SnapshotAccessControlException.class,
                                      UnresolvedPathException.class);
     } finally {
+      invalidateCachedMetadata(src);
       scope.close();
     }
   }
@@ -3501,8 +3642,31 @@ public void rejectedExecution(Runnable runnable,
     }
   }
 
+  /**
+   * @return how long to wait for a positioned read before starting a hedged
+   *         read, from the recent read times if so configured
+   */
   long getHedgedReadTimeout() {
-    return this.hedgedReadThresholdMillis;
+    return replicaLatencyTracker.getHedgedReadThreshold(
+        this.hedgedReadThresholdMillis);
+  }
+
+  /**
+   * Forget the cached file status and block locations of a path and of the
+   * paths under it, after a change to them.
+   */
+  void invalidateCachedMetadata(String src) {
+    if (metadataCache != null) {
+      metadataCache.invalidate(src);
+    }
+  }
+
+  public DFSMetadataCacheMetrics getMetadataCacheMetrics() {
+    return metadataCacheMetrics;
+  }
+
+  ReplicaLatencyTracker getReplicaLatencyTracker() {
+    return replicaLatencyTracker;
   }
 
   @VisibleForTesting
@@ -3519,10 +3683,50 @@ boolean isHedgedReadsEnabled() {
       HEDGED_READ_THREAD_POOL.getMaximumPoolSize() > 0;
   }
 
+  /**
+   * Get the thread pool which reads the blocks of vectored reads, creating
+   * it on first use.
+   * @return the pool, or null if the blocks are read in the calling thread
+   */
+  synchronized ThreadPoolExecutor getVectoredReadThreadPool() {
+    final int num = dfsClientConf.vectoredReadThreads;
+    if (num <= 0 || !clientRunning || vectoredReadThreadPool != null) {
+      return vectoredReadThreadPool;
+    }
+    vectoredReadThreadPool = new ThreadPoolExecutor(num, num, 60,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex =
+            new AtomicInteger(0);
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("vectoredRead-" + clientName + "-" +
+              threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new RejectedExecutionHandler() {
+          @Override
+          public void rejectedExecution(Runnable runnable,
+              ThreadPoolExecutor e) {
+            // the client is closing, the read fails in the current thread
+            runnable.run();
+          }
+        });
+    vectoredReadThreadPool.allowCoreThreadTimeOut(true);
+    return vectoredReadThreadPool;
+  }
+
   DFSHedgedReadMetrics getHedgedReadMetrics() {
     return HEDGED_READ_METRIC;
   }
 
+  /** @return the metrics of the writes of this client */
+  public DFSWriteMetrics getWriteMetrics() {
+    return writeMetrics;
+  }
+
   public KeyProvider getKeyProvider() {
     return clientContext.getKeyProviderCache().get(conf);
   }
@@ -56,6 +56,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_CLIENT_WRITE_MAX_PACKETS_IN_FLIGHT_DEFAULT = 80;
   public static final String  DFS_CLIENT_WRITE_PACKET_SIZE_KEY = "dfs.client-write-packet-size";
   public static final int     DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT = 64*1024;
+  public static final String  DFS_CLIENT_WRITE_PACKET_ADAPTIVE_ENABLED_KEY = "dfs.client.write.packet.adaptive.enabled";
+  public static final boolean DFS_CLIENT_WRITE_PACKET_ADAPTIVE_ENABLED_DEFAULT = false;
+  public static final String  DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MIN_SIZE_KEY = "dfs.client.write.packet.adaptive.min-size";
+  public static final int     DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MIN_SIZE_DEFAULT = 4*1024;
+  public static final String  DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MAX_SIZE_KEY = "dfs.client.write.packet.adaptive.max-size";
+  public static final int     DFS_CLIENT_WRITE_PACKET_ADAPTIVE_MAX_SIZE_DEFAULT = 1024*1024;
+  public static final String  DFS_CLIENT_WRITE_CUMULATIVE_ACKS_ENABLED_KEY = "dfs.client.write.cumulative-acks.enabled";
+  public static final boolean DFS_CLIENT_WRITE_CUMULATIVE_ACKS_ENABLED_DEFAULT = false;
   public static final String  DFS_CLIENT_WRITE_BYTE_ARRAY_MANAGER_ENABLED_KEY
       = "dfs.client.write.byte-array-manager.enabled";
   public static final boolean DFS_CLIENT_WRITE_BYTE_ARRAY_MANAGER_ENABLED_DEFAULT
@@ -158,8 +166,14 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_FSDATASETCACHE_MAX_THREADS_PER_VOLUME_DEFAULT = 4;
   public static final String  DFS_DATANODE_LAZY_WRITER_INTERVAL_SEC = "dfs.datanode.lazywriter.interval.sec";
   public static final int     DFS_DATANODE_LAZY_WRITER_INTERVAL_DEFAULT_SEC = 60;
+  public static final String  DFS_DATANODE_LAZY_WRITER_BATCH_SIZE_KEY = "dfs.datanode.lazywriter.batch.size";
+  public static final int     DFS_DATANODE_LAZY_WRITER_BATCH_SIZE_DEFAULT = 1;
+  public static final String  DFS_DATANODE_LAZY_WRITER_MAX_PENDING_PER_VOLUME_KEY = "dfs.datanode.lazywriter.max.pending.per.volume";
+  public static final int     DFS_DATANODE_LAZY_WRITER_MAX_PENDING_PER_VOLUME_DEFAULT = 0;
   public static final String  DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_KEY = "dfs.datanode.ram.disk.replica.tracker";
   public static final Class<RamDiskReplicaLruTracker>  DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_DEFAULT = RamDiskReplicaLruTracker.class;
+  public static final String  DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_LRFU_HALF_LIFE_MS_KEY = "dfs.datanode.ram.disk.replica.tracker.lrfu.half-life.ms";
+  public static final long    DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_LRFU_HALF_LIFE_MS_DEFAULT = 10 * 60 * 1000;
   public static final String  DFS_DATANODE_RAM_DISK_LOW_WATERMARK_PERCENT = "dfs.datanode.ram.disk.low.watermark.percent";
   public static final float   DFS_DATANODE_RAM_DISK_LOW_WATERMARK_PERCENT_DEFAULT = 10.0f;
   public static final String  DFS_DATANODE_RAM_DISK_LOW_WATERMARK_BYTES = "dfs.datanode.ram.disk.low.watermark.bytes";
@@ -174,6 +188,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT =
     "dfs.namenode.path.based.cache.block.map.allocation.percent";
   public static final float    DFS_NAMENODE_PATH_BASED_CACHE_BLOCK_MAP_ALLOCATION_PERCENT_DEFAULT = 0.25f;
+  public static final String  DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT =
+    "dfs.namenode.blocks.map.allocation.percent";
+  public static final float   DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT_DEFAULT = 2.0f;
+  public static final String  DFS_NAMENODE_INODE_MAP_ALLOCATION_PERCENT =
+    "dfs.namenode.inode.map.allocation.percent";
+  public static final float   DFS_NAMENODE_INODE_MAP_ALLOCATION_PERCENT_DEFAULT = 1.0f;
 
   public static final String  DFS_NAMENODE_HTTP_PORT_KEY = "dfs.http.port";
   public static final int     DFS_NAMENODE_HTTP_PORT_DEFAULT = 50070;
@@ -295,6 +315,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_CONTENT_SUMMARY_LIMIT_DEFAULT = 5000;
   public static final String  DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY = "dfs.content-summary.sleep-microsec";
   public static final long    DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT = 500;
+  public static final String  DFS_CONTENT_SUMMARY_CACHE_MIN_INODES_KEY = "dfs.content-summary.cache.min-inodes";
+  public static final long    DFS_CONTENT_SUMMARY_CACHE_MIN_INODES_DEFAULT = 0;
   public static final String  DFS_DATANODE_FAILED_VOLUMES_TOLERATED_KEY = "dfs.datanode.failed.volumes.tolerated";
   public static final int     DFS_DATANODE_FAILED_VOLUMES_TOLERATED_DEFAULT = 0;
   public static final String  DFS_DATANODE_SYNCONCLOSE_KEY = "dfs.datanode.synconclose";
@@ -357,6 +379,15 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION =
       "dfs.namenode.replication.work.multiplier.per.iteration";
   public static final int DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION_DEFAULT = 2;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_CAPACITY_BASED_KEY =
+      "dfs.namenode.replication.work.capacity-based";
+  public static final boolean DFS_NAMENODE_REPLICATION_WORK_CAPACITY_BASED_DEFAULT = false;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY =
+      "dfs.namenode.replication.work.threads";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT = 1;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_KEY =
+      "dfs.namenode.replication.work.batch.size";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_DEFAULT = 1000;
 
   //Delegation token related keys
   public static final String  DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY = "dfs.namenode.delegation.key.update-interval";
@@ -385,6 +416,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_FSLOCK_FAIR_KEY =
       "dfs.namenode.fslock.fair";
   public static final boolean DFS_NAMENODE_FSLOCK_FAIR_DEFAULT = true;
+  public static final String  DFS_NAMENODE_LOCK_FS_BM_SPLIT_KEY =
+      "dfs.namenode.lock.fs-bm-split.enabled";
+  public static final boolean DFS_NAMENODE_LOCK_FS_BM_SPLIT_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING =
+      "dfs.namenode.edits.asynclogging";
+  public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = false;
 
   public static final String  DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY =
       "dfs.namenode.lock.detailed-metrics.enabled";
@@ -499,6 +536,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
       "dfs.datanode.directoryscan.throttle.limit.ms.per.sec";
   public static final int
       DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT = 1000;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY = "dfs.datanode.directoryscan.incremental";
+  public static final boolean DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT = false;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -512,12 +551,26 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_XCEIVER_NIO_ENABLED_KEY = "dfs.datanode.xceiver.nio.enabled";
+  public static final boolean DFS_DATANODE_XCEIVER_NIO_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_XCEIVER_NIO_EVENT_LOOPS_KEY = "dfs.datanode.xceiver.nio.event-loops";
+  public static final int     DFS_DATANODE_XCEIVER_NIO_EVENT_LOOPS_DEFAULT = 2;
+  public static final String  DFS_DATANODE_XCEIVER_NIO_WORKERS_KEY = "dfs.datanode.xceiver.nio.workers";
+  public static final int     DFS_DATANODE_XCEIVER_NIO_WORKERS_DEFAULT = 64;
+  public static final String  DFS_DATANODE_XCEIVER_NIO_VOLUME_WORKERS_KEY = "dfs.datanode.xceiver.nio.volume-workers";
+  public static final int     DFS_DATANODE_XCEIVER_NIO_VOLUME_WORKERS_DEFAULT = 16;
+  public static final String  DFS_DATANODE_VOLUME_IO_SCHEDULER_MAX_OUTSTANDING_KEY = "dfs.datanode.volume.io.scheduler.max-outstanding";
+  public static final int     DFS_DATANODE_VOLUME_IO_SCHEDULER_MAX_OUTSTANDING_DEFAULT = 0;
+  public static final String  DFS_DATANODE_VOLUME_IO_SCHEDULER_DEADLINES_MS_KEY = "dfs.datanode.volume.io.scheduler.deadlines.ms";
+  public static final String  DFS_DATANODE_VOLUME_IO_SCHEDULER_DEADLINES_MS_DEFAULT = "50,100,500,2000";
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
   public static final int     DFS_DATANODE_SCAN_PERIOD_HOURS_DEFAULT = 21 * 24;  // 3 weeks.
   public static final String  DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND = "dfs.block.scanner.volume.bytes.per.second";
   public static final long    DFS_BLOCK_SCANNER_VOLUME_BYTES_PER_SECOND_DEFAULT = 1048576L;
   public static final String  DFS_DATANODE_TRANSFERTO_ALLOWED_KEY = "dfs.datanode.transferTo.allowed";
   public static final boolean DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT = true;
+  public static final String  DFS_DATANODE_TRANSFER_VERIFY_CHECKSUM_KEY = "dfs.datanode.transfer.verify-checksum";
+  public static final boolean DFS_DATANODE_TRANSFER_VERIFY_CHECKSUM_DEFAULT = false;
   public static final String  DFS_HEARTBEAT_INTERVAL_KEY = "dfs.heartbeat.interval";
   public static final long    DFS_HEARTBEAT_INTERVAL_DEFAULT = 3;
   public static final String  DFS_NAMENODE_PATH_BASED_CACHE_RETRY_INTERVAL_MS = "dfs.namenode.path.based.cache.retry.interval.ms";
@@ -617,6 +670,20 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
 
+  // property for parallel fsimage loading and saving
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
+
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
   public static final long DFS_IMAGE_TRANSFER_RATE_DEFAULT = 0;  //no throttling
@@ -637,6 +704,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_THRESHOLD_DEFAULT = 1024L * 1024L * 1024L * 10L; // 10 GB
   public static final String  DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_KEY = "dfs.datanode.available-space-volume-choosing-policy.balanced-space-preference-fraction";
   public static final float   DFS_DATANODE_AVAILABLE_SPACE_VOLUME_CHOOSING_POLICY_BALANCED_SPACE_PREFERENCE_FRACTION_DEFAULT = 0.75f;
+  public static final String  DFS_DATANODE_DATASET_LOCK_STRIPES_KEY = "dfs.datanode.dataset.lock.stripes";
+  public static final int     DFS_DATANODE_DATASET_LOCK_STRIPES_DEFAULT = 256;
   public static final String  DFS_DATANODE_SOCKET_WRITE_TIMEOUT_KEY = "dfs.datanode.socket.write.timeout";
   public static final String  DFS_DATANODE_STARTUP_KEY = "dfs.datanode.startup";
   public static final String  DFS_NAMENODE_PLUGINS_KEY = "dfs.namenode.plugins";
@@ -710,6 +779,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_LOGROLL_PERIOD_DEFAULT = 2 * 60; // 2m
   public static final String DFS_HA_TAILEDITS_PERIOD_KEY = "dfs.ha.tail-edits.period";
   public static final int DFS_HA_TAILEDITS_PERIOD_DEFAULT = 60; // 1m
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_KEY = "dfs.ha.tail-edits.in-progress";
+  public static final boolean DFS_HA_TAILEDITS_INPROGRESS_DEFAULT = false;
+  public static final String DFS_HA_STANDBY_CONSISTENT_READS_KEY = "dfs.ha.standby.consistent-reads.enabled";
+  public static final boolean DFS_HA_STANDBY_CONSISTENT_READS_DEFAULT = false;
   public static final String DFS_HA_LOGROLL_RPC_TIMEOUT_KEY = "dfs.ha.log-roll.rpc.timeout";
   public static final int DFS_HA_LOGROLL_RPC_TIMEOUT_DEFAULT = 20000; // 20s
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
@@ -776,6 +849,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   
   public static final String DFS_MAX_NUM_BLOCKS_TO_LOG_KEY = "dfs.namenode.max-num-blocks-to-log";
   public static final long   DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT = 1000l;
+  public static final String DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY =
+      "dfs.namenode.blockreport.batch.size";
+  public static final int    DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_DEFAULT = 0;
   
   public static final String DFS_NAMENODE_ENABLE_RETRY_CACHE_KEY = "dfs.namenode.enable.retrycache";
   public static final boolean DFS_NAMENODE_ENABLE_RETRY_CACHE_DEFAULT = true;
@@ -824,6 +900,49 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE =
       "dfs.client.hedged.read.threadpool.size";
   public static final int     DEFAULT_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE = 0;
+  public static final String  DFS_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE =
+      "dfs.client.hedged.read.threshold.percentile";
+  public static final float   DEFAULT_DFSCLIENT_HEDGED_READ_THRESHOLD_PERCENTILE =
+      0;
+
+  // latency-aware replica selection properties
+  public static final String  DFS_CLIENT_READ_LATENCY_AWARE_ENABLED_KEY =
+      "dfs.client.read.latency-aware.enabled";
+  public static final boolean DFS_CLIENT_READ_LATENCY_AWARE_ENABLED_DEFAULT =
+      true;
+  public static final String  DFS_CLIENT_READ_LATENCY_AWARE_SLOW_NODE_FACTOR_KEY =
+      "dfs.client.read.latency-aware.slow-node.factor";
+  public static final float   DFS_CLIENT_READ_LATENCY_AWARE_SLOW_NODE_FACTOR_DEFAULT =
+      2.0f;
+  public static final String  DFS_CLIENT_READ_LATENCY_AWARE_EXPIRY_MS_KEY =
+      "dfs.client.read.latency-aware.expiry.ms";
+  public static final long    DFS_CLIENT_READ_LATENCY_AWARE_EXPIRY_MS_DEFAULT =
+      60 * 1000;
+
+  // metadata cache properties
+  public static final String  DFS_CLIENT_METADATA_CACHE_PATHS_KEY =
+      "dfs.client.metadata.cache.paths";
+  public static final String  DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_KEY =
+      "dfs.client.metadata.cache.max-entries";
+  public static final long    DFS_CLIENT_METADATA_CACHE_MAX_ENTRIES_DEFAULT =
+      10000;
+  public static final String  DFS_CLIENT_METADATA_CACHE_TTL_MS_KEY =
+      "dfs.client.metadata.cache.ttl.ms";
+  public static final long    DFS_CLIENT_METADATA_CACHE_TTL_MS_DEFAULT =
+      60 * 1000;
+
+  // vectored read properties
+  public static final String  DFS_CLIENT_READ_VECTORED_THREADS_KEY =
+      "dfs.client.read.vectored.threads";
+  public static final int     DFS_CLIENT_READ_VECTORED_THREADS_DEFAULT = 4;
+  public static final String  DFS_CLIENT_READ_VECTORED_MERGE_GAP_KEY =
+      "dfs.client.read.vectored.merge-gap";
+  public static final int     DFS_CLIENT_READ_VECTORED_MERGE_GAP_DEFAULT =
+      64 * 1024;
+  public static final String  DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_KEY =
+      "dfs.client.read.vectored.max-merged-size";
+  public static final int     DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_DEFAULT =
+      1024 * 1024;
 
   // Slow io warning log threshold settings for dfsclient and datanode.
   public static final String DFS_CLIENT_SLOW_IO_WARNING_THRESHOLD_KEY =
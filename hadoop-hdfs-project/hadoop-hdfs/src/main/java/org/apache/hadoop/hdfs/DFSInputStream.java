@@ -34,6 +34,7 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletionService;
@@ -41,8 +42,10 @@
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -52,11 +55,14 @@
 import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.CanUnbuffer;
 import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.CombinedFileRange;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.VectoredReadUtils;
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
@@ -645,6 +651,7 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
           curCachingStrategy = cachingStrategy;
           shortCircuitForbidden = shortCircuitForbidden();
         }
+        long startTime = System.nanoTime();
         blockReader = new BlockReaderFactory(dfsClient.getConf()).
             setInetSocketAddress(targetAddr).
             setRemotePeerFactory(dfsClient).
@@ -663,6 +670,8 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
             setUserGroupInformation(dfsClient.ugi).
             setConfiguration(dfsClient.getConfiguration()).
             build();
+        dfsClient.getReplicaLatencyTracker().addRead(chosenNode,
+            System.nanoTime() - startTime, 0, 0);
         if(connectFailedOnce) {
           DFSClient.LOG.info("Successfully connected to " + targetAddr +
                              " for " + blk);
@@ -678,6 +687,7 @@ private synchronized DatanodeInfo blockSeekTo(long target) throws IOException {
           dfsClient.clearDataEncryptionKey();
         } else if (refetchToken > 0 && tokenRefetchNeeded(ex, targetAddr)) {
           refetchToken--;
+          dfsClient.invalidateCachedMetadata(src);
           fetchBlockAt(target);
         } else {
           connectFailedOnce = true;
@@ -1001,6 +1011,8 @@ private DNAddrPair chooseDataNode(LocatedBlock block,
         } catch (InterruptedException iex) {
         }
         deadNodes.clear(); //2nd option is to remove only nodes[blockId]
+        // the cached locations may be the stale ones
+        dfsClient.invalidateCachedMetadata(src);
         openInfo();
         block = getBlockAt(block.getStartOffset());
         failures++;
@@ -1023,7 +1035,10 @@ private DNAddrPair getBestNodeDNAddrPair(LocatedBlock block,
     DatanodeInfo chosenNode = null;
     StorageType storageType = null;
     if (nodes != null) {
-      for (int i = 0; i < nodes.length; i++) {
+      // the replicas which have been slow to read from come last
+      int[] order = dfsClient.getReplicaLatencyTracker().order(nodes);
+      for (int j = 0; j < nodes.length; j++) {
+        int i = order == null ? j : order[j];
         if (!deadNodes.containsKey(nodes[i])
             && (ignoredNodes == null || !ignoredNodes.contains(nodes[i]))) {
           chosenNode = nodes[i];
@@ -1141,6 +1156,7 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
         DFSClientFaultInjector.get().fetchFromDatanodeException();
         Token<BlockTokenIdentifier> blockToken = block.getBlockToken();
         int len = (int) (end - start + 1);
+        long startTime = System.nanoTime();
         reader = new BlockReaderFactory(dfsClient.getConf()).
             setInetSocketAddress(targetAddr).
             setRemotePeerFactory(dfsClient).
@@ -1159,8 +1175,14 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
             setUserGroupInformation(dfsClient.ugi).
             setConfiguration(dfsClient.getConfiguration()).
             build();
+        long readerTime = System.nanoTime();
         int nread = reader.readAll(buf, offset, len);
         updateReadStatistics(readStatistics, nread, reader);
+        long endTime = System.nanoTime();
+        ReplicaLatencyTracker tracker = dfsClient.getReplicaLatencyTracker();
+        tracker.addRead(chosenNode, readerTime - startTime, nread,
+            endTime - readerTime);
+        tracker.addPositionedReadTime(endTime - startTime);
 
         if (nread != len) {
           throw new IOException("truncated return from reader.read(): " +
@@ -1188,6 +1210,7 @@ private void actualGetFromOneDataNode(final DNAddrPair datanode,
         } else if (refetchToken > 0 && tokenRefetchNeeded(e, targetAddr)) {
           refetchToken--;
           try {
+            dfsClient.invalidateCachedMetadata(src);
             fetchBlockAt(block.getStartOffset());
           } catch (IOException fbae) {
             // ignore IOE, since we can retry it later in a loop
@@ -1456,6 +1479,182 @@ private int pread(long position, byte[] buffer, int offset, int length)
     }
     return realLen;
   }
+
+  /**
+   * Read the ranges with positioned reads of the blocks they cover. Close
+   * ranges are merged into larger reads first. The reads of each block are
+   * one task, and the tasks of the blocks run concurrently on the vectored
+   * read thread pool of the client.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      ByteBufferPool bufferPool) throws IOException {
+    TraceScope scope =
+        dfsClient.getPathTraceScope("DFSInputStream#readVectored", src);
+    try {
+      dfsClient.checkOpen();
+      if (closed.get()) {
+        throw new IOException("Stream closed");
+      }
+      List<FileRange> sorted = VectoredReadUtils.prepareRanges(ranges);
+      try {
+        readSortedRanges(sorted, bufferPool);
+      } catch (IOException e) {
+        for (FileRange range : sorted) {
+          VectoredReadUtils.fail(range, e);
+        }
+        throw e;
+      }
+    } finally {
+      scope.close();
+    }
+  }
+
+  private void readSortedRanges(List<FileRange> sorted,
+      ByteBufferPool bufferPool) throws IOException {
+    failures = 0;
+    long filelen = getFileLength();
+    List<FileRange> inFile = new ArrayList<FileRange>(sorted.size());
+    for (FileRange range : sorted) {
+      if (range.getOffset() + range.getLength() > filelen) {
+        VectoredReadUtils.fail(range, new EOFException("Cannot read " + range
+            + " of " + src + ", the file length is " + filelen));
+      } else {
+        inFile.add(range);
+      }
+    }
+    final DFSClient.Conf conf = dfsClient.getConf();
+    // the pieces of the merged ranges, by the offset of their blocks
+    Map<Long, List<VectoredReadPiece>> blockPieces =
+        new TreeMap<Long, List<VectoredReadPiece>>();
+    for (CombinedFileRange combined : VectoredReadUtils.mergeSortedRanges(
+        inFile, 1, conf.vectoredReadMergeGap, conf.vectoredReadMaxMergedSize)) {
+      if (combined.getLength() == 0) {
+        VectoredReadUtils.complete(combined,
+            VectoredReadUtils.allocate(bufferPool, 0), bufferPool);
+        continue;
+      }
+      List<LocatedBlock> blockRange =
+          getBlockRange(combined.getOffset(), combined.getLength());
+      VectoredRead read = new VectoredRead(combined, bufferPool,
+          blockRange.size());
+      long position = combined.getOffset();
+      int remaining = combined.getLength();
+      for (LocatedBlock blk : blockRange) {
+        long targetStart = position - blk.getStartOffset();
+        int bytesToRead = (int) Math.min(remaining,
+            blk.getBlockSize() - targetStart);
+        List<VectoredReadPiece> pieces = blockPieces.get(blk.getStartOffset());
+        if (pieces == null) {
+          pieces = new ArrayList<VectoredReadPiece>();
+          blockPieces.put(blk.getStartOffset(), pieces);
+        }
+        pieces.add(new VectoredReadPiece(read, blk, targetStart,
+            targetStart + bytesToRead - 1,
+            (int) (position - combined.getOffset())));
+        remaining -= bytesToRead;
+        position += bytesToRead;
+      }
+      assert remaining == 0 : "Wrong number of bytes to read.";
+    }
+
+    ThreadPoolExecutor pool = dfsClient.getVectoredReadThreadPool();
+    for (final List<VectoredReadPiece> pieces : blockPieces.values()) {
+      if (pool == null) {
+        readVectoredPieces(pieces);
+      } else {
+        pool.execute(new Runnable() {
+          @Override
+          public void run() {
+            readVectoredPieces(pieces);
+          }
+        });
+      }
+    }
+  }
+
+  /** Read the pieces of the merged ranges of a vectored read in a block. */
+  private void readVectoredPieces(List<VectoredReadPiece> pieces) {
+    for (VectoredReadPiece piece : pieces) {
+      VectoredRead read = piece.read;
+      if (read.failure != null) {
+        // another block of the range failed already
+        read.pieceDone();
+        continue;
+      }
+      Map<ExtendedBlock, Set<DatanodeInfo>> corruptedBlockMap
+          = new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
+      byte[] buf = read.data.array();
+      int offset = read.data.arrayOffset() + piece.bufferOffset;
+      try {
+        dfsClient.checkOpen();
+        if (dfsClient.isHedgedReadsEnabled()) {
+          hedgedFetchBlockByteRange(piece.block, piece.start, piece.end,
+              buf, offset, corruptedBlockMap);
+        } else {
+          fetchBlockByteRange(piece.block, piece.start, piece.end,
+              buf, offset, corruptedBlockMap);
+        }
+      } catch (Throwable t) {
+        read.failure = t;
+      } finally {
+        reportCheckSumFailure(corruptedBlockMap,
+            piece.block.getLocations().length);
+        read.pieceDone();
+      }
+    }
+  }
+
+  /** A merged range of a vectored read, and the data read for it so far. */
+  private class VectoredRead {
+    private final CombinedFileRange combined;
+    private final ByteBufferPool bufferPool;
+    private final ByteBuffer data;
+    private final AtomicInteger pendingPieces;
+    private volatile Throwable failure;
+
+    VectoredRead(CombinedFileRange combined, ByteBufferPool bufferPool,
+        int pieces) {
+      this.combined = combined;
+      this.bufferPool = bufferPool;
+      this.data = VectoredReadUtils.allocate(bufferPool, combined.getLength());
+      this.pendingPieces = new AtomicInteger(pieces);
+    }
+
+    /** Complete the ranges once all the pieces have been read. */
+    void pieceDone() {
+      if (pendingPieces.decrementAndGet() > 0) {
+        return;
+      }
+      if (failure != null) {
+        bufferPool.putBuffer(data);
+        VectoredReadUtils.fail(combined, failure);
+        return;
+      }
+      if (dfsClient.stats != null) {
+        dfsClient.stats.incrementBytesRead(combined.getLength());
+      }
+      VectoredReadUtils.complete(combined, data, bufferPool);
+    }
+  }
+
+  /** The part of a merged range of a vectored read in one block. */
+  private static class VectoredReadPiece {
+    private final VectoredRead read;
+    private final LocatedBlock block;
+    private final long start;
+    private final long end;
+    private final int bufferOffset;
+
+    VectoredReadPiece(VectoredRead read, LocatedBlock block, long start,
+        long end, int bufferOffset) {
+      this.read = read;
+      this.block = block;
+      this.start = start;
+      this.end = end;
+      this.bufferOffset = bufferOffset;
+    }
+  }
   
   /**
    * DFSInputStream reports checksum failure.
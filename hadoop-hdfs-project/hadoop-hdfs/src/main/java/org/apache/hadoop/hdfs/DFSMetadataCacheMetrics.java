@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The client-side metrics of the metadata cache of a {@link DFSClient}: the
+ * file status and block location lookups answered from the cache, and those
+ * sent to the NameNode for paths the cache is configured for.
+ */
+public class DFSMetadataCacheMetrics {
+  public final AtomicLong fileStatusHits = new AtomicLong();
+  public final AtomicLong fileStatusMisses = new AtomicLong();
+  public final AtomicLong blockLocationHits = new AtomicLong();
+  public final AtomicLong blockLocationMisses = new AtomicLong();
+
+  public void incFileStatusHits() {
+    fileStatusHits.incrementAndGet();
+  }
+
+  public void incFileStatusMisses() {
+    fileStatusMisses.incrementAndGet();
+  }
+
+  public void incBlockLocationHits() {
+    blockLocationHits.incrementAndGet();
+  }
+
+  public void incBlockLocationMisses() {
+    blockLocationMisses.incrementAndGet();
+  }
+
+  public long getFileStatusHits() {
+    return fileStatusHits.longValue();
+  }
+
+  public long getFileStatusMisses() {
+    return fileStatusMisses.longValue();
+  }
+
+  public long getBlockLocationHits() {
+    return blockLocationHits.longValue();
+  }
+
+  public long getBlockLocationMisses() {
+    return blockLocationMisses.longValue();
+  }
+}
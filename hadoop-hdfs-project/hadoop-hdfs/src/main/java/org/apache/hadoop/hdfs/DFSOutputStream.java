@@ -192,6 +192,8 @@ public class DFSOutputStream extends FSOutputSummer
   private static final BlockStoragePolicySuite blockStoragePolicySuite =
       BlockStoragePolicySuite.createDefaultSuite();
   private int writePacketSize;
+  /** Sizes the packets adaptively, or null to keep writePacketSize */
+  private final AdaptivePacketSizer packetSizer;
 
   /** Use {@link ByteArrayManager} to create buffer for non-heartbeat packets.*/
   private DFSPacket createPacket(int packetSize, int chunksPerPkt, long offsetInBlock,
@@ -610,8 +612,12 @@ public void run() {
           // write out data to remote datanode
           TraceScope writeScope = Trace.startSpan("writeTo", span);
           try {
+            one.setSendTimeNanos(System.nanoTime());
             one.writeTo(blockStream);
             blockStream.flush();   
+            if (!one.isHeartbeatPacket()) {
+              dfsClient.getWriteMetrics().incPacketsSent();
+            }
           } catch (IOException e) {
             // HDFS-3398 treat primary DN is down since client is unable to 
             // write to primary DN. If a failed or restarting node has already
@@ -827,6 +833,9 @@ private class ResponseProcessor extends Daemon {
       private volatile boolean responderClosed = false;
       private DatanodeInfo[] targets = null;
       private boolean isLastPacketInBlock = false;
+      /** Whether an ack may be for all the packets up to its seqno */
+      private final boolean cumulativeAcks =
+          dfsClient.getConf().cumulativeAcks;
 
       ResponseProcessor (DatanodeInfo[] targets) {
         this.targets = targets;
@@ -892,39 +901,59 @@ public void run() {
               continue;
             }
 
-            // a success ack for a data packet
+            // a success ack for a data packet, and with cumulative acks
+            // for all the packets before it
             DFSPacket one;
             synchronized (dataQueue) {
               one = ackQueue.getFirst();
+              if (cumulativeAcks ? seqno < one.getSeqno()
+                  || seqno > ackQueue.getLast().getSeqno()
+                  : one.getSeqno() != seqno) {
+                throw new IOException("ResponseProcessor: Expecting seqno " +
+                                      " for block " + block +
+                                      one.getSeqno() + " but received " + seqno);
+              }
             }
-            if (one.getSeqno() != seqno) {
-              throw new IOException("ResponseProcessor: Expecting seqno " +
-                                    " for block " + block +
-                                    one.getSeqno() + " but received " + seqno);
-            }
-            isLastPacketInBlock = one.isLastPacketInBlock();
-
-            // Fail the packet write for testing in order to force a
-            // pipeline recovery.
-            if (DFSClientFaultInjector.get().failPacket() &&
-                isLastPacketInBlock) {
-              failPacket = true;
-              throw new IOException(
-                    "Failing the last packet for testing.");
-            }
-              
-            // update bytesAcked
-            block.setNumBytes(one.getLastByteOffsetBlock());
+            int numAcked = 0;
+            long bytesAcked = 0;
+            while (true) {
+              isLastPacketInBlock = one.isLastPacketInBlock();
+
+              // Fail the packet write for testing in order to force a
+              // pipeline recovery.
+              if (DFSClientFaultInjector.get().failPacket() &&
+                  isLastPacketInBlock) {
+                failPacket = true;
+                throw new IOException(
+                      "Failing the last packet for testing.");
+              }
 
-            synchronized (dataQueue) {
-              scope = Trace.continueSpan(one.getTraceSpan());
-              one.setTraceSpan(null);
-              lastAckedSeqno = seqno;
-              pipelineRecoveryCount = 0;
-              ackQueue.removeFirst();
-              dataQueue.notifyAll();
+              // update bytesAcked
+              block.setNumBytes(one.getLastByteOffsetBlock());
+              numAcked++;
+              bytesAcked += one.getDataLength();
 
-              one.releaseBuffer(byteArrayManager);
+              synchronized (dataQueue) {
+                scope.close();
+                scope = Trace.continueSpan(one.getTraceSpan());
+                one.setTraceSpan(null);
+                lastAckedSeqno = one.getSeqno();
+                pipelineRecoveryCount = 0;
+                ackQueue.removeFirst();
+                dataQueue.notifyAll();
+
+                one.releaseBuffer(byteArrayManager);
+                if (lastAckedSeqno == seqno) {
+                  break;
+                }
+                one = ackQueue.getFirst();
+              }
+            }
+            final long now = System.nanoTime();
+            final long rttNanos = now - one.getSendTimeNanos();
+            dfsClient.getWriteMetrics().addAck(numAcked, rttNanos);
+            if (packetSizer != null) {
+              packetSizer.packetsAcked(bytesAcked, rttNanos, now);
             }
           } catch (Exception e) {
             if (!responderClosed) {
@@ -1474,7 +1503,8 @@ private boolean createBlockOutputStream(DatanodeInfo[] nodes,
               dfsClient.clientName, nodes, nodeStorageTypes, null, bcs, 
               nodes.length, block.getNumBytes(), bytesSent, newGS,
               checksum4WriteBlock, cachingStrategy.get(), isLazyPersistFile,
-            (targetPinnings == null ? false : targetPinnings[0]), targetPinnings);
+            (targetPinnings == null ? false : targetPinnings[0]), targetPinnings,
+            dfsClient.getConf().cumulativeAcks);
   
           // receive ack for connect
           BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
@@ -1784,6 +1814,11 @@ private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
     }
 
     initWritePacketSize();
+    final DFSClient.Conf conf = dfsClient.getConf();
+    this.packetSizer = !conf.writePacketAdaptive ? null
+        : new AdaptivePacketSizer(writePacketSize, conf.writePacketMinSize,
+            Math.min(conf.writePacketMaxSize, PacketReceiver.MAX_PACKET_SIZE),
+            conf.writeMaxPackets, dfsClient.getWriteMetrics());
 
     this.bytesPerChecksum = checksum.getBytesPerChecksum();
     if (bytesPerChecksum <= 0) {
@@ -1956,6 +1991,9 @@ private void queueCurrentPacket() {
       currentPacket.addTraceParent(Trace.currentSpan());
       dataQueue.addLast(currentPacket);
       lastQueuedSeqno = currentPacket.getSeqno();
+      if (packetSizer != null && !currentPacket.isLastPacketInBlock()) {
+        packetSizer.packetQueued(currentPacket.getDataLength());
+      }
       if (DFSClient.LOG.isDebugEnabled()) {
         DFSClient.LOG.debug("Queued packet " + currentPacket.getSeqno());
       }
@@ -2095,7 +2133,7 @@ protected void adjustChunkBoundary() {
 
     if (!appendChunk) {
       final int psize = (int) Math.min(blockSize - bytesCurBlock,
-          writePacketSize);
+          packetSizer != null ? packetSizer.getPacketSize() : writePacketSize);
       computePacketChunkSize(psize, bytesPerChecksum);
     }
   }
@@ -2251,6 +2289,11 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
           // Restore state of stream. Record the last flush offset
           // of the last full chunk that was flushed.
           bytesCurBlock -= numKept;
+          if (packetSizer != null && currentPacket == null && !appendChunk) {
+            // size the next packet for what is flushed
+            computePacketChunkSize((int) Math.min(blockSize - bytesCurBlock,
+                packetSizer.getPacketSize()), bytesPerChecksum);
+          }
         }
 
         toWaitFor = lastQueuedSeqno;
@@ -2497,6 +2540,7 @@ private synchronized void closeImpl() throws IOException {
         completeFile(lastBlock);
       } finally {
         scope.close();
+        dfsClient.invalidateCachedMetadata(src);
       }
     } catch (ClosedChannelException e) {
     } finally {
@@ -66,6 +66,7 @@ class DFSPacket {
   private long[] traceParents = EMPTY;
   private int traceParentsUsed;
   private Span span;
+  private long sendTimeNanos; // when the packet was sent to the pipeline
 
   /**
    * Create a new packet.
@@ -206,6 +207,33 @@ synchronized long getLastByteOffsetBlock() {
     return offsetInBlock + dataPos - dataStart;
   }
 
+  /**
+   * get the length of the data in the packet
+   *
+   * @return the number of data bytes, not including the checksums
+   */
+  synchronized int getDataLength() {
+    return dataPos - dataStart;
+  }
+
+  /**
+   * set the time when the packet is sent to the pipeline
+   *
+   * @param sendTimeNanos the {@link System#nanoTime()} of the send
+   */
+  synchronized void setSendTimeNanos(long sendTimeNanos) {
+    this.sendTimeNanos = sendTimeNanos;
+  }
+
+  /**
+   * get the time when the packet was sent to the pipeline
+   *
+   * @return the {@link System#nanoTime()} of the send
+   */
+  synchronized long getSendTimeNanos() {
+    return sendTimeNanos;
+  }
+
   /**
    * Check if this packet is a heart beat packet
    *
@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The client-side metrics of the writes of a {@link DFSClient}: the packets
+ * sent to the pipelines, the acks received from them and the changes of the
+ * packet size when the packets are sized adaptively.
+ */
+public class DFSWriteMetrics {
+  public final AtomicLong packetsSent = new AtomicLong();
+  public final AtomicLong acksReceived = new AtomicLong();
+  public final AtomicLong packetsAcked = new AtomicLong();
+  public final AtomicLong ackRoundTripNanos = new AtomicLong();
+  public final AtomicLong packetSizeIncreases = new AtomicLong();
+  public final AtomicLong packetSizeDecreases = new AtomicLong();
+
+  public void incPacketsSent() {
+    packetsSent.incrementAndGet();
+  }
+
+  /**
+   * An ack was received for one or, when cumulative, several packets.
+   * @param numPackets the number of packets acked
+   * @param roundTripNanos the time from sending the last of the packets to
+   *                       receiving the ack
+   */
+  public void addAck(int numPackets, long roundTripNanos) {
+    acksReceived.incrementAndGet();
+    packetsAcked.addAndGet(numPackets);
+    ackRoundTripNanos.addAndGet(roundTripNanos);
+  }
+
+  public void incPacketSizeIncreases() {
+    packetSizeIncreases.incrementAndGet();
+  }
+
+  public void incPacketSizeDecreases() {
+    packetSizeDecreases.incrementAndGet();
+  }
+
+  public long getPacketsSent() {
+    return packetsSent.longValue();
+  }
+
+  public long getAcksReceived() {
+    return acksReceived.longValue();
+  }
+
+  public long getPacketsAcked() {
+    return packetsAcked.longValue();
+  }
+
+  /** @return the total round trip time of the acks received */
+  public long getAckRoundTripNanos() {
+    return ackRoundTripNanos.longValue();
+  }
+
+  public long getPacketSizeIncreases() {
+    return packetSizeIncreases.longValue();
+  }
+
+  public long getPacketSizeDecreases() {
+    return packetSizeDecreases.longValue();
+  }
+}
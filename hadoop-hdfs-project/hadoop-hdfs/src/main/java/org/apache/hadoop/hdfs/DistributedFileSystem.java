@@ -23,13 +23,19 @@
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BatchListingOperations;
 import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.BlockStorageLocation;
 import org.apache.hadoop.fs.CacheFlag;
@@ -45,11 +51,13 @@
 import org.apache.hadoop.fs.FileSystemLinkResolver;
 import org.apache.hadoop.fs.FsServerDefaults;
 import org.apache.hadoop.fs.FsStatus;
+import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Options;
 import org.apache.hadoop.fs.XAttrSetFlag;
 import org.apache.hadoop.fs.Options.ChecksumOpt;
 import org.apache.hadoop.fs.ParentNotDirectoryException;
+import org.apache.hadoop.fs.PartialListing;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.RemoteIterator;
@@ -63,6 +71,7 @@
 import org.apache.hadoop.fs.StorageType;
 import org.apache.hadoop.hdfs.client.HdfsAdmin;
 import org.apache.hadoop.hdfs.client.HdfsDataOutputStream;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -77,6 +86,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
 import org.apache.hadoop.hdfs.protocol.SnapshottableDirectoryStatus;
@@ -84,6 +94,8 @@
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RpcNoSuchMethodException;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.Credentials;
@@ -103,7 +115,11 @@
  *****************************************************************/
 @InterfaceAudience.LimitedPrivate({ "MapReduce", "HBase" })
 @InterfaceStability.Unstable
-public class DistributedFileSystem extends FileSystem {
+public class DistributedFileSystem extends FileSystem
+    implements BatchListingOperations {
+  /** The most directories {@link #listFiles} lists with one call. */
+  private static final int LIST_FILES_BATCH_SIZE = 1000;
+
   private Path workingDir;
   private URI uri;
   private String homeDirPrefix =
@@ -1005,6 +1021,268 @@ public T next() throws IOException {
     }
   }
   
+  /**
+   * Returns a remote iterator over the entries of a directory whose names
+   * match a glob pattern. The entries are filtered by the NameNode, so
+   * only the matching ones are transferred.
+   *
+   * @param p target path
+   * @param glob glob pattern on the names of the entries
+   * @return remote iterator
+   */
+  public RemoteIterator<FileStatus> listStatusIterator(final Path p,
+      final String glob) throws IOException {
+    final RemoteIterator<PartialListing<FileStatus>> listings =
+        batchedListStatusIterator(Collections.singletonList(p), glob);
+    return new RemoteIterator<FileStatus>() {
+      private Iterator<FileStatus> entries =
+          Collections.<FileStatus>emptyIterator();
+
+      @Override
+      public boolean hasNext() throws IOException {
+        while (!entries.hasNext() && listings.hasNext()) {
+          entries = listings.next().get().iterator();
+        }
+        return entries.hasNext();
+      }
+
+      @Override
+      public FileStatus next() throws IOException {
+        if (hasNext()) {
+          return entries.next();
+        }
+        throw new java.util.NoSuchElementException("No more entry in " + p);
+      }
+    };
+  }
+
+  /**
+   * List the files of a directory, and of its subdirectories if recursive.
+   * The directories of a recursive listing are listed in batches, with as
+   * few calls to the NameNode as the listing limit allows.
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listFiles(final Path f,
+      final boolean recursive) throws FileNotFoundException, IOException {
+    if (!recursive) {
+      return super.listFiles(f, recursive);
+    }
+    try {
+      return new FileListingIterator(fixRelativePart(f));
+    } catch (UnresolvedLinkException e) {
+      return super.listFiles(f, recursive);
+    }
+  }
+
+  /**
+   * Iterates over the files of a subtree level by level, listing the
+   * directories of each level in batches. Symlinks are listed the way
+   * {@link FileSystem#listFiles} does once the rest has been listed.
+   */
+  private class FileListingIterator
+      implements RemoteIterator<LocatedFileStatus> {
+    private final LinkedList<Path> pendingDirs = new LinkedList<Path>();
+    private final LinkedList<Path> links = new LinkedList<Path>();
+    private RemoteIterator<PartialListing<LocatedFileStatus>> listings;
+    private Iterator<LocatedFileStatus> entries;
+    private RemoteIterator<LocatedFileStatus> linkEntries;
+    private LocatedFileStatus curFile;
+
+    private FileListingIterator(Path root) throws IOException {
+      // list the root right away, so that its errors are thrown here
+      listings = batchedListLocatedStatusIterator(
+          Collections.singletonList(root), null);
+      entries = listings.next().get().iterator();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (curFile == null) {
+        if (entries.hasNext()) {
+          LocatedFileStatus stat = entries.next();
+          if (stat.isFile()) {
+            curFile = stat;
+          } else if (stat.isDirectory()) {
+            pendingDirs.add(stat.getPath());
+          } else {
+            links.add(stat.getPath());
+          }
+        } else if (listings.hasNext()) {
+          entries = listings.next().get().iterator();
+        } else if (!pendingDirs.isEmpty()) {
+          List<Path> batch = pendingDirs.subList(0,
+              Math.min(pendingDirs.size(), LIST_FILES_BATCH_SIZE));
+          listings = batchedListLocatedStatusIterator(
+              new ArrayList<Path>(batch), null);
+          batch.clear();
+        } else if (linkEntries != null && linkEntries.hasNext()) {
+          curFile = linkEntries.next();
+        } else if (!links.isEmpty()) {
+          linkEntries = DistributedFileSystem.super.listFiles(
+              links.removeFirst(), true);
+        } else {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public LocatedFileStatus next() throws IOException {
+      if (hasNext()) {
+        LocatedFileStatus tmp = curFile;
+        curFile = null;
+        return tmp;
+      }
+      throw new java.util.NoSuchElementException("No more entry");
+    }
+  }
+
+  @Override
+  public RemoteIterator<PartialListing<FileStatus>> batchedListStatusIterator(
+      List<Path> paths, String glob) throws IOException {
+    return new PartialListingIterator<FileStatus>(paths, glob, false);
+  }
+
+  @Override
+  public RemoteIterator<PartialListing<LocatedFileStatus>>
+      batchedListLocatedStatusIterator(List<Path> paths, String glob)
+      throws IOException {
+    return new PartialListingIterator<LocatedFileStatus>(paths, glob, true);
+  }
+
+  /**
+   * This class defines an iterator over the partial listings of several
+   * directories. It asks the NameNode for as many of them at a time as the
+   * listing limit allows, and lists the directories one by one if the
+   * NameNode cannot list them in batches.
+   *
+   * @param <T> the type of the file status
+   */
+  private class PartialListingIterator<T extends FileStatus>
+      implements RemoteIterator<PartialListing<T>> {
+    private final List<Path> paths;
+    private final String[] srcs;
+    private final String glob;
+    private final boolean needLocation;
+    private BatchedDirectoryListing thisListing;
+    /** Index in srcs of the first path of thisListing. */
+    private int listingIdx;
+    private int i;
+    /** Index in srcs of the path to continue the listing from. */
+    private int nextIdx;
+    private byte[] startAfter = HdfsFileStatus.EMPTY_NAME;
+    private boolean batchedListingSupported = true;
+
+    private PartialListingIterator(List<Path> paths, String glob,
+        boolean needLocation) {
+      this.paths = new ArrayList<Path>(paths.size());
+      this.srcs = new String[paths.size()];
+      for (Path p : paths) {
+        Path absF = fixRelativePart(p);
+        this.srcs[this.paths.size()] = getPathName(absF);
+        this.paths.add(makeQualified(absF));
+      }
+      this.glob = glob;
+      this.needLocation = needLocation;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (thisListing == null || i >= thisListing.getListings().length) {
+        if (nextIdx >= srcs.length) {
+          return false;
+        }
+        fetch();
+      }
+      return true;
+    }
+
+    private void fetch() throws IOException {
+      int count = srcs.length - nextIdx;
+      if (batchedListingSupported) {
+        try {
+          thisListing = dfs.batchedListPaths(
+              Arrays.copyOfRange(srcs, nextIdx, srcs.length), startAfter,
+              needLocation, glob);
+        } catch (RemoteException e) {
+          if (!RpcNoSuchMethodException.class.getName().equals(
+              e.getClassName())) {
+            throw e;
+          }
+          batchedListingSupported = false;
+        }
+      }
+      if (!batchedListingSupported) {
+        thisListing = listOne(srcs[nextIdx]);
+        count = 1;
+      }
+      statistics.incrementReadOps(1);
+      listingIdx = nextIdx;
+      i = 0;
+      if (thisListing.hasMore()) {
+        nextIdx += thisListing.getNextIdx();
+        startAfter = thisListing.getStartAfter();
+      } else {
+        nextIdx += count;
+        startAfter = HdfsFileStatus.EMPTY_NAME;
+      }
+    }
+
+    /** List one directory with the per directory call. */
+    private BatchedDirectoryListing listOne(String src) throws IOException {
+      HdfsPartialListing listing;
+      DirectoryListing dl = null;
+      try {
+        dl = dfs.listPaths(src, startAfter, needLocation);
+        if (dl == null) {
+          throw new FileNotFoundException("File " + src + " does not exist.");
+        }
+        Pattern pattern = glob == null ? null : GlobPattern.compile(glob);
+        List<HdfsFileStatus> matches = new ArrayList<HdfsFileStatus>();
+        for (HdfsFileStatus status : dl.getPartialListing()) {
+          if (pattern == null || status.isEmptyLocalName() ||
+              pattern.matcher(status.getLocalName()).matches()) {
+            matches.add(status);
+          }
+        }
+        listing = new HdfsPartialListing(0,
+            matches.toArray(new HdfsFileStatus[matches.size()]));
+      } catch (IOException e) {
+        listing = new HdfsPartialListing(0,
+            new RemoteException(e.getClass().getName(), e.getMessage()));
+      }
+      boolean hasMore = dl != null && dl.hasMore();
+      return new BatchedDirectoryListing(
+          new HdfsPartialListing[] { listing }, hasMore, hasMore ? 0 : 1,
+          hasMore ? dl.getLastName() : null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public PartialListing<T> next() throws IOException {
+      if (!hasNext()) {
+        throw new java.util.NoSuchElementException("No more listing");
+      }
+      HdfsPartialListing listing = thisListing.getListings()[i++];
+      Path parent = paths.get(listingIdx + listing.getParentIdx());
+      if (listing.getException() != null) {
+        return new PartialListing<T>(parent, listing.getException());
+      }
+      HdfsFileStatus[] partialListing = listing.getPartialListing();
+      List<T> statuses = new ArrayList<T>(partialListing.length);
+      for (HdfsFileStatus fileStat : partialListing) {
+        if (needLocation) {
+          statuses.add((T)((HdfsLocatedFileStatus)fileStat)
+              .makeQualifiedLocated(getUri(), parent));
+        } else {
+          statuses.add((T)fileStat.makeQualified(getUri(), parent));
+        }
+      }
+      return new PartialListing<T>(parent, statuses);
+    }
+  }
+
   /**
    * Create a directory, only when the parent directories exist.
    *
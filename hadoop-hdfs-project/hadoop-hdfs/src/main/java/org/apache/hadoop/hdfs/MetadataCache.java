@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A cache of the file status and block locations of the files of a
+ * {@link DFSClient}, for files which are not modified once written, such as
+ * the files of a data warehouse.
+ * <p>
+ * Only the files under the configured path prefixes are cached, and neither
+ * directories nor files under construction are. The entries expire after
+ * their time to live, so the changes of other clients show after that at
+ * the latest; the changes the client makes itself invalidate the entries of
+ * the paths they affect right away. The least recently used entries are
+ * evicted once the cache holds the configured number of entries.
+ */
+@InterfaceAudience.Private
+class MetadataCache {
+  /** The block locations of a range of a file */
+  private static class BlocksKey {
+    private final String src;
+    private final long start;
+    private final long length;
+
+    BlocksKey(String src, long start, long length) {
+      this.src = src;
+      this.start = start;
+      this.length = length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof BlocksKey)) {
+        return false;
+      }
+      BlocksKey other = (BlocksKey) o;
+      return src.equals(other.src) && start == other.start
+          && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(src, start, length);
+    }
+  }
+
+  private final String[] prefixes;
+  private final Cache<String, HdfsFileStatus> fileStatus;
+  private final Cache<BlocksKey, LocatedBlocks> blocks;
+  private final DFSMetadataCacheMetrics metrics;
+
+  /**
+   * @param prefixes the path prefixes of the files to cache
+   * @param maxEntries the most entries of each kind to keep
+   * @param ttlMs how long to keep an entry
+   */
+  MetadataCache(Collection<String> prefixes, long maxEntries, long ttlMs,
+      DFSMetadataCacheMetrics metrics) {
+    List<String> normalized = new ArrayList<String>(prefixes.size());
+    for (String prefix : prefixes) {
+      while (prefix.length() > 1 && prefix.endsWith("/")) {
+        prefix = prefix.substring(0, prefix.length() - 1);
+      }
+      if (!prefix.isEmpty()) {
+        normalized.add(prefix);
+      }
+    }
+    this.prefixes = normalized.toArray(new String[normalized.size()]);
+    this.fileStatus = CacheBuilder.newBuilder().maximumSize(maxEntries)
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS).build();
+    this.blocks = CacheBuilder.newBuilder().maximumSize(maxEntries)
+        .expireAfterWrite(ttlMs, TimeUnit.MILLISECONDS).build();
+    this.metrics = metrics;
+  }
+
+  /** @return whether path is ancestor or equal to src */
+  private static boolean isAncestor(String path, String src) {
+    return src.startsWith(path) && (src.length() == path.length()
+        || path.endsWith("/") || src.charAt(path.length()) == '/');
+  }
+
+  /** @return whether the files under src may be cached */
+  boolean isCached(String src) {
+    for (String prefix : prefixes) {
+      if (isAncestor(prefix, src)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return whether the files under src may be in the cache */
+  private boolean mayHaveCached(String src) {
+    for (String prefix : prefixes) {
+      if (isAncestor(prefix, src) || isAncestor(src, prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the cached status of a file, or null if it is not cached, in
+   *         which case a miss is counted if the file may be cached
+   */
+  HdfsFileStatus getFileInfo(String src) {
+    if (!isCached(src)) {
+      return null;
+    }
+    HdfsFileStatus status = fileStatus.getIfPresent(src);
+    if (status == null) {
+      metrics.incFileStatusMisses();
+    } else {
+      metrics.incFileStatusHits();
+    }
+    return status;
+  }
+
+  void putFileInfo(String src, HdfsFileStatus status) {
+    if (status != null && !status.isDir() && !status.isSymlink()
+        && isCached(src)) {
+      fileStatus.put(src, status);
+    }
+  }
+
+  /**
+   * @return a copy of the cached block locations of a range of a file, or
+   *         null if they are not cached, in which case a miss is counted if
+   *         the file may be cached
+   */
+  LocatedBlocks getLocatedBlocks(String src, long start, long length) {
+    if (!isCached(src)) {
+      return null;
+    }
+    LocatedBlocks cached = blocks.getIfPresent(
+        new BlocksKey(src, start, length));
+    if (cached == null) {
+      metrics.incBlockLocationMisses();
+      return null;
+    }
+    metrics.incBlockLocationHits();
+    return copy(cached);
+  }
+
+  void putLocatedBlocks(String src, long start, long length,
+      LocatedBlocks located) {
+    if (located != null && !located.isUnderConstruction()
+        && located.isLastBlockComplete() && isCached(src)) {
+      blocks.put(new BlocksKey(src, start, length), copy(located));
+    }
+  }
+
+  /** The streams reading a file change its list of blocks */
+  private static LocatedBlocks copy(LocatedBlocks located) {
+    return new LocatedBlocks(located.getFileLength(),
+        located.isUnderConstruction(),
+        new ArrayList<LocatedBlock>(located.getLocatedBlocks()),
+        located.getLastLocatedBlock(), located.isLastBlockComplete(),
+        located.getFileEncryptionInfo());
+  }
+
+  /** Forget the entries of a path and of the paths under it. */
+  void invalidate(String src) {
+    if (src == null || !mayHaveCached(src)) {
+      return;
+    }
+    for (Iterator<String> it = fileStatus.asMap().keySet().iterator();
+        it.hasNext(); ) {
+      if (isAncestor(src, it.next())) {
+        it.remove();
+      }
+    }
+    for (Iterator<BlocksKey> it = blocks.asMap().keySet().iterator();
+        it.hasNext(); ) {
+      if (isAncestor(src, it.next().src)) {
+        it.remove();
+      }
+    }
+  }
+}
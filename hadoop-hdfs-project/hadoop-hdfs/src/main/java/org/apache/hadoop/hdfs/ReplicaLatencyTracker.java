@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Estimates the read latency and throughput of the DataNodes a client reads
+ * from, to order the replicas of a block and to time hedged reads.
+ * <p>
+ * Each DataNode gets moving averages of the time to set up a block reader,
+ * and of the rate of the data of large reads. An estimate which has not been
+ * sampled for dfs.client.read.latency-aware.expiry.ms is forgotten, so a
+ * DataNode which was slow gets another chance.
+ * <p>
+ * The NameNode sorts the replicas by network distance. Within each rack,
+ * the replicas whose estimated read time exceeds that of the fastest one by
+ * more than dfs.client.read.latency-aware.slow-node.factor are read last;
+ * the others keep the order of the NameNode, which spreads the reads.
+ */
+@InterfaceAudience.Private
+class ReplicaLatencyTracker {
+  /** The weight of a new sample in the moving averages */
+  private static final double ALPHA = 0.25;
+  /** The size of the read the estimated read times are compared for */
+  private static final long REFERENCE_READ_BYTES = 64 * 1024;
+  /** Smaller reads are too short to sample the data rate */
+  private static final long MIN_RATE_SAMPLE_BYTES = 64 * 1024;
+  /** A replica is slow only if it is slower by this much at least */
+  private static final double MIN_SLOW_MARGIN_MILLIS = 2;
+  /** The number of recent read times hedged reads are timed from */
+  @VisibleForTesting
+  static final int READ_TIME_WINDOW = 128;
+  /** The number of read times needed to time hedged reads from them */
+  @VisibleForTesting
+  static final int MIN_READ_TIME_SAMPLES = 16;
+
+  /** The estimates of a DataNode */
+  private static class Estimate {
+    /** Moving average of the reader setup time */
+    private double latencyMillis = -1;
+    /** Moving average of the bytes per millisecond, -1 before a sample */
+    private double bytesPerMilli = -1;
+    private long lastUpdateNanos;
+
+    synchronized void update(long latencyNanos, long bytes,
+        long transferNanos, long now, long expiryNanos) {
+      if (now - lastUpdateNanos > expiryNanos) {
+        latencyMillis = -1;
+        bytesPerMilli = -1;
+      }
+      lastUpdateNanos = now;
+      double millis = latencyNanos / 1e6;
+      latencyMillis = latencyMillis < 0 ? millis
+          : latencyMillis + ALPHA * (millis - latencyMillis);
+      if (bytes >= MIN_RATE_SAMPLE_BYTES && transferNanos > 0) {
+        double rate = bytes / (transferNanos / 1e6);
+        bytesPerMilli = bytesPerMilli < 0 ? rate
+            : bytesPerMilli + ALPHA * (rate - bytesPerMilli);
+      }
+    }
+
+    /** @return the estimated time of a read, or -1 if unknown */
+    synchronized double getReadMillis(long now, long expiryNanos) {
+      if (latencyMillis < 0 || now - lastUpdateNanos > expiryNanos) {
+        return -1;
+      }
+      return bytesPerMilli <= 0 ? latencyMillis
+          : latencyMillis + REFERENCE_READ_BYTES / bytesPerMilli;
+    }
+  }
+
+  private final boolean enabled;
+  private final double slowNodeFactor;
+  private final long expiryNanos;
+  private final double hedgedReadPercentile;
+  private final ConcurrentHashMap<String, Estimate> estimates =
+      new ConcurrentHashMap<String, Estimate>();
+  /** The recent read times of positioned reads, in a ring */
+  private final long[] readTimesNanos = new long[READ_TIME_WINDOW];
+  private int readTimeCount;
+
+  /**
+   * @param enabled whether to order the replicas by their estimates
+   * @param slowNodeFactor how much slower than the fastest replica of a rack
+   *                       a replica is to be read last
+   * @param expiryMillis how long an estimate is kept without samples
+   * @param hedgedReadPercentile the percentile of the recent read times to
+   *                             time hedged reads with, 0 to keep the
+   *                             configured threshold
+   */
+  ReplicaLatencyTracker(boolean enabled, double slowNodeFactor,
+      long expiryMillis, double hedgedReadPercentile) {
+    this.enabled = enabled;
+    this.slowNodeFactor = slowNodeFactor;
+    this.expiryNanos = TimeUnit.MILLISECONDS.toNanos(expiryMillis);
+    this.hedgedReadPercentile = hedgedReadPercentile;
+  }
+
+  /**
+   * Sample a read from a DataNode.
+   * @param node the DataNode
+   * @param latencyNanos the time to set up the block reader
+   * @param bytes the bytes read, 0 if the reader was only set up
+   * @param transferNanos the time to read the bytes
+   */
+  void addRead(DatanodeInfo node, long latencyNanos, long bytes,
+      long transferNanos) {
+    if (!enabled) {
+      return;
+    }
+    Estimate estimate = estimates.get(node.getDatanodeUuid());
+    if (estimate == null) {
+      Estimate newEstimate = new Estimate();
+      estimate = estimates.putIfAbsent(node.getDatanodeUuid(), newEstimate);
+      if (estimate == null) {
+        estimate = newEstimate;
+      }
+    }
+    estimate.update(latencyNanos, bytes, transferNanos, System.nanoTime(),
+        expiryNanos);
+  }
+
+  /**
+   * Sample the time of a whole positioned read from one DataNode, to time
+   * hedged reads.
+   */
+  void addPositionedReadTime(long nanos) {
+    if (hedgedReadPercentile <= 0) {
+      return;
+    }
+    synchronized (readTimesNanos) {
+      readTimesNanos[readTimeCount++ % READ_TIME_WINDOW] = nanos;
+      if (readTimeCount == 2 * READ_TIME_WINDOW) {
+        readTimeCount = READ_TIME_WINDOW;
+      }
+    }
+  }
+
+  /**
+   * Get how long to wait for a positioned read before starting a hedged
+   * read.
+   * @param thresholdMillis the configured threshold
+   * @return the configured percentile of the recent read times, but no more
+   *         than the configured threshold, or the configured threshold
+   *         until enough reads have been sampled
+   */
+  long getHedgedReadThreshold(long thresholdMillis) {
+    if (hedgedReadPercentile <= 0) {
+      return thresholdMillis;
+    }
+    long[] sorted;
+    synchronized (readTimesNanos) {
+      if (readTimeCount < MIN_READ_TIME_SAMPLES) {
+        return thresholdMillis;
+      }
+      sorted = Arrays.copyOf(readTimesNanos,
+          Math.min(readTimeCount, READ_TIME_WINDOW));
+    }
+    Arrays.sort(sorted);
+    int index = (int) Math.ceil(hedgedReadPercentile / 100 * sorted.length) - 1;
+    long millis = TimeUnit.NANOSECONDS.toMillis(
+        sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    return Math.max(1, Math.min(millis, thresholdMillis));
+  }
+
+  /**
+   * Order the replicas of a block for reading.
+   * @param nodes the replicas, sorted by network distance
+   * @return the indices of the replicas in the order to read them, or null
+   *         to read them in their order
+   */
+  int[] order(DatanodeInfo[] nodes) {
+    if (!enabled || nodes == null || nodes.length < 2) {
+      return null;
+    }
+    long now = System.nanoTime();
+    double[] readMillis = new double[nodes.length];
+    boolean sampled = false;
+    for (int i = 0; i < nodes.length; i++) {
+      Estimate estimate = estimates.get(nodes[i].getDatanodeUuid());
+      readMillis[i] = estimate == null ? -1
+          : estimate.getReadMillis(now, expiryNanos);
+      sampled |= readMillis[i] >= 0;
+    }
+    if (!sampled) {
+      return null;
+    }
+    int[] order = new int[nodes.length];
+    int next = 0;
+    for (int start = 0, end; start < nodes.length; start = end) {
+      // the replicas of a rack are next to each other
+      String rack = nodes[start].getNetworkLocation();
+      for (end = start + 1; end < nodes.length
+          && nodes[end].getNetworkLocation().equals(rack); end++) {
+      }
+      double fastest = -1;
+      for (int i = start; i < end; i++) {
+        if (readMillis[i] >= 0 && (fastest < 0 || readMillis[i] < fastest)) {
+          fastest = readMillis[i];
+        }
+      }
+      double slow = Math.max(fastest * slowNodeFactor,
+          fastest + MIN_SLOW_MARGIN_MILLIS);
+      List<Integer> slowNodes = new ArrayList<Integer>();
+      for (int i = start; i < end; i++) {
+        if (fastest >= 0 && readMillis[i] > slow) {
+          slowNodes.add(i);
+        } else {
+          order[next++] = i;
+        }
+      }
+      // the slow replicas, the least slow first
+      while (!slowNodes.isEmpty()) {
+        int least = 0;
+        for (int j = 1; j < slowNodes.size(); j++) {
+          if (readMillis[slowNodes.get(j)] < readMillis[slowNodes.get(least)]) {
+            least = j;
+          }
+        }
+        order[next++] = slowNodes.remove(least);
+      }
+    }
+    return order;
+  }
+
+  @VisibleForTesting
+  double getReadMillis(DatanodeInfo node) {
+    Estimate estimate = estimates.get(node.getDatanodeUuid());
+    return estimate == null ? -1
+        : estimate.getReadMillis(System.nanoTime(), expiryNanos);
+  }
+}
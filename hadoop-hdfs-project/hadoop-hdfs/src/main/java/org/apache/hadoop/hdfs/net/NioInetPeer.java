@@ -22,6 +22,7 @@
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 
 import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.net.SocketOutputStream;
@@ -53,6 +54,10 @@ class NioInetPeer implements Peer {
     this.isLocal = socket.getInetAddress().equals(socket.getLocalAddress());
   }
 
+  SocketChannel getSocketChannel() {
+    return socket.getChannel();
+  }
+
   @Override
   public ReadableByteChannel getInputStreamChannel() {
     return in;
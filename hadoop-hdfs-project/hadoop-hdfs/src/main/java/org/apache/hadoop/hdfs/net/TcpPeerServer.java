@@ -78,6 +78,15 @@ public static Peer peerFromSocket(Socket socket)
     }
   }
 
+  /**
+   * @return the channel of a peer created by {@link #peerFromSocket}, or
+   *   null if the socket has no channel
+   */
+  public static SocketChannel getSocketChannel(Peer peer) {
+    return (peer instanceof NioInetPeer) ?
+        ((NioInetPeer) peer).getSocketChannel() : null;
+  }
+
   public static Peer peerFromSocketAndKey(
         SaslDataTransferClient saslClient, Socket s,
         DataEncryptionKeyFactory keyFactory,
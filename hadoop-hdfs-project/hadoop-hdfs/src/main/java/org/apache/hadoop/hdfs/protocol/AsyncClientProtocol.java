@@ -0,0 +1,67 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Asynchronous variant of some of the calls of {@link ClientProtocol}.
+ * <p>
+ * Each method sends its request to the NameNode and returns without waiting
+ * for the response. The returned future yields what the corresponding
+ * {@link ClientProtocol} method returns, or fails with the IOException it
+ * throws, e.g. a {@link org.apache.hadoop.ipc.RemoteException} from the
+ * NameNode. Calls share the connection of the underlying RPC proxy, and at
+ * most <code>ipc.client.async.calls.max</code> of them are outstanding on it
+ * at a time; beyond that a method waits before sending. Asynchronous calls
+ * are neither retried nor failed over.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public interface AsyncClientProtocol extends Closeable {
+
+  /**
+   * @see ClientProtocol#getFileInfo(String)
+   */
+  ListenableFuture<HdfsFileStatus> getFileInfo(String src)
+      throws IOException;
+
+  /**
+   * @see ClientProtocol#getListing(String, byte[], boolean)
+   */
+  ListenableFuture<DirectoryListing> getListing(String src, byte[] startAfter,
+      boolean needLocation) throws IOException;
+
+  /**
+   * @see ClientProtocol#rename(String, String)
+   */
+  ListenableFuture<Boolean> rename(String src, String dst)
+      throws IOException;
+
+  /**
+   * @see ClientProtocol#delete(String, boolean)
+   */
+  ListenableFuture<Boolean> delete(String src, boolean recursive)
+      throws IOException;
+}
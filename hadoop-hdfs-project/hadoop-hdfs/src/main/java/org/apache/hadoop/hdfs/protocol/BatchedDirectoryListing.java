@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * The result of listing several directories with one call. The listings are
+ * in the order of the requested paths. When there are more entries to list,
+ * {@link #getNextIdx()} is the index of the path to continue from, and
+ * {@link #getStartAfter()} the name to continue after in it, or empty to
+ * list it from its first entry.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BatchedDirectoryListing {
+  private static final byte[] EMPTY = new byte[0];
+
+  private final HdfsPartialListing[] listings;
+  private final boolean hasMore;
+  private final int nextIdx;
+  private final byte[] startAfter;
+
+  public BatchedDirectoryListing(HdfsPartialListing[] listings,
+      boolean hasMore, int nextIdx, byte[] startAfter) {
+    if (hasMore && listings.length == 0 && nextIdx == 0
+        && (startAfter == null || startAfter.length == 0)) {
+      throw new IllegalArgumentException("Listing made no progress but " +
+          "there are more entries to list");
+    }
+    if (nextIdx < 0) {
+      throw new IllegalArgumentException("Invalid next index " + nextIdx);
+    }
+    this.listings = listings;
+    this.hasMore = hasMore;
+    this.nextIdx = nextIdx;
+    this.startAfter = startAfter == null ? EMPTY : startAfter;
+  }
+
+  public HdfsPartialListing[] getListings() {
+    return listings;
+  }
+
+  public boolean hasMore() {
+    return hasMore;
+  }
+
+  public byte[] getStartAfter() {
+    return startAfter;
+  }
+
+  /**
+   * @return the index, in the requested paths, of the path to continue the
+   *         listing from
+   */
+  public int getNextIdx() {
+    return nextIdx;
+  }
+}
@@ -629,6 +629,28 @@ public DirectoryListing getListing(String src,
                                      boolean needLocation)
       throws AccessControlException, FileNotFoundException,
       UnresolvedLinkException, IOException;
+
+  /**
+   * Get partial listings of several directories with one call. The errors
+   * of listing a path, such as a missing path or a denied permission, are
+   * returned in its listing and do not fail the call.
+   *
+   * @param srcs the directory names
+   * @param startAfter the name to start listing the first directory after
+   *                   encoded in java UTF8
+   * @param needLocation if the FileStatus should contain block locations
+   * @param filter if not null, a glob pattern which the names of the
+   *               entries listed must match
+   *
+   * @return the partial listings of the directories, starting with the first
+   *         one, after startAfter
+   *
+   * @throws IOException If an I/O error occurred
+   */
+  @Idempotent
+  public BatchedDirectoryListing getBatchedListing(String[] srcs,
+      byte[] startAfter, boolean needLocation, String filter)
+      throws IOException;
   
   /**
    * Get listing of all the snapshottable directories
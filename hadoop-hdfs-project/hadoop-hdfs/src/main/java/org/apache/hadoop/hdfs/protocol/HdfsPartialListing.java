@@ -0,0 +1,79 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.RemoteException;
+
+/**
+ * A part of the listing of one of the paths of a
+ * {@link BatchedDirectoryListing}: either some of its entries or the error
+ * which prevented listing it.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class HdfsPartialListing {
+  private final int parentIdx;
+  private final HdfsFileStatus[] partialListing;
+  private final RemoteException exception;
+
+  /**
+   * @param parentIdx index of the listed path in the request
+   * @param partialListing the entries listed
+   */
+  public HdfsPartialListing(int parentIdx, HdfsFileStatus[] partialListing) {
+    if (partialListing == null) {
+      throw new IllegalArgumentException("partial listing should not be null");
+    }
+    this.parentIdx = parentIdx;
+    this.partialListing = partialListing;
+    this.exception = null;
+  }
+
+  /**
+   * @param parentIdx index of the listed path in the request
+   * @param exception the error which prevented listing the path
+   */
+  public HdfsPartialListing(int parentIdx, RemoteException exception) {
+    if (exception == null) {
+      throw new IllegalArgumentException("exception should not be null");
+    }
+    this.parentIdx = parentIdx;
+    this.partialListing = null;
+    this.exception = exception;
+  }
+
+  public int getParentIdx() {
+    return parentIdx;
+  }
+
+  /**
+   * @return the entries listed, or null if the path could not be listed
+   */
+  public HdfsFileStatus[] getPartialListing() {
+    return partialListing;
+  }
+
+  /**
+   * @return the error which prevented listing the path, or null
+   */
+  public RemoteException getException() {
+    return exception;
+  }
+}
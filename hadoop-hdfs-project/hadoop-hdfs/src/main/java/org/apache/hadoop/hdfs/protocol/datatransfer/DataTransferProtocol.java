@@ -94,6 +94,8 @@ public void readBlock(final ExtendedBlock blk,
    * @param latestGenerationStamp the latest generation stamp of the block.
    * @param pinning whether to pin the block, so Balancer won't move it.
    * @param targetPinnings whether to pin the block on target datanode
+   * @param cumulativeAcks whether the writer accepts one ack for several
+   *                       packets.
    */
   public void writeBlock(final ExtendedBlock blk,
       final StorageType storageType, 
@@ -111,7 +113,8 @@ public void writeBlock(final ExtendedBlock blk,
       final CachingStrategy cachingStrategy,
       final boolean allowLazyPersist,
       final boolean pinning,
-      final boolean[] targetPinnings) throws IOException;
+      final boolean[] targetPinnings,
+      final boolean cumulativeAcks) throws IOException;
   /**
    * Transfer a block to another datanode.
    * The block stage must be
@@ -151,7 +151,8 @@ private void opWriteBlock(DataInputStream in) throws IOException {
             CachingStrategy.newDefaultStrategy()),
           (proto.hasAllowLazyPersist() ? proto.getAllowLazyPersist() : false),
           (proto.hasPinning() ? proto.getPinning(): false),
-          (PBHelper.convertBooleanList(proto.getTargetPinningsList())));
+          (PBHelper.convertBooleanList(proto.getTargetPinningsList())),
+          proto.getCumulativeAcks());
     } finally {
      if (traceScope != null) traceScope.close();
     }
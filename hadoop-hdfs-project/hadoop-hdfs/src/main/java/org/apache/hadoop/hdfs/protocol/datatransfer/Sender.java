@@ -131,7 +131,8 @@ public void writeBlock(final ExtendedBlock blk,
       final CachingStrategy cachingStrategy,
       final boolean allowLazyPersist,
       final boolean pinning,
-      final boolean[] targetPinnings) throws IOException {
+      final boolean[] targetPinnings,
+      final boolean cumulativeAcks) throws IOException {
     ClientOperationHeaderProto header = DataTransferProtoUtil.buildClientHeader(
         blk, clientName, blockToken);
     
@@ -152,7 +153,8 @@ public void writeBlock(final ExtendedBlock blk,
       .setCachingStrategy(getCachingStrategy(cachingStrategy))
       .setAllowLazyPersist(allowLazyPersist)
       .setPinning(pinning)
-      .addAllTargetPinnings(PBHelper.convert(targetPinnings, 1));
+      .addAllTargetPinnings(PBHelper.convert(targetPinnings, 1))
+      .setCumulativeAcks(cumulativeAcks);
     
     if (source != null) {
       proto.setSource(PBHelper.convertDatanodeInfo(source));
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocolPB;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hdfs.protocol.AsyncClientProtocol;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DeleteRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.DeleteResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFileInfoRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFileInfoResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameRequestProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.RenameResponseProto;
+import org.apache.hadoop.ipc.ProtobufHelper;
+import org.apache.hadoop.ipc.ProtobufRpcEngine;
+import org.apache.hadoop.ipc.RPC;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Message;
+import com.google.protobuf.ServiceException;
+
+/**
+ * This class forwards some of NN's ClientProtocol calls as asynchronous RPC
+ * calls to the NN server, translating the responses once they arrive.
+ * It uses the same {@link ClientNamenodeProtocolPB} proxy as
+ * {@link ClientNamenodeProtocolTranslatorPB}.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class AsyncClientNamenodeProtocolTranslatorPB
+    implements AsyncClientProtocol {
+  final private ClientNamenodeProtocolPB rpcProxy;
+
+  public AsyncClientNamenodeProtocolTranslatorPB(
+      ClientNamenodeProtocolPB proxy) {
+    rpcProxy = proxy;
+  }
+
+  @Override
+  public void close() {
+    RPC.stopProxy(rpcProxy);
+  }
+
+  /**
+   * Switch the calling thread to asynchronous calls.
+   * @return whether it already made asynchronous calls, for
+   *   {@link #endAsyncCall(boolean)}
+   */
+  private static boolean beginAsyncCall() {
+    boolean wasAsync = ProtobufRpcEngine.isAsynchronousMode();
+    ProtobufRpcEngine.setAsynchronousMode(true);
+    return wasAsync;
+  }
+
+  private static void endAsyncCall(boolean wasAsync) {
+    ProtobufRpcEngine.setAsynchronousMode(wasAsync);
+  }
+
+  /**
+   * @return the response of the call just made through the proxy
+   */
+  private <T extends Message> ListenableFuture<T> getAsyncResponse()
+      throws IOException {
+    ListenableFuture<T> response = ProtobufRpcEngine.getAsyncReturnMessage();
+    if (response == null) {
+      throw new IOException("Asynchronous calls are not supported by "
+          + rpcProxy);
+    }
+    return response;
+  }
+
+  @Override
+  public ListenableFuture<HdfsFileStatus> getFileInfo(String src)
+      throws IOException {
+    GetFileInfoRequestProto req = GetFileInfoRequestProto.newBuilder()
+        .setSrc(src).build();
+    boolean wasAsync = beginAsyncCall();
+    try {
+      rpcProxy.getFileInfo(null, req);
+      return Futures.transform(
+          this.<GetFileInfoResponseProto>getAsyncResponse(),
+          new Function<GetFileInfoResponseProto, HdfsFileStatus>() {
+            @Override
+            public HdfsFileStatus apply(GetFileInfoResponseProto res) {
+              return res.hasFs() ? PBHelper.convert(res.getFs()) : null;
+            }
+          });
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    } finally {
+      endAsyncCall(wasAsync);
+    }
+  }
+
+  @Override
+  public ListenableFuture<DirectoryListing> getListing(String src,
+      byte[] startAfter, boolean needLocation) throws IOException {
+    GetListingRequestProto req = GetListingRequestProto.newBuilder()
+        .setSrc(src)
+        .setStartAfter(ByteString.copyFrom(startAfter))
+        .setNeedLocation(needLocation).build();
+    boolean wasAsync = beginAsyncCall();
+    try {
+      rpcProxy.getListing(null, req);
+      return Futures.transform(
+          this.<GetListingResponseProto>getAsyncResponse(),
+          new Function<GetListingResponseProto, DirectoryListing>() {
+            @Override
+            public DirectoryListing apply(GetListingResponseProto result) {
+              if (result.hasDirList()) {
+                return PBHelper.convert(result.getDirList());
+              }
+              return null;
+            }
+          });
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    } finally {
+      endAsyncCall(wasAsync);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Boolean> rename(String src, String dst)
+      throws IOException {
+    RenameRequestProto req = RenameRequestProto.newBuilder()
+        .setSrc(src)
+        .setDst(dst).build();
+    boolean wasAsync = beginAsyncCall();
+    try {
+      rpcProxy.rename(null, req);
+      return Futures.transform(this.<RenameResponseProto>getAsyncResponse(),
+          new Function<RenameResponseProto, Boolean>() {
+            @Override
+            public Boolean apply(RenameResponseProto res) {
+              return res.getResult();
+            }
+          });
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    } finally {
+      endAsyncCall(wasAsync);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Boolean> delete(String src, boolean recursive)
+      throws IOException {
+    DeleteRequestProto req = DeleteRequestProto.newBuilder().setSrc(src)
+        .setRecursive(recursive).build();
+    boolean wasAsync = beginAsyncCall();
+    try {
+      rpcProxy.delete(null, req);
+      return Futures.transform(this.<DeleteResponseProto>getAsyncResponse(),
+          new Function<DeleteResponseProto, Boolean>() {
+            @Override
+            public Boolean apply(DeleteResponseProto res) {
+              return res.getResult();
+            }
+          });
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    } finally {
+      endAsyncCall(wasAsync);
+    }
+  }
+}
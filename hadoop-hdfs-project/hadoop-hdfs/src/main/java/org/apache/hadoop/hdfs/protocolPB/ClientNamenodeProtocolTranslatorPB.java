@@ -47,7 +47,9 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
+import org.apache.hadoop.hdfs.protocol.AsyncClientProtocol;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
@@ -114,6 +116,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetFsStatusRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetLinkTargetResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetBatchedListingRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingRequestProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetListingResponseProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.GetPreferredBlockSizeRequestProto;
@@ -241,6 +244,14 @@ public void close() {
     RPC.stopProxy(rpcProxy);
   }
 
+  /**
+   * @return asynchronous calls over the same proxy. Closing either this or
+   *   the returned object stops the proxy.
+   */
+  public AsyncClientProtocol getAsyncProtocol() {
+    return new AsyncClientNamenodeProtocolTranslatorPB(rpcProxy);
+  }
+
   @Override
   public LocatedBlocks getBlockLocations(String src, long offset, long length)
       throws AccessControlException, FileNotFoundException,
@@ -586,6 +597,26 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     }
   }
 
+  @Override
+  public BatchedDirectoryListing getBatchedListing(String[] srcs,
+      byte[] startAfter, boolean needLocation, String filter)
+      throws IOException {
+    GetBatchedListingRequestProto.Builder builder =
+        GetBatchedListingRequestProto.newBuilder()
+        .addAllPaths(Arrays.asList(srcs))
+        .setStartAfter(ByteString.copyFrom(startAfter))
+        .setNeedLocation(needLocation);
+    if (filter != null) {
+      builder.setFilter(filter);
+    }
+    try {
+      return PBHelper.convert(
+          rpcProxy.getBatchedListing(null, builder.build()).getListing());
+    } catch (ServiceException e) {
+      throw ProtobufHelper.getRemoteException(e);
+    }
+  }
+
   @Override
   public void renewLease(String clientName) throws AccessControlException,
       IOException {
@@ -52,6 +52,7 @@
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.inotify.Event;
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -78,6 +79,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
@@ -144,6 +146,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.DatanodeLocalInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.DatanodeStorageProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.DatanodeStorageProto.StorageState;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BatchedDirectoryListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.DirectoryListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ExportedBlockKeysProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ExtendedBlockProto;
@@ -151,6 +154,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.FsServerDefaultsProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.HdfsFileStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.HdfsFileStatusProto.FileType;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.HdfsPartialListingProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.LocatedBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.LocatedBlockProto.Builder;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.LocatedBlocksProto;
@@ -159,6 +163,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.NamenodeRegistrationProto.NamenodeRoleProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.NamespaceInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RecoveringBlockProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RemoteExceptionProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RemoteEditLogManifestProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.RemoteEditLogProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ReplicaStateProto;
@@ -226,6 +231,7 @@
 import org.apache.hadoop.hdfs.util.ExactSizeInputStream;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.ipc.RemoteException;
 import org.apache.hadoop.security.proto.SecurityProtos.TokenProto;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.util.DataChecksum;
@@ -1578,6 +1584,58 @@ public static DirectoryListingProto convert(DirectoryListing d) {
         build();
   }
 
+  public static BatchedDirectoryListing convert(
+      BatchedDirectoryListingProto bdl) {
+    if (bdl == null)
+      return null;
+    HdfsPartialListing[] listings =
+        new HdfsPartialListing[bdl.getListingsCount()];
+    for (int i = 0; i < listings.length; i++) {
+      HdfsPartialListingProto l = bdl.getListings(i);
+      if (l.hasException()) {
+        RemoteExceptionProto e = l.getException();
+        listings[i] = new HdfsPartialListing(l.getParentIdx(),
+            new RemoteException(e.getClassName(),
+                e.hasMessage() ? e.getMessage() : null));
+      } else {
+        List<HdfsFileStatusProto> partList = l.getPartialListingList();
+        listings[i] = new HdfsPartialListing(l.getParentIdx(),
+            PBHelper.convert(
+                partList.toArray(new HdfsFileStatusProto[partList.size()])));
+      }
+    }
+    return new BatchedDirectoryListing(listings, bdl.getHasMore(),
+        bdl.getNextIdx(), bdl.getStartAfter().toByteArray());
+  }
+
+  public static BatchedDirectoryListingProto convert(
+      BatchedDirectoryListing d) {
+    if (d == null)
+      return null;
+    BatchedDirectoryListingProto.Builder builder =
+        BatchedDirectoryListingProto.newBuilder();
+    for (HdfsPartialListing l : d.getListings()) {
+      HdfsPartialListingProto.Builder lb = HdfsPartialListingProto.newBuilder()
+          .setParentIdx(l.getParentIdx());
+      if (l.getException() != null) {
+        RemoteExceptionProto.Builder eb = RemoteExceptionProto.newBuilder()
+            .setClassName(l.getException().getClassName());
+        if (l.getException().getMessage() != null) {
+          eb.setMessage(l.getException().getMessage());
+        }
+        lb.setException(eb);
+      } else {
+        lb.addAllPartialListing(Arrays.asList(
+            PBHelper.convert(l.getPartialListing())));
+      }
+      builder.addListings(lb);
+    }
+    return builder.setHasMore(d.hasMore())
+        .setNextIdx(d.getNextIdx())
+        .setStartAfter(ByteString.copyFrom(d.getStartAfter()))
+        .build();
+  }
+
   public static long[] convert(GetFsStatsResponseProto res) {
     long[] result = new long[7];
     result[ClientProtocol.GET_STATS_CAPACITY_IDX] = res.getCapacity();
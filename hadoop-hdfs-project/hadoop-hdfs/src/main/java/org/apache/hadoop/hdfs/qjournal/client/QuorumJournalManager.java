@@ -22,8 +22,10 @@
 import java.net.URI;
 import java.net.URL;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -480,6 +482,9 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     LOG.debug("selectInputStream manifests:\n" +
         Joiner.on("\n").withKeyValueSeparator(": ").join(resps));
     
+    final Map<Long, Long> committedEnds = inProgressOk ?
+        getCommittedInProgressEnds(resps.values()) :
+        Collections.<Long, Long>emptyMap();
     final PriorityQueue<EditLogInputStream> allStreams = 
         new PriorityQueue<EditLogInputStream>(64,
             JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
@@ -488,17 +493,65 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
       RemoteEditLogManifest manifest = e.getValue();
       
       for (RemoteEditLog remoteLog : manifest.getLogs()) {
+        long endTxId = remoteLog.getEndTxId();
+        if (remoteLog.isInProgress()) {
+          Long committedEnd = committedEnds.get(remoteLog.getStartTxId());
+          if (committedEnd == null) {
+            continue;
+          }
+          endTxId = Math.min(endTxId, committedEnd);
+        }
         URL url = logger.buildURLToFetchLogs(remoteLog.getStartTxId());
 
         EditLogInputStream elis = EditLogFileInputStream.fromUrl(
             connectionFactory, url, remoteLog.getStartTxId(),
-            remoteLog.getEndTxId(), remoteLog.isInProgress());
+            endTxId, remoteLog.isInProgress());
         allStreams.add(elis);
       }
     }
     JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
   }
   
+  /**
+   * An in-progress segment may have been written further on some journals
+   * than on others, and only the transactions written to a quorum of them
+   * are committed. Tailing past those could apply edits which are lost if
+   * the writer fails.
+   * @return for each in-progress segment, by first txid, the highest txid
+   * written to a quorum of journals. Segments which do not have a committed
+   * transaction are left out.
+   */
+  private Map<Long, Long> getCommittedInProgressEnds(
+      Collection<RemoteEditLogManifest> manifests) {
+    Map<Long, List<Long>> ends = new HashMap<Long, List<Long>>();
+    for (RemoteEditLogManifest manifest : manifests) {
+      for (RemoteEditLog remoteLog : manifest.getLogs()) {
+        if (remoteLog.isInProgress()) {
+          List<Long> segmentEnds = ends.get(remoteLog.getStartTxId());
+          if (segmentEnds == null) {
+            segmentEnds = new ArrayList<Long>();
+            ends.put(remoteLog.getStartTxId(), segmentEnds);
+          }
+          segmentEnds.add(remoteLog.getEndTxId());
+        }
+      }
+    }
+    int majority = loggers.getMajoritySize();
+    Map<Long, Long> committedEnds = new HashMap<Long, Long>();
+    for (Map.Entry<Long, List<Long>> e : ends.entrySet()) {
+      List<Long> segmentEnds = e.getValue();
+      if (segmentEnds.size() < majority) {
+        continue;
+      }
+      Collections.sort(segmentEnds, Collections.reverseOrder());
+      long committedEnd = segmentEnds.get(majority - 1);
+      if (committedEnd >= e.getKey()) {
+        committedEnds.put(e.getKey(), committedEnd);
+      }
+    }
+    return committedEnds;
+  }
+
   @Override
   public String toString() {
     return "QJM to " + loggers;
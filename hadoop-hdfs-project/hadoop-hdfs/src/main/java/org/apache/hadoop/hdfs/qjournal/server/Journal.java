@@ -642,6 +642,31 @@ public RemoteEditLogManifest getEditLogManifest(long sinceTxId,
     // No need to checkRequest() here - anyone may ask for the list
     // of segments.
     checkFormatted();
+
+    if (inProgressOk) {
+      long segmentTxId;
+      long highestTxId;
+      synchronized (this) {
+        segmentTxId = curSegment != null ?
+            curSegmentTxId : HdfsConstants.INVALID_TXID;
+        highestTxId = highestWrittenTxId;
+      }
+      if (segmentTxId != HdfsConstants.INVALID_TXID) {
+        // The segment being written ends at the highest written txid, so
+        // there is no need to validate, i.e. read through, its file. This
+        // matters for a standby which tails in-progress edits frequently.
+        List<RemoteEditLog> logs = fjm.getRemoteEditLogs(sinceTxId, false);
+        boolean finalized = false;
+        for (RemoteEditLog log : logs) {
+          finalized |= log.getStartTxId() == segmentTxId;
+        }
+        if (!finalized && highestTxId >= segmentTxId
+            && highestTxId >= sinceTxId) {
+          logs.add(new RemoteEditLog(segmentTxId, highestTxId, true));
+        }
+        return new RemoteEditLogManifest(logs);
+      }
+    }
     
     List<RemoteEditLog> logs = fjm.getRemoteEditLogs(sinceTxId, inProgressOk);
     
@@ -34,11 +34,13 @@
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -86,6 +88,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.util.LightWeightLinkedSet;
+import org.apache.hadoop.hdfs.util.RwLockMode;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.util.Daemon;
@@ -95,6 +98,9 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -237,6 +243,16 @@ public int getPendingDataNodeMessageCount() {
 
   final float blocksInvalidateWorkPct;
   final int blocksReplWorkMultiplier;
+  /**
+   * Whether the blocks to replicate per iteration follow the replication
+   * streams the live nodes have free, rather than the multiplier alone.
+   */
+  final boolean capacityBasedReplWork;
+  /** The most replication work scheduled under one hold of the lock */
+  final int replWorkBatchSize;
+  /** The threads choosing replication targets, if there are several */
+  private final ExecutorService replWorkers;
+  private final int replWorkThreads;
   
   // whether or not to issue block encryption keys.
   final boolean encryptDataTransfer;
@@ -244,6 +260,10 @@ public int getPendingDataNodeMessageCount() {
   // Max number of blocks to log info about during a block report.
   private final long maxNumBlocksToLog;
 
+  // Number of replicas of a full block report processed per hold of the
+  // namesystem write lock. 0 or less processes a report in a single hold.
+  private final int blockReportBatchSize;
+
   /**
    * When running inside a Standby node, the node may receive block reports
    * from datanodes before receiving the corresponding namespace edits from
@@ -298,9 +318,11 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     invalidateBlocks = new InvalidateBlocks(
         datanodeManager.blockInvalidateLimit, startupDelayBlockDeletionInMs);
 
-    // Compute the map capacity by allocating 2% of total memory
-    blocksMap = new BlocksMap(
-        LightWeightGSet.computeCapacity(2.0, "BlocksMap"));
+    // Compute the map capacity by allocating 2% of total memory by default
+    blocksMap = new BlocksMap(LightWeightGSet.computeCapacity(conf.getFloat(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT_DEFAULT),
+        "BlocksMap"));
     blockplacement = BlockPlacementPolicy.getInstance(
       conf, datanodeManager.getFSClusterStats(),
       datanodeManager.getNetworkTopology(),
@@ -349,6 +371,22 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
 
     this.blocksInvalidateWorkPct = DFSUtil.getInvalidateWorkPctPerIteration(conf);
     this.blocksReplWorkMultiplier = DFSUtil.getReplWorkMultiplier(conf);
+    this.capacityBasedReplWork = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_CAPACITY_BASED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_CAPACITY_BASED_DEFAULT);
+    this.replWorkBatchSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_DEFAULT);
+    Preconditions.checkArgument(replWorkBatchSize > 0,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_KEY
+        + " must be positive");
+    this.replWorkThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
+    this.replWorkers = replWorkThreads <= 1 ? null
+        : Executors.newFixedThreadPool(replWorkThreads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("ReplicationWorker-%d").build());
 
     this.replicationRecheckInterval = 
       conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 
@@ -361,6 +399,9 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     this.maxNumBlocksToLog =
         conf.getLong(DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_KEY,
             DFSConfigKeys.DFS_MAX_NUM_BLOCKS_TO_LOG_DEFAULT);
+    this.blockReportBatchSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_DEFAULT);
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
@@ -372,6 +413,7 @@ public BlockManager(final Namesystem namesystem, final Configuration conf)
     LOG.info("maxReplication             = " + maxReplication);
     LOG.info("minReplication             = " + minReplication);
     LOG.info("maxReplicationStreams      = " + maxReplicationStreams);
+    LOG.info("replicationWorkThreads     = " + replWorkThreads);
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
@@ -483,6 +525,9 @@ public void close() {
       blockReportThread.join(3000);
     } catch (InterruptedException ie) {
     }
+    if (replWorkers != null) {
+      replWorkers.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -1057,12 +1102,12 @@ public boolean isSufficientlyReplicated(BlockInfoContiguous b) {
   public BlocksWithLocations getBlocks(DatanodeID datanode, long size
       ) throws IOException {
     namesystem.checkOperation(OperationCategory.READ);
-    namesystem.readLock();
+    namesystem.readLock(RwLockMode.BM);
     try {
       namesystem.checkOperation(OperationCategory.READ);
       return getBlocksWithLocations(datanode, size);  
     } finally {
-      namesystem.readUnlock();
+      namesystem.readUnlock(RwLockMode.BM);
     }
   }
 
@@ -1400,7 +1445,7 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     int additionalReplRequired;
 
     int scheduledWork = 0;
-    List<ReplicationWork> work = new LinkedList<ReplicationWork>();
+    List<ReplicationWork> work = new ArrayList<ReplicationWork>();
 
     namesystem.writeLock();
     try {
@@ -1465,91 +1510,22 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
       namesystem.writeUnlock();
     }
 
-    final Set<Node> excludedNodes = new HashSet<Node>();
-    for(ReplicationWork rw : work){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.containingNodes) {
-        excludedNodes.add(dn);
-      }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
-    }
-
-    namesystem.writeLock();
-    try {
-      for(ReplicationWork rw : work){
-        final DatanodeStorageInfo[] targets = rw.targets;
-        if(targets == null || targets.length == 0){
-          rw.targets = null;
-          continue;
-        }
-
-        synchronized (neededReplications) {
-          Block block = rw.block;
-          int priority = rw.priority;
-          // Recheck since global lock was released
-          // block should belong to a file
-          bc = blocksMap.getBlockCollection(block);
-          // abandoned block or block reopened for append
-          if(bc == null || (bc.isUnderConstruction() && block.equals(bc.getLastBlock()))) {
-            neededReplications.remove(block, priority); // remove from neededReplications
-            rw.targets = null;
-            neededReplications.decrementReplicationIndex(priority);
-            continue;
-          }
-          requiredReplication = bc.getBlockReplication();
-
-          // do not schedule more if enough replicas is already pending
-          NumberReplicas numReplicas = countNodes(block);
-          numEffectiveReplicas = numReplicas.liveReplicas() +
-            pendingReplications.getNumReplicas(block);
+    // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+    chooseTargets(work);
 
-          if (numEffectiveReplicas >= requiredReplication) {
-            if ( (pendingReplications.getNumReplicas(block) > 0) ||
-                 (isPlacementPolicySatisfied(block)) ) {
-              neededReplications.remove(block, priority); // remove from neededReplications
-              neededReplications.decrementReplicationIndex(priority);
-              rw.targets = null;
-              blockLog.info("BLOCK* Removing {} from neededReplications as" +
-                      " it has enough replicas", block);
-              continue;
-            }
-          }
-
-          if ( (numReplicas.liveReplicas() >= requiredReplication) &&
-               (!isPlacementPolicySatisfied(block)) ) {
-            if (rw.srcNode.getNetworkLocation().equals(
-                targets[0].getDatanodeDescriptor().getNetworkLocation())) {
-              //No use continuing, unless a new rack in this case
-              continue;
-            }
-          }
-
-          // Add block to the to be replicated list
-          rw.srcNode.addBlockToBeReplicated(block, targets);
-          scheduledWork++;
-          DatanodeStorageInfo.incrementBlocksScheduled(targets);
-
-          // Move the block-replication into a "pending" state.
-          // The reason we use 'pending' is so we can retry
-          // replications that fail after an appropriate amount of time.
-          pendingReplications.increment(block,
-              DatanodeStorageInfo.toDatanodeDescriptors(targets));
-          blockLog.debug("BLOCK* block {} is moved from neededReplications to "
-                  + "pendingReplications", block);
-
-          // remove from neededReplications
-          if(numEffectiveReplicas + targets.length >= requiredReplication) {
-            neededReplications.remove(block, priority); // remove from neededReplications
-            neededReplications.decrementReplicationIndex(priority);
+    // Schedule the work in batches, so that the lock is not held for long
+    Iterator<ReplicationWork> it = work.iterator();
+    while (it.hasNext()) {
+      namesystem.writeLock();
+      try {
+        for (int i = 0; i < replWorkBatchSize && it.hasNext(); i++) {
+          if (scheduleReplication(it.next())) {
+            scheduledWork++;
           }
         }
+      } finally {
+        namesystem.writeUnlock();
       }
-    } finally {
-      namesystem.writeUnlock();
     }
 
     if (blockLog.isInfoEnabled()) {
@@ -1575,6 +1551,133 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     return scheduledWork;
   }
 
+  /**
+   * Choose the targets of the replication work, on the replication workers
+   * if there are several. Each worker takes a contiguous share of the work,
+   * which is in priority order.
+   */
+  private void chooseTargets(List<ReplicationWork> work) {
+    if (replWorkers == null || work.size() < 2) {
+      chooseTargets(work.iterator(), work.size());
+      return;
+    }
+    final int share = (work.size() + replWorkThreads - 1) / replWorkThreads;
+    List<Future<?>> futures = new ArrayList<Future<?>>(replWorkThreads);
+    final Iterator<ReplicationWork> it = work.iterator();
+    while (it.hasNext()) {
+      final List<ReplicationWork> shareOfWork =
+          new ArrayList<ReplicationWork>(share);
+      for (int i = 0; i < share && it.hasNext(); i++) {
+        shareOfWork.add(it.next());
+      }
+      futures.add(replWorkers.submit(new Runnable() {
+        @Override
+        public void run() {
+          chooseTargets(shareOfWork.iterator(), shareOfWork.size());
+        }
+      }));
+    }
+    // Every share has to complete, as the sources of the work count it
+    for (Future<?> future : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException e) {
+        Throwables.propagate(e.getCause());
+      }
+    }
+  }
+
+  private void chooseTargets(Iterator<ReplicationWork> work, int count) {
+    final Set<Node> excludedNodes = new HashSet<Node>();
+    for (int i = 0; i < count; i++) {
+      ReplicationWork rw = work.next();
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      for (DatanodeDescriptor dn : rw.containingNodes) {
+        excludedNodes.add(dn);
+      }
+
+      rw.chooseTargets(blockplacement, storagePolicySuite, excludedNodes);
+    }
+  }
+
+  /**
+   * Schedule replication work once its targets are chosen, if it is still
+   * needed.
+   *
+   * @return whether the work was scheduled
+   */
+  private boolean scheduleReplication(ReplicationWork rw) {
+    assert namesystem.hasWriteLock();
+    final DatanodeStorageInfo[] targets = rw.targets;
+    if(targets == null || targets.length == 0){
+      rw.targets = null;
+      return false;
+    }
+
+    synchronized (neededReplications) {
+      Block block = rw.block;
+      int priority = rw.priority;
+      // Recheck since global lock was released
+      // block should belong to a file
+      BlockCollection bc = blocksMap.getBlockCollection(block);
+      // abandoned block or block reopened for append
+      if(bc == null || (bc.isUnderConstruction() && block.equals(bc.getLastBlock()))) {
+        neededReplications.remove(block, priority); // remove from neededReplications
+        rw.targets = null;
+        neededReplications.decrementReplicationIndex(priority);
+        return false;
+      }
+      int requiredReplication = bc.getBlockReplication();
+
+      // do not schedule more if enough replicas is already pending
+      NumberReplicas numReplicas = countNodes(block);
+      int numEffectiveReplicas = numReplicas.liveReplicas() +
+        pendingReplications.getNumReplicas(block);
+
+      if (numEffectiveReplicas >= requiredReplication) {
+        if ( (pendingReplications.getNumReplicas(block) > 0) ||
+             (isPlacementPolicySatisfied(block)) ) {
+          neededReplications.remove(block, priority); // remove from neededReplications
+          neededReplications.decrementReplicationIndex(priority);
+          rw.targets = null;
+          blockLog.info("BLOCK* Removing {} from neededReplications as" +
+                  " it has enough replicas", block);
+          return false;
+        }
+      }
+
+      if ( (numReplicas.liveReplicas() >= requiredReplication) &&
+           (!isPlacementPolicySatisfied(block)) ) {
+        if (rw.srcNode.getNetworkLocation().equals(
+            targets[0].getDatanodeDescriptor().getNetworkLocation())) {
+          //No use continuing, unless a new rack in this case
+          return false;
+        }
+      }
+
+      // Add block to the to be replicated list
+      rw.srcNode.addBlockToBeReplicated(block, targets);
+      DatanodeStorageInfo.incrementBlocksScheduled(targets);
+
+      // Move the block-replication into a "pending" state.
+      // The reason we use 'pending' is so we can retry
+      // replications that fail after an appropriate amount of time.
+      pendingReplications.increment(block,
+          DatanodeStorageInfo.toDatanodeDescriptors(targets));
+      blockLog.debug("BLOCK* block {} is moved from neededReplications to "
+              + "pendingReplications", block);
+
+      // remove from neededReplications
+      if(numEffectiveReplicas + targets.length >= requiredReplication) {
+        neededReplications.remove(block, priority); // remove from neededReplications
+        neededReplications.decrementReplicationIndex(priority);
+      }
+      return true;
+    }
+  }
+
   /** Choose target for WebHDFS redirection. */
   public DatanodeStorageInfo[] chooseTarget4WebHDFS(String src,
       DatanodeDescriptor clientnode, Set<Node> excludes, long blocksize) {
@@ -1874,6 +1977,7 @@ public boolean processReport(final DatanodeID nodeID,
     final long endTime;
     DatanodeDescriptor node;
     Collection<Block> invalidatedBlocks = null;
+    BlockReportBatcher batcher = null;
     String strBlockReportId =
         context != null ? Long.toHexString(context.getReportId()) : "";
 
@@ -1901,17 +2005,22 @@ public boolean processReport(final DatanodeID nodeID,
         return !node.hasStaleStorages();
       }
 
+      batcher = new BlockReportBatcher(node, storageInfo, startTime);
       if (storageInfo.getBlockReportCount() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(storageInfo, newReport);
+        processFirstBlockReport(storageInfo, newReport, batcher);
       } else {
-        invalidatedBlocks = processReport(storageInfo, newReport, context);
+        invalidatedBlocks = processReport(storageInfo, newReport, context,
+            batcher);
       }
       
       storageInfo.receivedBlockReport();
     } finally {
       endTime = Time.monotonicNow();
+      if (batcher != null) {
+        batcher.endBatch();
+      }
       namesystem.writeUnlock();
     }
 
@@ -1929,13 +2038,87 @@ public boolean processReport(final DatanodeID nodeID,
       metrics.addBlockReport((int) (endTime - startTime));
     }
     blockLog.info("BLOCK* processReport 0x{}: from storage {} node {}, " +
-        "blocks: {}, hasStaleStorage: {}, processing time: {} msecs",
-        strBlockReportId, storage.getStorageID(), nodeID,
+        "blocks: {}, hasStaleStorage: {}, processing time: {} msecs, " +
+        "batches: {}", strBlockReportId, storage.getStorageID(), nodeID,
         newReport.getNumberOfBlocks(), node.hasStaleStorages(),
-        (endTime - startTime));
+        (endTime - startTime), batcher.getNumBatches());
     return !node.hasStaleStorages();
   }
 
+  /**
+   * Splits the processing of a full block report into batches of
+   * {@link #blockReportBatchSize} replicas. Between two batches the
+   * namesystem write lock is released, so that other operations are not
+   * blocked for the whole report, and re-taken. The reporting storage must
+   * still belong to a registered datanode once the lock is re-taken,
+   * otherwise the rest of the report is dropped; the datanode sends a new one
+   * when it registers again.
+   */
+  private class BlockReportBatcher {
+    private final DatanodeDescriptor node;
+    private final DatanodeStorageInfo storageInfo;
+    private long batchStart;
+    private int processedInBatch = 0;
+    private int numBatches = 1;
+
+    BlockReportBatcher(DatanodeDescriptor node,
+        DatanodeStorageInfo storageInfo, long batchStart) {
+      this.node = node;
+      this.storageInfo = storageInfo;
+      this.batchStart = batchStart;
+    }
+
+    /**
+     * Account for one more replica to be processed, releasing and re-taking
+     * the write lock first if the current batch is full.
+     *
+     * @return true if the lock was released, so any state derived from the
+     *         namesystem must be read again.
+     * @throws IOException if the storage was removed while the lock was
+     *         released.
+     */
+    boolean next() throws IOException {
+      if (blockReportBatchSize <= 0
+          || ++processedInBatch <= blockReportBatchSize) {
+        return false;
+      }
+      endBatch();
+      namesystem.writeUnlock();
+      namesystem.writeLock();
+      batchStart = Time.monotonicNow();
+      processedInBatch = 1;
+      numBatches++;
+      if (!node.isRegistered()
+          || datanodeManager.getDatanode(node.getDatanodeUuid()) != node
+          || node.getStorageInfo(storageInfo.getStorageID()) != storageInfo) {
+        throw new IOException("Storage " + storageInfo + " on " + node
+            + " was removed while processing its block report");
+      }
+      return true;
+    }
+
+    /**
+     * @return true if the next call to {@link #next()} releases the lock, so
+     *         the decisions of the current batch must be applied first.
+     */
+    boolean isBatchFull() {
+      return blockReportBatchSize > 0
+          && processedInBatch >= blockReportBatchSize;
+    }
+
+    /** Record the lock hold time of the current batch. */
+    void endBatch() {
+      final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.addBlockReportBatchLockHold(Time.monotonicNow() - batchStart);
+      }
+    }
+
+    int getNumBatches() {
+      return numBatches;
+    }
+  }
+
   /**
    * Rescan the list of blocks which were previously postponed.
    */
@@ -1985,49 +2168,64 @@ void rescanPostponedMisreplicatedBlocks() {
   private Collection<Block> processReport(
       final DatanodeStorageInfo storageInfo,
       final BlockListAsLongs report,
-      BlockReportContext context) throws IOException {
+      BlockReportContext context,
+      BlockReportBatcher batcher) throws IOException {
     // Normal case:
     // Modify the (block-->datanode) map, according to the difference
     // between the old and new block report.
     //
-    Collection<BlockInfoContiguous> toAdd = new LinkedList<BlockInfoContiguous>();
-    Collection<Block> toRemove = new TreeSet<Block>();
-    Collection<Block> toInvalidate = new LinkedList<Block>();
-    Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<BlockToMarkCorrupt>();
-    Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
-    reportDiff(storageInfo, report,
-        toAdd, toRemove, toInvalidate, toCorrupt, toUC);
+    Collection<Block> invalidated = new LinkedList<Block>();
+    int numBlocksLogged = reportDiff(storageInfo, report, invalidated,
+        batcher);
 
     String strBlockReportId = "";
     if (context != null) {
       strBlockReportId = Long.toHexString(context.getReportId());
     }
-   
+    if (numBlocksLogged > maxNumBlocksToLog) {
+      blockLog.info("BLOCK* processReport 0x{}: logged info for {} of {} " +
+          "reported.", strBlockReportId, maxNumBlocksToLog, numBlocksLogged);
+    }
+    return invalidated;
+  }
+
+  /**
+   * Apply the decisions taken for reported replicas, and clear them. This
+   * must be done in the same hold of the write lock as taking the decisions,
+   * since they are not valid anymore once the lock has been released.
+   *
+   * @param invalidated collects the replicas to be removed from the DN
+   * @param numBlocksLogged the number of replicas added so far
+   * @return the number of replicas added, including these
+   */
+  private int applyReportedBlocks(DatanodeStorageInfo storageInfo,
+      Collection<BlockInfoContiguous> toAdd,
+      Collection<Block> toInvalidate,
+      Collection<BlockToMarkCorrupt> toCorrupt,
+      Collection<StatefulBlockInfo> toUC,
+      Collection<Block> invalidated,
+      int numBlocksLogged) throws IOException {
     DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
     // Process the blocks on each queue
     for (StatefulBlockInfo b : toUC) { 
       addStoredBlockUnderConstruction(b, storageInfo);
     }
-    for (Block b : toRemove) {
-      removeStoredBlock(b, node);
-    }
-    int numBlocksLogged = 0;
     for (BlockInfoContiguous b : toAdd) {
       addStoredBlock(b, storageInfo, null, numBlocksLogged < maxNumBlocksToLog);
       numBlocksLogged++;
     }
-    if (numBlocksLogged > maxNumBlocksToLog) {
-      blockLog.info("BLOCK* processReport 0x{}: logged info for {} of {} " +
-          "reported.", strBlockReportId, maxNumBlocksToLog, numBlocksLogged);
-    }
     for (Block b : toInvalidate) {
       addToInvalidates(b, node);
     }
     for (BlockToMarkCorrupt b : toCorrupt) {
       markBlockAsCorrupt(b, storageInfo, node);
     }
-
-    return toInvalidate;
+    invalidated.addAll(toInvalidate);
+    toUC.clear();
+    toAdd.clear();
+    toInvalidate.clear();
+    toCorrupt.clear();
+    return numBlocksLogged;
   }
 
   /**
@@ -2079,16 +2277,19 @@ public void markBlockReplicasAsCorrupt(BlockInfoContiguous block,
    * the next block report.
    * @param storageInfo - DatanodeStorageInfo that sent the report
    * @param report - the initial block report, to be processed
+   * @param batcher - releases the write lock between batches of replicas
    * @throws IOException 
    */
   private void processFirstBlockReport(
       final DatanodeStorageInfo storageInfo,
-      final BlockListAsLongs report) throws IOException {
+      final BlockListAsLongs report,
+      final BlockReportBatcher batcher) throws IOException {
     if (report == null) return;
     assert (namesystem.hasWriteLock());
     assert (storageInfo.getBlockReportCount() == 0);
 
     for (BlockReportReplica iblk : report) {
+      batcher.next();
       ReplicaState reportedState = iblk.getState();
       
       if (shouldPostponeBlocksFromFuture &&
@@ -2141,13 +2342,24 @@ private void processFirstBlockReport(
     }
   }
 
-  private void reportDiff(DatanodeStorageInfo storageInfo, 
-      BlockListAsLongs newReport, 
-      Collection<BlockInfoContiguous> toAdd,              // add to DatanodeDescriptor
-      Collection<Block> toRemove,           // remove from DatanodeDescriptor
-      Collection<Block> toInvalidate,       // should be removed from DN
-      Collection<BlockToMarkCorrupt> toCorrupt, // add to corrupt replicas list
-      Collection<StatefulBlockInfo> toUC) { // add to under-construction list
+  /**
+   * Update the replicas of a storage to those of its block report.
+   * The decisions taken for the reported replicas of a batch are applied
+   * before the batcher releases the write lock, and each replica that has
+   * not been reported is removed in the lock hold it is found in.
+   *
+   * @param invalidated collects the replicas to be removed from the DN
+   * @return the number of replicas added to the storage
+   */
+  private int reportDiff(DatanodeStorageInfo storageInfo,
+      BlockListAsLongs newReport,
+      Collection<Block> invalidated,
+      BlockReportBatcher batcher) throws IOException {
+    Collection<BlockInfoContiguous> toAdd = new LinkedList<BlockInfoContiguous>();
+    Collection<Block> toInvalidate = new LinkedList<Block>();
+    Collection<BlockToMarkCorrupt> toCorrupt = new LinkedList<BlockToMarkCorrupt>();
+    Collection<StatefulBlockInfo> toUC = new LinkedList<StatefulBlockInfo>();
+    int numBlocksLogged = 0;
 
     // place a delimiter in the list which separates blocks 
     // that have been reported from those that have not
@@ -2162,25 +2374,52 @@ private void reportDiff(DatanodeStorageInfo storageInfo,
       newReport = BlockListAsLongs.EMPTY;
     }
     // scan the report and process newly reported blocks
-    for (BlockReportReplica iblk : newReport) {
-      ReplicaState iState = iblk.getState();
-      BlockInfoContiguous storedBlock = processReportedBlock(storageInfo,
-          iblk, iState, toAdd, toInvalidate, toCorrupt, toUC);
-
-      // move block to the head of the list
-      if (storedBlock != null &&
-          (curIndex = storedBlock.findStorageInfo(storageInfo)) >= 0) {
-        headIndex = storageInfo.moveBlockToHead(storedBlock, curIndex, headIndex);
+    try {
+      for (BlockReportReplica iblk : newReport) {
+        if (batcher.isBatchFull()) {
+          numBlocksLogged = applyReportedBlocks(storageInfo, toAdd,
+              toInvalidate, toCorrupt, toUC, invalidated, numBlocksLogged);
+        }
+        if (batcher.next()) {
+          // The head of the list may have changed while the lock was
+          // released. Blocks added to the storage meanwhile are inserted at
+          // the head, on the side of the delimiter of the reported blocks,
+          // so they are not taken for unreported ones.
+          headIndex = storageInfo.getBlockListHeadIndex();
+        }
+        ReplicaState iState = iblk.getState();
+        BlockInfoContiguous storedBlock = processReportedBlock(storageInfo,
+            iblk, iState, toAdd, toInvalidate, toCorrupt, toUC);
+
+        // move block to the head of the list
+        if (storedBlock != null &&
+            (curIndex = storedBlock.findStorageInfo(storageInfo)) >= 0) {
+          headIndex = storageInfo.moveBlockToHead(storedBlock, curIndex,
+              headIndex);
+        }
       }
+      numBlocksLogged = applyReportedBlocks(storageInfo, toAdd, toInvalidate,
+          toCorrupt, toUC, invalidated, numBlocksLogged);
+
+      // remove blocks that have not been reported
+      // all of them are next to the delimiter
+      DatanodeDescriptor node = storageInfo.getDatanodeDescriptor();
+      Iterator<BlockInfoContiguous> it =
+          storageInfo.new BlockIterator(delimiter.getNext(0));
+      while (true) {
+        if (batcher.next()) {
+          // the blocks next to the delimiter may have been removed
+          it = storageInfo.new BlockIterator(delimiter.getNext(0));
+        }
+        if (!it.hasNext()) {
+          break;
+        }
+        removeStoredBlock(it.next(), node);
+      }
+    } finally {
+      storageInfo.removeBlock(delimiter);
     }
-
-    // collect blocks that have not been reported
-    // all of them are next to the delimiter
-    Iterator<BlockInfoContiguous> it =
-        storageInfo.new BlockIterator(delimiter.getNext(0));
-    while(it.hasNext())
-      toRemove.add(it.next());
-    storageInfo.removeBlock(delimiter);
+    return numBlocksLogged;
   }
 
   /**
@@ -3672,8 +3911,8 @@ int computeDatanodeWork() {
     }
 
     final int numlive = heartbeatManager.getLiveDatanodeCount();
-    final int blocksToProcess = numlive
-        * this.blocksReplWorkMultiplier;
+    final int blocksToProcess = capacityBasedReplWork
+        ? getReplicationCapacity() : numlive * this.blocksReplWorkMultiplier;
     final int nodesToProcess = (int) Math.ceil(numlive
         * this.blocksInvalidateWorkPct);
 
@@ -3691,6 +3930,27 @@ int computeDatanodeWork() {
     return workFound;
   }
 
+  /**
+   * The number of blocks the live nodes can start replicating: the
+   * replication streams they have free, and at least the multiplier times
+   * the number of live nodes, as the highest priority blocks may exceed
+   * the streams.
+   */
+  @VisibleForTesting
+  int getReplicationCapacity() {
+    final DatanodeDescriptor[] nodes = heartbeatManager.getDatanodes();
+    long capacity = 0;
+    for (DatanodeDescriptor node : nodes) {
+      if (node.isDecommissioned()) {
+        continue;
+      }
+      capacity += Math.max(0,
+          maxReplicationStreams - node.getNumberOfBlocksToBeReplicated());
+    }
+    return (int) Math.min(Integer.MAX_VALUE, Math.max(capacity,
+        (long) nodes.length * blocksReplWorkMultiplier));
+  }
+
   /**
    * Clear all queues that hold decisions previously made by
    * this NameNode.
@@ -3796,10 +4056,11 @@ public void enqueueBlockOp(final Runnable action) throws IOException {
     }
   }
 
-  // sync batch processing for a full BR.
+  // sync processing for a full BR. the action must take the namesystem
+  // lock itself, it is not run within a batch of queued operations.
   public <T> T runBlockOp(final Callable<T> action)
       throws IOException {
-    final FutureTask<T> future = new FutureTask<T>(action);
+    final FutureTask<T> future = new FullBlockReportOp<T>(action);
     enqueueBlockOp(future);
     try {
       return future.get();
@@ -3832,6 +4093,17 @@ public int getBlockOpQueueLength() {
     return blockReportThread.queue.size();
   }
 
+  /**
+   * A queued full block report. It takes the namesystem write lock itself
+   * and may release it between batches of replicas, which would not be
+   * possible while the queue holds the lock for a batch of operations.
+   */
+  private static class FullBlockReportOp<T> extends FutureTask<T> {
+    FullBlockReportOp(Callable<T> action) {
+      super(action);
+    }
+  }
+
   private class BlockReportProcessingThread extends Thread {
     private static final long MAX_LOCK_HOLD_MS = 4;
     private long lastFull = 0;
@@ -3859,8 +4131,14 @@ private void processQueue() {
         NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
         try {
           Runnable action = queue.take();
+          if (action instanceof FullBlockReportOp) {
+            metrics.setBlockOpsQueued(queue.size() + 1);
+            action.run();
+            continue;
+          }
           // batch as many operations in the write lock until the queue
-          // runs dry, or the max lock hold is reached.
+          // runs dry, the max lock hold is reached, or a full block report
+          // is next.
           int processed = 0;
           namesystem.writeLock();
           metrics.setBlockOpsQueued(queue.size() + 1);
@@ -3872,7 +4150,8 @@ private void processQueue() {
               if (Time.monotonicNow() - start > MAX_LOCK_HOLD_MS) {
                 break;
               }
-              action = queue.poll();
+              action = queue.peek() instanceof FullBlockReportOp ?
+                  null : queue.poll();
             } while (action != null);
           } finally {
             namesystem.writeUnlock();
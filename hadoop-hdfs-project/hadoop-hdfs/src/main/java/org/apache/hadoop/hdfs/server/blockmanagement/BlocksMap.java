@@ -66,7 +66,6 @@ public void remove()  {
   private GSet<Block, BlockInfoContiguous> blocks;
 
   BlocksMap(int capacity) {
-    // Use 2% of total memory to size the GSet capacity
     this.capacity = capacity;
     this.blocks = new LightWeightGSet<Block, BlockInfoContiguous>(capacity) {
       @Override
@@ -272,6 +272,14 @@ int moveBlockToHead(BlockInfoContiguous b, int curIndex, int headIndex) {
     return curIndex;
   }
 
+  /**
+   * @return the index of this storage in the triplets of the head of the
+   *         blockList, or -1 if the list is empty.
+   */
+  int getBlockListHeadIndex() {
+    return blockList == null ? -1 : blockList.findStorageInfo(this);
+  }
+
   /**
    * Used for testing only
    * @return the head of the blockList
@@ -51,6 +51,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
@@ -120,6 +122,10 @@ class BlockReceiver implements Closeable {
   /** pipeline stage */
   private final BlockConstructionStage stage;
   private final boolean isTransfer;
+  /** Schedules the disk writes of the replica on its volume */
+  private final VolumeIoScheduler ioScheduler;
+  /** The class of the disk writes */
+  private final IoClass ioClass;
 
   private boolean syncOnClose;
   private volatile boolean dirSyncOnFinalize;
@@ -136,6 +142,8 @@ class BlockReceiver implements Closeable {
   private DataOutputStream replyOut = null;
   
   private boolean pinning;
+  /** Whether the upstream accepts one ack for several packets */
+  private final boolean cumulativeAcks;
   private long lastSentTime;
   private long maxSendIdleTime;
 
@@ -148,7 +156,8 @@ class BlockReceiver implements Closeable {
       final DataNode datanode, DataChecksum requestedChecksum,
       CachingStrategy cachingStrategy,
       final boolean allowLazyPersist,
-      final boolean pinning) throws IOException {
+      final boolean pinning,
+      final boolean cumulativeAcks) throws IOException {
     try{
       this.block = block;
       this.in = in;
@@ -174,6 +183,7 @@ class BlockReceiver implements Closeable {
           || stage == BlockConstructionStage.TRANSFER_FINALIZED;
 
       this.pinning = pinning;
+      this.cumulativeAcks = cumulativeAcks;
       this.lastSentTime = Time.monotonicNow();
       // Downstream will timeout in readTimeout on receiving the next packet.
       // If there is no data traffic, a heartbeat packet is sent at
@@ -241,6 +251,11 @@ class BlockReceiver implements Closeable {
       final boolean isCreate = isDatanode || isTransfer 
           || stage == BlockConstructionStage.PIPELINE_SETUP_CREATE;
       streams = replicaInfo.createStreams(isCreate, requestedChecksum);
+      this.ioScheduler = VolumeIoScheduler.get(
+          replicaInfo instanceof ReplicaInfo
+          ? ((ReplicaInfo) replicaInfo).getVolume() : null);
+      this.ioClass = isDatanode || isTransfer
+          ? IoClass.REPLICATION : IoClass.CLIENT_WRITE;
       assert streams != null : "null streams!";
 
       // read checksum meta information
@@ -629,6 +644,7 @@ private int receivePacket() throws IOException {
 
       final boolean shouldNotWriteChecksum = checksumReceivedLen == 0
           && streams.isTransientStorage();
+      ioScheduler.acquire(ioClass);
       try {
         long onDiskLen = replicaInfo.getBytesOnDisk();
         if (onDiskLen<offsetInBlock) {
@@ -780,6 +796,8 @@ private int receivePacket() throws IOException {
       } catch (IOException iex) {
         datanode.checkDiskErrorAsync();
         throw iex;
+      } finally {
+        ioScheduler.release();
       }
     }
 
@@ -1241,6 +1259,56 @@ Packet waitForAckHead(long seqno) throws InterruptedException {
       }
     }
 
+    /**
+     * Wait for the packets up to the given {@code seqno} to be enqueued to
+     * ackQueue, for a cumulative ack of them from downstream.
+     * @return a packet which stands for all the packets up to {@code seqno},
+     *         with the status of the first of them which failed locally
+     */
+    Packet waitForAcks(long seqno) throws InterruptedException {
+      synchronized(ackQueue) {
+        while (isRunning()) {
+          Status status = Status.SUCCESS;
+          for (Packet p : ackQueue) {
+            if (status == Status.SUCCESS) {
+              status = p.ackStatus;
+            }
+            if (p.seqno == seqno) {
+              return status == p.ackStatus ? p : new Packet(p.seqno,
+                  p.lastPacketInBlock, p.offsetInBlock, p.ackEnqueueNanoTime,
+                  status);
+            }
+          }
+          if (LOG.isDebugEnabled()) {
+            LOG.debug(myString + ": seqno=" + seqno +
+                      " waiting for local datanode to finish write.");
+          }
+          ackQueue.wait();
+        }
+        return null;
+      }
+    }
+
+    /**
+     * Find the last of the packets at the head of ackQueue which can be
+     * acked together with the head, that is the run of successfully written
+     * data packets which does not include a heartbeat or the last packet in
+     * the block.
+     */
+    private Packet coalesceAckHead() {
+      synchronized(ackQueue) {
+        Packet last = ackQueue.getFirst();
+        for (Packet p : ackQueue) {
+          if (p.seqno < 0 || p.lastPacketInBlock
+              || p.ackStatus != Status.SUCCESS) {
+            break;
+          }
+          last = p;
+        }
+        return last;
+      }
+    }
+
     /**
      * wait for all pending packets to be acked. Then shutdown thread.
      */
@@ -1312,10 +1380,24 @@ public void run() {
               }
               expected = pkt.seqno;
               if (type == PacketResponderType.HAS_DOWNSTREAM_IN_PIPELINE
-                  && seqno != expected) {
+                  && (cumulativeAcks ? seqno < expected : seqno != expected)) {
                 throw new IOException(myString + "seqno: expected=" + expected
                     + ", received=" + seqno);
               }
+              if (cumulativeAcks) {
+                // ack all the packets the downstream acked, or all the
+                // packets written and waiting at the end of the pipeline
+                pkt = type == PacketResponderType.HAS_DOWNSTREAM_IN_PIPELINE
+                    ? waitForAcks(seqno) : coalesceAckHead();
+                if (!isRunning()) {
+                  break;
+                }
+                if (pkt == null) {
+                  throw new IOException(myString + "seqno: received=" + seqno
+                      + " is not in the ack queue");
+                }
+                expected = pkt.seqno;
+              }
               if (type == PacketResponderType.HAS_DOWNSTREAM_IN_PIPELINE) {
                 // The total ack time includes the ack times of downstream
                 // nodes.
@@ -1389,8 +1471,8 @@ public void run() {
             (pkt != null ? pkt.offsetInBlock : 0),
             PipelineAck.combineHeader(datanode.getECN(), myStatus));
           if (pkt != null) {
-            // remove the packet from the ack queue
-            removeAckHead();
+            // remove the acked packets from the ack queue
+            removeAcks(pkt.seqno);
           }
         } catch (IOException e) {
           LOG.warn("IOException in BlockReceiver.run(): ", e);
@@ -1556,13 +1638,17 @@ private void sendAckUpstreamUnprotected(PipelineAck ack, long seqno,
     }
     
     /**
-     * Remove a packet from the head of the ack queue
+     * Remove the packets up to the one with the given seqno from the head of
+     * the ack queue
      * 
      * This should be called only when the ack queue is not empty
      */
-    private void removeAckHead() {
+    private void removeAcks(long seqno) {
       synchronized(ackQueue) {
-        ackQueue.removeFirst();
+        Packet removed;
+        do {
+          removed = ackQueue.removeFirst();
+        } while (removed.seqno != seqno && !ackQueue.isEmpty());
         ackQueue.notifyAll();
       }
     }
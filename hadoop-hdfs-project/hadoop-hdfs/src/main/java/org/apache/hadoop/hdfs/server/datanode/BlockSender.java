@@ -20,6 +20,7 @@
 import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -38,13 +39,17 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.ReadaheadPool.ReadaheadRequest;
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.net.SocketOutputStream;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.htrace.Sampler;
 import org.apache.htrace.Trace;
@@ -113,6 +118,10 @@ class BlockSender implements java.io.Closeable {
   private InputStream blockIn;
   /** updated while using transferTo() */
   private long blockInPosition = -1;
+  /** Direct copy of the data of a packet, to verify it for transferTo() */
+  private ByteBuffer blockInDirectBuf;
+  /** Direct copy of the checksums of a packet, to verify a mapped region */
+  private ByteBuffer checksumDirectBuf;
   /** Stream to read checksum */
   private DataInputStream checksumIn;
   /** Checksum utility */
@@ -146,6 +155,10 @@ class BlockSender implements java.io.Closeable {
   private FileDescriptor blockInFd;
   /** The reference to the volume where the block is located */
   private FsVolumeReference volumeRef;
+  /** Schedules the disk reads of the block on its volume */
+  private final VolumeIoScheduler ioScheduler;
+  /** The class of the disk reads */
+  private final IoClass ioClass;
 
   /** The replica of the block that is being read. */
   private final Replica replica;
@@ -188,15 +201,17 @@ class BlockSender implements java.io.Closeable {
    * @param sendChecksum send checksum to client.
    * @param datanode datanode from which the block is being read
    * @param clientTraceFmt format string used to print client trace logs
+   * @param ioClass class of the disk reads, to schedule them on the volume
    * @throws IOException
    */
   BlockSender(ExtendedBlock block, long startOffset, long length,
               boolean corruptChecksumOk, boolean verifyChecksum,
               boolean sendChecksum, DataNode datanode, String clientTraceFmt,
-              CachingStrategy cachingStrategy)
+              CachingStrategy cachingStrategy, IoClass ioClass)
       throws IOException {
     try {
       this.block = block;
+      this.ioClass = ioClass;
       this.corruptChecksumOk = corruptChecksumOk;
       this.verifyChecksum = verifyChecksum;
       this.clientTraceFmt = clientTraceFmt;
@@ -243,7 +258,7 @@ class BlockSender implements java.io.Closeable {
       // the append write.
       ChunkChecksum chunkChecksum = null;
       final long replicaVisibleLength;
-      synchronized(datanode.data) { 
+      try (AutoCloseableLock lock = datanode.data.acquireDatasetReadLock()) {
         replica = getReplica(block, datanode);
         replicaVisibleLength = replica.getVisibleLength();
       }
@@ -283,7 +298,10 @@ class BlockSender implements java.io.Closeable {
         (!is32Bit || length <= Integer.MAX_VALUE);
 
       // Obtain a reference before reading data
-      this.volumeRef = datanode.data.getVolume(block).obtainReference();
+      final FsVolumeSpi volume = datanode.data.getVolume(block);
+      this.volumeRef = volume.obtainReference();
+      // not from volumeRef, which a simulated dataset leaves null
+      this.ioScheduler = VolumeIoScheduler.get(volume);
 
       /* 
        * (corruptChecksumOK, meta_file_exist): operation
@@ -587,28 +605,43 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     int headerOff = pkt.position() - headerLen;
     
     int checksumOff = pkt.position();
+    int dataOff = checksumOff + checksumDataLen;
     byte[] buf = pkt.array();
     
-    if (checksumSize > 0 && checksumIn != null) {
-      readChecksum(buf, checksumOff, checksumDataLen);
-
-      // write in progress that we need to use to get last checksum
-      if (lastDataPacket && lastChunkChecksum != null) {
-        int start = checksumOff + checksumDataLen - checksumSize;
-        byte[] updatedChecksum = lastChunkChecksum.getChecksum();
-        if (updatedChecksum != null) {
-          System.arraycopy(updatedChecksum, 0, buf, start, checksumSize);
+    // The disk reads are scheduled, but not the sending. With transferTo
+    // the data is read while it is sent, so only the checksums are, unless
+    // the data is verified first.
+    ioScheduler.acquire(ioClass);
+    try {
+      if (checksumSize > 0 && checksumIn != null) {
+        readChecksum(buf, checksumOff, checksumDataLen);
+
+        // write in progress that we need to use to get last checksum
+        if (lastDataPacket && lastChunkChecksum != null) {
+          int start = checksumOff + checksumDataLen - checksumSize;
+          byte[] updatedChecksum = lastChunkChecksum.getChecksum();
+          if (updatedChecksum != null) {
+            System.arraycopy(updatedChecksum, 0, buf, start, checksumSize);
+          }
         }
       }
-    }
-    
-    int dataOff = checksumOff + checksumDataLen;
-    if (!transferTo) { // normal transfer
-      IOUtils.readFully(blockIn, buf, dataOff, dataLen);
 
-      if (verifyChecksum) {
-        verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
+      if (!transferTo) { // normal transfer
+        IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+      } else if (verifyChecksum && dataLen > 0) {
+        // Verify a direct copy of the data, then send it from the page
+        // cache with transferTo, without copying it to the heap.
+        checksumDirectBuf.clear();
+        checksumDirectBuf.put(buf, checksumOff, checksumDataLen);
+        checksumDirectBuf.flip();
+        verifyChecksum(readBlockIn(dataLen), checksumDirectBuf);
       }
+    } finally {
+      ioScheduler.release();
+    }
+    
+    if (!transferTo && verifyChecksum) {
+      verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
     }
     
     try {
@@ -711,29 +744,61 @@ private void readChecksum(byte[] buf, final int checksumOffset,
   public void verifyChecksum(final byte[] buf, final int dataOffset,
       final int datalen, final int numChunks, final int checksumOffset)
       throws ChecksumException {
-    int dOff = dataOffset;
-    int cOff = checksumOffset;
-    int dLeft = datalen;
-
-    for (int i = 0; i < numChunks; i++) {
-      checksum.reset();
-      int dLen = Math.min(dLeft, chunkSize);
-      checksum.update(buf, dOff, dLen);
-      if (!checksum.compare(buf, cOff)) {
-        long failedPos = offset + datalen - dLeft;
-        StringBuilder replicaInfoString = new StringBuilder();
-        if (replica != null) {
-          replicaInfoString.append(" for replica: " + replica.toString());
-        }
-        throw new ChecksumException("Checksum failed at " + failedPos
-            + replicaInfoString, failedPos);
-      }
-      dLeft -= dLen;
-      dOff += dLen;
-      cOff += checksumSize;
+    verifyChecksum(ByteBuffer.wrap(buf, dataOffset, datalen),
+        ByteBuffer.wrap(buf, checksumOffset, numChunks * checksumSize));
+  }
+
+  /**
+   * Verify the checksums of the data at the current offset, all the chunks
+   * at once, with the native CRC if it is available. The buffers must both
+   * be backed by arrays, or both be direct.
+   *
+   * @param data the data to verify
+   * @param checksums the checksums of the chunks of data
+   * @throws ChecksumException on failed checksum verification
+   */
+  private void verifyChecksum(ByteBuffer data, ByteBuffer checksums)
+      throws ChecksumException {
+    try {
+      checksum.verifyChunkedSums(data, checksums, block.getBlockName(),
+          offset);
+    } catch (ChecksumException ce) {
+      long failedPos = ce.getPos();
+      StringBuilder replicaInfoString = new StringBuilder();
+      if (replica != null) {
+        replicaInfoString.append(" for replica: " + replica.toString());
+      }
+      throw new ChecksumException("Checksum failed at " + failedPos
+          + replicaInfoString, failedPos);
     }
   }
-  
+
+  /**
+   * Read the next bytes of the block file to send with transferTo(). The
+   * file is read with positional reads rather than mapped, so that a
+   * concurrent truncate of the replica fails the read instead of faulting
+   * the DataNode.
+   *
+   * @param len number of bytes to read from blockInPosition
+   * @return a direct buffer of the bytes
+   */
+  private ByteBuffer readBlockIn(int len) throws IOException {
+    FileChannel fileCh = ((FileInputStream)blockIn).getChannel();
+    blockInDirectBuf.clear();
+    blockInDirectBuf.limit(len);
+    long pos = blockInPosition;
+    while (blockInDirectBuf.hasRemaining()) {
+      int n = fileCh.read(blockInDirectBuf, pos);
+      if (n < 0) {
+        throw new EOFException("Block file of " + block + " ends at " + pos
+            + ", before " + (blockInPosition + len));
+      }
+      pos += n;
+    }
+    blockInDirectBuf.flip();
+    return blockInDirectBuf;
+  }
+
   /**
    * sendBlock() is used to read block and its metadata and stream the data to
    * either a client or to another datanode. 
@@ -783,7 +848,7 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
     try {
       int maxChunksPerPacket;
       int pktBufSize = PacketHeader.PKT_MAX_HEADER_LEN;
-      boolean transferTo = transferToAllowed && !verifyChecksum
+      boolean transferTo = transferToAllowed
           && baseStream instanceof SocketOutputStream
           && blockIn instanceof FileInputStream;
       if (transferTo) {
@@ -794,6 +859,12 @@ private long doSendBlock(DataOutputStream out, OutputStream baseStream,
         
         // Smaller packet size to only hold checksum when doing transferTo
         pktBufSize += checksumSize * maxChunksPerPacket;
+        if (verifyChecksum) {
+          checksumDirectBuf = ByteBuffer.allocateDirect(
+              checksumSize * maxChunksPerPacket);
+          blockInDirectBuf = ByteBuffer.allocateDirect(
+              chunkSize * maxChunksPerPacket);
+        }
       } else {
         maxChunksPerPacket = Math.max(1,
             numberOfChunks(HdfsConstants.IO_FILE_BUFFER_SIZE));
@@ -74,6 +74,7 @@ public class DNConf {
   private final int transferSocketRecvBufferSize;
 
   final boolean transferToAllowed;
+  final boolean verifyChecksumOnTransfer;
   final boolean dropCacheBehindWrites;
   final boolean syncBehindWrites;
   final boolean syncBehindWritesInBackground;
@@ -127,6 +128,9 @@ public DNConf(Configuration conf) {
     transferToAllowed = conf.getBoolean(
         DFS_DATANODE_TRANSFERTO_ALLOWED_KEY,
         DFS_DATANODE_TRANSFERTO_ALLOWED_DEFAULT);
+    verifyChecksumOnTransfer = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_VERIFY_CHECKSUM_KEY,
+        DFSConfigKeys.DFS_DATANODE_TRANSFER_VERIFY_CHECKSUM_DEFAULT);
 
     writePacketSize = conf.getInt(DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 
         DFS_CLIENT_WRITE_PACKET_SIZE_DEFAULT);
@@ -29,6 +29,7 @@
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
@@ -38,6 +39,7 @@
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
@@ -77,6 +79,7 @@
 import org.apache.hadoop.hdfs.server.datanode.DataNode.ShortCircuitFdsVersionException;
 import org.apache.hadoop.hdfs.server.datanode.ShortCircuitRegistry.NewShmInfo;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.LengthInputStream;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.shortcircuit.ShortCircuitShm.SlotId;
 import org.apache.hadoop.io.IOUtils;
@@ -112,6 +115,10 @@ class DataXceiver extends Receiver implements Runnable {
   private final InputStream socketIn;
   private OutputStream socketOut;
   private BlockReceiver blockReceiver = null;
+  private InputStream input;          // buffered input after the handshake
+  private boolean saslWrapped = false;
+  private int opsProcessed = 0;
+  private Op op = null;               // the last op read
   
   /**
    * Client Name used in previous operation. Not available on first request
@@ -182,113 +189,186 @@ public void sendOOB() throws IOException, InterruptedException {
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
-    Op op = null;
-
     try {
-      dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      try {
-        IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
-          socketIn, datanode.getXferAddress().getPort(),
-          datanode.getDatanodeId());
-        input = new BufferedInputStream(saslStreams.in,
-          HdfsConstants.SMALL_BUFFER_SIZE);
-        socketOut = saslStreams.out;
-      } catch (InvalidMagicNumberException imne) {
-        if (imne.isHandshake4Encryption()) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-        } else {
-          LOG.info("Failed to read expected SASL data transfer protection " +
-              "handshake from client at " + peer.getRemoteAddressString() + 
-              ". Perhaps the client is running an older version of Hadoop " +
-              "which does not support SASL data transfer protection");
-        }
-        return;
+      if (startConnection()) {
+        processOps();
       }
-      
-      super.initialize(new DataInputStream(input));
-      
-      // We process requests in a loop, and stay around for a short timeout.
-      // This optimistic behaviour allows the other end to reuse connections.
-      // Setting keepalive timeout to 0 disable this behavior.
-      do {
-        updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
+    } catch (Throwable t) {
+      logError(t);
+    } finally {
+      closeConnection();
+    }
+  }
 
-        try {
-          if (opsProcessed != 0) {
-            assert dnConf.socketKeepaliveTimeout > 0;
-            peer.setReadTimeout(dnConf.socketKeepaliveTimeout);
-          } else {
-            peer.setReadTimeout(dnConf.socketTimeout);
-          }
-          op = readOp();
-        } catch (InterruptedIOException ignored) {
-          // Time out while we wait for client rpc
-          break;
-        } catch (IOException err) {
-          // Since we optimistically expect the next op, it's quite normal to get EOF here.
-          if (opsProcessed > 0 &&
-              (err instanceof EOFException || err instanceof ClosedChannelException)) {
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Cached " + peer + " closing after " + opsProcessed + " ops");
-            }
-          } else {
-            incrDatanodeNetworkErrors();
-            throw err;
-          }
-          break;
-        }
+  /**
+   * Process the ops of a started connection on the current thread, until
+   * the connection is closed or its keepalive times out.
+   */
+  void processOps() throws IOException {
+    dataXceiverServer.setPeerThread(peer, Thread.currentThread());
+    super.initialize(new DataInputStream(input));
+    
+    // We process requests in a loop, and stay around for a short timeout.
+    // This optimistic behaviour allows the other end to reuse connections.
+    // Setting keepalive timeout to 0 disable this behavior.
+    do {
+      updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
 
-        // restore normal timeout
+      try {
         if (opsProcessed != 0) {
+          assert dnConf.socketKeepaliveTimeout > 0;
+          peer.setReadTimeout(dnConf.socketKeepaliveTimeout);
+        } else {
           peer.setReadTimeout(dnConf.socketTimeout);
         }
+        op = readOp();
+      } catch (InterruptedIOException ignored) {
+        // Time out while we wait for client rpc
+        break;
+      } catch (IOException err) {
+        // Since we optimistically expect the next op, it's quite normal to get EOF here.
+        if (opsProcessed > 0 &&
+            (err instanceof EOFException || err instanceof ClosedChannelException)) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Cached " + peer + " closing after " + opsProcessed + " ops");
+          }
+        } else {
+          incrDatanodeNetworkErrors();
+          throw err;
+        }
+        break;
+      }
 
+      // restore normal timeout
+      if (opsProcessed != 0) {
+        peer.setReadTimeout(dnConf.socketTimeout);
+      }
+
+      opStartTime = monotonicNow();
+      processOp(op);
+      ++opsProcessed;
+    } while ((peer != null) &&
+        (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
+  }
+
+  /**
+   * Register the peer with the server and perform the SASL handshake.
+   *
+   * @return false if the handshake failed, and the connection must be closed
+   */
+  boolean startConnection() throws IOException {
+    dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
+    peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+    try {
+      IOStreamPair saslStreams = datanode.saslServer.receive(peer, socketOut,
+        socketIn, datanode.getXferAddress().getPort(),
+        datanode.getDatanodeId());
+      saslWrapped = saslStreams.in != socketIn;
+      input = new BufferedInputStream(saslStreams.in,
+        HdfsConstants.SMALL_BUFFER_SIZE);
+      socketOut = saslStreams.out;
+      return true;
+    } catch (InvalidMagicNumberException imne) {
+      if (imne.isHandshake4Encryption()) {
+        LOG.info("Failed to read expected encryption handshake from client " +
+            "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+            "is running an older version of Hadoop which does not support " +
+            "encryption");
+      } else {
+        LOG.info("Failed to read expected SASL data transfer protection " +
+            "handshake from client at " + peer.getRemoteAddressString() + 
+            ". Perhaps the client is running an older version of Hadoop " +
+            "which does not support SASL data transfer protection");
+      }
+      return false;
+    }
+  }
+
+  /**
+   * @return whether the SASL handshake wrapped the streams of the peer, so
+   *   that the ops can not be framed from the raw socket
+   */
+  boolean isSaslWrapped() {
+    return saslWrapped;
+  }
+
+  /**
+   * Process the ops of a connection whose next op has been read, at least
+   * partially, by a {@link NioXceiverServer} event loop. The ops already
+   * buffered are processed too, before the connection is parked again.
+   *
+   * @param received the bytes the event loop read from the socket
+   * @return whether the connection stays open for more ops
+   */
+  boolean processReceivedOps(byte[] received) throws IOException {
+    ByteArrayInputStream pending = new ByteArrayInputStream(received);
+    super.initialize(new DataInputStream(
+        new SequenceInputStream(pending, input)));
+    peer.setReadTimeout(dnConf.socketTimeout);
+    dataXceiverServer.addPeer(peer, Thread.currentThread(), this);
+    try {
+      do {
+        updateCurrentThreadName("Processing operation #" + (opsProcessed + 1));
+        op = readOp();
         opStartTime = monotonicNow();
         processOp(op);
         ++opsProcessed;
-      } while ((peer != null) &&
-          (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
-    } catch (Throwable t) {
-      String s = datanode.getDisplayName() + ":DataXceiver error processing "
-          + ((op == null) ? "unknown" : op.name()) + " operation "
-          + " src: " + remoteAddress + " dst: " + localAddress;
-      if (op == Op.WRITE_BLOCK && t instanceof ReplicaAlreadyExistsException) {
-        // For WRITE_BLOCK, it is okay if the replica already exists since
-        // client and replication may write the same block to the same datanode
-        // at the same time.
-        if (LOG.isTraceEnabled()) {
-          LOG.trace(s, t);
-        } else {
-          LOG.info(s + "; " + t);
+        if (peer == null || peer.isClosed()
+            || dnConf.socketKeepaliveTimeout <= 0) {
+          return false;
         }
-      } else if (op == Op.READ_BLOCK && t instanceof SocketTimeoutException) {
-        String s1 =
-            "Likely the client has stopped reading, disconnecting it";
-        s1 += " (" + s + ")";
-        if (LOG.isTraceEnabled()) {
-          LOG.trace(s1, t);
-        } else {
-          LOG.info(s1 + "; " + t);          
-        }
-      } else {
-        LOG.error(s, t);
-      }
+      } while (pending.available() > 0 || input.available() > 0);
+      return true;
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
-      }
-      updateCurrentThreadName("Cleaning up");
       if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+        dataXceiverServer.setPeerThread(peer, null);
+      }
+    }
+  }
+
+  /** @return the number of ops processed on the connection. */
+  int getOpsProcessed() {
+    return opsProcessed;
+  }
+
+  /** Log an error which ends the connection. */
+  void logError(Throwable t) {
+    String s = datanode.getDisplayName() + ":DataXceiver error processing "
+        + ((op == null) ? "unknown" : op.name()) + " operation "
+        + " src: " + remoteAddress + " dst: " + localAddress;
+    if (op == Op.WRITE_BLOCK && t instanceof ReplicaAlreadyExistsException) {
+      // For WRITE_BLOCK, it is okay if the replica already exists since
+      // client and replication may write the same block to the same datanode
+      // at the same time.
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(s, t);
+      } else {
+        LOG.info(s + "; " + t);
       }
+    } else if (op == Op.READ_BLOCK && t instanceof SocketTimeoutException) {
+      String s1 =
+          "Likely the client has stopped reading, disconnecting it";
+      s1 += " (" + s + ")";
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(s1, t);
+      } else {
+        LOG.info(s1 + "; " + t);          
+      }
+    } else {
+      LOG.error(s, t);
+    }
+  }
+
+  /** Unregister and close the peer, unless it was handed over. */
+  void closeConnection() {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
+          + datanode.getXceiverCount());
+    }
+    updateCurrentThreadName("Cleaning up");
+    if (peer != null) {
+      dataXceiverServer.closePeer(peer);
+      IOUtils.closeStream(in);
     }
   }
 
@@ -536,8 +616,9 @@ public void readBlock(final ExtendedBlock block,
     try {
       try {
         blockSender = new BlockSender(block, blockOffset, length,
-            true, false, sendChecksum, datanode, clientTraceFmt,
-            cachingStrategy);
+            true, sendChecksum && dnConf.verifyChecksumOnTransfer,
+            sendChecksum, datanode, clientTraceFmt,
+            cachingStrategy, IoClass.CLIENT_READ);
       } catch(IOException e) {
         String msg = "opReadBlock " + block + " received exception " + e; 
         LOG.info(msg);
@@ -618,7 +699,8 @@ public void writeBlock(final ExtendedBlock block,
       CachingStrategy cachingStrategy,
       final boolean allowLazyPersist,
       final boolean pinning,
-      final boolean[] targetPinnings) throws IOException {
+      final boolean[] targetPinnings,
+      final boolean cumulativeAcks) throws IOException {
     previousOpClientName = clientname;
     updateCurrentThreadName("Receiving block " + block);
     final boolean isDatanode = clientname.length() == 0;
@@ -678,7 +760,7 @@ public void writeBlock(final ExtendedBlock block,
             peer.getLocalAddressString(),
             stage, latestGenerationStamp, minBytesRcvd, maxBytesRcvd,
             clientname, srcDataNode, datanode, requestedChecksum,
-            cachingStrategy, allowLazyPersist, pinning);
+            cachingStrategy, allowLazyPersist, pinning, cumulativeAcks);
         replica = blockReceiver.getReplica();
       } else {
         replica = datanode.data.recoverClose(
@@ -731,13 +813,13 @@ public void writeBlock(final ExtendedBlock block,
               blockToken, clientname, targets, targetStorageTypes, srcDataNode,
               stage, pipelineSize, minBytesRcvd, maxBytesRcvd,
               latestGenerationStamp, requestedChecksum, cachingStrategy,
-              false, targetPinnings[0], targetPinnings);
+              false, targetPinnings[0], targetPinnings, cumulativeAcks);
           } else {
             new Sender(mirrorOut).writeBlock(originalBlock, targetStorageTypes[0],
               blockToken, clientname, targets, targetStorageTypes, srcDataNode,
               stage, pipelineSize, minBytesRcvd, maxBytesRcvd,
               latestGenerationStamp, requestedChecksum, cachingStrategy,
-              false, false, targetPinnings);
+              false, false, targetPinnings, cumulativeAcks);
           }
 
           mirrorOut.flush();
@@ -1010,8 +1092,9 @@ public void copyBlock(final ExtendedBlock block,
 
     try {
       // check if the block exists or not
-      blockSender = new BlockSender(block, 0, -1, false, false, true, datanode, 
-          null, CachingStrategy.newDropBehind());
+      blockSender = new BlockSender(block, 0, -1, false,
+          dnConf.verifyChecksumOnTransfer, true, datanode, null,
+          CachingStrategy.newDropBehind(), IoClass.REPLICATION);
 
       OutputStream baseStream = getOutputStream();
 
@@ -1136,7 +1219,7 @@ public void replaceBlock(final ExtendedBlock block,
             proxyReply, proxySock.getRemoteSocketAddress().toString(),
             proxySock.getLocalSocketAddress().toString(),
             null, 0, 0, 0, "", null, datanode, remoteChecksum,
-            CachingStrategy.newDropBehind(), false, false);
+            CachingStrategy.newDropBehind(), false, false, false);
         
         // receive a block
         blockReceiver.receiveBlock(null, null, replyOut, null, 
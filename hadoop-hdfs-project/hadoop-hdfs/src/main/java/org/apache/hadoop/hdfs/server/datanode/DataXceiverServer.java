@@ -20,13 +20,17 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Daemon;
@@ -47,6 +51,8 @@ class DataXceiverServer implements Runnable {
   private final HashMap<Peer, Thread> peers = new HashMap<Peer, Thread>();
   private final HashMap<Peer, DataXceiver> peersXceiver = new HashMap<Peer, DataXceiver>();
   private boolean closed = false;
+  // Serves the peers instead of a thread each, if enabled
+  private final NioXceiverServer nioServer;
   
   /**
    * Maximal number of concurrent xceivers per node.
@@ -107,7 +113,7 @@ synchronized void release() {
   
   
   DataXceiverServer(PeerServer peerServer, Configuration conf,
-      DataNode datanode) {
+      DataNode datanode) throws IOException {
     
     this.peerServer = peerServer;
     this.datanode = datanode;
@@ -125,11 +131,23 @@ synchronized void release() {
             DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_KEY,
             DFSConfigKeys.DFS_DATANODE_BALANCE_MAX_NUM_CONCURRENT_MOVES_DEFAULT));
+
+    // The peers of a domain socket are served by a thread each
+    if (peerServer instanceof TcpPeerServer && conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_ENABLED_DEFAULT)) {
+      this.nioServer = new NioXceiverServer(conf, datanode, this);
+    } else {
+      this.nioServer = null;
+    }
   }
 
   @Override
   public void run() {
     Peer peer = null;
+    if (nioServer != null) {
+      nioServer.start();
+    }
     while (datanode.shouldRun && !datanode.shutdownForUpgrade) {
       try {
         peer = peerServer.accept();
@@ -142,9 +160,13 @@ public void run() {
               + maxXceiverCount);
         }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        if (nioServer != null) {
+          nioServer.serve(peer);
+        } else {
+          new Daemon(datanode.threadGroup,
+              DataXceiver.create(peer, datanode, this))
+              .start();
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -201,6 +223,9 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+    if (nioServer != null) {
+      nioServer.shutdown();
+    }
   }
 
   void kill() {
@@ -224,6 +249,16 @@ synchronized void addPeer(Peer peer, Thread t, DataXceiver xceiver)
     peersXceiver.put(peer, xceiver);
   }
 
+  /**
+   * Set the thread processing the ops of a peer, or null while the peer is
+   * idle in a {@link NioXceiverServer} event loop.
+   */
+  synchronized void setPeerThread(Peer peer, Thread t) {
+    if (peers.containsKey(peer)) {
+      peers.put(peer, t);
+    }
+  }
+
   synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     peersXceiver.remove(peer);
@@ -252,9 +287,18 @@ public synchronized void sendOOBToPeers() {
   // be set true before calling this method.
   synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
-    for (Thread t : peers.values()) {
+    List<Peer> idlePeers = new ArrayList<Peer>();
+    for (Map.Entry<Peer, Thread> entry : peers.entrySet()) {
       // interrupt each and every DataXceiver thread.
-      t.interrupt();
+      if (entry.getValue() != null) {
+        entry.getValue().interrupt();
+      } else {
+        // waiting for its next op in an event loop
+        idlePeers.add(entry.getKey());
+      }
+    }
+    for (Peer p : idlePeers) {
+      closePeer(p);
     }
   }
 
@@ -279,6 +323,16 @@ synchronized int getNumPeersXceiver() {
     return peersXceiver.size();
   }
 
+  /** @return the number of peers served by the event loops. */
+  int getNumNioConnections() {
+    return nioServer == null ? 0 : nioServer.getNumConnections();
+  }
+
+  @VisibleForTesting
+  NioXceiverServer getNioServer() {
+    return nioServer;
+  }
+
   @VisibleForTesting
   PeerServer getPeerServer() {
     return peerServer;
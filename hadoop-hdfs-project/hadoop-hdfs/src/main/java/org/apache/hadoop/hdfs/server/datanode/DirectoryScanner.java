@@ -18,21 +18,37 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import com.google.common.annotations.VisibleForTesting;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -48,6 +64,11 @@
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
+import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.StopWatch;
 import org.apache.hadoop.util.Time;
@@ -65,6 +86,29 @@ public class DirectoryScanner implements Runnable {
       + " starting at %dms with interval of %dms";
   private static final String START_MESSAGE_WITH_THROTTLE = START_MESSAGE
       + " and throttle limit of %dms/s";
+  /**
+   * The number of first level block directories of a block pool, and of
+   * leaf directories in each, see {@link DatanodeUtil#idToBlockDir}.
+   */
+  private static final int NUM_SUBDIRS = 256;
+  /** How many first level directories are compiled ahead of the diff */
+  private static final int SUBDIRS_AHEAD = 8;
+  /** The modification times of directories are as coarse as this */
+  private static final long MOD_TIME_GRANULARITY_MS = 2000;
+  private static final long SHUTDOWN_POLL_MS = 100;
+
+  /** Orders the replicas by first level block directory, then by ID */
+  private static final Comparator<Block> BY_SUBDIR = new Comparator<Block>() {
+    @Override
+    public int compare(Block a, Block b) {
+      int subdirA = getSubdir(a.getBlockId());
+      int subdirB = getSubdir(b.getBlockId());
+      if (subdirA != subdirB) {
+        return subdirA < subdirB ? -1 : 1;
+      }
+      return a.compareTo(b);
+    }
+  };
 
   private final FsDatasetSpi<?> dataset;
   private final ExecutorService reportCompileThreadPool;
@@ -74,6 +118,18 @@ public class DirectoryScanner implements Runnable {
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
   private final DataNode datanode;
+  /** Whether unchanged leaf directories are skipped */
+  private final boolean incremental;
+  /** The leaf digests, by block pool and volume */
+  private final Map<String, LeafDigests> leafDigests =
+      new HashMap<String, LeafDigests>();
+  private final ThreadLocal<CompilerTimers> compilerTimers =
+      new ThreadLocal<CompilerTimers>() {
+        @Override
+        protected CompilerTimers initialValue() {
+          return new CompilerTimers();
+        }
+      };
 
   /**
    * Total combined wall clock time (in milliseconds) spent by the report
@@ -120,6 +176,7 @@ static class Stats {
     long missingMemoryBlocks = 0;
     long mismatchBlocks = 0;
     long duplicateBlocks = 0;
+    long skippedDirs = 0;
     
     /**
      * Create a new Stats object for the given blockpool ID.
@@ -135,7 +192,8 @@ public String toString() {
       + " Total blocks: " + totalBlocks + ", missing metadata files:"
       + missingMetaFile + ", missing block files:" + missingBlockFile
       + ", missing blocks in memory:" + missingMemoryBlocks
-      + ", mismatched blocks:" + mismatchBlocks;
+      + ", mismatched blocks:" + mismatchBlocks
+      + ", unchanged directories skipped:" + skippedDirs;
     }
   }
 
@@ -159,51 +217,6 @@ static class ScanInfoPerBlockPool extends
      * @param sz initial expected size
      */
     ScanInfoPerBlockPool(int sz) {super(sz);}
-    
-    /**
-     * Merges {@code that} ScanInfoPerBlockPool into this one
-     *
-     * @param the ScanInfoPerBlockPool to merge
-     */
-    public void addAll(ScanInfoPerBlockPool that) {
-      if (that == null) return;
-      
-      for (Entry<String, LinkedList<ScanInfo>> entry : that.entrySet()) {
-        String bpid = entry.getKey();
-        LinkedList<ScanInfo> list = entry.getValue();
-        
-        if (this.containsKey(bpid)) {
-          //merge that per-bpid linked list with this one
-          this.get(bpid).addAll(list);
-        } else {
-          //add that new bpid and its linked list to this
-          this.put(bpid, list);
-        }
-      }
-    }
-    
-    /**
-     * Convert all the LinkedList values in this ScanInfoPerBlockPool map
-     * into sorted arrays, and return a new map of these arrays per blockpool
-     *
-     * @return a map of ScanInfo arrays per blockpool
-     */
-    public Map<String, ScanInfo[]> toSortedArrays() {
-      Map<String, ScanInfo[]> result = 
-        new HashMap<String, ScanInfo[]>(this.size());
-      
-      for (Entry<String, LinkedList<ScanInfo>> entry : this.entrySet()) {
-        String bpid = entry.getKey();
-        LinkedList<ScanInfo> list = entry.getValue();
-        
-        // convert list to array
-        ScanInfo[] record = list.toArray(new ScanInfo[list.size()]);
-        // Sort array based on blockId
-        Arrays.sort(record);
-        result.put(bpid, record);            
-      }
-      return result;
-    }
   }
 
   /**
@@ -445,6 +458,9 @@ public long getGenStamp() {
 
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
+    incremental = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_DEFAULT);
     masterThread = new ScheduledThreadPoolExecutor(1,
         new Daemon.DaemonFactory());
   }
@@ -578,89 +594,249 @@ void reconcile() throws IOException {
    */
   private void scan() {
     clear();
-    Map<String, ScanInfo[]> diskReport = getDiskReport();
-
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
-        FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          FinalizedReplica memBlock = memReport[m];
-          ScanInfo info = blockpoolReport[d];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
-              // Block is missing in memory
-              statsRecord.missingMemoryBlocks++;
-              addDifference(diffRecord, statsRecord, info);
-            }
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord,
-                          memBlock.getBlockId(), info.getVolume());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFileLength() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
-            // volumeMap record and on-disk files don't match.
-            statsRecord.duplicateBlocks++;
-            addDifference(diffRecord, statsRecord, info);
+    // Only the block pools of the volumes are scanned
+    Map<String, List<FsVolumeSpi>> blockPools =
+        new LinkedHashMap<String, List<FsVolumeSpi>>();
+    for (FsVolumeSpi volume : dataset.getVolumes()) {
+      for (String bpid : volume.getBlockPoolList()) {
+        List<FsVolumeSpi> volumes = blockPools.get(bpid);
+        if (volumes == null) {
+          volumes = new ArrayList<FsVolumeSpi>();
+          blockPools.put(bpid, volumes);
+        }
+        volumes.add(volume);
+      }
+    }
+    for (Entry<String, List<FsVolumeSpi>> entry : blockPools.entrySet()) {
+      if (!scanBlockPool(entry.getKey(), entry.getValue())) {
+        // The report compiler threads were interrupted, give up on this run
+        clear();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Scan a block pool one first level block directory at a time: the blocks
+   * of a directory are compiled on all the volumes and compared with the
+   * replicas in memory under the lock, while the report compiler threads go
+   * on with the next few directories. So the lock is held briefly, and only
+   * the blocks of a few directories are in memory at a time.
+   *
+   * @return false if the report compiler threads were interrupted
+   */
+  private boolean scanBlockPool(String bpid, List<FsVolumeSpi> volumes) {
+    Stats statsRecord = new Stats(bpid);
+    LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+
+    List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
+    FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
+    Arrays.sort(memReport, BY_SUBDIR);
+
+    Map<FsVolumeSpi, LeafDigests> digests = null;
+    Map<FsVolumeSpi, long[]> memDigests = null;
+    if (incremental) {
+      digests = new HashMap<FsVolumeSpi, LeafDigests>();
+      for (FsVolumeSpi volume : volumes) {
+        LeafDigests volumeDigests = getLeafDigests(volume, bpid);
+        if (volumeDigests != null) {
+          digests.put(volume, volumeDigests);
+        }
+      }
+      memDigests = getMemoryDigests(memReport);
+    }
+
+    // The blocks found on the disks, by the first level directory of their
+    // ID, and those found after the directory of their ID was compared.
+    List<LinkedList<ScanInfo>> diskReport =
+        new ArrayList<LinkedList<ScanInfo>>(NUM_SUBDIRS);
+    for (int i = 0; i < NUM_SUBDIRS; i++) {
+      diskReport.add(new LinkedList<ScanInfo>());
+    }
+    LinkedList<ScanInfo> lateReport = new LinkedList<ScanInfo>();
+    Map<Integer, List<Future<SubdirReport>>> compilersInProgress =
+        new HashMap<Integer, List<Future<SubdirReport>>>();
+
+    try {
+      // The blocks outside of the first level directories go first
+      for (int subdir = -1; subdir < SUBDIRS_AHEAD; subdir++) {
+        compilersInProgress.put(subdir, submitReportCompilers(bpid, volumes,
+            subdir, digests, memDigests));
+      }
+      if (getReports(compilersInProgress.remove(-1), diskReport,
+          lateReport, -1) == null) {
+        return false;
+      }
+
+      int m = 0; // index for memReport
+      for (int subdir = 0; subdir < NUM_SUBDIRS; subdir++) {
+        if (subdir + SUBDIRS_AHEAD < NUM_SUBDIRS) {
+          compilersInProgress.put(subdir + SUBDIRS_AHEAD,
+              submitReportCompilers(bpid, volumes, subdir + SUBDIRS_AHEAD,
+                  digests, memDigests));
+        }
+        List<SubdirReport> reports = getReports(
+            compilersInProgress.remove(subdir), diskReport, lateReport, subdir);
+        if (reports == null) {
+          return false;
+        }
+
+        // The replicas in memory of the directory, except those of the leaf
+        // directories which have not changed since they were last compared
+        Map<FsVolumeSpi, Set<Integer>> skipped =
+            new HashMap<FsVolumeSpi, Set<Integer>>();
+        for (SubdirReport report : reports) {
+          if (!report.skippedLeaves.isEmpty()) {
+            skipped.put(report.volume, report.skippedLeaves);
           }
-          d++;
-
-          if (d < blockpoolReport.length) {
-            // There may be multiple on-disk records for the same block, don't increment
-            // the memory record pointer if so.
-            ScanInfo nextInfo = blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
-            if (nextInfo.getBlockId() != info.blockId) {
-              ++m;
-            }
+        }
+        List<FinalizedReplica> memBlocks = new ArrayList<FinalizedReplica>();
+        for (; m < memReport.length
+            && getSubdir(memReport[m].getBlockId()) == subdir; m++) {
+          Set<Integer> leaves = skipped.get(memReport[m].getVolume());
+          if (leaves != null
+              && leaves.contains(getLeaf(memReport[m].getBlockId()))) {
+            statsRecord.totalBlocks++;
           } else {
-            ++m;
+            memBlocks.add(memReport[m]);
           }
         }
-        while (m < memReport.length) {
-          FinalizedReplica current = memReport[m++];
-          addDifference(diffRecord, statsRecord,
-                        current.getBlockId(), current.getVolume());
+        LinkedList<ScanInfo> diskBlocks = diskReport.set(subdir, null);
+        ScanInfo[] blockpoolReport =
+            diskBlocks.toArray(new ScanInfo[diskBlocks.size()]);
+        Arrays.sort(blockpoolReport); // Sort based on blockId
+        statsRecord.totalBlocks += blockpoolReport.length;
+        statsRecord.skippedDirs += skippedLeaves(skipped);
+
+        int diffs = diffRecord.size();
+        // Hold the FSDataset read lock to keep the volumes and the block pools
+        // from changing. The replicas still change, so checkAndUpdate() checks
+        // each difference again under the lock of its block.
+        try (AutoCloseableLock lock = dataset.acquireDatasetReadLock()) {
+          compareBlocks(bpid, statsRecord, diffRecord, blockpoolReport,
+              memBlocks.toArray(new FinalizedReplica[memBlocks.size()]));
+        }
+        if (digests != null) {
+          updateLeafDigests(reports, digests, memDigests,
+              diffRecord.listIterator(diffs));
         }
-        while (d < blockpoolReport.length) {
-          if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, blockpoolReport[d]);
+      }
+
+      // The blocks in an unexpected directory which was compiled after the
+      // directory of their ID was compared
+      if (!lateReport.isEmpty()) {
+        ScanInfo[] blockpoolReport =
+            lateReport.toArray(new ScanInfo[lateReport.size()]);
+        Arrays.sort(blockpoolReport);
+        statsRecord.totalBlocks += blockpoolReport.length;
+        try (AutoCloseableLock lock = dataset.acquireDatasetReadLock()) {
+          for (int d = 0; d < blockpoolReport.length; ) {
+            int next = d + 1;
+            while (next < blockpoolReport.length && blockpoolReport[next]
+                .getBlockId() == blockpoolReport[d].getBlockId()) {
+              next++;
+            }
+            FinalizedReplica memBlock = findReplica(memReport,
+                blockpoolReport[d].getBlockId());
+            compareBlocks(bpid, statsRecord, diffRecord,
+                Arrays.copyOfRange(blockpoolReport, d, next),
+                memBlock == null ? new FinalizedReplica[0]
+                    : new FinalizedReplica[] { memBlock });
+            d = next;
           }
-          d++;
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+      }
+    } finally {
+      for (List<Future<SubdirReport>> compilers :
+          compilersInProgress.values()) {
+        for (Future<SubdirReport> compiler : compilers) {
+          compiler.cancel(true);
+        }
+      }
+    }
+
+    if (digests != null) {
+      for (LeafDigests volumeDigests : digests.values()) {
+        volumeDigests.save();
+      }
+    }
+    stats.put(bpid, statsRecord);
+    diffs.put(bpid, diffRecord);
+    LOG.info(statsRecord.toString());
+    return true;
+  }
+
+  /**
+   * Compare the blocks on the disks with the replicas in memory.
+   *
+   * @param blockpoolReport the blocks on the disks, sorted by block ID
+   * @param memReport the replicas in memory, sorted by block ID
+   */
+  private void compareBlocks(String bpid, Stats statsRecord,
+      LinkedList<ScanInfo> diffRecord, ScanInfo[] blockpoolReport,
+      FinalizedReplica[] memReport) {
+    int d = 0; // index for blockpoolReport
+    int m = 0; // index for memReprot
+    while (m < memReport.length && d < blockpoolReport.length) {
+      FinalizedReplica memBlock = memReport[m];
+      ScanInfo info = blockpoolReport[d];
+      if (info.getBlockId() < memBlock.getBlockId()) {
+        if (!dataset.isDeletingBlock(bpid, info.getBlockId())) {
+          // Block is missing in memory
+          statsRecord.missingMemoryBlocks++;
+          addDifference(diffRecord, statsRecord, info);
+        }
+        d++;
+        continue;
+      }
+      if (info.getBlockId() > memBlock.getBlockId()) {
+        // Block is missing on the disk
+        addDifference(diffRecord, statsRecord,
+                      memBlock.getBlockId(), memBlock.getVolume());
+        m++;
+        continue;
+      }
+      // Block file and/or metadata file exists on the disk
+      // Block exists in memory
+      if (info.getBlockFile() == null) {
+        // Block metadata file exits and block file is missing
+        addDifference(diffRecord, statsRecord, info);
+      } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+          || info.getBlockFileLength() != memBlock.getNumBytes()) {
+        // Block metadata file is missing or has wrong generation stamp,
+        // or block file length is different than expected
+        statsRecord.mismatchBlocks++;
+        addDifference(diffRecord, statsRecord, info);
+      } else if (info.getBlockFile().compareTo(memBlock.getBlockFile()) != 0) {
+        // volumeMap record and on-disk files don't match.
+        statsRecord.duplicateBlocks++;
+        addDifference(diffRecord, statsRecord, info);
+      }
+      d++;
+
+      if (d < blockpoolReport.length) {
+        // There may be multiple on-disk records for the same block, don't increment
+        // the memory record pointer if so.
+        ScanInfo nextInfo = blockpoolReport[Math.min(d, blockpoolReport.length - 1)];
+        if (nextInfo.getBlockId() != info.blockId) {
+          ++m;
+        }
+      } else {
+        ++m;
+      }
+    }
+    while (m < memReport.length) {
+      FinalizedReplica current = memReport[m++];
+      addDifference(diffRecord, statsRecord,
+                    current.getBlockId(), current.getVolume());
+    }
+    while (d < blockpoolReport.length) {
+      if (!dataset.isDeletingBlock(bpid, blockpoolReport[d].getBlockId())) {
+        statsRecord.missingMemoryBlocks++;
+        addDifference(diffRecord, statsRecord, blockpoolReport[d]);
+      }
+      d++;
+    }
   }
 
   /**
@@ -708,62 +884,228 @@ private static boolean isValid(final FsDatasetSpi<?> dataset,
   }
 
   /**
-   * Get the lists of blocks on the disks in the dataset, sorted by blockId.
-   * The returned map contains one entry per blockpool, keyed by the blockpool
-   * ID.
+   * Start compiling the blocks of a first level block directory of a block
+   * pool on each of the volumes.
    *
-   * @return a map of sorted arrays of block information
+   * @param subdir the directory, or -1 for the blocks outside of them
    */
-  private Map<String, ScanInfo[]> getDiskReport() {
-    // First get list of data directories
-    final List<? extends FsVolumeSpi> volumes = dataset.getVolumes();
-
-    // Use an array since the threads may return out of order and
-    // compilersInProgress#keySet may return out of order as well.
-    ScanInfoPerBlockPool[] dirReports = new ScanInfoPerBlockPool[volumes.size()];
-
-    Map<Integer, Future<ScanInfoPerBlockPool>> compilersInProgress =
-      new HashMap<Integer, Future<ScanInfoPerBlockPool>>();
-
-    for (int i = 0; i < volumes.size(); i++) {
-      if (isValid(dataset, volumes.get(i))) {
-        ReportCompiler reportCompiler =
-          new ReportCompiler(datanode,volumes.get(i));
-        Future<ScanInfoPerBlockPool> result =
-          reportCompileThreadPool.submit(reportCompiler);
-        compilersInProgress.put(i, result);
+  private List<Future<SubdirReport>> submitReportCompilers(String bpid,
+      List<FsVolumeSpi> volumes, int subdir,
+      Map<FsVolumeSpi, LeafDigests> digests,
+      Map<FsVolumeSpi, long[]> memDigests) {
+    List<Future<SubdirReport>> compilers =
+        new ArrayList<Future<SubdirReport>>(volumes.size());
+    for (FsVolumeSpi volume : volumes) {
+      if (isValid(dataset, volume)) {
+        ReportCompiler reportCompiler = new ReportCompiler(datanode, volume,
+            bpid, subdir, digests == null ? null : digests.get(volume),
+            memDigests == null ? null : memDigests.get(volume));
+        compilers.add(reportCompileThreadPool.submit(reportCompiler));
       }
     }
+    return compilers;
+  }
 
-    for (Entry<Integer, Future<ScanInfoPerBlockPool>> report :
-        compilersInProgress.entrySet()) {
+  /**
+   * Wait for the blocks of a first level block directory to be compiled on
+   * all the volumes, and add them to the disk report by the first level
+   * directory of their ID.
+   *
+   * @param subdir the directory, or -1 for the blocks outside of them
+   * @param diskReport the blocks of the directories yet to be compared
+   * @param lateReport the list onto which the blocks of the directories
+   *                   already compared are placed
+   * @return the reports of the volumes which are still valid, or null if the
+   *         report compiler threads were interrupted
+   */
+  private List<SubdirReport> getReports(List<Future<SubdirReport>> compilers,
+      List<LinkedList<ScanInfo>> diskReport, LinkedList<ScanInfo> lateReport,
+      int subdir) {
+    List<SubdirReport> reports =
+        new ArrayList<SubdirReport>(compilers.size());
+    for (Future<SubdirReport> compiler : compilers) {
+      SubdirReport report;
       try {
-        dirReports[report.getKey()] = report.getValue().get();
-
-        // If our compiler threads were interrupted, give up on this run
-        if (dirReports[report.getKey()] == null) {
-          dirReports = null;
-          break;
-        }
+        report = getReport(compiler);
       } catch (Exception ex) {
         LOG.error("Error compiling report", ex);
         // Propagate ex to DataBlockScanner to deal with
         throw new RuntimeException(ex);
       }
+      // If our compiler threads were interrupted, give up on this run
+      if (report == null) {
+        return null;
+      }
+      if (isValid(dataset, report.volume)) {
+        reports.add(report);
+      }
     }
+    for (SubdirReport report : reports) {
+      for (ScanInfo info : report.blocks) {
+        int infoSubdir = getSubdir(info.getBlockId());
+        if (infoSubdir < subdir) {
+          lateReport.add(info);
+        } else {
+          diskReport.get(infoSubdir).add(info);
+        }
+      }
+    }
+    return reports;
+  }
 
-    // Compile consolidated report for all the volumes
-    ScanInfoPerBlockPool list = new ScanInfoPerBlockPool();
-    if (dirReports != null) {
-      for (int i = 0; i < volumes.size(); i++) {
-        if (isValid(dataset, volumes.get(i))) {
-          // volume is still valid
-          list.addAll(dirReports[i]);
+  /**
+   * @return the result of a report compiler, or null if the report compiler
+   *         threads were interrupted, or shut down before it ran
+   */
+  private SubdirReport getReport(Future<SubdirReport> compiler)
+      throws InterruptedException, ExecutionException {
+    while (true) {
+      try {
+        return compiler.get(SHUTDOWN_POLL_MS, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        if (reportCompileThreadPool.isShutdown()) {
+          return null;
         }
+      } catch (CancellationException e) {
+        return null;
+      }
+    }
+  }
+
+  /** @return the replica of a block in a sorted memory report, if any */
+  private static FinalizedReplica findReplica(FinalizedReplica[] memReport,
+      long blockId) {
+    int subdir = getSubdir(blockId);
+    int low = 0;
+    int high = memReport.length - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midId = memReport[mid].getBlockId();
+      int cmp = getSubdir(midId) != subdir ? getSubdir(midId) - subdir
+          : Long.compare(midId, blockId);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return memReport[mid];
       }
     }
+    return null;
+  }
+
+  /** @return the number of leaf directories skipped */
+  private static int skippedLeaves(Map<FsVolumeSpi, Set<Integer>> skipped) {
+    int count = 0;
+    for (Set<Integer> leaves : skipped.values()) {
+      count += leaves.size();
+    }
+    return count;
+  }
 
-    return list.toSortedArrays();
+  /** @return the first level block directory of a block */
+  private static int getSubdir(long blockId) {
+    return (int)((blockId >> 16) & 0xff);
+  }
+
+  /**
+   * @return the leaf block directory of a block, numbered across the first
+   *         level directories
+   */
+  private static int getLeaf(long blockId) {
+    return (int)((blockId >> 8) & 0xffff);
+  }
+
+  /** @return a digest of the state of a replica */
+  private static long getDigest(FinalizedReplica replica) {
+    long h = replica.getBlockId() * 0x9E3779B97F4A7C15L;
+    h = (h ^ replica.getGenerationStamp()) * 0xC2B2AE3D27D4EB4FL;
+    h = (h ^ replica.getNumBytes()) * 0x165667B19E3779F9L;
+    return h ^ (h >>> 32);
+  }
+
+  /**
+   * @return the digests of the replicas in memory of each leaf block
+   *         directory of each volume, which do not depend on the order of
+   *         the replicas
+   */
+  private static Map<FsVolumeSpi, long[]> getMemoryDigests(
+      FinalizedReplica[] memReport) {
+    Map<FsVolumeSpi, long[]> memDigests = new HashMap<FsVolumeSpi, long[]>();
+    for (FinalizedReplica replica : memReport) {
+      long[] volumeDigests = memDigests.get(replica.getVolume());
+      if (volumeDigests == null) {
+        volumeDigests = new long[NUM_SUBDIRS * NUM_SUBDIRS];
+        memDigests.put(replica.getVolume(), volumeDigests);
+      }
+      volumeDigests[getLeaf(replica.getBlockId())] += getDigest(replica);
+    }
+    return memDigests;
+  }
+
+  /**
+   * @return the leaf digests of a block pool on a volume, loaded from the
+   *         volume the first time, or null if they cannot be kept
+   */
+  private LeafDigests getLeafDigests(FsVolumeSpi volume, String bpid) {
+    String key = bpid + File.pathSeparator + volume.getBasePath();
+    LeafDigests digests = leafDigests.get(key);
+    if (digests == null) {
+      try {
+        digests = new LeafDigests(new File(
+            volume.getFinalizedDir(bpid).getParentFile(),
+            LeafDigests.FILE_NAME));
+      } catch (IOException e) {
+        LOG.warn("Unable to keep the leaf directory digests of " + bpid
+            + " on " + volume, e);
+        return null;
+      }
+      digests.load();
+      leafDigests.put(key, digests);
+    }
+    return digests;
+  }
+
+  /**
+   * Record the digests of the leaf block directories which were compiled
+   * and matched the replicas in memory, and forget those of the others.
+   *
+   * @param newDiffs the differences found in the first level directory
+   */
+  private static void updateLeafDigests(List<SubdirReport> reports,
+      Map<FsVolumeSpi, LeafDigests> digests,
+      Map<FsVolumeSpi, long[]> memDigests, Iterator<ScanInfo> newDiffs) {
+    Map<FsVolumeSpi, Set<Integer>> changed =
+        new HashMap<FsVolumeSpi, Set<Integer>>();
+    while (newDiffs.hasNext()) {
+      ScanInfo info = newDiffs.next();
+      Set<Integer> leaves = changed.get(info.getVolume());
+      if (leaves == null) {
+        leaves = new HashSet<Integer>();
+        changed.put(info.getVolume(), leaves);
+      }
+      leaves.add(getLeaf(info.getBlockId()));
+    }
+    for (SubdirReport report : reports) {
+      LeafDigests volumeDigests = digests.get(report.volume);
+      if (volumeDigests == null) {
+        continue;
+      }
+      long[] volumeMemDigests = memDigests.get(report.volume);
+      Set<Integer> leaves = changed.get(report.volume);
+      for (Entry<Integer, Long> leaf : report.leafModTimes.entrySet()) {
+        long modTime = leaf.getValue();
+        // A directory changed within the granularity of its modification
+        // time since it was listed may still have the same time
+        if ((leaves == null || !leaves.contains(leaf.getKey()))
+            && report.startTime - modTime > MOD_TIME_GRANULARITY_MS) {
+          volumeDigests.put(leaf.getKey(), modTime, volumeMemDigests == null
+              ? 0 : volumeMemDigests[leaf.getKey()]);
+        } else {
+          volumeDigests.remove(leaf.getKey());
+        }
+      }
+    }
   }
 
   /**
@@ -779,91 +1121,328 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
         && metaFile.endsWith(Block.METADATA_EXTENSION);
   }
 
+  /**
+   * The blocks found by a {@link ReportCompiler} in a first level block
+   * directory of a volume.
+   */
+  private static class SubdirReport {
+    private final FsVolumeSpi volume;
+    /** When the compiler started, for the modification times */
+    private final long startTime;
+    private final LinkedList<ScanInfo> blocks = new LinkedList<ScanInfo>();
+    /** The modification times of the leaf directories which were listed */
+    private final Map<Integer, Long> leafModTimes =
+        new HashMap<Integer, Long>();
+    /** The leaf directories skipped since they have not changed */
+    private final Set<Integer> skippedLeaves = new HashSet<Integer>();
+
+    SubdirReport(FsVolumeSpi volume, long startTime) {
+      this.volume = volume;
+      this.startTime = startTime;
+    }
+  }
+
+  /**
+   * The digests of the leaf block directories of a block pool on a volume
+   * which matched the replicas in memory when they were last compared: the
+   * modification time of the directory, and the digest of the replicas in
+   * memory. A leaf directory whose digests have not changed since is not
+   * listed again by an incremental scan. The digests are kept in a file of
+   * the block pool on the volume, so they outlive a restart.
+   */
+  @VisibleForTesting
+  static class LeafDigests {
+    static final String FILE_NAME = "scanner_digests";
+    private static final int VERSION = 1;
+
+    private final File file;
+    /** The modification time and the memory digest by leaf directory */
+    private final ConcurrentHashMap<Integer, long[]> digests =
+        new ConcurrentHashMap<Integer, long[]>();
+
+    LeafDigests(File file) {
+      this.file = file;
+    }
+
+    boolean isUnchanged(int leaf, long modTime, long memDigest) {
+      long[] digest = digests.get(leaf);
+      return digest != null && digest[0] == modTime && digest[1] == memDigest;
+    }
+
+    void put(int leaf, long modTime, long memDigest) {
+      digests.put(leaf, new long[] { modTime, memDigest });
+    }
+
+    void remove(int leaf) {
+      digests.remove(leaf);
+    }
+
+    int size() {
+      return digests.size();
+    }
+
+    /** Load the digests, if they were saved and can be read. */
+    void load() {
+      if (!file.exists()) {
+        return;
+      }
+      DataInputStream in = null;
+      try {
+        in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file)));
+        if (in.readInt() != VERSION) {
+          LOG.warn("Ignoring " + file + " of an unknown version");
+          return;
+        }
+        for (int count = in.readInt(); count > 0; count--) {
+          int leaf = in.readInt();
+          long modTime = in.readLong();
+          put(leaf, modTime, in.readLong());
+        }
+      } catch (IOException e) {
+        LOG.warn("Ignoring the unreadable " + file, e);
+        digests.clear();
+      } finally {
+        IOUtils.cleanup(LOG, in);
+      }
+    }
+
+    /** Save the digests, replacing the saved ones. */
+    void save() {
+      DataOutputStream out = null;
+      try {
+        out = new DataOutputStream(new BufferedOutputStream(
+            new AtomicFileOutputStream(file)));
+        Map<Integer, long[]> snapshot = new HashMap<Integer, long[]>(digests);
+        out.writeInt(VERSION);
+        out.writeInt(snapshot.size());
+        for (Entry<Integer, long[]> entry : snapshot.entrySet()) {
+          out.writeInt(entry.getKey());
+          out.writeLong(entry.getValue()[0]);
+          out.writeLong(entry.getValue()[1]);
+        }
+        out.close();
+        out = null;
+      } catch (IOException e) {
+        LOG.warn("Unable to save " + file, e);
+      } finally {
+        IOUtils.cleanup(LOG, out);
+      }
+    }
+  }
+
+  /**
+   * The time a report compiler thread has spent running since it was last
+   * throttled, and the time it has spent running or waiting since it was
+   * last accounted.
+   */
+  private static class CompilerTimers {
+    // Variable for tracking time spent running for throttling purposes
+    private final StopWatch throttleTimer = new StopWatch();
+    // Variable for tracking time spent running and waiting for testing
+    // purposes
+    private final StopWatch perfTimer = new StopWatch();
+  }
+
   /**
    * The ReportCompiler class encapsulates the process of searching a datanode's
-   * disks for block information.  It operates by performing a DFS of the
-   * volume to discover block information.
+   * disks for block information.  It operates by performing a DFS of a first
+   * level block directory of a block pool on a volume to discover block
+   * information.
    *
    * When the ReportCompiler discovers block information, it create a new
    * ScanInfo object for it and adds that object to its report list.  The report
    * list is returned by the {@link #call()} method.
    */
-  private class ReportCompiler implements Callable<ScanInfoPerBlockPool> {
+  private class ReportCompiler implements Callable<SubdirReport> {
     private final FsVolumeSpi volume;
     private final DataNode datanode;
-    // Variable for tracking time spent running for throttling purposes
-    private final StopWatch throttleTimer = new StopWatch();
-    // Variable for tracking time spent running and waiting for testing
-    // purposes
-    private final StopWatch perfTimer = new StopWatch();
+    private final String bpid;
+    /** The first level directory to scan, or -1 for the blocks outside */
+    private final int subdir;
+    /** The digests of the leaf directories, if the scan is incremental */
+    private final LeafDigests digests;
+    private final long[] memDigests;
+    private CompilerTimers timers;
 
     /**
-     * Create a report compiler for the given volume on the given datanode.
+     * Create a report compiler for the given directory of the given volume
+     * on the given datanode.
      *
      * @param datanode the target datanode
      * @param volume the target volume
+     * @param bpid the target block pool
+     * @param subdir the target first level directory, or -1
+     * @param digests the saved digests of the leaf directories, or null
+     * @param memDigests the digests of the replicas in memory, or null
      */
-    public ReportCompiler(DataNode datanode, FsVolumeSpi volume) {
+    public ReportCompiler(DataNode datanode, FsVolumeSpi volume, String bpid,
+        int subdir, LeafDigests digests, long[] memDigests) {
       this.datanode = datanode;
       this.volume = volume;
+      this.bpid = bpid;
+      this.subdir = subdir;
+      this.digests = digests;
+      this.memDigests = memDigests;
     }
 
     /**
      * Run this report compiler thread.
      *
-     * @return the block info report list
+     * @return the block info report, or null if interrupted
      * @throws IOException if the block pool isn't found
      */
     @Override
-    public ScanInfoPerBlockPool call() throws IOException {
-      String[] bpList = volume.getBlockPoolList();
-      ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
-      for (String bpid : bpList) {
-        LinkedList<ScanInfo> report = new LinkedList<>();
-        File bpFinalizedDir = volume.getFinalizedDir(bpid);
+    public SubdirReport call() throws IOException {
+      SubdirReport report = new SubdirReport(volume, Time.now());
+      File bpFinalizedDir = volume.getFinalizedDir(bpid);
 
-        perfTimer.start();
-        throttleTimer.start();
+      timers = compilerTimers.get();
+      timers.perfTimer.reset().start();
+      timers.throttleTimer.start();
+      try {
+        if (subdir < 0) {
+          File[] files = listFiles(bpFinalizedDir);
+          if (files != null) {
+            compileReport(bpFinalizedDir, getOtherFiles(files),
+                report.blocks);
+          }
+        } else {
+          File dir = new File(bpFinalizedDir,
+              DataStorage.BLOCK_SUBDIR_PREFIX + subdir);
+          if (dir.isDirectory()) {
+            compileSubdir(bpFinalizedDir, dir, report);
+          }
+        }
+      } catch (InterruptedException ex) {
+        // Exit quickly and flag the scanner to do the same
+        report = null;
+      } finally {
+        accumulateTimeRunning();
+        timers.perfTimer.stop();
+        timers.throttleTimer.stop();
+      }
+      return report;
+    }
 
-        try {
-          result.put(bpid,
-              compileReport(volume, bpFinalizedDir, bpFinalizedDir, report));
-        } catch (InterruptedException ex) {
-          // Exit quickly and flag the scanner to do the same
-          result = null;
-          break;
+    /**
+     * Compile the blocks of a first level directory, except those of the
+     * leaf directories which have not changed since they were last compared.
+     */
+    private void compileSubdir(File bpFinalizedDir, File dir,
+        SubdirReport report) throws InterruptedException {
+      File[] files = listFiles(dir);
+      if (files == null) {
+        return;
+      }
+      for (File file : files) {
+        int index = getSubdirIndex(file);
+        if (index < 0) {
+          continue;
+        }
+        int leaf = (subdir << 8) | index;
+        if (digests != null) {
+          long modTime = file.lastModified();
+          if (digests.isUnchanged(leaf, modTime,
+              memDigests == null ? 0 : memDigests[leaf])) {
+            report.skippedLeaves.add(leaf);
+            continue;
+          }
+          report.leafModTimes.put(leaf, modTime);
         }
+        compileReport(bpFinalizedDir, file, report.blocks);
       }
-      return result;
+      compileReport(bpFinalizedDir, getOtherFiles(files), report.blocks);
     }
 
     /**
-     * Compile a list of {@link ScanInfo} for the blocks in the directory
-     * given by {@code dir}.
-     *
-     * @param vol the volume that contains the directory to scan
-     * @param bpFinalizedDir the root directory of the directory to scan
-     * @param dir the directory to scan
-     * @param report the list onto which blocks reports are placed
+     * @return the index of a block directory, or -1 if the file is not one
      */
-    private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
-        File bpFinalizedDir, File dir, LinkedList<ScanInfo> report)
-        throws InterruptedException {
+    private int getSubdirIndex(File file) {
+      String name = file.getName();
+      if (!name.startsWith(DataStorage.BLOCK_SUBDIR_PREFIX)) {
+        return -1;
+      }
+      int index;
+      try {
+        index = Integer.parseInt(
+            name.substring(DataStorage.BLOCK_SUBDIR_PREFIX.length()));
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+      return index >= 0 && index < NUM_SUBDIRS && file.isDirectory()
+          ? index : -1;
+    }
+
+    /** @return the files which are not block directories, in order */
+    private File[] getOtherFiles(File[] files) {
+      List<File> others = new ArrayList<File>();
+      for (File file : files) {
+        if (getSubdirIndex(file) < 0) {
+          others.add(file);
+        }
+      }
+      return others.toArray(new File[others.size()]);
+    }
 
+    /**
+     * List a directory, sorted.
+     *
+     * @return the files, or null if the directory could not be listed
+     */
+    private File[] listFiles(File dir) throws InterruptedException {
       File[] files;
 
       throttle();
 
+      VolumeIoScheduler ioScheduler = VolumeIoScheduler.get(volume);
       try {
-        files = FileUtil.listFiles(dir);
+        ioScheduler.acquire(IoClass.SCANNER);
+        try {
+          files = FileUtil.listFiles(dir);
+        } finally {
+          ioScheduler.release();
+        }
+      } catch (InterruptedIOException e) {
+        throw new InterruptedException("Interrupted while waiting for "
+            + volume.getBasePath());
       } catch (IOException ioe) {
         LOG.warn("Exception occured while compiling report: ", ioe);
         // Initiate a check on disk failure.
         datanode.checkDiskErrorAsync();
         // Ignore this directory and proceed.
-        return report;
+        return null;
       }
       Arrays.sort(files);
+      return files;
+    }
+
+    /**
+     * Compile a list of {@link ScanInfo} for the blocks in the directory
+     * given by {@code dir}.
+     *
+     * @param bpFinalizedDir the root directory of the directory to scan
+     * @param dir the directory to scan
+     * @param report the list onto which blocks reports are placed
+     */
+    private void compileReport(File bpFinalizedDir, File dir,
+        LinkedList<ScanInfo> report) throws InterruptedException {
+      File[] files = listFiles(dir);
+      if (files != null) {
+        compileReport(bpFinalizedDir, files, report);
+      }
+    }
+
+    /**
+     * Compile a list of {@link ScanInfo} for the blocks in the given sorted
+     * files, and in the directories among them.
+     *
+     * @param bpFinalizedDir the root directory of the directory to scan
+     * @param files the files to scan
+     * @param report the list onto which blocks reports are placed
+     */
+    private void compileReport(File bpFinalizedDir, File[] files,
+        LinkedList<ScanInfo> report) throws InterruptedException {
       /*
        * Assumption: In the sorted list of files block file appears immediately
        * before block metadata file. This is true for the current naming
@@ -878,7 +1457,7 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
         }
 
         if (files[i].isDirectory()) {
-          compileReport(vol, bpFinalizedDir, files[i], report);
+          compileReport(bpFinalizedDir, files[i], report);
           continue;
         }
         if (!Block.isBlockFilename(files[i])) {
@@ -886,7 +1465,7 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
             long blockId = Block.getBlockId(files[i].getName());
             verifyFileLocation(files[i].getParentFile(), bpFinalizedDir,
                 blockId);
-            report.add(new ScanInfo(blockId, null, files[i], vol));
+            report.add(new ScanInfo(blockId, null, files[i], volume));
           }
           continue;
         }
@@ -905,9 +1484,8 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol,
           }
         }
         verifyFileLocation(blockFile, bpFinalizedDir, blockId);
-        report.add(new ScanInfo(blockId, blockFile, metaFile, vol));
+        report.add(new ScanInfo(blockId, blockFile, metaFile, volume));
       }
-      return report;
     }
 
     /**
@@ -936,10 +1514,11 @@ private void throttle() throws InterruptedException {
       accumulateTimeRunning();
 
       if ((throttleLimitMsPerSec < 1000) &&
-          (throttleTimer.now(TimeUnit.MILLISECONDS) > throttleLimitMsPerSec)) {
+          (timers.throttleTimer.now(TimeUnit.MILLISECONDS)
+              > throttleLimitMsPerSec)) {
 
         Thread.sleep(MILLIS_PER_SECOND - throttleLimitMsPerSec);
-        throttleTimer.reset().start();
+        timers.throttleTimer.reset().start();
       }
 
       accumulateTimeWaiting();
@@ -949,16 +1528,16 @@ private void throttle() throws InterruptedException {
      * Helper method to measure time running.
      */
     private void accumulateTimeRunning() {
-      timeRunningMs.getAndAdd(perfTimer.now(TimeUnit.MILLISECONDS));
-      perfTimer.reset().start();
+      timeRunningMs.getAndAdd(timers.perfTimer.now(TimeUnit.MILLISECONDS));
+      timers.perfTimer.reset().start();
     }
 
     /**
      * Helper method to measure time waiting.
      */
     private void accumulateTimeWaiting() {
-      timeWaitingMs.getAndAdd(perfTimer.now(TimeUnit.MILLISECONDS));
-      perfTimer.reset().start();
+      timeWaitingMs.getAndAdd(timers.perfTimer.now(TimeUnit.MILLISECONDS));
+      timers.perfTimer.reset().start();
     }
   }
 }
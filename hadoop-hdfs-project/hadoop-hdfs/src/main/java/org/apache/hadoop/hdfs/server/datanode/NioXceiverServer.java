@@ -0,0 +1,591 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.hdfs.protocolPB.PBHelper.vintPrefixed;
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Op;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpBlockChecksumProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpCopyBlockProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.OpReadBlockProto;
+import org.apache.hadoop.hdfs.protocolPB.PBHelper;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.util.Daemon;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Serves the TCP connections accepted by a {@link DataXceiverServer} with a
+ * few NIO event loops and bounded worker pools, instead of a
+ * {@link DataXceiver} thread for each connection.
+ * <p>
+ * A connection is parked in an event loop while it waits for its next
+ * operation. The event loop reads the operation without blocking, and hands
+ * the connection to a worker once the request is complete:
+ * <ul>
+ * <li>Block reads, checksums and copies run on a pool of the volume of the
+ * block, so that a slow disk does not hold the workers of the others.</li>
+ * <li>Block writes, transfers and replacements hold their thread for the
+ * whole pipeline. They run on a thread of their own, as they would without
+ * the event loops, so that they do not starve the pools.</li>
+ * <li>The other operations, and the reads of unknown replicas, run on a
+ * shared pool.</li>
+ * </ul>
+ * The worker processes the operation with the blocking streams of the
+ * {@link DataXceiver}, then parks the connection again.
+ * <p>
+ * Connections whose streams are wrapped by SASL can not be read by the
+ * event loops. They are served by a thread each, like a peer without a
+ * channel.
+ */
+class NioXceiverServer {
+  public static final Log LOG = DataNode.LOG;
+
+  // How often the event loops close the connections which timed out
+  private static final long SELECT_TIMEOUT_MS = 1000;
+  // Keep-alive time of idle workers
+  private static final long WORKER_KEEP_ALIVE_SECONDS = 60;
+
+  private final DataNode datanode;
+  private final DataXceiverServer xserver;
+  private final DNConf dnConf;
+  private final ThreadGroup threadGroup;
+  private final EventLoop[] eventLoops;
+  private final ThreadPoolExecutor workers;
+  private final int volumeWorkers;
+  private final ConcurrentMap<String, ThreadPoolExecutor> volumeWorkerPools =
+      new ConcurrentHashMap<String, ThreadPoolExecutor>();
+  private final AtomicInteger nextEventLoop = new AtomicInteger();
+  private final AtomicInteger numConnections = new AtomicInteger();
+  private volatile boolean running = true;
+
+  NioXceiverServer(Configuration conf, DataNode datanode,
+      DataXceiverServer xserver) throws IOException {
+    this.datanode = datanode;
+    this.xserver = xserver;
+    this.dnConf = datanode.getDnConf();
+    this.threadGroup = new ThreadGroup(getClass().getSimpleName());
+
+    int numEventLoops = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_EVENT_LOOPS_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_EVENT_LOOPS_DEFAULT);
+    this.eventLoops = new EventLoop[Math.max(1, numEventLoops)];
+    for (int i = 0; i < eventLoops.length; i++) {
+      eventLoops[i] = new EventLoop();
+    }
+    this.workers = createWorkers("DataXceiver worker", conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_WORKERS_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_WORKERS_DEFAULT));
+    this.volumeWorkers = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_VOLUME_WORKERS_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_VOLUME_WORKERS_DEFAULT);
+    LOG.info("Serving data transfer connections with " + eventLoops.length
+        + " event loops, " + workers.getMaximumPoolSize() + " workers and "
+        + volumeWorkers + " workers per volume");
+  }
+
+  private ThreadPoolExecutor createWorkers(final String name, int threads) {
+    ThreadFactory threadFactory = new ThreadFactory() {
+      int counter = 0;
+
+      @Override
+      public Thread newThread(Runnable r) {
+        int thisIndex;
+        synchronized (this) {
+          thisIndex = counter++;
+        }
+        Thread t = new Daemon(threadGroup, r);
+        t.setName(name + " #" + thisIndex);
+        return t;
+      }
+    };
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+        WORKER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), threadFactory);
+    // This can reduce the number of running threads
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  void start() {
+    for (int i = 0; i < eventLoops.length; i++) {
+      Thread t = new Daemon(threadGroup, eventLoops[i]);
+      t.setName("DataXceiver event loop #" + i);
+      t.start();
+    }
+  }
+
+  /**
+   * Stop the event loops and the workers. The connections are closed.
+   */
+  void shutdown() {
+    running = false;
+    for (EventLoop loop : eventLoops) {
+      loop.selector.wakeup();
+    }
+    workers.shutdownNow();
+    for (ThreadPoolExecutor pool : volumeWorkerPools.values()) {
+      pool.shutdownNow();
+    }
+  }
+
+  /** @return the number of connections served by the event loops. */
+  int getNumConnections() {
+    return numConnections.get();
+  }
+
+  @VisibleForTesting
+  ThreadGroup getThreadGroup() {
+    return threadGroup;
+  }
+
+  /**
+   * Serve a connection accepted by the {@link DataXceiverServer}.
+   */
+  void serve(Peer peer) throws IOException {
+    SocketChannel channel = TcpPeerServer.getSocketChannel(peer);
+    DataXceiver xceiver = DataXceiver.create(peer, datanode, xserver);
+    if (channel == null) {
+      new Daemon(datanode.threadGroup, xceiver).start();
+      return;
+    }
+    final Connection conn = new Connection(peer, channel, xceiver,
+        eventLoops[(nextEventLoop.getAndIncrement() & Integer.MAX_VALUE)
+            % eventLoops.length]);
+    numConnections.incrementAndGet();
+    execute(workers, conn, new Runnable() {
+      @Override
+      public void run() {
+        startConnection(conn);
+      }
+    });
+  }
+
+  private void execute(ThreadPoolExecutor pool, Connection conn,
+      Runnable task) {
+    try {
+      pool.execute(task);
+    } catch (RejectedExecutionException e) {
+      // shutting down
+      close(conn);
+    }
+  }
+
+  /**
+   * Perform the handshake of a new connection, then park it until its first
+   * operation arrives.
+   */
+  private void startConnection(final Connection conn) {
+    String name = Thread.currentThread().getName();
+    boolean started = false;
+    try {
+      started = conn.xceiver.startConnection();
+    } catch (Throwable t) {
+      conn.xceiver.logError(t);
+    } finally {
+      Thread.currentThread().setName(name);
+    }
+    if (!started) {
+      conn.xceiver.closeConnection();
+      close(conn);
+    } else if (conn.xceiver.isSaslWrapped()) {
+      // The event loops can not read the wrapped stream
+      if (conn.closed.compareAndSet(false, true)) {
+        numConnections.decrementAndGet();
+        new Daemon(datanode.threadGroup, new Runnable() {
+          @Override
+          public void run() {
+            try {
+              conn.xceiver.processOps();
+            } catch (Throwable t) {
+              conn.xceiver.logError(t);
+            } finally {
+              conn.xceiver.closeConnection();
+            }
+          }
+        }).start();
+      }
+    } else {
+      xserver.setPeerThread(conn.peer, null);
+      conn.loop.park(conn, dnConf.socketTimeout);
+    }
+  }
+
+  /**
+   * Hand the received operation of a connection to a worker, see the class
+   * comment for which one.
+   */
+  private void dispatch(final Connection conn) {
+    Runnable task = new Runnable() {
+      @Override
+      public void run() {
+        processReceivedOps(conn);
+      }
+    };
+    Op op = getOp(conn.received);
+    if (op == Op.WRITE_BLOCK || op == Op.TRANSFER_BLOCK
+        || op == Op.REPLACE_BLOCK) {
+      if (!running) {
+        close(conn);
+        return;
+      }
+      Thread t = new Daemon(threadGroup, task);
+      t.setName("DataXceiver streamer for " + conn.peer);
+      t.start();
+      return;
+    }
+    String storageId = getStorageIdToRead(conn.received);
+    execute(storageId == null ? workers : getVolumeWorkers(storageId), conn,
+        task);
+  }
+
+  /**
+   * @return the operation of the request, or null if the DataXceiver has to
+   *   report a bad request
+   */
+  private static Op getOp(byte[] received) {
+    try {
+      DataInputStream in =
+          new DataInputStream(new ByteArrayInputStream(received));
+      if (in.readShort() != DataTransferProtocol.DATA_TRANSFER_VERSION) {
+        return null;
+      }
+      return Op.read(in);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private ThreadPoolExecutor getVolumeWorkers(String storageId) {
+    ThreadPoolExecutor pool = volumeWorkerPools.get(storageId);
+    if (pool == null) {
+      ThreadPoolExecutor newPool = createWorkers(
+          "DataXceiver worker for volume " + storageId, volumeWorkers);
+      pool = volumeWorkerPools.putIfAbsent(storageId, newPool);
+      if (pool == null) {
+        pool = newPool;
+        if (!running) {
+          pool.shutdownNow();
+        }
+      }
+    }
+    return pool;
+  }
+
+  /**
+   * @return the storage of the replica read by the operation, or null if
+   *   the operation does not read a replica which is known
+   */
+  private String getStorageIdToRead(byte[] received) {
+    ExtendedBlock block;
+    try {
+      DataInputStream in =
+          new DataInputStream(new ByteArrayInputStream(received));
+      if (in.readShort() != DataTransferProtocol.DATA_TRANSFER_VERSION) {
+        return null;
+      }
+      switch (Op.read(in)) {
+      case READ_BLOCK:
+        block = PBHelper.convert(OpReadBlockProto.parseFrom(vintPrefixed(in))
+            .getHeader().getBaseHeader().getBlock());
+        break;
+      case BLOCK_CHECKSUM:
+        block = PBHelper.convert(OpBlockChecksumProto.parseFrom(
+            vintPrefixed(in)).getHeader().getBlock());
+        break;
+      case COPY_BLOCK:
+        block = PBHelper.convert(OpCopyBlockProto.parseFrom(
+            vintPrefixed(in)).getHeader().getBlock());
+        break;
+      default:
+        return null;
+      }
+    } catch (IOException e) {
+      // the DataXceiver reports the bad request
+      return null;
+    }
+    FsVolumeSpi volume = datanode.getFSDataset().getVolume(block);
+    return volume == null ? null : volume.getStorageID();
+  }
+
+  private void processReceivedOps(Connection conn) {
+    String name = Thread.currentThread().getName();
+    boolean open = false;
+    try {
+      byte[] received = conn.received;
+      conn.received = null;
+      open = conn.xceiver.processReceivedOps(received);
+    } catch (Throwable t) {
+      conn.xceiver.logError(t);
+    } finally {
+      if (open && running) {
+        conn.loop.park(conn, dnConf.socketKeepaliveTimeout);
+      } else {
+        conn.xceiver.closeConnection();
+        close(conn);
+      }
+      Thread.currentThread().setName(name);
+    }
+  }
+
+  private void close(Connection conn) {
+    if (conn.closed.compareAndSet(false, true)) {
+      numConnections.decrementAndGet();
+      xserver.closePeer(conn.peer);
+    }
+  }
+
+  /**
+   * @return the length of the operation request at the start of the buffer,
+   *   or -1 if not enough of it has been read to know. The request is the
+   *   version, the op and the length prefixed protobuf message.
+   */
+  @VisibleForTesting
+  static int getRequestLength(ByteBuffer buf) {
+    final int headerLen = 3;
+    if (buf.position() < headerLen) {
+      return -1;
+    }
+    if (buf.getShort(0) != DataTransferProtocol.DATA_TRANSFER_VERSION) {
+      // let the DataXceiver report the mismatch
+      return headerLen;
+    }
+    int length = 0;
+    for (int i = 0; i < 5; i++) {
+      if (buf.position() <= headerLen + i) {
+        return -1;
+      }
+      byte b = buf.get(headerLen + i);
+      length |= (b & 0x7f) << (7 * i);
+      if (b >= 0) {
+        return headerLen + i + 1 + length;
+      }
+    }
+    // a malformed varint, let the DataXceiver report it
+    return headerLen + 5;
+  }
+
+  /** A connection served by the event loops. */
+  private static class Connection {
+    final Peer peer;
+    final SocketChannel channel;
+    final DataXceiver xceiver;
+    final EventLoop loop;
+    final AtomicBoolean closed = new AtomicBoolean(false);
+    // Only accessed by the event loop while the connection is parked
+    SelectionKey key;
+    ByteBuffer buffer;
+    long deadline;
+    // The request read by the event loop, for the worker
+    byte[] received;
+
+    Connection(Peer peer, SocketChannel channel, DataXceiver xceiver,
+        EventLoop loop) {
+      this.peer = peer;
+      this.channel = channel;
+      this.xceiver = xceiver;
+      this.loop = loop;
+    }
+  }
+
+  /**
+   * Waits for the next operation of the parked connections.
+   */
+  private class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Connection> toPark =
+        new ConcurrentLinkedQueue<Connection>();
+    private long lastExpiryCheck = monotonicNow();
+
+    EventLoop() throws IOException {
+      this.selector = Selector.open();
+    }
+
+    /**
+     * Park a connection until its next operation arrives, or it is idle for
+     * the given time.
+     */
+    void park(Connection conn, long timeoutMs) {
+      conn.deadline = monotonicNow() + timeoutMs;
+      toPark.add(conn);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (running) {
+          selector.select(SELECT_TIMEOUT_MS);
+          registerParked();
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+            if (key.isValid()) {
+              read((Connection) key.attachment());
+            }
+          }
+          closeExpired();
+        }
+      } catch (IOException e) {
+        LOG.error(Thread.currentThread().getName() + " failed", e);
+      } catch (ClosedSelectorException e) {
+        // shutting down
+      } finally {
+        closeAll();
+      }
+    }
+
+    private void registerParked() {
+      Connection conn;
+      while ((conn = toPark.poll()) != null) {
+        try {
+          if (conn.key == null) {
+            conn.key = conn.channel.register(selector, SelectionKey.OP_READ,
+                conn);
+          } else {
+            conn.key.interestOps(SelectionKey.OP_READ);
+          }
+        } catch (ClosedChannelException e) {
+          close(conn);
+        } catch (CancelledKeyException e) {
+          close(conn);
+        }
+      }
+    }
+
+    private void read(Connection conn) {
+      if (conn.buffer == null) {
+        conn.buffer = ByteBuffer.allocate(HdfsConstants.SMALL_BUFFER_SIZE);
+      }
+      ByteBuffer buf = conn.buffer;
+      int n;
+      try {
+        n = conn.channel.read(buf);
+      } catch (IOException e) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Failed to read from " + conn.peer, e);
+        }
+        close(conn);
+        return;
+      }
+      if (n < 0) {
+        // the client closed the connection, quite normal between operations
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Cached " + conn.peer + " closing after "
+              + conn.xceiver.getOpsProcessed() + " ops");
+        }
+        close(conn);
+        return;
+      }
+      if (n > 0 && buf.position() == n) {
+        // the operation started, it must arrive within the socket timeout
+        conn.deadline = monotonicNow() + dnConf.socketTimeout;
+      }
+      int length = getRequestLength(buf);
+      if (length < 0 || buf.position() < length) {
+        if (length > buf.capacity()) {
+          ByteBuffer larger = ByteBuffer.allocate(length);
+          buf.flip();
+          larger.put(buf);
+          conn.buffer = larger;
+        }
+        return;
+      }
+
+      // The request is complete, hand it to a worker
+      conn.key.interestOps(0);
+      buf.flip();
+      conn.received = new byte[buf.remaining()];
+      buf.get(conn.received);
+      buf.clear();
+      if (buf.capacity() > HdfsConstants.SMALL_BUFFER_SIZE) {
+        conn.buffer = null;
+      }
+      dispatch(conn);
+    }
+
+    private void closeExpired() {
+      long now = monotonicNow();
+      if (now - lastExpiryCheck < SELECT_TIMEOUT_MS) {
+        return;
+      }
+      lastExpiryCheck = now;
+      for (SelectionKey key : selector.keys()) {
+        Connection conn = (Connection) key.attachment();
+        try {
+          if (key.interestOps() != 0 && conn.deadline < now) {
+            // Time out while we wait for client rpc
+            close(conn);
+          }
+        } catch (CancelledKeyException e) {
+          close(conn);
+        }
+      }
+    }
+
+    private void closeAll() {
+      Connection conn;
+      while ((conn = toPark.poll()) != null) {
+        close(conn);
+      }
+      try {
+        for (SelectionKey key : selector.keys()) {
+          close((Connection) key.attachment());
+        }
+        selector.close();
+      } catch (ClosedSelectorException e) {
+        // already closed
+      } catch (IOException e) {
+        LOG.warn("Failed to close the selector", e);
+      }
+    }
+  }
+}
@@ -21,6 +21,7 @@
 import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -37,6 +38,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeReference;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi.BlockIterator;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
 import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
@@ -290,6 +292,12 @@ public void handle(ExtendedBlock block, IOException e) {
             volume.getBasePath(), block);
         return;
       }
+      // The scanner was stopped while waiting for the volume.
+      if (e instanceof InterruptedIOException) {
+        LOG.debug("Volume {}: scan of {} was interrupted.",
+            volume.getBasePath(), block);
+        return;
+      }
       LOG.warn("Reporting bad " + block + " with volume "
           + volume.getBasePath(), e);
       try {
@@ -445,7 +453,7 @@ private long scanBlock(ExtendedBlock cblock, long bytesPerSec) {
     try {
       blockSender = new BlockSender(block, 0, -1,
           false, true, true, datanode, null,
-          CachingStrategy.newDropBehind());
+          CachingStrategy.newDropBehind(), IoClass.SCANNER);
       throttler.setBandwidth(bytesPerSec);
       long bytesRead = blockSender.sendBlock(nullStream, null, throttler);
       resultHandler.handle(block, null);
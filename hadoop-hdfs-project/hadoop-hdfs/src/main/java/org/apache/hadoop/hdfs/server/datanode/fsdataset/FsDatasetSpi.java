@@ -58,6 +58,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReplicaRecoveryInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 import org.apache.hadoop.util.ReflectionUtils;
 
@@ -554,4 +555,17 @@ public ReplicaInfo moveBlockAcrossStorage(final ExtendedBlock block,
    * Confirm whether the block is deleting
    */
   public boolean isDeletingBlock(String bpid, long blockId);
+
+  /**
+   * Acquire the exclusive lock of the dataset, which keeps all the other
+   * operations on the dataset out until it is released.
+   */
+  public AutoCloseableLock acquireDatasetLock();
+
+  /**
+   * Acquire the shared lock of the dataset, which keeps the changes of the
+   * volumes and the block pools out, but not the reads or the writes of the
+   * replicas.
+   */
+  public AutoCloseableLock acquireDatasetReadLock();
 }
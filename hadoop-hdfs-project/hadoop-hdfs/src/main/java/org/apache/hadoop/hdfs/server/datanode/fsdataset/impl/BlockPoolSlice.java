@@ -172,7 +172,6 @@ File getTmpDir() {
     return tmpDir;
   }
 
-  /** Run DU on local drives.  It must be synchronized from caller. */
   void decDfsUsed(long value) {
     dfsUsage.decDfsUsed(value);
   }
@@ -107,6 +107,7 @@
 import org.apache.hadoop.io.MultipleIOException;
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.metrics2.util.MBeans;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
@@ -172,21 +173,23 @@ public StorageReport[] getStorageReports(String bpid)
   }
 
   @Override
-  public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+  public FsVolumeImpl getVolume(final ExtendedBlock b) {
     final ReplicaInfo r =  volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
     return r != null? (FsVolumeImpl)r.getVolume(): null;
   }
 
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
-    File blockfile = getFile(bpid, blkid, false);
-    if (blockfile == null) {
-      return null;
+    try (AutoCloseableLock lock = datasetLock.acquireBlockLock(blkid)) {
+      File blockfile = getFile(bpid, blkid, false);
+      if (blockfile == null) {
+        return null;
+      }
+      final File metafile = FsDatasetUtil.findMetaFile(blockfile);
+      final long gs = FsDatasetUtil.parseGenerationStamp(blockfile, metafile);
+      return new Block(blkid, blockfile.length(), gs);
     }
-    final File metafile = FsDatasetUtil.findMetaFile(blockfile);
-    final long gs = FsDatasetUtil.parseGenerationStamp(blockfile, metafile);
-    return new Block(blkid, blockfile.length(), gs);
   }
 
 
@@ -239,12 +242,15 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   private final int validVolsRequired;
   private volatile boolean fsRunning;
 
+  private final FsDatasetLock datasetLock;
   final ReplicaMap volumeMap;
   final Map<String, Set<Long>> deletingBlock;
   final RamDiskReplicaTracker ramDiskReplicaTracker;
   final RamDiskAsyncLazyPersistService asyncLazyPersistService;
 
   private static final int MAX_BLOCK_EVICTIONS_PER_ITERATION = 3;
+  // How long the lazy writer waits for the volumes saving too many replicas.
+  private static final long LAZY_WRITER_THROTTLE_SLEEP_MS = 100;
 
 
   // Used for synchronizing access to usage stats
@@ -291,7 +297,11 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
     }
 
     storageMap = new ConcurrentHashMap<String, DatanodeStorage>();
-    volumeMap = new ReplicaMap(this);
+    datasetLock = new FsDatasetLock(conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DATASET_LOCK_STRIPES_KEY,
+        DFSConfigKeys.DFS_DATANODE_DATASET_LOCK_STRIPES_DEFAULT),
+        datanode.getMetrics());
+    volumeMap = new ReplicaMap();
     ramDiskReplicaTracker = RamDiskReplicaTracker.getInstance(conf, this);
 
     @SuppressWarnings("unchecked")
@@ -365,10 +375,10 @@ private void addVolume(Collection<StorageLocation> dataLocations,
     FsVolumeImpl fsVolume = new FsVolumeImpl(
         this, sd.getStorageUuid(), dir, this.conf, storageType);
     FsVolumeReference ref = fsVolume.obtainReference();
-    ReplicaMap tempVolumeMap = new ReplicaMap(this);
+    ReplicaMap tempVolumeMap = new ReplicaMap();
     fsVolume.getVolumeMap(tempVolumeMap, ramDiskReplicaTracker);
 
-    synchronized (this) {
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
       volumeMap.addAll(tempVolumeMap);
       storageMap.put(sd.getStorageUuid(),
           new DatanodeStorage(sd.getStorageUuid(),
@@ -408,7 +418,7 @@ public void addVolume(final StorageLocation location,
     StorageType storageType = location.getStorageType();
     final FsVolumeImpl fsVolume =
         createFsVolume(sd.getStorageUuid(), sd.getCurrentDir(), storageType);
-    final ReplicaMap tempVolumeMap = new ReplicaMap(fsVolume);
+    final ReplicaMap tempVolumeMap = new ReplicaMap();
     ArrayList<IOException> exceptions = Lists.newArrayList();
 
     for (final NamespaceInfo nsInfo : nsInfos) {
@@ -435,7 +445,7 @@ public void addVolume(final StorageLocation location,
     setupAsyncLazyPersistThread(fsVolume);
 
     builder.build();
-    synchronized (this) {
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
       volumeMap.addAll(tempVolumeMap);
       storageMap.put(sd.getStorageUuid(),
           new DatanodeStorage(sd.getStorageUuid(),
@@ -462,7 +472,7 @@ public void removeVolumes(Set<File> volumesToRemove, boolean clearFailure) {
 
     Map<String, List<ReplicaInfo>> blkToInvalidate = new HashMap<>();
     List<String> storageToRemove = new ArrayList<>();
-    synchronized (this) {
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
       for (int idx = 0; idx < dataStorage.getNumStorageDirs(); idx++) {
         Storage.StorageDirectory sd = dataStorage.getStorageDir(idx);
         final File absRoot = sd.getRoot().getAbsoluteFile();
@@ -478,14 +488,12 @@ public void removeVolumes(Set<File> volumesToRemove, boolean clearFailure) {
           // not scan disks.
           for (String bpid : volumeMap.getBlockPoolList()) {
             List<ReplicaInfo> blocks = new ArrayList<>();
-            for (Iterator<ReplicaInfo> it = volumeMap.replicas(bpid).iterator();
-                 it.hasNext(); ) {
-              ReplicaInfo block = it.next();
+            for (ReplicaInfo block : volumeMap.replicas(bpid)) {
               final File absBasePath =
                   new File(block.getVolume().getBasePath()).getAbsoluteFile();
               if (absBasePath.equals(absRoot)) {
                 blocks.add(block);
-                it.remove();
+                volumeMap.remove(bpid, block.getBlockId());
               }
             }
             blkToInvalidate.put(bpid, blocks);
@@ -507,7 +515,7 @@ public void removeVolumes(Set<File> volumesToRemove, boolean clearFailure) {
       }
     }
 
-    synchronized (this) {
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
       for(String storageUuid : storageToRemove) {
         storageMap.remove(storageUuid);
       }
@@ -700,7 +708,8 @@ private File getBlockFileNoExistsCheck(ExtendedBlock b,
                                          boolean touch)
       throws IOException {
     final File f;
-    synchronized(this) {
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
       f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId(), touch);
     }
     if (f == null) {
@@ -766,22 +775,25 @@ private ReplicaInfo getReplicaInfo(String bpid, long blkid)
    * Returns handles to the block file and its metadata file
    */
   @Override // FsDatasetSpi
-  public synchronized ReplicaInputStreams getTmpInputStreams(ExtendedBlock b,
+  public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b,
       long blkOffset, long metaOffset) throws IOException {
-    ReplicaInfo info = getReplicaInfo(b);
-    FsVolumeReference ref = info.getVolume().obtainReference();
-    try {
-      InputStream blockInStream = openAndSeek(info.getBlockFile(), blkOffset);
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      ReplicaInfo info = getReplicaInfo(b);
+      FsVolumeReference ref = info.getVolume().obtainReference();
       try {
-        InputStream metaInStream = openAndSeek(info.getMetaFile(), metaOffset);
-        return new ReplicaInputStreams(blockInStream, metaInStream, ref);
+        InputStream blockInStream = openAndSeek(info.getBlockFile(), blkOffset);
+        try {
+          InputStream metaInStream = openAndSeek(info.getMetaFile(), metaOffset);
+          return new ReplicaInputStreams(blockInStream, metaInStream, ref);
+        } catch (IOException e) {
+          IOUtils.cleanup(null, blockInStream);
+          throw e;
+        }
       } catch (IOException e) {
-        IOUtils.cleanup(null, blockInStream);
+        IOUtils.cleanup(null, ref);
         throw e;
       }
-    } catch (IOException e) {
-      IOUtils.cleanup(null, ref);
-      throw e;
     }
   }
 
@@ -909,7 +921,7 @@ public ReplicaInfo moveBlockAcrossStorage(ExtendedBlock block,
     }
 
     FsVolumeReference volumeRef = null;
-    synchronized (this) {
+    try (AutoCloseableLock lock = datasetLock.acquireReadLock()) {
       volumeRef = volumes.getNextVolume(targetStorageType, block.getNumBytes());
     }
     try {
@@ -927,7 +939,11 @@ public ReplicaInfo moveBlockAcrossStorage(ExtendedBlock block,
           targetVolume, blockFiles[0].getParentFile(), 0);
       newReplicaInfo.setNumBytes(blockFiles[1].length());
       // Finalize the copied files
-      newReplicaInfo = finalizeReplica(block.getBlockPoolId(), newReplicaInfo);
+      try (AutoCloseableLock lock =
+          datasetLock.acquireBlockLock(block.getBlockId())) {
+        newReplicaInfo = finalizeReplica(block.getBlockPoolId(),
+            newReplicaInfo);
+      }
 
       removeOldReplica(replicaInfo, newReplicaInfo, oldBlockFile, oldMetaFile,
           oldBlockFile.length(), oldMetaFile.length(), block.getBlockPoolId());
@@ -1055,41 +1071,44 @@ static private void truncateBlock(File blockFile, File metaFile,
 
 
   @Override  // FsDatasetSpi
-  public synchronized ReplicaHandler append(ExtendedBlock b,
+  public ReplicaHandler append(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
-    // If the block was successfully finalized because all packets
-    // were successfully processed at the Datanode but the ack for
-    // some of the packets were not received by the client. The client 
-    // re-opens the connection and retries sending those packets.
-    // The other reason is that an "append" is occurring to this block.
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      // If the block was successfully finalized because all packets
+      // were successfully processed at the Datanode but the ack for
+      // some of the packets were not received by the client. The client 
+      // re-opens the connection and retries sending those packets.
+      // The other reason is that an "append" is occurring to this block.
     
-    // check the validity of the parameter
-    if (newGS < b.getGenerationStamp()) {
-      throw new IOException("The new generation stamp " + newGS + 
-          " should be greater than the replica " + b + "'s generation stamp");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    LOG.info("Appending to " + replicaInfo);
-    if (replicaInfo.getState() != ReplicaState.FINALIZED) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
-    }
-    if (replicaInfo.getNumBytes() != expectedBlockLen) {
-      throw new IOException("Corrupted replica " + replicaInfo + 
-          " with a length of " + replicaInfo.getNumBytes() + 
-          " expected length is " + expectedBlockLen);
-    }
+      // check the validity of the parameter
+      if (newGS < b.getGenerationStamp()) {
+        throw new IOException("The new generation stamp " + newGS + 
+            " should be greater than the replica " + b + "'s generation stamp");
+      }
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      LOG.info("Appending to " + replicaInfo);
+      if (replicaInfo.getState() != ReplicaState.FINALIZED) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
+      }
+      if (replicaInfo.getNumBytes() != expectedBlockLen) {
+        throw new IOException("Corrupted replica " + replicaInfo + 
+            " with a length of " + replicaInfo.getNumBytes() + 
+            " expected length is " + expectedBlockLen);
+      }
 
-    FsVolumeReference ref = replicaInfo.getVolume().obtainReference();
-    ReplicaBeingWritten replica = null;
-    try {
-      replica = append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
-          b.getNumBytes());
-    } catch (IOException e) {
-      IOUtils.cleanup(null, ref);
-      throw e;
+      FsVolumeReference ref = replicaInfo.getVolume().obtainReference();
+      ReplicaBeingWritten replica = null;
+      try {
+        replica = append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
+            b.getNumBytes());
+      } catch (IOException e) {
+        IOUtils.cleanup(null, ref);
+        throw e;
+      }
+      return new ReplicaHandler(replica, ref);
     }
-    return new ReplicaHandler(replica, ref);
   }
 
   /** Append to a finalized replica
@@ -1104,7 +1123,7 @@ public synchronized ReplicaHandler append(ExtendedBlock b,
    * @throws IOException if moving the replica from finalized directory 
    *         to rbw directory fails
    */
-  private synchronized ReplicaBeingWritten append(String bpid,
+  private ReplicaBeingWritten append(String bpid,
       FinalizedReplica replicaInfo, long newGS, long estimateBlockLen)
       throws IOException {
     // If the block is cached, start uncaching it.
@@ -1218,43 +1237,49 @@ private ReplicaInfo recoverCheck(ExtendedBlock b, long newGS,
   }
 
   @Override  // FsDatasetSpi
-  public synchronized ReplicaHandler recoverAppend(
+  public ReplicaHandler recoverAppend(
       ExtendedBlock b, long newGS, long expectedBlockLen) throws IOException {
-    LOG.info("Recover failed append to " + b);
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      LOG.info("Recover failed append to " + b);
 
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
 
-    FsVolumeReference ref = replicaInfo.getVolume().obtainReference();
-    ReplicaBeingWritten replica;
-    try {
-      // change the replica's state/gs etc.
-      if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-        replica = append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo,
-                         newGS, b.getNumBytes());
-      } else { //RBW
-        bumpReplicaGS(replicaInfo, newGS);
-        replica = (ReplicaBeingWritten) replicaInfo;
+      FsVolumeReference ref = replicaInfo.getVolume().obtainReference();
+      ReplicaBeingWritten replica;
+      try {
+        // change the replica's state/gs etc.
+        if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+          replica = append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo,
+                           newGS, b.getNumBytes());
+        } else { //RBW
+          bumpReplicaGS(replicaInfo, newGS);
+          replica = (ReplicaBeingWritten) replicaInfo;
+        }
+      } catch (IOException e) {
+        IOUtils.cleanup(null, ref);
+        throw e;
       }
-    } catch (IOException e) {
-      IOUtils.cleanup(null, ref);
-      throw e;
+      return new ReplicaHandler(replica, ref);
     }
-    return new ReplicaHandler(replica, ref);
   }
 
   @Override // FsDatasetSpi
-  public synchronized Replica recoverClose(ExtendedBlock b, long newGS,
+  public Replica recoverClose(ExtendedBlock b, long newGS,
       long expectedBlockLen) throws IOException {
-    LOG.info("Recover failed close " + b);
-    // check replica's state
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
-    // bump the replica's GS
-    bumpReplicaGS(replicaInfo, newGS);
-    // finalize the replica if RBW
-    if (replicaInfo.getState() == ReplicaState.RBW) {
-      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      LOG.info("Recover failed close " + b);
+      // check replica's state
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+      // bump the replica's GS
+      bumpReplicaGS(replicaInfo, newGS);
+      // finalize the replica if RBW
+      if (replicaInfo.getState() == ReplicaState.RBW) {
+        finalizeReplica(b.getBlockPoolId(), replicaInfo);
+      }
+      return replicaInfo;
     }
-    return replicaInfo;
   }
   
   /**
@@ -1287,194 +1312,203 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaHandler createRbw(
+  public ReplicaHandler createRbw(
       StorageType storageType, ExtendedBlock b, boolean allowLazyPersist)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
-        b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-      " already exists in state " + replicaInfo.getState() +
-      " and thus cannot be created.");
-    }
-    // create a new block
-    FsVolumeReference ref;
-    while (true) {
-      try {
-        if (allowLazyPersist) {
-          // First try to place the block on a transient volume.
-          ref = volumes.getNextTransientVolume(b.getNumBytes());
-          datanode.getMetrics().incrRamDiskBlocksWrite();
-        } else {
-          ref = volumes.getNextVolume(storageType, b.getNumBytes());
-        }
-      } catch (DiskOutOfSpaceException de) {
-        if (allowLazyPersist) {
-          datanode.getMetrics().incrRamDiskBlocksWriteFallback();
-          allowLazyPersist = false;
-          continue;
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(),
+          b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+        " already exists in state " + replicaInfo.getState() +
+        " and thus cannot be created.");
+      }
+      // create a new block
+      FsVolumeReference ref;
+      while (true) {
+        try {
+          if (allowLazyPersist) {
+            // First try to place the block on a transient volume.
+            ref = volumes.getNextTransientVolume(b.getNumBytes());
+            datanode.getMetrics().incrRamDiskBlocksWrite();
+          } else {
+            ref = volumes.getNextVolume(storageType, b.getNumBytes());
+          }
+        } catch (DiskOutOfSpaceException de) {
+          if (allowLazyPersist) {
+            datanode.getMetrics().incrRamDiskBlocksWriteFallback();
+            allowLazyPersist = false;
+            continue;
+          }
+          throw de;
         }
-        throw de;
+        break;
+      }
+      FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
+      // create an rbw file to hold block in the designated volume
+      File f;
+      try {
+        f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+      } catch (IOException e) {
+        IOUtils.cleanup(null, ref);
+        throw e;
       }
-      break;
-    }
-    FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
-    // create an rbw file to hold block in the designated volume
-    File f;
-    try {
-      f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
-    } catch (IOException e) {
-      IOUtils.cleanup(null, ref);
-      throw e;
-    }
 
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile(), b.getNumBytes());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-    return new ReplicaHandler(newReplicaInfo, ref);
+      ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
+          b.getGenerationStamp(), v, f.getParentFile(), b.getNumBytes());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      return new ReplicaHandler(newReplicaInfo, ref);
+    }
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaHandler recoverRbw(
+  public ReplicaHandler recoverRbw(
       ExtendedBlock b, long newGS, long minBytesRcvd, long maxBytesRcvd)
       throws IOException {
-    LOG.info("Recover RBW replica " + b);
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      LOG.info("Recover RBW replica " + b);
 
-    ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
+      ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
     
-    // check the replica's state
-    if (replicaInfo.getState() != ReplicaState.RBW) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
-    }
-    ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
+      // check the replica's state
+      if (replicaInfo.getState() != ReplicaState.RBW) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
+      }
+      ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
     
-    LOG.info("Recovering " + rbw);
+      LOG.info("Recovering " + rbw);
 
-    // Stop the previous writer
-    rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
-    rbw.setWriter(Thread.currentThread());
+      // Stop the previous writer
+      rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
+      rbw.setWriter(Thread.currentThread());
 
-    // check generation stamp
-    long replicaGenerationStamp = rbw.getGenerationStamp();
-    if (replicaGenerationStamp < b.getGenerationStamp() ||
-        replicaGenerationStamp > newGS) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
-          ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
-          newGS + "].");
-    }
+      // check generation stamp
+      long replicaGenerationStamp = rbw.getGenerationStamp();
+      if (replicaGenerationStamp < b.getGenerationStamp() ||
+          replicaGenerationStamp > newGS) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
+            ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
+            newGS + "].");
+      }
     
-    // check replica length
-    long bytesAcked = rbw.getBytesAcked();
-    long numBytes = rbw.getNumBytes();
-    if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
-      throw new ReplicaNotFoundException("Unmatched length replica " + 
-          replicaInfo + ": BytesAcked = " + bytesAcked + 
-          " BytesRcvd = " + numBytes + " are not in the range of [" + 
-          minBytesRcvd + ", " + maxBytesRcvd + "].");
-    }
+      // check replica length
+      long bytesAcked = rbw.getBytesAcked();
+      long numBytes = rbw.getNumBytes();
+      if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
+        throw new ReplicaNotFoundException("Unmatched length replica " + 
+            replicaInfo + ": BytesAcked = " + bytesAcked + 
+            " BytesRcvd = " + numBytes + " are not in the range of [" + 
+            minBytesRcvd + ", " + maxBytesRcvd + "].");
+      }
 
-    long bytesOnDisk = rbw.getBytesOnDisk();
-    long blockDataLength = rbw.getBlockFile().length();
-    if (bytesOnDisk != blockDataLength) {
-      LOG.info("Resetting bytesOnDisk to match blockDataLength (=" +
-          blockDataLength + ") for replica " + rbw);
-      bytesOnDisk = blockDataLength;
-      rbw.setLastChecksumAndDataLen(bytesOnDisk, null);
-    }
+      long bytesOnDisk = rbw.getBytesOnDisk();
+      long blockDataLength = rbw.getBlockFile().length();
+      if (bytesOnDisk != blockDataLength) {
+        LOG.info("Resetting bytesOnDisk to match blockDataLength (=" +
+            blockDataLength + ") for replica " + rbw);
+        bytesOnDisk = blockDataLength;
+        rbw.setLastChecksumAndDataLen(bytesOnDisk, null);
+      }
 
-    if (bytesOnDisk < bytesAcked) {
-      throw new ReplicaNotFoundException("Found fewer bytesOnDisk than " +
-          "bytesAcked for replica " + rbw);
-    }
+      if (bytesOnDisk < bytesAcked) {
+        throw new ReplicaNotFoundException("Found fewer bytesOnDisk than " +
+            "bytesAcked for replica " + rbw);
+      }
 
-    FsVolumeReference ref = rbw.getVolume().obtainReference();
-    try {
-      // Truncate the potentially corrupt portion.
-      // If the source was client and the last node in the pipeline was lost,
-      // any corrupt data written after the acked length can go unnoticed.
-      if (bytesOnDisk > bytesAcked) {
-        final File replicafile = rbw.getBlockFile();
-        truncateBlock(replicafile, rbw.getMetaFile(), bytesOnDisk, bytesAcked);
-        rbw.setNumBytes(bytesAcked);
-        rbw.setLastChecksumAndDataLen(bytesAcked, null);
-      }
-
-      // bump the replica's generation stamp to newGS
-      bumpReplicaGS(rbw, newGS);
-    } catch (IOException e) {
-      IOUtils.cleanup(null, ref);
-      throw e;
+      FsVolumeReference ref = rbw.getVolume().obtainReference();
+      try {
+        // Truncate the potentially corrupt portion.
+        // If the source was client and the last node in the pipeline was lost,
+        // any corrupt data written after the acked length can go unnoticed.
+        if (bytesOnDisk > bytesAcked) {
+          final File replicafile = rbw.getBlockFile();
+          truncateBlock(replicafile, rbw.getMetaFile(), bytesOnDisk, bytesAcked);
+          rbw.setNumBytes(bytesAcked);
+          rbw.setLastChecksumAndDataLen(bytesAcked, null);
+        }
+
+        // bump the replica's generation stamp to newGS
+        bumpReplicaGS(rbw, newGS);
+      } catch (IOException e) {
+        IOUtils.cleanup(null, ref);
+        throw e;
+      }
+      return new ReplicaHandler(rbw, ref);
     }
-    return new ReplicaHandler(rbw, ref);
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline convertTemporaryToRbw(
+  public ReplicaInPipeline convertTemporaryToRbw(
       final ExtendedBlock b) throws IOException {
-    final long blockId = b.getBlockId();
-    final long expectedGs = b.getGenerationStamp();
-    final long visible = b.getNumBytes();
-    LOG.info("Convert " + b + " from Temporary to RBW, visible length="
-        + visible);
-
-    final ReplicaInPipeline temp;
-    {
-      // get replica
-      final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
-      if (r == null) {
-        throw new ReplicaNotFoundException(
-            ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      final long blockId = b.getBlockId();
+      final long expectedGs = b.getGenerationStamp();
+      final long visible = b.getNumBytes();
+      LOG.info("Convert " + b + " from Temporary to RBW, visible length="
+          + visible);
+
+      final ReplicaInPipeline temp;
+      {
+        // get replica
+        final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
+        if (r == null) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+        }
+        // check the replica's state
+        if (r.getState() != ReplicaState.TEMPORARY) {
+          throw new ReplicaAlreadyExistsException(
+              "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+        }
+        temp = (ReplicaInPipeline)r;
       }
-      // check the replica's state
-      if (r.getState() != ReplicaState.TEMPORARY) {
+      // check generation stamp
+      if (temp.getGenerationStamp() != expectedGs) {
         throw new ReplicaAlreadyExistsException(
-            "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+            "temp.getGenerationStamp() != expectedGs = " + expectedGs
+            + ", temp=" + temp);
       }
-      temp = (ReplicaInPipeline)r;
-    }
-    // check generation stamp
-    if (temp.getGenerationStamp() != expectedGs) {
-      throw new ReplicaAlreadyExistsException(
-          "temp.getGenerationStamp() != expectedGs = " + expectedGs
-          + ", temp=" + temp);
-    }
 
-    // TODO: check writer?
-    // set writer to the current thread
-    // temp.setWriter(Thread.currentThread());
+      // TODO: check writer?
+      // set writer to the current thread
+      // temp.setWriter(Thread.currentThread());
 
-    // check length
-    final long numBytes = temp.getNumBytes();
-    if (numBytes < visible) {
-      throw new IOException(numBytes + " = numBytes < visible = "
-          + visible + ", temp=" + temp);
-    }
-    // check volume
-    final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
-    if (v == null) {
-      throw new IOException("r.getVolume() = null, temp="  + temp);
-    }
+      // check length
+      final long numBytes = temp.getNumBytes();
+      if (numBytes < visible) {
+        throw new IOException(numBytes + " = numBytes < visible = "
+            + visible + ", temp=" + temp);
+      }
+      // check volume
+      final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
+      if (v == null) {
+        throw new IOException("r.getVolume() = null, temp="  + temp);
+      }
     
-    // move block files to the rbw directory
-    BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
-    final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
-        bpslice.getRbwDir());
-    // create RBW
-    final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
-        blockId, numBytes, expectedGs,
-        v, dest.getParentFile(), Thread.currentThread(), 0);
-    rbw.setBytesAcked(visible);
-
-    // load last checksum and datalen
-    final File destMeta = FsDatasetUtil.getMetaFile(dest,
-        b.getGenerationStamp());
-    byte[] lastChunkChecksum = v.loadLastPartialChunkChecksum(dest, destMeta);
-    rbw.setLastChecksumAndDataLen(numBytes, lastChunkChecksum);
-    // overwrite the RBW in the volume map
-    volumeMap.add(b.getBlockPoolId(), rbw);
-    return rbw;
+      // move block files to the rbw directory
+      BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
+      final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
+          bpslice.getRbwDir());
+      // create RBW
+      final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
+          blockId, numBytes, expectedGs,
+          v, dest.getParentFile(), Thread.currentThread(), 0);
+      rbw.setBytesAcked(visible);
+
+      // load last checksum and datalen
+      final File destMeta = FsDatasetUtil.getMetaFile(dest,
+          b.getGenerationStamp());
+      byte[] lastChunkChecksum = v.loadLastPartialChunkChecksum(dest, destMeta);
+      rbw.setLastChecksumAndDataLen(numBytes, lastChunkChecksum);
+      // overwrite the RBW in the volume map
+      volumeMap.add(b.getBlockPoolId(), rbw);
+      return rbw;
+    }
   }
 
   @Override // FsDatasetSpi
@@ -1485,7 +1519,8 @@ public ReplicaHandler createTemporary(StorageType storageType,
     ReplicaInfo lastFoundReplicaInfo = null;
     boolean isInPipeline = false;
     do {
-      synchronized (this) {
+      try (AutoCloseableLock lock =
+          datasetLock.acquireBlockLock(b.getBlockId())) {
         ReplicaInfo currentReplicaInfo =
             volumeMap.get(b.getBlockPoolId(), b.getBlockId());
         if (currentReplicaInfo == lastFoundReplicaInfo) {
@@ -1532,7 +1567,8 @@ public ReplicaHandler createTemporary(StorageType storageType,
       invalidate(b.getBlockPoolId(), new Block[] { lastFoundReplicaInfo },
           false);
     }
-    synchronized (this) {
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
       FsVolumeReference ref = volumes.getNextVolume(storageType, b
           .getNumBytes());
       FsVolumeImpl v = (FsVolumeImpl) ref.getVolume();
@@ -1585,7 +1621,8 @@ public void finalizeBlock(ExtendedBlock b, boolean fsyncDir)
       throws IOException {
     ReplicaInfo replicaInfo = null;
     ReplicaInfo finalizedReplicaInfo = null;
-    synchronized (this) {
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
       if (Thread.interrupted()) {
         // Don't allow data modifications from interrupted threads
         throw new IOException("Cannot finalize block from Interrupted Thread");
@@ -1611,7 +1648,7 @@ public void finalizeBlock(ExtendedBlock b, boolean fsyncDir)
     }
   }
 
-  private synchronized FinalizedReplica finalizeReplica(String bpid,
+  private FinalizedReplica finalizeReplica(String bpid,
       ReplicaInfo replicaInfo) throws IOException {
     FinalizedReplica newReplicaInfo = null;
     if (replicaInfo.getState() == ReplicaState.RUR &&
@@ -1658,20 +1695,23 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
    * Remove the temporary block file (if any)
    */
   @Override // FsDatasetSpi
-  public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
-        b.getLocalBlock());
-    if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
-      // remove from volumeMap
-      volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
+  public void unfinalizeBlock(ExtendedBlock b) throws IOException {
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(b.getBlockId())) {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
+          b.getLocalBlock());
+      if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
+        // remove from volumeMap
+        volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
       
-      // delete the on-disk temp file
-      if (delBlockFromDisk(replicaInfo.getBlockFile(), 
-          replicaInfo.getMetaFile(), b.getLocalBlock())) {
-        LOG.warn("Block " + b + " unfinalized and removed. " );
-      }
-      if (replicaInfo.getVolume().isTransientStorage()) {
-        ramDiskReplicaTracker.discardReplica(b.getBlockPoolId(), b.getBlockId(), true);
+        // delete the on-disk temp file
+        if (delBlockFromDisk(replicaInfo.getBlockFile(), 
+            replicaInfo.getMetaFile(), b.getLocalBlock())) {
+          LOG.warn("Block " + b + " unfinalized and removed. " );
+        }
+        if (replicaInfo.getVolume().isTransientStorage()) {
+          ramDiskReplicaTracker.discardReplica(b.getBlockPoolId(), b.getBlockId(), true);
+        }
       }
     }
   }
@@ -1714,7 +1754,7 @@ public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
       builders.put(v.getStorageID(), BlockListAsLongs.builder());
     }
 
-    synchronized(this) {
+    try (AutoCloseableLock lock = datasetLock.acquireReadLock()) {
       for (ReplicaInfo b : volumeMap.replicas(bpid)) {
         switch(b.getState()) {
           case FINALIZED:
@@ -1752,31 +1792,35 @@ public List<Long> getCacheReport(String bpid) {
    * Get the list of finalized blocks from in-memory blockmap for a block pool.
    */
   @Override
-  public synchronized List<FinalizedReplica> getFinalizedBlocks(String bpid) {
-    ArrayList<FinalizedReplica> finalized =
-        new ArrayList<FinalizedReplica>(volumeMap.size(bpid));
-    for (ReplicaInfo b : volumeMap.replicas(bpid)) {
-      if(b.getState() == ReplicaState.FINALIZED) {
-        finalized.add(new FinalizedReplica((FinalizedReplica)b));
+  public List<FinalizedReplica> getFinalizedBlocks(String bpid) {
+    try (AutoCloseableLock lock = datasetLock.acquireReadLock()) {
+      ArrayList<FinalizedReplica> finalized =
+          new ArrayList<FinalizedReplica>(volumeMap.size(bpid));
+      for (ReplicaInfo b : volumeMap.replicas(bpid)) {
+        if(b.getState() == ReplicaState.FINALIZED) {
+          finalized.add(new FinalizedReplica((FinalizedReplica)b));
+        }
       }
+      return finalized;
     }
-    return finalized;
   }
 
   /**
    * Get the list of finalized blocks from in-memory blockmap for a block pool.
    */
   @Override
-  public synchronized List<FinalizedReplica> getFinalizedBlocksOnPersistentStorage(String bpid) {
-    ArrayList<FinalizedReplica> finalized =
-        new ArrayList<FinalizedReplica>(volumeMap.size(bpid));
-    for (ReplicaInfo b : volumeMap.replicas(bpid)) {
-      if(!b.getVolume().isTransientStorage() &&
-         b.getState() == ReplicaState.FINALIZED) {
-        finalized.add(new FinalizedReplica((FinalizedReplica)b));
+  public List<FinalizedReplica> getFinalizedBlocksOnPersistentStorage(String bpid) {
+    try (AutoCloseableLock lock = datasetLock.acquireReadLock()) {
+      ArrayList<FinalizedReplica> finalized =
+          new ArrayList<FinalizedReplica>(volumeMap.size(bpid));
+      for (ReplicaInfo b : volumeMap.replicas(bpid)) {
+        if(!b.getVolume().isTransientStorage() &&
+           b.getState() == ReplicaState.FINALIZED) {
+          finalized.add(new FinalizedReplica((FinalizedReplica)b));
+        }
       }
+      return finalized;
     }
-    return finalized;
   }
 
   /**
@@ -1851,7 +1895,7 @@ private boolean isValid(final ExtendedBlock b, final ReplicaState state) {
   File validateBlockFile(String bpid, long blockId) {
     //Should we check for metadata file too?
     final File f;
-    synchronized(this) {
+    try (AutoCloseableLock lock = datasetLock.acquireBlockLock(blockId)) {
       f = getFile(bpid, blockId, false);
     }
     
@@ -1907,7 +1951,8 @@ private void invalidate(String bpid, Block[] invalidBlks, boolean async)
     for (int i = 0; i < invalidBlks.length; i++) {
       final File f;
       final FsVolumeImpl v;
-      synchronized (this) {
+      try (AutoCloseableLock lock =
+          datasetLock.acquireBlockLock(invalidBlks[i].getBlockId())) {
         final ReplicaInfo info = volumeMap.get(bpid, invalidBlks[i]);
         if (info == null) {
           // It is okay if the block is not found -- it may be deleted earlier.
@@ -2026,7 +2071,7 @@ private void cacheBlock(String bpid, long blockId) {
     long length, genstamp;
     Executor volumeExecutor;
 
-    synchronized (this) {
+    try (AutoCloseableLock lock = datasetLock.acquireBlockLock(blockId)) {
       ReplicaInfo info = volumeMap.get(bpid, blockId);
       boolean success = false;
       try {
@@ -2093,7 +2138,7 @@ public boolean isCached(String bpid, long blockId) {
   }
 
   @Override // FsDatasetSpi
-  public synchronized boolean contains(final ExtendedBlock block) {
+  public boolean contains(final ExtendedBlock block) {
     final long blockId = block.getLocalBlock().getBlockId();
     return getFile(block.getBlockPoolId(), blockId, false) != null;
   }
@@ -2110,6 +2155,9 @@ File getFile(final String bpid, final long blockId, boolean touch) {
       if (touch && info.getVolume().isTransientStorage()) {
         ramDiskReplicaTracker.touch(bpid, blockId);
         datanode.getMetrics().incrRamDiskBlocksReadHits();
+      } else if (touch &&
+          ramDiskReplicaTracker.isRecentlyEvicted(bpid, blockId)) {
+        datanode.getMetrics().incrRamDiskBlocksReadMisses();
       }
       return info.getBlockFile();
     }
@@ -2217,7 +2265,7 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
       File diskMetaFile, FsVolumeSpi vol) throws IOException {
     Block corruptBlock = null;
     ReplicaInfo memBlockInfo;
-    synchronized (this) {
+    try (AutoCloseableLock lock = datasetLock.acquireBlockLock(blockId)) {
       memBlockInfo = volumeMap.get(bpid, blockId);
       if (memBlockInfo != null && memBlockInfo.getState() != ReplicaState.FINALIZED) {
         // Block is not finalized - ignore the difference
@@ -2369,17 +2417,20 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
   }
 
   @Override 
-  public synchronized String getReplicaString(String bpid, long blockId) {
+  public String getReplicaString(String bpid, long blockId) {
     final Replica r = volumeMap.get(bpid, blockId);
     return r == null? "null": r.toString();
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaRecoveryInfo initReplicaRecovery(
+  public ReplicaRecoveryInfo initReplicaRecovery(
       RecoveringBlock rBlock) throws IOException {
-    return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
-        rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
-        datanode.getDnConf().getXceiverStopTimeout());
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(rBlock.getBlock().getBlockId())) {
+      return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
+          rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
+          datanode.getDnConf().getXceiverStopTimeout());
+    }
   }
 
   /** static version of {@link #initReplicaRecovery(RecoveringBlock)}. */
@@ -2452,67 +2503,69 @@ static ReplicaRecoveryInfo initReplicaRecovery(String bpid, ReplicaMap map,
   }
 
   @Override // FsDatasetSpi
-  public synchronized Replica updateReplicaUnderRecovery(
+  public Replica updateReplicaUnderRecovery(
                                     final ExtendedBlock oldBlock,
                                     final long recoveryId,
                                     final long newBlockId,
                                     final long newlength) throws IOException {
-    //get replica
-    final String bpid = oldBlock.getBlockPoolId();
-    final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
-    LOG.info("updateReplica: " + oldBlock
-                 + ", recoveryId=" + recoveryId
-                 + ", length=" + newlength
-                 + ", replica=" + replica);
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
+      //get replica
+      final String bpid = oldBlock.getBlockPoolId();
+      final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
+      LOG.info("updateReplica: " + oldBlock
+                   + ", recoveryId=" + recoveryId
+                   + ", length=" + newlength
+                   + ", replica=" + replica);
+
+      //check replica
+      if (replica == null) {
+        throw new ReplicaNotFoundException(oldBlock);
+      }
 
-    //check replica
-    if (replica == null) {
-      throw new ReplicaNotFoundException(oldBlock);
-    }
+      //check replica state
+      if (replica.getState() != ReplicaState.RUR) {
+        throw new IOException("replica.getState() != " + ReplicaState.RUR
+            + ", replica=" + replica);
+      }
 
-    //check replica state
-    if (replica.getState() != ReplicaState.RUR) {
-      throw new IOException("replica.getState() != " + ReplicaState.RUR
-          + ", replica=" + replica);
-    }
+      //check replica's byte on disk
+      if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
+        throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
+            + " replica.getBytesOnDisk() != block.getNumBytes(), block="
+            + oldBlock + ", replica=" + replica);
+      }
 
-    //check replica's byte on disk
-    if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
-      throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
-          + " replica.getBytesOnDisk() != block.getNumBytes(), block="
-          + oldBlock + ", replica=" + replica);
-    }
-
-    //check replica files before update
-    checkReplicaFiles(replica);
-
-    //update replica
-    final FinalizedReplica finalized = updateReplicaUnderRecovery(oldBlock
-        .getBlockPoolId(), (ReplicaUnderRecovery) replica, recoveryId,
-        newBlockId, newlength);
-
-    boolean copyTruncate = newBlockId != oldBlock.getBlockId();
-    if(!copyTruncate) {
-      assert finalized.getBlockId() == oldBlock.getBlockId()
-          && finalized.getGenerationStamp() == recoveryId
-          && finalized.getNumBytes() == newlength
-          : "Replica information mismatched: oldBlock=" + oldBlock
-              + ", recoveryId=" + recoveryId + ", newlength=" + newlength
-              + ", newBlockId=" + newBlockId + ", finalized=" + finalized;
-    } else {
-      assert finalized.getBlockId() == oldBlock.getBlockId()
-          && finalized.getGenerationStamp() == oldBlock.getGenerationStamp()
-          && finalized.getNumBytes() == oldBlock.getNumBytes()
-          : "Finalized and old information mismatched: oldBlock=" + oldBlock
-              + ", genStamp=" + oldBlock.getGenerationStamp()
-              + ", len=" + oldBlock.getNumBytes()
-              + ", finalized=" + finalized;
-    }
+      //check replica files before update
+      checkReplicaFiles(replica);
+
+      //update replica
+      final FinalizedReplica finalized = updateReplicaUnderRecovery(oldBlock
+          .getBlockPoolId(), (ReplicaUnderRecovery) replica, recoveryId,
+          newBlockId, newlength);
+
+      boolean copyTruncate = newBlockId != oldBlock.getBlockId();
+      if(!copyTruncate) {
+        assert finalized.getBlockId() == oldBlock.getBlockId()
+            && finalized.getGenerationStamp() == recoveryId
+            && finalized.getNumBytes() == newlength
+            : "Replica information mismatched: oldBlock=" + oldBlock
+                + ", recoveryId=" + recoveryId + ", newlength=" + newlength
+                + ", newBlockId=" + newBlockId + ", finalized=" + finalized;
+      } else {
+        assert finalized.getBlockId() == oldBlock.getBlockId()
+            && finalized.getGenerationStamp() == oldBlock.getGenerationStamp()
+            && finalized.getNumBytes() == oldBlock.getNumBytes()
+            : "Finalized and old information mismatched: oldBlock=" + oldBlock
+                + ", genStamp=" + oldBlock.getGenerationStamp()
+                + ", len=" + oldBlock.getNumBytes()
+                + ", finalized=" + finalized;
+      }
 
-    //check replica files after update
-    checkReplicaFiles(finalized);
+      //check replica files after update
+      checkReplicaFiles(finalized);
 
-    return finalized;
+      return finalized;
+    }
   }
 
   private FinalizedReplica updateReplicaUnderRecovery(
@@ -2592,23 +2645,26 @@ private File[] copyReplicaWithNewBlockIdAndGS(
   }
 
   @Override // FsDatasetSpi
-  public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
+  public long getReplicaVisibleLength(final ExtendedBlock block)
   throws IOException {
-    final Replica replica = getReplicaInfo(block.getBlockPoolId(), 
-        block.getBlockId());
-    if (replica.getGenerationStamp() < block.getGenerationStamp()) {
-      throw new IOException(
-          "replica.getGenerationStamp() < block.getGenerationStamp(), block="
-          + block + ", replica=" + replica);
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(block.getBlockId())) {
+      final Replica replica = getReplicaInfo(block.getBlockPoolId(), 
+          block.getBlockId());
+      if (replica.getGenerationStamp() < block.getGenerationStamp()) {
+        throw new IOException(
+            "replica.getGenerationStamp() < block.getGenerationStamp(), block="
+            + block + ", replica=" + replica);
+      }
+      return replica.getVisibleLength();
     }
-    return replica.getVisibleLength();
   }
   
   @Override
   public void addBlockPool(String bpid, Configuration conf)
       throws IOException {
     LOG.info("Adding block pool " + bpid);
-    synchronized(this) {
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
       volumes.addBlockPool(bpid, conf);
       volumeMap.initBlockPool(bpid);
     }
@@ -2616,10 +2672,12 @@ public void addBlockPool(String bpid, Configuration conf)
   }
 
   @Override
-  public synchronized void shutdownBlockPool(String bpid) {
-    LOG.info("Removing block pool " + bpid);
-    volumeMap.cleanUpBlockPool(bpid);
-    volumes.removeBlockPool(bpid);
+  public void shutdownBlockPool(String bpid) {
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
+      LOG.info("Removing block pool " + bpid);
+      volumeMap.cleanUpBlockPool(bpid);
+      volumes.removeBlockPool(bpid);
+    }
   }
   
   /**
@@ -2675,35 +2733,38 @@ public Map<String, Object> getVolumeInfoMap() {
   }
 
   @Override //FsDatasetSpi
-  public synchronized void deleteBlockPool(String bpid, boolean force)
+  public void deleteBlockPool(String bpid, boolean force)
       throws IOException {
-    List<FsVolumeImpl> curVolumes = getVolumes();
-    if (!force) {
+    try (AutoCloseableLock lock = datasetLock.acquireWriteLock()) {
+      List<FsVolumeImpl> curVolumes = getVolumes();
+      if (!force) {
+        for (FsVolumeImpl volume : curVolumes) {
+          try (FsVolumeReference ref = volume.obtainReference()) {
+            if (!volume.isBPDirEmpty(bpid)) {
+              LOG.warn(bpid + " has some block files, cannot delete unless forced");
+              throw new IOException("Cannot delete block pool, "
+                  + "it contains some block files");
+            }
+          } catch (ClosedChannelException e) {
+            // ignore.
+          }
+        }
+      }
       for (FsVolumeImpl volume : curVolumes) {
         try (FsVolumeReference ref = volume.obtainReference()) {
-          if (!volume.isBPDirEmpty(bpid)) {
-            LOG.warn(bpid + " has some block files, cannot delete unless forced");
-            throw new IOException("Cannot delete block pool, "
-                + "it contains some block files");
-          }
+          volume.deleteBPDirectories(bpid, force);
         } catch (ClosedChannelException e) {
           // ignore.
         }
       }
     }
-    for (FsVolumeImpl volume : curVolumes) {
-      try (FsVolumeReference ref = volume.obtainReference()) {
-        volume.deleteBPDirectories(bpid, force);
-      } catch (ClosedChannelException e) {
-        // ignore.
-      }
-    }
   }
   
   @Override // FsDatasetSpi
   public BlockLocalPathInfo getBlockLocalPathInfo(ExtendedBlock block)
       throws IOException {
-    synchronized(this) {
+    try (AutoCloseableLock lock =
+        datasetLock.acquireBlockLock(block.getBlockId())) {
       final Replica replica = volumeMap.get(block.getBlockPoolId(),
           block.getBlockId());
       if (replica == null) {
@@ -2796,7 +2857,7 @@ public void clearRollingUpgradeMarker(String bpid) throws IOException {
   @Override
   public void onCompleteLazyPersist(String bpId, long blockId,
       long creationTime, File[] savedFiles, FsVolumeImpl targetVolume) {
-    synchronized (FsDatasetImpl.this) {
+    try (AutoCloseableLock lock = datasetLock.acquireBlockLock(blockId)) {
       ramDiskReplicaTracker.recordEndLazyPersist(bpId, blockId, savedFiles);
 
       targetVolume.incDfsUsed(bpId,
@@ -2907,7 +2968,10 @@ class LazyWriter implements Runnable {
     final int checkpointerInterval;
     final float lowWatermarkFreeSpacePercentage;
     final long lowWatermarkFreeSpaceBytes;
-
+    final int batchSize;
+    final int maxPendingPerVolume;
+    // Whether the last replica was put back as its target volume was busy.
+    private boolean throttled;
 
     public LazyWriter(Configuration conf) {
       this.checkpointerInterval = conf.getInt(
@@ -2919,6 +2983,32 @@ public LazyWriter(Configuration conf) {
       this.lowWatermarkFreeSpaceBytes = conf.getLong(
           DFSConfigKeys.DFS_DATANODE_RAM_DISK_LOW_WATERMARK_BYTES,
           DFSConfigKeys.DFS_DATANODE_RAM_DISK_LOW_WATERMARK_BYTES_DEFAULT);
+      this.batchSize = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_DATANODE_LAZY_WRITER_BATCH_SIZE_KEY,
+          DFSConfigKeys.DFS_DATANODE_LAZY_WRITER_BATCH_SIZE_DEFAULT));
+      this.maxPendingPerVolume = conf.getInt(
+          DFSConfigKeys.DFS_DATANODE_LAZY_WRITER_MAX_PENDING_PER_VOLUME_KEY,
+          DFSConfigKeys.DFS_DATANODE_LAZY_WRITER_MAX_PENDING_PER_VOLUME_DEFAULT);
+    }
+
+    /**
+     * Checkpoint up to batchSize pending replicas to persistent storage now.
+     * Stops at the first replica which fails to be scheduled, or which is put
+     * back because its target volume is saving too many replicas already.
+     * @return true if no replica failed to be scheduled, false otherwise.
+     */
+    private boolean saveNextReplicas() {
+      throttled = false;
+      for (int i = 0; i < batchSize; i++) {
+        if (!saveNextReplica()) {
+          return false;
+        }
+        if (throttled ||
+            ramDiskReplicaTracker.numReplicasNotPersisted() == 0) {
+          break;
+        }
+      }
+      return true;
     }
 
     /**
@@ -2936,7 +3026,8 @@ private boolean saveNextReplica() {
       try {
         block = ramDiskReplicaTracker.dequeueNextReplicaToPersist();
         if (block != null) {
-          synchronized (FsDatasetImpl.this) {
+          try (AutoCloseableLock lock =
+              datasetLock.acquireBlockLock(block.getBlockId())) {
             replicaInfo = volumeMap.get(block.getBlockPoolId(), block.getBlockId());
 
             // If replicaInfo is null, the block was either deleted before
@@ -2950,21 +3041,30 @@ private boolean saveNextReplica() {
                   StorageType.DEFAULT, replicaInfo.getNumBytes());
               targetVolume = (FsVolumeImpl) targetReference.getVolume();
 
-              ramDiskReplicaTracker.recordStartLazyPersist(
-                  block.getBlockPoolId(), block.getBlockId(), targetVolume);
-
-              if (LOG.isDebugEnabled()) {
-                LOG.debug("LazyWriter: Start persisting RamDisk block:"
-                    + " block pool Id: " + block.getBlockPoolId()
-                    + " block id: " + block.getBlockId()
-                    + " on target volume " + targetVolume);
+              if (maxPendingPerVolume > 0 &&
+                  asyncLazyPersistService.getNumPendingTasks(targetVolume)
+                      >= maxPendingPerVolume) {
+                // Leave the disk bandwidth to the other blocks for now.
+                targetReference.close();
+                ramDiskReplicaTracker.reenqueueReplicaNotPersisted(block);
+                throttled = true;
+              } else {
+                ramDiskReplicaTracker.recordStartLazyPersist(
+                    block.getBlockPoolId(), block.getBlockId(), targetVolume);
+
+                if (LOG.isDebugEnabled()) {
+                  LOG.debug("LazyWriter: Start persisting RamDisk block:"
+                      + " block pool Id: " + block.getBlockPoolId()
+                      + " block id: " + block.getBlockId()
+                      + " on target volume " + targetVolume);
+                }
+
+                asyncLazyPersistService.submitLazyPersistTask(
+                    block.getBlockPoolId(), block.getBlockId(),
+                    replicaInfo.getGenerationStamp(), block.getCreationTime(),
+                    replicaInfo.getMetaFile(), replicaInfo.getBlockFile(),
+                    targetReference);
               }
-
-              asyncLazyPersistService.submitLazyPersistTask(
-                  block.getBlockPoolId(), block.getBlockId(),
-                  replicaInfo.getGenerationStamp(), block.getCreationTime(),
-                  replicaInfo.getMetaFile(), replicaInfo.getBlockFile(),
-                  targetReference);
             }
           }
         }
@@ -3031,7 +3131,8 @@ private void evictBlocks() throws IOException {
         long blockFileUsed, metaFileUsed;
         final String bpid = replicaState.getBlockPoolId();
 
-        synchronized (FsDatasetImpl.this) {
+        try (AutoCloseableLock lock =
+            datasetLock.acquireBlockLock(replicaState.getBlockId())) {
           replicaInfo = getReplicaInfo(replicaState.getBlockPoolId(), replicaState.getBlockId());
           Preconditions.checkState(replicaInfo.getVolume().isTransientStorage());
           blockFile = replicaInfo.getBlockFile();
@@ -3040,6 +3141,8 @@ private void evictBlocks() throws IOException {
           metaFileUsed = metaFile.length();
           ramDiskReplicaTracker.discardReplica(replicaState.getBlockPoolId(),
               replicaState.getBlockId(), false);
+          ramDiskReplicaTracker.recordEviction(replicaState.getBlockPoolId(),
+              replicaState.getBlockId());
 
           // Move the replica from lazyPersist/ to finalized/ on target volume
           BlockPoolSlice bpSlice =
@@ -3078,8 +3181,11 @@ public void run() {
 
       while (fsRunning && shouldRun) {
         try {
-          numSuccessiveFailures = saveNextReplica() ? 0 : (numSuccessiveFailures + 1);
+          numSuccessiveFailures = saveNextReplicas() ? 0 : (numSuccessiveFailures + 1);
           evictBlocks();
+          datanode.getMetrics().setRamDiskBlocksLazyPersistQueueLength(
+              ramDiskReplicaTracker.numReplicasNotPersisted() +
+              asyncLazyPersistService.getNumPendingTasks());
 
           // Sleep if we have no more work to do or if it looks like we are not
           // making any forward progress. This is to ensure that if all persist
@@ -3087,6 +3193,8 @@ public void run() {
           if (numSuccessiveFailures >= ramDiskReplicaTracker.numReplicasNotPersisted()) {
             Thread.sleep(checkpointerInterval * 1000);
             numSuccessiveFailures = 0;
+          } else if (throttled) {
+            Thread.sleep(LAZY_WRITER_THROTTLE_SLEEP_MS);
           }
         } catch (InterruptedException e) {
           LOG.info("LazyWriter was interrupted, exiting");
@@ -3130,6 +3238,21 @@ public boolean getPinning(ExtendedBlock block) throws IOException {
     return fss.getPermission().getStickyBit();
   }
   
+  @Override // FsDatasetSpi
+  public AutoCloseableLock acquireDatasetLock() {
+    return datasetLock.acquireWriteLock();
+  }
+
+  @Override // FsDatasetSpi
+  public AutoCloseableLock acquireDatasetReadLock() {
+    return datasetLock.acquireReadLock();
+  }
+
+  @VisibleForTesting
+  FsDatasetLock getDatasetLock() {
+    return datasetLock;
+  }
+
   @Override
   public boolean isDeletingBlock(String bpid, long blockId) {
     synchronized(deletingBlock) {
@@ -3160,14 +3283,16 @@ private void addDeletingBlock(String bpid, Long blockId) {
     }
   }
 
-  synchronized void stopAllDataxceiverThreads(FsVolumeImpl volume) {
-    for (String blockPoolId : volumeMap.getBlockPoolList()) {
-      Collection<ReplicaInfo> replicas = volumeMap.replicas(blockPoolId);
-      for (ReplicaInfo replicaInfo : replicas) {
-        if (replicaInfo instanceof ReplicaInPipeline
-            && replicaInfo.getVolume().equals(volume)) {
-          ReplicaInPipeline replicaInPipeline = (ReplicaInPipeline) replicaInfo;
-          replicaInPipeline.interruptThread();
+  void stopAllDataxceiverThreads(FsVolumeImpl volume) {
+    try (AutoCloseableLock lock = datasetLock.acquireReadLock()) {
+      for (String blockPoolId : volumeMap.getBlockPoolList()) {
+        Collection<ReplicaInfo> replicas = volumeMap.replicas(blockPoolId);
+        for (ReplicaInfo replicaInfo : replicas) {
+          if (replicaInfo instanceof ReplicaInPipeline
+              && replicaInfo.getVolume().equals(volume)) {
+            ReplicaInPipeline replicaInPipeline = (ReplicaInPipeline) replicaInfo;
+            replicaInPipeline.interruptThread();
+          }
         }
       }
     }
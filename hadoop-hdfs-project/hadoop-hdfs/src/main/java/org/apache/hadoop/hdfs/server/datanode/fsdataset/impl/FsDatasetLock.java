@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.util.AutoCloseableLock;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * The locks of a {@link FsDatasetImpl}.
+ * <ul>
+ * <li>The write lock of the dataset is exclusive. It is held to change the
+ * volumes or the block pools, and by the rare operations which need the
+ * whole dataset to stand still.</li>
+ * <li>The read lock of the dataset is shared. It is held to read the state
+ * of many replicas, e.g. for a block report.</li>
+ * <li>A block lock is the read lock of the dataset plus the lock of the
+ * stripe of the block ID. It is held to read or change a single replica, so
+ * the operations on the blocks of different stripes run in parallel.</li>
+ * </ul>
+ * The dataset lock is always taken before a stripe, and a thread holding
+ * the read lock must not ask for the write lock. The {@link ReplicaMap} has
+ * a lock of its own, taken last.
+ * <p>
+ * The time spent waiting for a lock held by another thread is added to the
+ * metrics of the DataNode.
+ */
+class FsDatasetLock {
+  private final ReentrantReadWriteLock datasetLock =
+      new ReentrantReadWriteLock();
+  private final AutoCloseableLock readLock;
+  private final AutoCloseableLock writeLock;
+  private final AutoCloseableLock[] blockLocks;
+
+  FsDatasetLock(int numStripes, final DataNodeMetrics metrics) {
+    Preconditions.checkArgument(numStripes > 0,
+        "The number of lock stripes must be positive, got " + numStripes);
+    readLock = new AutoCloseableLock(new MeasuredLock(
+        datasetLock.readLock(), null) {
+      @Override
+      void addWaitNanos(long nanos) {
+        if (metrics != null) {
+          metrics.addDatasetReadLockWaitNanos(nanos);
+        }
+      }
+    });
+    writeLock = new AutoCloseableLock(new MeasuredLock(
+        datasetLock.writeLock(), null) {
+      @Override
+      void addWaitNanos(long nanos) {
+        if (metrics != null) {
+          metrics.addDatasetWriteLockWaitNanos(nanos);
+        }
+      }
+    });
+    blockLocks = new AutoCloseableLock[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      blockLocks[i] = new AutoCloseableLock(new MeasuredLock(
+          datasetLock.readLock(), new ReentrantLock()) {
+        @Override
+        void addWaitNanos(long nanos) {
+          if (metrics != null) {
+            metrics.addBlockLockWaitNanos(nanos);
+          }
+        }
+      });
+    }
+  }
+
+  /** Acquire the shared lock of the dataset. */
+  AutoCloseableLock acquireReadLock() {
+    return readLock.acquire();
+  }
+
+  /** Acquire the exclusive lock of the dataset. */
+  AutoCloseableLock acquireWriteLock() {
+    return writeLock.acquire();
+  }
+
+  /** Acquire the lock of a single block. */
+  AutoCloseableLock acquireBlockLock(long blockId) {
+    return blockLocks[stripe(blockId)].acquire();
+  }
+
+  private int stripe(long blockId) {
+    // The block IDs are sequential, so the low bits spread them evenly.
+    int h = (int) (blockId ^ (blockId >>> 32));
+    return (h & Integer.MAX_VALUE) % blockLocks.length;
+  }
+
+  @VisibleForTesting
+  boolean isWriteLockedByCurrentThread() {
+    return datasetLock.isWriteLockedByCurrentThread();
+  }
+
+  @VisibleForTesting
+  int getReadLockCount() {
+    return datasetLock.getReadLockCount();
+  }
+
+  /**
+   * A lock, optionally nested in an outer one, which measures how long the
+   * threads wait for it. An uncontended acquisition only costs a tryLock.
+   */
+  private abstract class MeasuredLock implements Lock {
+    private final Lock outer;
+    private final Lock inner;
+
+    /**
+     * @param outer the lock to take first
+     * @param inner the lock to take within the outer one, or null
+     */
+    MeasuredLock(Lock outer, Lock inner) {
+      this.outer = outer;
+      this.inner = inner;
+    }
+
+    abstract void addWaitNanos(long nanos);
+
+    @Override
+    public void lock() {
+      if (tryLock()) {
+        return;
+      }
+      long start = System.nanoTime();
+      outer.lock();
+      if (inner != null) {
+        try {
+          inner.lock();
+        } catch (RuntimeException e) {
+          outer.unlock();
+          throw e;
+        }
+      }
+      addWaitNanos(System.nanoTime() - start);
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+      outer.lockInterruptibly();
+      if (inner != null) {
+        try {
+          inner.lockInterruptibly();
+        } catch (InterruptedException e) {
+          outer.unlock();
+          throw e;
+        }
+      }
+    }
+
+    @Override
+    public boolean tryLock() {
+      // A tryLock of the read lock overtakes a queued writer, so leave the
+      // queued threads their turn instead of starving the writer.
+      if (datasetLock.hasQueuedThreads()
+          && !datasetLock.isWriteLockedByCurrentThread()) {
+        return false;
+      }
+      if (!outer.tryLock()) {
+        return false;
+      }
+      if (inner != null && !inner.tryLock()) {
+        outer.unlock();
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public boolean tryLock(long time, TimeUnit unit)
+        throws InterruptedException {
+      long deadline = System.nanoTime() + unit.toNanos(time);
+      if (!outer.tryLock(time, unit)) {
+        return false;
+      }
+      if (inner != null && !inner.tryLock(deadline - System.nanoTime(),
+          TimeUnit.NANOSECONDS)) {
+        outer.unlock();
+        return false;
+      }
+      return true;
+    }
+
+    @Override
+    public void unlock() {
+      if (inner != null) {
+        inner.unlock();
+      }
+      outer.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -109,6 +109,9 @@ public class FsVolumeImpl implements FsVolumeSpi {
    * contention.
    */
   protected ThreadPoolExecutor cacheExecutor;
+
+  /** Schedules the disk I/O of the readers, writers and scanners. */
+  private final VolumeIoScheduler ioScheduler;
   
   FsVolumeImpl(FsDatasetImpl dataset, String storageID, File currentDir,
       Configuration conf, StorageType storageType) throws IOException {
@@ -125,6 +128,8 @@ public class FsVolumeImpl implements FsVolumeSpi {
     this.storageType = storageType;
     this.configuredCapacity = -1;
     cacheExecutor = initializeCacheExecutor(parent);
+    this.ioScheduler = VolumeIoScheduler.create(conf,
+        dataset.datanode == null ? null : dataset.datanode.getMetrics());
   }
 
   protected ThreadPoolExecutor initializeCacheExecutor(File parent) {
@@ -153,6 +158,10 @@ protected ThreadPoolExecutor initializeCacheExecutor(File parent) {
     return executor;
   }
 
+  VolumeIoScheduler getIoScheduler() {
+    return ioScheduler;
+  }
+
   private void printReferenceTraceInfo(String op) {
     StackTraceElement[] stack = Thread.currentThread().getStackTrace();
     for (StackTraceElement ste : stack) {
@@ -283,30 +292,24 @@ File getTmpDir(String bpid) throws IOException {
   }
 
   void decDfsUsed(String bpid, long value) {
-    synchronized(dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.decDfsUsed(value);
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.decDfsUsed(value);
     }
   }
 
   void incDfsUsed(String bpid, long value) {
-    synchronized(dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.incDfsUsed(value);
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.incDfsUsed(value);
     }
   }
 
   @VisibleForTesting
   public long getDfsUsed() throws IOException {
     long dfsUsed = 0;
-    synchronized(dataset) {
-      for(BlockPoolSlice s : bpSlices.values()) {
-        dfsUsed += s.getDfsUsed();
-      }
+    for(BlockPoolSlice s : bpSlices.values()) {
+      dfsUsed += s.getDfsUsed();
     }
     return dfsUsed;
   }
@@ -151,6 +151,35 @@ synchronized void execute(File root, Runnable task) {
     }
   }
 
+  /**
+   * @return the number of lazy persist tasks queued or running on the volume.
+   */
+  synchronized int getNumPendingTasks(FsVolumeImpl volume) {
+    if (executors == null) {
+      return 0;
+    }
+    ThreadPoolExecutor executor = executors.get(volume.getCurrentDir());
+    return executor == null ? 0 : getNumPendingTasks(executor);
+  }
+
+  /**
+   * @return the number of lazy persist tasks queued or running on all the
+   *         volumes.
+   */
+  synchronized int getNumPendingTasks() {
+    int pending = 0;
+    if (executors != null) {
+      for (ThreadPoolExecutor executor : executors.values()) {
+        pending += getNumPendingTasks(executor);
+      }
+    }
+    return pending;
+  }
+
+  private static int getNumPendingTasks(ThreadPoolExecutor executor) {
+    return executor.getQueue().size() + executor.getActiveCount();
+  }
+
   /**
    * Gracefully shut down all ThreadPool. Will wait for all lazy persist
    * tasks to finish.
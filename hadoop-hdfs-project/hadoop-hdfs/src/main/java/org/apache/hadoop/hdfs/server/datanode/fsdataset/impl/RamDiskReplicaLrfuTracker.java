@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import com.google.common.base.Preconditions;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+
+/**
+ * An implementation of RamDiskReplicaTracker that evicts the replicas which
+ * are read the least often and the least recently first (LRFU), so that a
+ * scan of blocks read once does not push the frequently read ones out of
+ * RAM disk.
+ *
+ * Each read of a replica counts for one, and the count halves every
+ * half-life. A replica with the count c at the time t ranks like one read
+ * only once at t + halfLife * log2(c), which is its eviction key. The count
+ * need not be kept since it is c = 2^((key - t) / halfLife) at the time t.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Unstable
+public class RamDiskReplicaLrfuTracker extends RamDiskReplicaLruTracker
+    implements Configurable {
+
+  private Configuration conf;
+  private long halfLifeMs =
+      DFSConfigKeys.DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_LRFU_HALF_LIFE_MS_DEFAULT;
+
+  RamDiskReplicaLrfuTracker() {
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+    halfLifeMs = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_LRFU_HALF_LIFE_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_LRFU_HALF_LIFE_MS_DEFAULT);
+    Preconditions.checkArgument(halfLifeMs > 0,
+        DFSConfigKeys.DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_LRFU_HALF_LIFE_MS_KEY
+        + " must be positive");
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+
+  /**
+   * The reads of the replica before it was persisted count as if they were
+   * made now.
+   */
+  @Override
+  long getKeyOnPersist(RamDiskReplica replica, long now) {
+    return getKey(1 + replica.getNumReads(), now);
+  }
+
+  @Override
+  long getKeyOnRead(long previousKey, long now) {
+    double count = Math.pow(2, (double) (previousKey - now) / halfLifeMs);
+    return getKey(count + 1, now);
+  }
+
+  private long getKey(double count, long now) {
+    return now + Math.round(halfLifeMs * Math.log(count) / Math.log(2));
+  }
+}
@@ -65,7 +65,8 @@ public boolean equals(Object other) {
   Queue<RamDiskReplicaLru> replicasNotPersisted;
 
   /**
-   * Map of persisted replicas ordered by their last use times.
+   * Map of persisted replicas ordered by their eviction keys, see
+   * {@link #getKeyOnPersist}.
    */
   TreeMultimap<Long, RamDiskReplicaLru> replicasPersisted;
 
@@ -75,6 +76,27 @@ public boolean equals(Object other) {
     replicasPersisted = TreeMultimap.create();
   }
 
+  /**
+   * The persisted replicas are evicted in the order of their keys, lowest
+   * first. The LRU scheme uses the time they were last used.
+   *
+   * @param replica the replica which has just been persisted.
+   * @param now the current monotonic time.
+   * @return the key of the replica.
+   */
+  long getKeyOnPersist(RamDiskReplica replica, long now) {
+    return now;
+  }
+
+  /**
+   * @param previousKey the key of the persisted replica before the read.
+   * @param now the current monotonic time.
+   * @return the key of the persisted replica which has just been read.
+   */
+  long getKeyOnRead(long previousKey, long now) {
+    return now;
+  }
+
   @Override
   synchronized void addReplica(final String bpid, final long blockId,
                                final FsVolumeImpl transientVolume) {
@@ -102,7 +124,8 @@ synchronized void touch(final String bpid,
 
     // Reinsert the replica with its new timestamp.
     if (replicasPersisted.remove(ramDiskReplicaLru.lastUsedTime, ramDiskReplicaLru)) {
-      ramDiskReplicaLru.lastUsedTime = Time.monotonicNow();
+      ramDiskReplicaLru.lastUsedTime = getKeyOnRead(
+          ramDiskReplicaLru.lastUsedTime, Time.monotonicNow());
       replicasPersisted.put(ramDiskReplicaLru.lastUsedTime, ramDiskReplicaLru);
     }
   }
@@ -135,7 +158,8 @@ synchronized void recordEndLazyPersist(
       replicasNotPersisted.remove(ramDiskReplicaLru);
     }
 
-    ramDiskReplicaLru.lastUsedTime = Time.monotonicNow();
+    ramDiskReplicaLru.lastUsedTime = getKeyOnPersist(
+        ramDiskReplicaLru, Time.monotonicNow());
     replicasPersisted.put(ramDiskReplicaLru.lastUsedTime, ramDiskReplicaLru);
     ramDiskReplicaLru.isPersisted = true;
   }
@@ -26,11 +26,14 @@
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.ExtendedBlockId;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.Time;
 
 import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 @InterfaceAudience.Private
@@ -40,6 +43,25 @@ public abstract class RamDiskReplicaTracker {
 
   FsDatasetImpl fsDataset;
 
+  /**
+   * Maximum number of evicted replicas remembered to count the reads which
+   * miss RAM disk.
+   */
+  static final int MAX_EVICTED_HISTORY = 16384;
+
+  /**
+   * The most recently evicted replicas, oldest first.
+   */
+  private final Map<ExtendedBlockId, Boolean> evictedReplicas =
+      new LinkedHashMap<ExtendedBlockId, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(
+            Map.Entry<ExtendedBlockId, Boolean> eldest) {
+          return size() > MAX_EVICTED_HISTORY;
+        }
+      };
+  private volatile boolean hasEvictedReplicas = false;
+
   static class RamDiskReplica implements Comparable<RamDiskReplica>  {
     private final String bpid;
     private final long blockId;
@@ -263,4 +285,27 @@ abstract void discardReplica(
    */
   abstract RamDiskReplica getReplica(
     final String bpid, final long blockId);
+
+  /**
+   * Invoked when a replica is evicted from RAM disk.
+   */
+  void recordEviction(final String bpid, final long blockId) {
+    synchronized (evictedReplicas) {
+      evictedReplicas.put(new ExtendedBlockId(blockId, bpid), Boolean.TRUE);
+      hasEvictedReplicas = true;
+    }
+  }
+
+  /**
+   * @return true if the replica is one of the most recently evicted ones,
+   *         so that reading it would have hit RAM disk had it been kept.
+   */
+  boolean isRecentlyEvicted(final String bpid, final long blockId) {
+    if (!hasEvictedReplicas) {
+      return false;
+    }
+    synchronized (evictedReplicas) {
+      return evictedReplicas.containsKey(new ExtendedBlockId(blockId, bpid));
+    }
+  }
 }
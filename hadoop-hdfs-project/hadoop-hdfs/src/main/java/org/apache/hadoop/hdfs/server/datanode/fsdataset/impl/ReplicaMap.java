@@ -17,36 +17,33 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 
 /**
- * Maintains the replica map. 
+ * Maintains the replica map. It is thread safe on its own: the lookups
+ * share a read lock and the updates take the write lock, which is only held
+ * for the map access itself.
  */
 class ReplicaMap {
-  // Object using which this class is synchronized
-  private final Object mutex;
-  
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
   // Map of block pool Id to another map of block Id to ReplicaInfo.
   private final Map<String, Map<Long, ReplicaInfo>> map =
     new HashMap<String, Map<Long, ReplicaInfo>>();
-  
-  ReplicaMap(Object mutex) {
-    if (mutex == null) {
-      throw new HadoopIllegalArgumentException(
-          "Object to synchronize on cannot be null");
-    }
-    this.mutex = mutex;
-  }
-  
+
   String[] getBlockPoolList() {
-    synchronized(mutex) {
+    lock.readLock().lock();
+    try {
       return map.keySet().toArray(new String[map.keySet().size()]);   
+    } finally {
+      lock.readLock().unlock();
     }
   }
   
@@ -90,9 +87,12 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    lock.readLock().lock();
+    try {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       return m != null ? m.get(blockId) : null;
+    } finally {
+      lock.readLock().unlock();
     }
   }
   
@@ -107,7 +107,8 @@ ReplicaInfo get(String bpid, long blockId) {
   ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
-    synchronized(mutex) {
+    lock.writeLock().lock();
+    try {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       if (m == null) {
         // Add an entry for block pool if it does not exist already
@@ -115,6 +116,8 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
         map.put(bpid, m);
       }
       return  m.put(replicaInfo.getBlockId(), replicaInfo);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
 
@@ -122,7 +125,12 @@ ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
    * Add all entries from the given replica map into the local replica map.
    */
   void addAll(ReplicaMap other) {
-    map.putAll(other.map);
+    lock.writeLock().lock();
+    try {
+      map.putAll(other.map);
+    } finally {
+      lock.writeLock().unlock();
+    }
   }
   
   /**
@@ -136,7 +144,8 @@ void addAll(ReplicaMap other) {
   ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
-    synchronized(mutex) {
+    lock.writeLock().lock();
+    try {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       if (m != null) {
         Long key = Long.valueOf(block.getBlockId());
@@ -146,6 +155,8 @@ ReplicaInfo remove(String bpid, Block block) {
           return m.remove(key);
         } 
       }
+    } finally {
+      lock.writeLock().unlock();
     }
     
     return null;
@@ -159,11 +170,14 @@ ReplicaInfo remove(String bpid, Block block) {
    */
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    lock.writeLock().lock();
+    try {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       if (m != null) {
         return m.remove(blockId);
       }
+    } finally {
+      lock.writeLock().unlock();
     }
     return null;
   }
@@ -174,53 +188,56 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    synchronized(mutex) {
-      m = map.get(bpid);
+    lock.readLock().lock();
+    try {
+      Map<Long, ReplicaInfo> m = map.get(bpid);
       return m != null ? m.size() : 0;
+    } finally {
+      lock.readLock().unlock();
     }
   }
   
   /**
-   * Get a collection of the replicas for given block pool
-   * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * Get a collection of the replicas for given block pool.
+   * The collection is a copy of the replicas at the time of the call, so it
+   * can be iterated while the map changes. Removing from it does not remove
+   * from the map.
    * 
    * @param bpid block pool id
    * @return a collection of the replicas belonging to the block pool
    */
   Collection<ReplicaInfo> replicas(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    m = map.get(bpid);
-    return m != null ? m.values() : null;
+    lock.readLock().lock();
+    try {
+      Map<Long, ReplicaInfo> m = map.get(bpid);
+      return m != null ? new ArrayList<ReplicaInfo>(m.values()) : null;
+    } finally {
+      lock.readLock().unlock();
+    }
   }
 
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    lock.writeLock().lock();
+    try {
       Map<Long, ReplicaInfo> m = map.get(bpid);
       if (m == null) {
         // Add an entry for block pool if it does not exist already
         m = new HashMap<Long, ReplicaInfo>();
         map.put(bpid, m);
       }
+    } finally {
+      lock.writeLock().unlock();
     }
   }
   
   void cleanUpBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
+    lock.writeLock().lock();
+    try {
       map.remove(bpid);
+    } finally {
+      lock.writeLock().unlock();
     }
   }
-  
-  /**
-   * Give access to mutex used for synchronizing ReplicasMap
-   * @return object used as lock
-   */
-  Object getMutext() {
-    return mutex;
-  }
 }
@@ -0,0 +1,257 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.util.StringUtils;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * Schedules the disk I/O of a volume between the classes of requests using
+ * it. A request is a single disk access, e.g. a packet read or written, or a
+ * directory listed.
+ * <p>
+ * At most <code>dfs.datanode.volume.io.scheduler.max-outstanding</code>
+ * requests are outstanding on the volume. The waiting requests are admitted
+ * in the order of the priority of their {@link IoClass}, except that a
+ * request which waited past the deadline of its class is admitted first.
+ * Thus the clients are served ahead of the replication and the scanners,
+ * which still get their turn at the latest after their deadline.
+ */
+@InterfaceAudience.Private
+public class VolumeIoScheduler {
+  /** The classes of disk I/O, from the highest to the lowest priority. */
+  public enum IoClass {
+    CLIENT_READ,
+    CLIENT_WRITE,
+    REPLICATION,
+    SCANNER
+  }
+
+  /** Admits all the requests right away. */
+  static final VolumeIoScheduler UNLIMITED = new VolumeIoScheduler(0,
+      new long[IoClass.values().length], null);
+
+  private static class Waiter {
+    private final long enqueueNanos;
+    private final Condition admitted;
+    private boolean isAdmitted = false;
+
+    Waiter(long enqueueNanos, Condition admitted) {
+      this.enqueueNanos = enqueueNanos;
+      this.admitted = admitted;
+    }
+  }
+
+  private final int maxOutstanding;
+  private final long[] deadlineNanos;
+  private final DataNodeMetrics metrics;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final List<ArrayDeque<Waiter>> queues;
+  private int outstanding = 0;
+  private int waiting = 0;
+
+  @VisibleForTesting
+  VolumeIoScheduler(int maxOutstanding, long[] deadlineMs,
+      DataNodeMetrics metrics) {
+    Preconditions.checkArgument(deadlineMs.length == IoClass.values().length,
+        "Expected a deadline for each of " + IoClass.values().length
+        + " I/O classes, got " + deadlineMs.length);
+    this.maxOutstanding = maxOutstanding;
+    this.deadlineNanos = new long[deadlineMs.length];
+    for (int i = 0; i < deadlineMs.length; i++) {
+      deadlineNanos[i] = TimeUnit.MILLISECONDS.toNanos(deadlineMs[i]);
+    }
+    this.metrics = metrics;
+    this.queues = new ArrayList<ArrayDeque<Waiter>>(deadlineMs.length);
+    for (int i = 0; i < deadlineMs.length; i++) {
+      queues.add(new ArrayDeque<Waiter>());
+    }
+  }
+
+  static VolumeIoScheduler create(Configuration conf,
+      DataNodeMetrics metrics) {
+    int maxOutstanding = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_MAX_OUTSTANDING_KEY,
+        DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_MAX_OUTSTANDING_DEFAULT);
+    if (maxOutstanding <= 0) {
+      return UNLIMITED;
+    }
+    String[] deadlines = StringUtils.getTrimmedStrings(conf.get(
+        DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_DEADLINES_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_DEADLINES_MS_DEFAULT));
+    long[] deadlineMs = new long[deadlines.length];
+    for (int i = 0; i < deadlines.length; i++) {
+      deadlineMs[i] = Long.parseLong(deadlines[i]);
+    }
+    return new VolumeIoScheduler(maxOutstanding, deadlineMs, metrics);
+  }
+
+  /**
+   * @return the scheduler of the volume, or one admitting all the requests
+   *   if the volume is not a {@link FsVolumeImpl}
+   */
+  public static VolumeIoScheduler get(FsVolumeSpi volume) {
+    if (volume instanceof FsVolumeImpl) {
+      return ((FsVolumeImpl) volume).getIoScheduler();
+    }
+    return UNLIMITED;
+  }
+
+  public boolean isEnabled() {
+    return maxOutstanding > 0;
+  }
+
+  /**
+   * Wait until a request of the given class is admitted to the volume. Every
+   * call must be followed by a call to {@link #release()} once the disk
+   * access is done.
+   *
+   * @throws InterruptedIOException if interrupted while waiting
+   */
+  public void acquire(IoClass ioClass) throws InterruptedIOException {
+    if (!isEnabled()) {
+      return;
+    }
+    final long start = System.nanoTime();
+    lock.lock();
+    try {
+      if (waiting == 0 && outstanding < maxOutstanding) {
+        outstanding++;
+        addWaitNanos(ioClass, 0);
+        return;
+      }
+      Waiter waiter = new Waiter(start, lock.newCondition());
+      queues.get(ioClass.ordinal()).add(waiter);
+      waiting++;
+      if (metrics != null) {
+        metrics.incrIoQueueDepth(ioClass);
+      }
+      try {
+        while (!waiter.isAdmitted) {
+          waiter.admitted.await();
+        }
+      } catch (InterruptedException e) {
+        if (waiter.isAdmitted) {
+          // give the admission to the next waiter
+          releaseLocked();
+        } else {
+          queues.get(ioClass.ordinal()).remove(waiter);
+          waiting--;
+          if (metrics != null) {
+            metrics.decrIoQueueDepth(ioClass);
+          }
+        }
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(
+            "Interrupted while waiting for the volume");
+      }
+      addWaitNanos(ioClass, System.nanoTime() - start);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Release the admission of a request obtained by
+   * {@link #acquire(IoClass)}.
+   */
+  public void release() {
+    if (!isEnabled()) {
+      return;
+    }
+    lock.lock();
+    try {
+      releaseLocked();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void releaseLocked() {
+    outstanding--;
+    while (outstanding < maxOutstanding && waiting > 0) {
+      int next = nextClass(System.nanoTime());
+      Waiter waiter = queues.get(next).poll();
+      waiting--;
+      outstanding++;
+      if (metrics != null) {
+        metrics.decrIoQueueDepth(IoClass.values()[next]);
+      }
+      waiter.isAdmitted = true;
+      waiter.admitted.signal();
+    }
+  }
+
+  /**
+   * @return the class whose first waiter is admitted next: the one whose
+   *   deadline passed first if any did, otherwise the one of the highest
+   *   priority
+   */
+  private int nextClass(long now) {
+    int highest = -1;
+    int overdue = -1;
+    long overdueSince = 0;
+    for (int i = 0; i < queues.size(); i++) {
+      Waiter head = queues.get(i).peek();
+      if (head == null) {
+        continue;
+      }
+      if (highest < 0) {
+        highest = i;
+      }
+      long expiry = head.enqueueNanos + deadlineNanos[i];
+      if (expiry - now < 0 && (overdue < 0 || expiry - overdueSince < 0)) {
+        overdue = i;
+        overdueSince = expiry;
+      }
+    }
+    return overdue >= 0 ? overdue : highest;
+  }
+
+  private void addWaitNanos(IoClass ioClass, long nanos) {
+    if (metrics != null) {
+      metrics.addIoWaitNanos(ioClass, nanos);
+    }
+  }
+
+  @VisibleForTesting
+  int getQueueLength(IoClass ioClass) {
+    lock.lock();
+    try {
+      return queues.get(ioClass.ordinal()).size();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
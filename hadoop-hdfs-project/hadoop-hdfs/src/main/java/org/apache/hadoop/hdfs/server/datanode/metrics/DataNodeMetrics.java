@@ -23,15 +23,18 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
 import org.apache.hadoop.metrics2.MetricsSystem;
 import org.apache.hadoop.metrics2.annotation.Metric;
 import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
+import org.apache.hadoop.util.StringUtils;
 
 /**
  *
@@ -78,6 +81,8 @@ public class DataNodeMetrics {
   @Metric MutableCounterLong ramDiskBlocksWriteFallback;
   @Metric MutableCounterLong ramDiskBytesWrite;
   @Metric MutableCounterLong ramDiskBlocksReadHits;
+  @Metric("Reads of recently evicted RamDisk blocks")
+  MutableCounterLong ramDiskBlocksReadMisses;
 
   // RamDisk metrics on eviction
   @Metric MutableCounterLong ramDiskBlocksEvicted;
@@ -92,6 +97,8 @@ public class DataNodeMetrics {
   @Metric MutableCounterLong ramDiskBytesLazyPersisted;
   @Metric MutableRate        ramDiskBlocksLazyPersistWindowMs;
   final MutableQuantiles[]   ramDiskBlocksLazyPersistWindowMsQuantiles;
+  @Metric("RamDisk blocks waiting for or being lazy persisted")
+  MutableGaugeInt ramDiskBlocksLazyPersistQueueLength;
 
   @Metric MutableCounterLong fsyncCount;
   
@@ -123,6 +130,15 @@ public class DataNodeMetrics {
   @Metric MutableRate sendDataPacketTransferNanos;
   final MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
 
+  // Time spent waiting for a contended lock of the dataset
+  @Metric MutableRate datasetReadLockWaitNanos;
+  @Metric MutableRate datasetWriteLockWaitNanos;
+  @Metric MutableRate blockLockWaitNanos;
+
+  // Disk I/O scheduling of the volumes, by IoClass
+  final MutableGaugeInt[] ioQueueDepth;
+  final MutableRate[] ioWaitNanos;
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
   JvmMetrics jvmMetrics = null;
@@ -141,6 +157,19 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals,
     sendDataPacketTransferNanosQuantiles = new MutableQuantiles[len];
     ramDiskBlocksEvictionWindowMsQuantiles = new MutableQuantiles[len];
     ramDiskBlocksLazyPersistWindowMsQuantiles = new MutableQuantiles[len];
+
+    final IoClass[] ioClasses = IoClass.values();
+    ioQueueDepth = new MutableGaugeInt[ioClasses.length];
+    ioWaitNanos = new MutableRate[ioClasses.length];
+    for (IoClass ioClass : ioClasses) {
+      String prefix = StringUtils.camelize(ioClass.name());
+      ioQueueDepth[ioClass.ordinal()] = registry.newGauge(
+          prefix + "IoQueueDepth",
+          "Number of " + ioClass + " disk I/O waiting for a volume", 0);
+      ioWaitNanos[ioClass.ordinal()] = registry.newRate(
+          prefix + "IoWaitNanos",
+          "Time " + ioClass + " disk I/O waited for a volume in ns");
+    }
     
     for (int i = 0; i < len; i++) {
       int interval = intervals[i];
@@ -355,6 +384,30 @@ public void addSendDataPacketTransferNanos(long latencyNanos) {
     }
   }
 
+  public void addDatasetReadLockWaitNanos(long latencyNanos) {
+    datasetReadLockWaitNanos.add(latencyNanos);
+  }
+
+  public void addDatasetWriteLockWaitNanos(long latencyNanos) {
+    datasetWriteLockWaitNanos.add(latencyNanos);
+  }
+
+  public void addBlockLockWaitNanos(long latencyNanos) {
+    blockLockWaitNanos.add(latencyNanos);
+  }
+
+  public void incrIoQueueDepth(IoClass ioClass) {
+    ioQueueDepth[ioClass.ordinal()].incr();
+  }
+
+  public void decrIoQueueDepth(IoClass ioClass) {
+    ioQueueDepth[ioClass.ordinal()].decr();
+  }
+
+  public void addIoWaitNanos(IoClass ioClass, long latencyNanos) {
+    ioWaitNanos[ioClass.ordinal()].add(latencyNanos);
+  }
+
   public void incrRamDiskBlocksWrite() {
     ramDiskBlocksWrite.incr();
   }
@@ -371,6 +424,10 @@ public void incrRamDiskBlocksReadHits() {
     ramDiskBlocksReadHits.incr();
   }
 
+  public void incrRamDiskBlocksReadMisses() {
+    ramDiskBlocksReadMisses.incr();
+  }
+
   public void incrRamDiskBlocksEvicted() {
     ramDiskBlocksEvicted.incr();
   }
@@ -404,4 +461,8 @@ public void addRamDiskBlocksLazyPersistWindowMs(long latencyMs) {
       q.add(latencyMs);
     }
   }
+
+  public void setRamDiskBlocksLazyPersistQueueLength(int length) {
+    ramDiskBlocksLazyPersistQueueLength.set(length);
+  }
 }
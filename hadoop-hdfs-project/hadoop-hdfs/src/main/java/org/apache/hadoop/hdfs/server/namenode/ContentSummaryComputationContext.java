@@ -34,6 +34,8 @@ public class ContentSummaryComputationContext {
   private long yieldCount = 0;
   private long sleepMilliSec = 0;
   private int sleepNanoSec = 0;
+  private long cacheMinINodes = 0;
+  private long uncacheableCount = 0;
 
   /**
    * Constructor
@@ -46,6 +48,23 @@ public class ContentSummaryComputationContext {
    */
   public ContentSummaryComputationContext(FSDirectory dir,
       FSNamesystem fsn, long limitPerRun, long sleepMicroSec) {
+    this(dir, fsn, limitPerRun, sleepMicroSec, 0);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param dir The FSDirectory instance
+   * @param fsn The FSNamesystem instance
+   * @param limitPerRun allowed number of operations in one
+   *        locking period. 0 or a negative number means
+   *        no limit (i.e. no yielding)
+   * @param cacheMinINodes the number of inodes from which the counts of a
+   *        directory are cached. 0 or a negative number means no caching
+   */
+  public ContentSummaryComputationContext(FSDirectory dir,
+      FSNamesystem fsn, long limitPerRun, long sleepMicroSec,
+      long cacheMinINodes) {
     this.dir = dir;
     this.fsn = fsn;
     this.limitPerRun = limitPerRun;
@@ -53,6 +72,7 @@ public ContentSummaryComputationContext(FSDirectory dir,
     this.counts = new ContentCounts.Builder().build();
     this.sleepMilliSec = sleepMicroSec/1000;
     this.sleepNanoSec = (int)((sleepMicroSec%1000)*1000);
+    this.cacheMinINodes = cacheMinINodes;
   }
 
   /** Constructor for blocking computation. */
@@ -120,6 +140,30 @@ public boolean yield() {
     return true;
   }
 
+  /** Whether the counts of large enough directories are cached */
+  boolean isCaching() {
+    return cacheMinINodes > 0;
+  }
+
+  /** The number of inodes from which the counts of a directory are cached */
+  long getCacheMinINodes() {
+    return cacheMinINodes;
+  }
+
+  /**
+   * Note an inode whose counts change without its directory being told, such
+   * as a file under construction or an inode in a snapshot. The counts of its
+   * ancestors are then not cached.
+   */
+  void markUncacheable() {
+    uncacheableCount++;
+  }
+
+  /** Return the number of inodes which could not be cached */
+  long getUncacheableCount() {
+    return uncacheableCount;
+  }
+
   /** Get the content counts */
   public ContentCounts getCounts() {
     return counts;
@@ -453,6 +453,8 @@ private static void setDirStoragePolicy(
                                                             XAttrSetFlag.CREATE,
                                                             XAttrSetFlag.REPLACE));
     XAttrStorage.updateINodeXAttrs(inode, newXAttrs, latestSnapshotId);
+    // the storage type spaces of the subtree change with the policy
+    inode.invalidateContentCounts();
   }
 
   private static boolean unprotectedSetTimes(
@@ -22,15 +22,18 @@
 import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.DirectoryListingStartAfterNotFoundException;
 import org.apache.hadoop.fs.FileEncryptionInfo;
+import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.InvalidPathException;
 import org.apache.hadoop.fs.permission.FsAction;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
 import org.apache.hadoop.hdfs.protocol.FsPermissionExtension;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.SnapshotException;
@@ -38,10 +41,14 @@
 import org.apache.hadoop.hdfs.server.namenode.snapshot.DirectorySnapshottableFeature;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.ipc.RemoteException;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
 
 class FSDirStatAndListingOp {
   static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
@@ -64,16 +71,237 @@ static DirectoryListing getListingInt(FSDirectory fsd, final String srcArg,
       }
     }
 
-    boolean isSuperUser = true;
-    if (fsd.isPermissionEnabled()) {
-      if (iip.getLastINode() != null && iip.getLastINode().isDirectory()) {
-        fsd.checkPathAccess(pc, iip, FsAction.READ_EXECUTE);
-      } else {
-        fsd.checkTraverse(pc, iip);
+    boolean isSuperUser = checkListingPermission(fsd, pc, iip);
+    return getListing(fsd, iip, src, startAfter, needLocation, isSuperUser);
+  }
+
+  /**
+   * Check the permission to list a path.
+   * @return whether the caller is the superuser
+   */
+  private static boolean checkListingPermission(FSDirectory fsd,
+      FSPermissionChecker pc, INodesInPath iip) throws IOException {
+    if (!fsd.isPermissionEnabled()) {
+      return true;
+    }
+    if (iip.getLastINode() != null && iip.getLastINode().isDirectory()) {
+      fsd.checkPathAccess(pc, iip, FsAction.READ_EXECUTE);
+    } else {
+      fsd.checkTraverse(pc, iip);
+    }
+    return pc.isSuperUser();
+  }
+
+  /**
+   * The number of children a batched listing may go through for each entry
+   * it may return, which bounds the time spent filtering large directories.
+   */
+  private static final int BATCHED_LISTING_SCAN_FACTOR = 16;
+
+  /**
+   * Get the partial listings of several directories, in the order of the
+   * given paths, with at most dfs.ls.limit entries in total. The errors of
+   * listing a path are returned in its listing.
+   *
+   * @param srcs the directories to list
+   * @param startAfter the name to start listing the first directory after
+   * @param needLocation if the FileStatus should contain block locations
+   * @param filter if not null, a glob pattern on the names of the entries
+   */
+  static BatchedDirectoryListing getBatchedListing(FSDirectory fsd,
+      String[] srcs, byte[] startAfter, boolean needLocation, String filter)
+      throws IOException {
+    final FSPermissionChecker pc = fsd.getPermissionChecker();
+    final BatchedListingState state = new BatchedListingState(
+        fsd.getLsLimit(), needLocation, filter);
+    final List<HdfsPartialListing> listings =
+        new ArrayList<HdfsPartialListing>();
+    fsd.readLock();
+    try {
+      for (int i = 0; i < srcs.length; i++) {
+        if (state.isExhausted()) {
+          // the previous path used up the budgets, continue from this one
+          return new BatchedDirectoryListing(
+              listings.toArray(new HdfsPartialListing[listings.size()]),
+              true, i, HdfsFileStatus.EMPTY_NAME);
+        }
+        state.lastName = i == 0 ? startAfter : HdfsFileStatus.EMPTY_NAME;
+        state.complete = true;
+        HdfsPartialListing listing;
+        try {
+          listing = new HdfsPartialListing(i,
+              getPartialListing(fsd, pc, srcs[i], state));
+        } catch (IOException e) {
+          listing = new HdfsPartialListing(i,
+              new RemoteException(e.getClass().getName(), e.getMessage()));
+        }
+        listings.add(listing);
+        if (!state.complete) {
+          // continue from the last name listed in this path
+          return new BatchedDirectoryListing(
+              listings.toArray(new HdfsPartialListing[listings.size()]),
+              true, i, state.lastName);
+        }
       }
-      isSuperUser = pc.isSuperUser();
+    } finally {
+      fsd.readUnlock();
     }
-    return getListing(fsd, iip, src, startAfter, needLocation, isSuperUser);
+    return new BatchedDirectoryListing(
+        listings.toArray(new HdfsPartialListing[listings.size()]), false,
+        srcs.length, null);
+  }
+
+  /** The budgets and the position of a batched listing. */
+  private static class BatchedListingState {
+    private final boolean needLocation;
+    private final Pattern pattern;
+    /** The literal part of the glob pattern before any wildcard. */
+    private final byte[] prefix;
+    private int entryBudget;
+    private int locationBudget;
+    private int scanBudget;
+    /** The last name listed in the current directory. */
+    private byte[] lastName;
+    /** Whether the current directory has been listed completely. */
+    private boolean complete;
+
+    BatchedListingState(int lsLimit, boolean needLocation, String filter) {
+      this.needLocation = needLocation;
+      this.pattern = filter == null ? null : GlobPattern.compile(filter);
+      this.prefix = DFSUtil.string2Bytes(getLiteralPrefix(filter));
+      this.entryBudget = lsLimit;
+      this.locationBudget = lsLimit;
+      this.scanBudget = lsLimit * BATCHED_LISTING_SCAN_FACTOR;
+    }
+
+    boolean isExhausted() {
+      return entryBudget <= 0 || locationBudget <= 0 || scanBudget <= 0;
+    }
+
+    boolean accept(byte[] name) {
+      return pattern == null ||
+          pattern.matcher(DFSUtil.bytes2String(name)).matches();
+    }
+
+    void add(HdfsFileStatus status) {
+      entryBudget--;
+      if (needLocation) {
+        LocatedBlocks blks =
+            ((HdfsLocatedFileStatus)status).getBlockLocations();
+        locationBudget -= (blks == null) ? 0 :
+            blks.locatedBlockCount() * status.getReplication();
+      }
+    }
+  }
+
+  /**
+   * @return the part of a glob pattern before its first special character
+   */
+  static String getLiteralPrefix(String glob) {
+    if (glob == null) {
+      return "";
+    }
+    for (int i = 0; i < glob.length(); i++) {
+      switch (glob.charAt(i)) {
+      case '*': case '?': case '[': case '{': case '\\':
+        return glob.substring(0, i);
+      default:
+      }
+    }
+    return glob;
+  }
+
+  /**
+   * List one of the directories of a batched listing from state.lastName on,
+   * as far as the budgets of the state allow.
+   */
+  private static HdfsFileStatus[] getPartialListing(FSDirectory fsd,
+      FSPermissionChecker pc, String srcArg, BatchedListingState state)
+      throws IOException {
+    state.scanBudget--;
+    final INodesInPath iip = fsd.resolvePath(pc, srcArg);
+    final String src = iip.getPath();
+    if (iip.getLastINode() == null) {
+      throw new FileNotFoundException("File " + srcArg + " does not exist.");
+    }
+    final boolean isSuperUser = checkListingPermission(fsd, pc, iip);
+    final INode targetNode = iip.getLastINode();
+    if (!targetNode.isDirectory() ||
+        FSDirectory.normalizePath(src).endsWith(
+            HdfsConstants.SEPARATOR_DOT_SNAPSHOT_DIR)) {
+      // files and snapshot listings are rare, list them the usual way
+      DirectoryListing dl = getListing(fsd, iip, src, state.lastName,
+          state.needLocation, isSuperUser);
+      List<HdfsFileStatus> listing = new ArrayList<HdfsFileStatus>();
+      for (HdfsFileStatus status : dl.getPartialListing()) {
+        if (!targetNode.isDirectory() ||
+            state.accept(status.getLocalNameInBytes())) {
+          listing.add(status);
+          state.add(status);
+        }
+      }
+      state.scanBudget -= dl.getPartialListing().length;
+      if (dl.hasMore()) {
+        state.complete = false;
+        state.lastName = dl.getLastName();
+      }
+      return listing.toArray(new HdfsFileStatus[listing.size()]);
+    }
+
+    final int snapshot = iip.getPathSnapshotId();
+    final boolean isRawPath = FSDirectory.isReservedRawName(src);
+    final byte parentStoragePolicy = isSuperUser ?
+        targetNode.getStoragePolicyID() :
+        BlockStoragePolicySuite.ID_UNSPECIFIED;
+    final ReadOnlyList<INode> contents =
+        targetNode.asDirectory().getChildrenList(snapshot);
+    int start = INodeDirectory.nextChild(contents, state.lastName);
+    if (state.prefix.length > 0) {
+      // the names starting with the prefix are contiguous
+      int pos = ReadOnlyList.Util.binarySearch(contents, state.prefix);
+      start = Math.max(start, pos >= 0 ? pos : -pos - 1);
+    }
+    final List<HdfsFileStatus> listing = new ArrayList<HdfsFileStatus>();
+    for (int i = start; i < contents.size(); i++) {
+      if (state.isExhausted()) {
+        state.complete = false;
+        break;
+      }
+      final INode cur = contents.get(i);
+      final byte[] name = cur.getLocalNameBytes();
+      if (!startsWith(name, state.prefix)) {
+        break;
+      }
+      state.scanBudget--;
+      state.lastName = name;
+      if (!state.accept(name)) {
+        continue;
+      }
+      byte curPolicy = isSuperUser && !cur.isSymlink() ?
+          cur.getLocalStoragePolicyID() :
+          BlockStoragePolicySuite.ID_UNSPECIFIED;
+      INodeAttributes nodeAttrs = getINodeAttributes(fsd, src, name, cur,
+          snapshot);
+      HdfsFileStatus status = createFileStatus(fsd, name, nodeAttrs,
+          state.needLocation,
+          getStoragePolicyID(curPolicy, parentStoragePolicy), snapshot,
+          isRawPath, INodesInPath.append(iip, cur, name));
+      listing.add(status);
+      state.add(status);
+    }
+    return listing.toArray(new HdfsFileStatus[listing.size()]);
+  }
+
+  private static boolean startsWith(byte[] name, byte[] prefix) {
+    if (name.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (name[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -511,7 +739,8 @@ private static ContentSummary getContentSummaryInt(FSDirectory fsd,
         // processed. 0 means disabled. I.e. blocking for the entire duration.
         ContentSummaryComputationContext cscc =
             new ContentSummaryComputationContext(fsd, fsd.getFSNamesystem(),
-                fsd.getContentCountLimit(), fsd.getContentSleepMicroSec());
+                fsd.getContentCountLimit(), fsd.getContentSleepMicroSec(),
+                fsd.getContentCacheMinINodes());
         ContentSummary cs = targetNode.computeAndConvertContentSummary(cscc);
         fsd.addYieldCount(cscc.getYieldCount());
         return cs;
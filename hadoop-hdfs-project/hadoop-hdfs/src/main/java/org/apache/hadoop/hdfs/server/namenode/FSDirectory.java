@@ -65,6 +65,7 @@
 import org.apache.hadoop.hdfs.util.EnumCounters;
 import org.apache.hadoop.security.AccessControlException;
 import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Time;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -143,6 +144,7 @@ private static INodeDirectory createRoot(FSNamesystem namesystem) {
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
   private final long contentSleepMicroSec;
+  private final long contentCacheMinINodes; // min inodes to cache the counts
   private final INodeMap inodeMap; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
 
@@ -226,7 +228,9 @@ public int getWriteHoldCount() {
     this.dirLock = new ReentrantReadWriteLock(true); // fair
     this.inodeId = new INodeId();
     rootDir = createRoot(ns);
-    inodeMap = INodeMap.newInstance(rootDir);
+    inodeMap = INodeMap.newInstance(rootDir, conf.getFloat(
+        DFSConfigKeys.DFS_NAMENODE_INODE_MAP_ALLOCATION_PERCENT,
+        DFSConfigKeys.DFS_NAMENODE_INODE_MAP_ALLOCATION_PERCENT_DEFAULT));
     this.isPermissionEnabled = conf.getBoolean(
       DFSConfigKeys.DFS_PERMISSIONS_ENABLED_KEY,
       DFSConfigKeys.DFS_PERMISSIONS_ENABLED_DEFAULT);
@@ -274,6 +278,9 @@ public int getWriteHoldCount() {
     this.contentSleepMicroSec = conf.getLong(
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_KEY,
         DFSConfigKeys.DFS_CONTENT_SUMMARY_SLEEP_MICROSEC_DEFAULT);
+    this.contentCacheMinINodes = conf.getLong(
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MIN_INODES_KEY,
+        DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MIN_INODES_DEFAULT);
     
     // filesystem limits
     this.maxComponentLength = conf.getInt(
@@ -359,6 +366,35 @@ long getContentSleepMicroSec() {
     return contentSleepMicroSec;
   }
 
+  long getContentCacheMinINodes() {
+    return contentCacheMinINodes;
+  }
+
+  /**
+   * Count the whole namespace once it is loaded, so that the content
+   * summaries of the large directories are cached from the start. The
+   * cached counts are kept up to date as the namespace changes.
+   */
+  void initContentCounts() {
+    if (contentCacheMinINodes <= 0) {
+      return;
+    }
+    final long start = Time.monotonicNow();
+    writeLock();
+    try {
+      ContentSummaryComputationContext cscc =
+          new ContentSummaryComputationContext(this, getFSNamesystem(), 0,
+              contentSleepMicroSec, contentCacheMinINodes);
+      rootDir.computeContentSummary(cscc);
+      NameNode.LOG.info("Counted " + cscc.getCounts().getFileCount()
+          + " files and " + cscc.getCounts().getDirectoryCount()
+          + " directories for the content summaries in "
+          + (Time.monotonicNow() - start) + " milliseconds");
+    } finally {
+      writeUnlock();
+    }
+  }
+
   int getInodeXAttrsLimit() {
     return inodeXAttrsLimit;
   }
@@ -23,6 +23,7 @@
 import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.net.URI;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -103,6 +104,7 @@
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.security.token.delegation.DelegationKey;
+import org.apache.hadoop.util.Daemon;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -184,6 +186,16 @@ private enum State {
   
   private final List<URI> editsDirs;
 
+  // whether RPC calls wait for their edits to be synced asynchronously
+  private final boolean asyncLogging;
+
+  /**
+   * Syncs edits on behalf of RPC calls whose responses are postponed until
+   * their edits are durable. Only set while the log is open for write with
+   * asynchronous logging enabled.
+   */
+  private volatile DeferredSyncer deferredSyncer = null;
+
   private final ThreadLocal<OpInstanceCache> cache =
       new ThreadLocal<OpInstanceCache>() {
     @Override
@@ -240,6 +252,10 @@ protected synchronized TransactionId initialValue() {
     this.editsDirs = Lists.newArrayList(editsDirs);
 
     this.sharedEditsDirs = FSNamesystem.getSharedEditsDirs(conf);
+
+    this.asyncLogging = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT);
   }
   
   public synchronized void initJournalsForWrite() {
@@ -323,6 +339,14 @@ synchronized void openForWrite() throws IOException {
     
     startLogSegment(segmentTxId, true);
     assert state == State.IN_SEGMENT : "Bad state: " + state;
+
+    if (asyncLogging && deferredSyncer == null) {
+      LOG.info("Edit log sync for RPC calls is asynchronous");
+      deferredSyncer = new DeferredSyncer();
+      Daemon syncerThread = new Daemon(deferredSyncer);
+      syncerThread.setName("FSEditLogDeferredSyncer");
+      syncerThread.start();
+    }
   }
   
   /**
@@ -396,6 +420,12 @@ synchronized void close() {
         }
       }
       state = State.CLOSED;
+      if (deferredSyncer != null) {
+        // the syncer responds to any remaining calls once it can take the
+        // lock, so it must not be waited for while it is held here
+        deferredSyncer.stop();
+        deferredSyncer = null;
+      }
     }
   }
 
@@ -468,9 +498,10 @@ assert isOpenForWrite() :
       }
     }
     
-    // Sync the log if an automatic sync is required.
+    // Sync the log if an automatic sync is required. Writers are held back
+    // until it is done, so it is never deferred.
     if (needsSync) {
-      logSync();
+      logSync(myTransactionId.get().txid);
     }
   }
 
@@ -587,12 +618,14 @@ synchronized void setNextTxId(long nextTxId) {
    */
   void logSyncAll() {
     // Record the most recent transaction ID as our own id
+    long mytxid;
     synchronized (this) {
       TransactionId id = myTransactionId.get();
       id.txid = txid;
+      mytxid = txid;
     }
     // Then make sure we're synced up to this point
-    logSync();
+    logSync(mytxid);
   }
   
   /**
@@ -622,13 +655,46 @@ void logSyncAll() {
    * Because this step is unsynchronized, actions that need to avoid
    * concurrency with sync() should be synchronized and also call
    * waitForSyncToFinish() before assuming they are running alone.
+   *
+   * If {@link DFSConfigKeys#DFS_NAMENODE_EDITS_ASYNC_LOGGING} is enabled and
+   * this is called from an IPC handler, the response of the current call is
+   * postponed and this returns without waiting: a dedicated thread syncs the
+   * edits and sends the response once they are durable. Callers that hold
+   * the edit log's monitor are always synced in place.
    */
   public void logSync() {
-    long syncStart = 0;
-
     // Fetch the transactionId of this thread. 
     long mytxid = myTransactionId.get().txid;
-    
+
+    DeferredSyncer syncer = deferredSyncer;
+    if (syncer != null && !Thread.holdsLock(this)) {
+      Server.Call call = Server.getCurCall().get();
+      if (call != null && syncer.defer(mytxid, call)) {
+        return;
+      }
+    }
+    logSync(mytxid);
+  }
+
+  /**
+   * Like {@link #logSync()}, but always waits for the edits of this thread
+   * to be synced, even from an IPC handler with asynchronous logging. Used
+   * by operations with side effects outside of the namespace, such as
+   * invalidating the replicas of deleted blocks, which must not happen
+   * before the edits are durable.
+   */
+  public void logSyncNow() {
+    logSync(myTransactionId.get().txid);
+  }
+
+  /**
+   * Sync all modifications up to and including the given transaction,
+   * waiting for the sync to complete.
+   * @see #logSync()
+   */
+  @VisibleForTesting
+  void logSync(long mytxid) {
+    long syncStart = 0;
     boolean sync = false;
     try {
       EditLogOutputStream logStream = null;
@@ -1298,7 +1364,7 @@ synchronized void startLogSegment(final long segmentTxId,
     if (writeHeaderTxn) {
       logEdit(LogSegmentOp.getInstance(cache.get(),
           FSEditLogOpCodes.OP_START_LOG_SEGMENT));
-      logSync();
+      logSync(myTransactionId.get().txid);
     }
   }
 
@@ -1314,7 +1380,7 @@ public synchronized void endCurrentLogSegment(boolean writeEndTxn) {
     if (writeEndTxn) {
       logEdit(LogSegmentOp.getInstance(cache.get(), 
           FSEditLogOpCodes.OP_END_LOG_SEGMENT));
-      logSync();
+      logSync(myTransactionId.get().txid);
     }
 
     printStatistics(true);
@@ -1691,4 +1757,108 @@ private JournalManager createJournal(URI uri) {
     }
   }
 
+
+  /**
+   * Syncs the edit log for RPC calls whose responses have been postponed by
+   * {@link FSEditLog#logSync()}, and sends the responses once the edits of
+   * the calls are durable. Calls that arrive while a sync is running are
+   * batched into the next one.
+   */
+  private class DeferredSyncer implements Runnable {
+    private final ArrayDeque<DeferredCall> pending =
+        new ArrayDeque<DeferredCall>();
+    private boolean running = true;
+
+    /**
+     * Postpone the response of the call until the given transaction is
+     * synced.
+     * @return false if the syncer is not running and the caller has to
+     *         sync by itself
+     */
+    synchronized boolean defer(long mytxid, Server.Call call) {
+      if (!running) {
+        return false;
+      }
+      call.postponeResponse();
+      pending.add(new DeferredCall(mytxid, call));
+      notify();
+      return true;
+    }
+
+    synchronized void stop() {
+      running = false;
+      notify();
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        List<DeferredCall> batch;
+        synchronized (this) {
+          while (running && pending.isEmpty()) {
+            try {
+              wait();
+            } catch (InterruptedException ignored) {
+            }
+          }
+          if (pending.isEmpty()) {
+            return;
+          }
+          batch = new ArrayList<DeferredCall>(pending);
+          pending.clear();
+        }
+        long batchTxId = HdfsConstants.INVALID_TXID;
+        for (DeferredCall deferred : batch) {
+          batchTxId = Math.max(batchTxId, deferred.txid);
+        }
+        Throwable failure = null;
+        try {
+          boolean needsSync;
+          synchronized (FSEditLog.this) {
+            needsSync = batchTxId > synctxid;
+            if (needsSync && !isSegmentOpen()) {
+              throw new IOException("Edit log segment closed before" +
+                  " transaction " + batchTxId + " was synced");
+            }
+          }
+          if (needsSync) {
+            logSync(batchTxId);
+          }
+        } catch (Throwable t) {
+          synchronized (FSEditLog.this) {
+            if (batchTxId > synctxid) {
+              LOG.warn("Failed to sync edits for " + batch.size() +
+                  " postponed calls", t);
+              failure = t;
+            }
+          }
+        }
+        for (DeferredCall deferred : batch) {
+          try {
+            if (failure == null) {
+              deferred.call.sendResponse();
+            } else {
+              deferred.call.abortResponse(failure);
+            }
+          } catch (IOException e) {
+            LOG.warn("Failed to send response for " + deferred.call, e);
+          }
+        }
+        if (metrics != null) {
+          metrics.addDeferredSyncBatch(batch.size());
+        }
+      }
+    }
+  }
+
+  /** An RPC call waiting for its transaction to be synced. */
+  private static class DeferredCall {
+    private final long txid;
+    private final Server.Call call;
+
+    DeferredCall(long txid, Server.Call call) {
+      this.txid = txid;
+      this.call = call;
+    }
+  }
 }
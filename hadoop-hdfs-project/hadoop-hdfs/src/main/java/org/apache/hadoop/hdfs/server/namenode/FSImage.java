@@ -98,7 +98,8 @@ public class FSImage implements Closeable {
    * The last transaction ID that was either loaded from an image
    * or loaded by loading edits files.
    */
-  protected long lastAppliedTxId = 0;
+  // read without the namesystem lock to align RPCs with the namespace state
+  protected volatile long lastAppliedTxId = 0;
 
   final private Configuration conf;
 
@@ -908,9 +909,12 @@ private long loadEdits(Iterable<EditLogInputStream> editStreams,
       }
     } finally {
       FSEditLog.closeAllStreams(editStreams);
-      // update the counts
-      updateCountForQuota(target.getBlockManager().getStoragePolicySuite(),
-          target.dir.rootDir, quotaInitThreads);
+      // update the counts, unless a standby tailing edits found none, which
+      // it does often when tailing in-progress edits
+      if (lastAppliedTxId != prevLastAppliedTxId || !target.isImageLoaded()) {
+        updateCountForQuota(target.getBlockManager().getStoragePolicySuite(),
+            target.dir.rootDir, quotaInitThreads);
+      }
     }
     prog.endPhase(Phase.LOADING_EDITS);
     return lastAppliedTxId - prevLastAppliedTxId;
@@ -1082,7 +1086,8 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd,
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, dstType, txid);
     
-    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context);
+    FSImageFormatProtobuf.Saver saver =
+        new FSImageFormatProtobuf.Saver(context, conf);
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
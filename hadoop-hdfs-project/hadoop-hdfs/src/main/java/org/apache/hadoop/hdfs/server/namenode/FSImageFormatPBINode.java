@@ -20,11 +20,16 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -59,6 +64,7 @@
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.hdfs.util.EnumCounters;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
+import org.apache.hadoop.io.IOUtils;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -230,8 +236,35 @@ public static void updateBlocksMap(INodeFile file, BlockManager bm) {
     }
 
     void loadINodeDirectorySection(InputStream in) throws IOException {
+      loadINodeDirectoriesInSection(in);
+    }
+
+    /**
+     * Load the given sub-sections of the inode directory section in
+     * parallel. Each directory entry is written to exactly one sub-section,
+     * so the threads never add children to the same directory.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INodeDirectory section in parallel with "
+          + sections.size() + " sub-sections");
+      List<InputStream> streams = openSubSections(sections, compressionCodec);
+      long loaded = loadSubSections(service, streams, new SubSectionLoader() {
+        @Override
+        public long load(InputStream in) throws IOException {
+          return loadINodeDirectoriesInSection(in);
+        }
+      });
+      LOG.info("Loaded " + loaded + " directories in parallel.");
+    }
+
+    /** @return the number of directory entries loaded. */
+    private long loadINodeDirectoriesInSection(InputStream in)
+        throws IOException {
       final List<INodeReference> refList = parent.getLoaderContext()
           .getRefList();
+      long loaded = 0;
       while (true) {
         INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
             .parseDelimitedFrom(in);
@@ -248,24 +281,152 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
           INodeReference ref = refList.get(refId);
           addToParent(p, ref);
         }
+        loaded++;
       }
+      return loaded;
     }
 
     void loadINodeSection(InputStream in) throws IOException {
+      long numInodes = loadINodeSectionHeader(in);
+      for (int i = 0; i < numInodes; ++i) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        addINode(p);
+      }
+    }
+
+    /**
+     * Load the given sub-sections of the inode section in parallel. The
+     * section header is at the start of the first sub-section.
+     */
+    void loadINodeSectionInParallel(ExecutorService service,
+        List<FileSummary.Section> sections, String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INode section in parallel with "
+          + sections.size() + " sub-sections");
+      List<InputStream> streams = openSubSections(sections, compressionCodec);
+      long expectedInodes;
+      try {
+        expectedInodes = loadINodeSectionHeader(streams.get(0));
+      } catch (IOException e) {
+        IOUtils.cleanup(LOG, streams.toArray(new InputStream[streams.size()]));
+        throw e;
+      }
+      long loaded = loadSubSections(service, streams, new SubSectionLoader() {
+        @Override
+        public long load(InputStream in) throws IOException {
+          return loadINodesInSection(in);
+        }
+      });
+      if (loaded != expectedInodes) {
+        throw new IOException("Expected to load " + expectedInodes
+            + " INodes but loaded " + loaded + ". The image may be corrupt.");
+      }
+    }
+
+    /** @return the number of inodes in the section. */
+    private long loadINodeSectionHeader(InputStream in) throws IOException {
       INodeSection s = INodeSection.parseDelimitedFrom(in);
       fsn.dir.resetLastInodeId(s.getLastInodeId());
       LOG.info("Loading " + s.getNumInodes() + " INodes.");
-      for (int i = 0; i < s.getNumInodes(); ++i) {
+      return s.getNumInodes();
+    }
+
+    /** @return the number of inodes loaded. */
+    private long loadINodesInSection(InputStream in) throws IOException {
+      long loaded = 0;
+      while (true) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
-        if (p.getId() == INodeId.ROOT_INODE_ID) {
+        // note that in is a LimitedInputStream
+        if (p == null) {
+          break;
+        }
+        addINode(p);
+        loaded++;
+      }
+      return loaded;
+    }
+
+    private void addINode(INodeSection.INode p) {
+      if (p.getId() == INodeId.ROOT_INODE_ID) {
+        synchronized (this) {
           loadRootINode(p);
-        } else {
-          INode n = loadINode(p);
+        }
+      } else {
+        // Build the inode outside of the lock, only the inode map is shared
+        INode n = loadINode(p);
+        synchronized (this) {
           dir.addToInodeMap(n);
         }
       }
     }
 
+    /** Loads one sub-section and returns the number of records loaded. */
+    private interface SubSectionLoader {
+      long load(InputStream in) throws IOException;
+    }
+
+    private List<InputStream> openSubSections(
+        List<FileSummary.Section> sections, String compressionCodec)
+        throws IOException {
+      List<InputStream> streams = new ArrayList<InputStream>(sections.size());
+      try {
+        for (FileSummary.Section s : sections) {
+          streams.add(parent.getInputStreamForSection(s, compressionCodec));
+        }
+      } catch (IOException e) {
+        IOUtils.cleanup(LOG, streams.toArray(new InputStream[streams.size()]));
+        throw e;
+      }
+      return streams;
+    }
+
+    /**
+     * Run the loader over each stream on the given executor, wait for all of
+     * them to finish and close the streams.
+     *
+     * @return the total number of records loaded.
+     * @throws IOException if any of the streams failed to load.
+     */
+    private long loadSubSections(ExecutorService service,
+        List<InputStream> streams, final SubSectionLoader loader)
+        throws IOException {
+      final CountDownLatch latch = new CountDownLatch(streams.size());
+      final AtomicLong loaded = new AtomicLong();
+      final List<Throwable> errors = new CopyOnWriteArrayList<Throwable>();
+      for (final InputStream in : streams) {
+        service.submit(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              loaded.addAndGet(loader.load(in));
+            } catch (Throwable t) {
+              LOG.error("Failed to load an image sub-section", t);
+              errors.add(t);
+            } finally {
+              IOUtils.cleanup(LOG, in);
+              latch.countDown();
+            }
+          }
+        });
+      }
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while loading image sub-sections").initCause(e);
+      }
+      if (!errors.isEmpty()) {
+        Throwable t = errors.get(0);
+        if (t instanceof IOException) {
+          throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+          throw (RuntimeException) t;
+        }
+        throw new IOException(t);
+      }
+      return loaded.get();
+    }
+
     /**
      * Load the under-construction files section, and update the lease map
      */
@@ -303,10 +464,14 @@ private void addToParent(INodeDirectory parent, INode child) {
       if (!parent.addChild(child)) {
         return;
       }
-      dir.cacheName(child);
+      // The name cache and the blocks map are shared between the threads
+      // loading sub-sections in parallel.
+      synchronized (this) {
+        dir.cacheName(child);
 
-      if (child.isFile()) {
-        updateBlocksMap(child.asFile(), fsn.getBlockManager());
+        if (child.isFile()) {
+          updateBlocksMap(child.asFile(), fsn.getBlockManager());
+        }
       }
     }
 
@@ -356,7 +521,9 @@ private INodeFile loadINodeFile(INodeSection.INode n) {
 
       // under-construction information
       if (f.hasFileUC()) {
-        ucFiles.add(file);
+        synchronized (this) {
+          ucFiles.add(file);
+        }
         INodeSection.FileUnderConstructionFeature uc = f.getFileUC();
         file.toUnderConstruction(uc.getClientName(), uc.getClientMachine());
         if (blocks.length > 0) {
@@ -535,6 +702,9 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
       int i = 0;
+      // Sub-sections are cut by the number of children rather than of
+      // directories, as that is what the loading work is proportional to.
+      long childrenInSubSection = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
         if (!n.isDirectory()) {
@@ -556,15 +726,22 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           }
           INodeDirectorySection.DirEntry e = b.build();
           e.writeDelimitedTo(out);
+          childrenInSubSection += children.size();
         }
 
         ++i;
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
+        if (childrenInSubSection >= parent.getInodesPerSubSection()) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
+          childrenInSubSection = 0;
+        }
       }
-      parent.commitSection(summary,
-          FSImageFormatProtobuf.SectionName.INODE_DIR);
+      parent.commitSectionAndSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE_DIR,
+          FSImageFormatProtobuf.SectionName.INODE_DIR_SUB);
     }
 
     void serializeINodeSection(OutputStream out) throws IOException {
@@ -584,8 +761,14 @@ void serializeINodeSection(OutputStream out) throws IOException {
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
+        if (i % parent.getInodesPerSubSection() == 0) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE_SUB);
+        }
       }
-      parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
+      parent.commitSectionAndSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE,
+          FSImageFormatProtobuf.SectionName.INODE_SUB);
     }
 
     void serializeFilesUCSection(OutputStream out) throws IOException {
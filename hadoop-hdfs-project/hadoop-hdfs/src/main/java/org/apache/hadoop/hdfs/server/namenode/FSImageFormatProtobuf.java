@@ -36,15 +36,19 @@
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.hadoop.io.compress.CompressionOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
@@ -68,6 +72,7 @@
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -150,6 +155,12 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
      * when we're doing (rollingUpgrade rollback).
      */
     private final boolean requireSameLayoutVersion;
+    /** Whether sub-sections of the image may be loaded in parallel */
+    private final boolean loadInParallel;
+    /** The image file being loaded */
+    private File imageFile;
+    /** Executor for loading sub-sections, created only when needed */
+    private ExecutorService executorService;
 
     Loader(Configuration conf, FSNamesystem fsn,
         boolean requireSameLayoutVersion) {
@@ -157,6 +168,9 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
       this.fsn = fsn;
       this.ctx = new LoaderContext();
       this.requireSameLayoutVersion = requireSameLayoutVersion;
+      this.loadInParallel = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
     }
 
     @Override
@@ -176,6 +190,7 @@ public LoaderContext getLoaderContext() {
     void load(File file) throws IOException {
       long start = Time.monotonicNow();
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
+      imageFile = file;
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
       FileInputStream fin = new FileInputStream(file);
       try {
@@ -183,11 +198,80 @@ void load(File file) throws IOException {
         long end = Time.monotonicNow();
         LOG.info("Loaded FSImage in {} seconds.", (end - start) / 1000);
       } finally {
+        if (executorService != null) {
+          executorService.shutdown();
+          executorService = null;
+        }
         fin.close();
         raFile.close();
       }
     }
 
+    /**
+     * Open a new stream over the given section of the image file, so that
+     * several sections can be read at the same time.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(imageFile);
+      try {
+        fin.getChannel().position(section.getOffset());
+        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength()));
+        return FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, in);
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return the sections with the given name, in the order of their
+     *         offsets in the image file.
+     */
+    private static List<FileSummary.Section> getSubSectionsOfName(
+        List<FileSummary.Section> sections, SectionName name) {
+      List<FileSummary.Section> subSections = Lists.newArrayList();
+      for (FileSummary.Section s : sections) {
+        if (name.name.equals(s.getName())) {
+          subSections.add(s);
+        }
+      }
+      Collections.sort(subSections, new Comparator<FileSummary.Section>() {
+        @Override
+        public int compare(FileSummary.Section s1, FileSummary.Section s2) {
+          return Long.compare(s1.getOffset(), s2.getOffset());
+        }
+      });
+      return subSections;
+    }
+
+    /**
+     * @return the executor to load the given sub-sections in parallel, or
+     *         null if they should be loaded serially.
+     */
+    private ExecutorService getExecutorForSubSections(
+        List<FileSummary.Section> subSections) {
+      if (!loadInParallel || subSections.isEmpty()) {
+        return null;
+      }
+      if (executorService == null) {
+        int threads = conf.getInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+            DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
+        if (threads < 1) {
+          LOG.warn("Invalid value {} for {}, using 1", threads,
+              DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY);
+          threads = 1;
+        }
+        LOG.info("Loading the image sub-sections with {} threads", threads);
+        executorService = Executors.newFixedThreadPool(threads,
+            new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("FSImageLoader-%d").build());
+      }
+      return executorService;
+    }
+
     private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
         throws IOException {
       if (!FSImageUtil.checkFileFormat(raFile)) {
@@ -253,14 +337,31 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
         case INODE: {
           currentStep = new Step(StepType.INODES);
           prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in);
+          List<FileSummary.Section> subSections =
+              getSubSectionsOfName(sections, SectionName.INODE_SUB);
+          ExecutorService executor = getExecutorForSubSections(subSections);
+          if (executor != null) {
+            inodeLoader.loadINodeSectionInParallel(executor, subSections,
+                summary.getCodec());
+          } else {
+            inodeLoader.loadINodeSection(in);
+          }
         }
           break;
         case INODE_REFERENCE:
           snapshotLoader.loadINodeReferenceSection(in);
           break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
+        case INODE_DIR: {
+          List<FileSummary.Section> subSections =
+              getSubSectionsOfName(sections, SectionName.INODE_DIR_SUB);
+          ExecutorService executor = getExecutorForSubSections(subSections);
+          if (executor != null) {
+            inodeLoader.loadINodeDirectorySectionInParallel(executor,
+                subSections, summary.getCodec());
+          } else {
+            inodeLoader.loadINodeDirectorySection(in);
+          }
+        }
           break;
         case FILES_UNDERCONSTRUCTION:
           inodeLoader.loadFilesUnderConstructionSection(in);
@@ -286,6 +387,11 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
           prog.endStep(Phase.LOADING_FSIMAGE, step);
         }
           break;
+        case INODE_SUB:
+        case INODE_DIR_SUB:
+          // Sub-sections repeat the content of their parent section and are
+          // only read through it.
+          break;
         default:
           LOG.warn("Unrecognized section {}", n);
           break;
@@ -358,17 +464,35 @@ public static final class Saver {
     private final SaveNamespaceContext context;
     private final SaverContext saverContext;
     private long currentOffset = FSImageUtil.MAGIC_HEADER.length;
+    private long subSectionOffset = currentOffset;
     private MD5Hash savedDigest;
 
+    /** Whether sub-sections were requested by the configuration */
+    private final boolean parallelEnabled;
+    private final int targetSections;
+    private final int inodeThreshold;
+    /** Whether the image being saved is written with sub-sections */
+    private boolean writeSubSections = false;
+    private int inodesPerSubSection = Integer.MAX_VALUE;
+
     private FileChannel fileChannel;
     // OutputStream for the section data
     private OutputStream sectionOutputStream;
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
 
-    Saver(SaveNamespaceContext context) {
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.parallelEnabled = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      this.targetSections = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT));
+      this.inodeThreshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
     }
 
     public MD5Hash getSavedDigest() {
@@ -383,6 +507,45 @@ public SaverContext getSaverContext() {
       return saverContext;
     }
 
+    /**
+     * @return the number of inodes after which a sub-section should be
+     *         committed. Only meaningful when sub-sections are written.
+     */
+    int getInodesPerSubSection() {
+      return inodesPerSubSection;
+    }
+
+    /**
+     * Record the data written since the last section or sub-section as a
+     * sub-section in the summary. This is a no-op unless sub-sections are
+     * written, and for empty sub-sections.
+     */
+    public void commitSubSection(FileSummary.Builder summary,
+        SectionName name) throws IOException {
+      if (!writeSubSections) {
+        return;
+      }
+      // The length is only known after the buffered data reached the file.
+      sectionOutputStream.flush();
+      long length = fileChannel.position() - subSectionOffset;
+      if (length == 0) {
+        return;
+      }
+      summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
+          .setLength(length).setOffset(subSectionOffset));
+      subSectionOffset += length;
+    }
+
+    /**
+     * Commit the trailing sub-section of a section, followed by the section
+     * itself.
+     */
+    public void commitSectionAndSubSection(FileSummary.Builder summary,
+        SectionName name, SectionName subSectionName) throws IOException {
+      commitSubSection(summary, subSectionName);
+      commitSection(summary, name);
+    }
+
     public void commitSection(FileSummary.Builder summary, SectionName name)
         throws IOException {
       long oldOffset = currentOffset;
@@ -397,6 +560,7 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
       summary.addSections(FileSummary.Section.newBuilder().setName(name.name)
           .setLength(length).setOffset(currentOffset));
       currentOffset += length;
+      subSectionOffset = currentOffset;
     }
 
     private void flushSectionOutputStream() throws IOException {
@@ -473,6 +637,7 @@ private void saveInternal(FileOutputStream fout,
       } else {
         sectionOutputStream = underlyingOutputStream;
       }
+      initSubSections();
 
       saveNameSystemSection(b);
       // Check for cancellation right after serializing the name system section.
@@ -508,6 +673,32 @@ private void saveInternal(FileOutputStream fout,
       savedDigest = new MD5Hash(digester.digest());
     }
 
+    /**
+     * Decide whether the image is written with sub-sections. Sub-sections
+     * cannot be read independently from a compressed stream, and are not
+     * worth the overhead for small namespaces.
+     */
+    private void initSubSections() {
+      writeSubSections = false;
+      inodesPerSubSection = Integer.MAX_VALUE;
+      if (!parallelEnabled) {
+        return;
+      }
+      if (codec != null) {
+        LOG.warn("Not writing image sub-sections as {} is enabled. The image"
+            + " will be loaded serially.", DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY);
+        return;
+      }
+      int numINodes = context.getSourceNamesystem().dir.getInodeMapSize();
+      if (numINodes < inodeThreshold) {
+        LOG.info("Not writing image sub-sections as the number of inodes {}"
+            + " is below {}", numINodes, inodeThreshold);
+        return;
+      }
+      writeSubSections = true;
+      inodesPerSubSection = Math.max(1, numINodes / targetSections);
+    }
+
     private void saveSecretManagerSection(FileSummary.Builder summary)
         throws IOException {
       final FSNamesystem fsn = context.getSourceNamesystem();
@@ -595,7 +786,11 @@ public enum SectionName {
     FILES_UNDERCONSTRUCTION("FILES_UNDERCONSTRUCTION"),
     SNAPSHOT_DIFF("SNAPSHOT_DIFF"),
     SECRET_MANAGER("SECRET_MANAGER"),
-    CACHE_MANAGER("CACHE_MANAGER");
+    CACHE_MANAGER("CACHE_MANAGER"),
+    // Sub-sections of the INODE and INODE_DIR sections. They come last so
+    // that they are skipped after their parent section has been loaded.
+    INODE_SUB("INODE_SUB"),
+    INODE_DIR_SUB("INODE_DIR_SUB");
 
     private static final SectionName[] values = SectionName.values();
 
@@ -175,6 +175,7 @@
 import org.apache.hadoop.hdfs.UnknownCryptoProtocolVersionException;
 import org.apache.hadoop.hdfs.XAttrHelper;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
@@ -191,6 +192,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
@@ -258,6 +260,7 @@
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
+import org.apache.hadoop.hdfs.util.RwLockMode;
 import org.apache.hadoop.io.EnumSetWritable;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Text;
@@ -545,13 +548,13 @@ void imageLoadComplete() {
 
   void setImageLoaded() {
     if(imageLoaded) return;
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       setImageLoaded(true);
       dir.markNameCacheInitialized();
       cond.signalAll();
     } finally {
-      writeUnlock("setImageLoaded");
+      writeUnlock(RwLockMode.FS, "setImageLoaded");
     }
   }
 
@@ -571,7 +574,9 @@ protected void setImageLoaded(boolean flag) {
    */
   void waitForLoadingFSImage() {
     if (!imageLoaded) {
-      writeLock();
+      // cond belongs to the namespace lock, so only that one may be held
+      // while waiting
+      writeLock(RwLockMode.FS);
       try {
         while (!imageLoaded) {
           try {
@@ -580,7 +585,7 @@ void waitForLoadingFSImage() {
           }
         }
       } finally {
-        writeUnlock();
+        writeUnlock(RwLockMode.FS);
       }
     }
   }
@@ -982,6 +987,7 @@ private void loadFSImage(StartupOption startOpt) throws IOException {
       MetaRecoveryContext recovery = startOpt.createRecoveryContext();
       final boolean staleImage
           = fsImage.recoverTransitionRead(startOpt, this, recovery);
+      dir.initContentCounts();
       if (RollingUpgradeStartupOption.ROLLBACK.matches(startOpt) ||
           RollingUpgradeStartupOption.DOWNGRADE.matches(startOpt)) {
         rollingUpgradeInfo = null;
@@ -1055,6 +1061,16 @@ private void stopSecretManager() {
     }
   }
   
+  /**
+   * Let the coordinated reads waiting for the edits applied by the standby
+   * proceed.
+   */
+  public void notifyEditsApplied() {
+    if (haContext != null) {
+      haContext.notifyEditsApplied();
+    }
+  }
+
   /** 
    * Start services common to both active and standby states
    */
@@ -1516,7 +1532,37 @@ public boolean hasWriteLock() {
   }
   @Override
   public boolean hasReadLock() {
-    return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
+    return this.fsLock.hasReadLock(RwLockMode.GLOBAL);
+  }
+  @Override
+  public void readLock(RwLockMode mode) {
+    this.fsLock.readLock(mode);
+  }
+  @Override
+  public void readUnlock(RwLockMode mode) {
+    this.fsLock.readUnlock(mode, FSNamesystemLock.OP_NAME_OTHER);
+  }
+  public void readUnlock(RwLockMode mode, String opName) {
+    this.fsLock.readUnlock(mode, opName);
+  }
+  @Override
+  public boolean hasReadLock(RwLockMode mode) {
+    return this.fsLock.hasReadLock(mode);
+  }
+  @Override
+  public void writeLock(RwLockMode mode) {
+    this.fsLock.writeLock(mode);
+  }
+  @Override
+  public void writeUnlock(RwLockMode mode) {
+    this.fsLock.writeUnlock(mode, FSNamesystemLock.OP_NAME_OTHER);
+  }
+  public void writeUnlock(RwLockMode mode, String opName) {
+    this.fsLock.writeUnlock(mode, opName);
+  }
+  @Override
+  public boolean hasWriteLock(RwLockMode mode) {
+    return this.fsLock.isWriteLockedByCurrentThread(mode);
   }
 
   public int getReadHoldCount() {
@@ -1740,6 +1786,17 @@ LocatedBlocks getBlockLocations(String clientMachine, String srcArg,
 
     logAuditEvent(true, operationName, srcArg);
 
+    if (Server.isCoordinatedCall() && isInStandbyState()) {
+      // The standby learns of new replicas from the datanodes, which may not
+      // have reported them yet. Let the client read them from the active.
+      for (LocatedBlock lb : res.blocks.getLocatedBlocks()) {
+        if (lb.getLocations().length == 0) {
+          throw new StandbyException("The standby has no locations of "
+              + lb.getBlock() + " of " + srcArg + " yet");
+        }
+      }
+    }
+
     if (res.updateAccessTime()) {
       String src = srcArg;
       checkOperation(OperationCategory.WRITE);
@@ -1876,7 +1933,7 @@ private GetBlockLocationsResult getBlockLocationsInt(
 
     final long now = now();
     boolean updateAccessTime = isAccessTimeSupported() && !isInSafeMode()
-        && !iip.isSnapshot()
+        && !isInStandbyState() && !iip.isSnapshot()
         && now > inode.getAccessTime() + getAccessTimePrecision();
     return new GetBlockLocationsResult(updateAccessTime, blocks);
   }
@@ -2056,11 +2113,7 @@ boolean truncateInt(String srcArg, long newLength,
     } finally {
       writeUnlock(operationName);
     }
-    getEditLog().logSync();
-    if (!toRemoveBlocks.getToDeleteList().isEmpty()) {
-      removeBlocks(toRemoveBlocks);
-      toRemoveBlocks.clear();
-    }
+    logSyncAndRemoveBlocks(toRemoveBlocks);
     logAuditEvent(true, operationName, src, null, stat);
     return res;
   }
@@ -2495,11 +2548,7 @@ private HdfsFileStatus startFileInt(final String srcArg,
       // There might be transactions logged while trying to recover the lease.
       // They need to be sync'ed even when an exception was thrown.
       if (!skipSync) {
-        getEditLog().logSync();
-        if (toRemoveBlocks != null) {
-          removeBlocks(toRemoveBlocks);
-          toRemoveBlocks.clear();
-        }
+        logSyncAndRemoveBlocks(toRemoveBlocks);
       }
     }
 
@@ -3658,14 +3707,9 @@ void renameTo(final String src, final String dst,
       writeUnlock(operationName);
     }
 
-    getEditLog().logSync();
-
     BlocksMapUpdateInfo collectedBlocks = res.getKey();
     HdfsFileStatus auditStat = res.getValue();
-    if (!collectedBlocks.getToDeleteList().isEmpty()) {
-      removeBlocks(collectedBlocks);
-      collectedBlocks.clear();
-    }
+    logSyncAndRemoveBlocks(collectedBlocks);
 
     logAuditEvent(true, operationName + " (options=" +
         Arrays.toString(options) + ")", src, dst, auditStat);
@@ -3696,10 +3740,7 @@ boolean delete(String src, boolean recursive, boolean logRetryCache)
     } finally {
       writeUnlock(operationName);
     }
-    getEditLog().logSync();
-    if (toRemovedBlocks != null) {
-      removeBlocks(toRemovedBlocks); // Incremental deletion of blocks
-    }
+    logSyncAndRemoveBlocks(toRemovedBlocks);
     logAuditEvent(true, operationName, src);
     return ret;
   }
@@ -3709,6 +3750,25 @@ FSPermissionChecker getPermissionChecker()
     return dir.getPermissionChecker();
   }
 
+  /**
+   * Sync the edits of this thread, then remove the given blocks, which they
+   * deleted. If there are blocks to remove the sync is never deferred:
+   * were their replicas invalidated before the edits are durable, a
+   * NameNode restarting after a crash would find the files without their
+   * data.
+   *
+   * @param blocks the blocks to remove, or null if there are none
+   */
+  private void logSyncAndRemoveBlocks(BlocksMapUpdateInfo blocks) {
+    if (blocks == null || blocks.getToDeleteList().isEmpty()) {
+      getEditLog().logSync();
+      return;
+    }
+    getEditLog().logSyncNow();
+    removeBlocks(blocks); // Incremental deletion of blocks
+    blocks.clear();
+  }
+
   /**
    * From the given list, incrementally remove the blocks from blockManager
    * Writelock is dropped and reacquired every BLOCK_DELETION_INCREMENT to
@@ -3828,7 +3888,7 @@ HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
     final String operationName = "getfileinfo";
     checkOperation(OperationCategory.READ);
     HdfsFileStatus stat = null;
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       stat = FSDirStatAndListingOp.getFileInfo(dir, src, resolveLink);
@@ -3836,7 +3896,7 @@ HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
       logAuditEvent(false, operationName, src);
       throw e;
     } finally {
-      readUnlock(operationName);
+      readUnlock(RwLockMode.FS, operationName);
     }
     logAuditEvent(true, operationName, src);
     return stat;
@@ -3848,7 +3908,7 @@ HdfsFileStatus getFileInfo(final String src, boolean resolveLink)
   boolean isFileClosed(final String src) throws IOException {
     final String operationName = "isFileClosed";
     checkOperation(OperationCategory.READ);
-    readLock();
+    readLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.READ);
       return FSDirStatAndListingOp.isFileClosed(dir, src);
@@ -3856,7 +3916,7 @@ boolean isFileClosed(final String src) throws IOException {
       logAuditEvent(false, operationName, src);
       throw e;
     } finally {
-      readUnlock(operationName);
+      readUnlock(RwLockMode.FS, operationName);
     }
   }
 
@@ -3868,7 +3928,7 @@ boolean mkdirs(String src, PermissionStatus permissions,
     final String operationName = "mkdirs";
     HdfsFileStatus auditStat = null;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    writeLock(RwLockMode.FS);
     try {
       checkOperation(OperationCategory.WRITE);
       checkNameNodeSafeMode("Cannot create directory " + src);
@@ -3877,7 +3937,7 @@ boolean mkdirs(String src, PermissionStatus permissions,
       logAuditEvent(false, operationName, src);
       throw e;
     } finally {
-      writeUnlock(operationName);
+      writeUnlock(RwLockMode.FS, operationName);
     }
     getEditLog().logSync();
     logAuditEvent(true, operationName, src, null, auditStat);
@@ -4468,6 +4528,34 @@ DirectoryListing getListing(String src, byte[] startAfter,
     return dl;
   }
 
+  /**
+   * Get the partial listings of several directories.
+   * See {@link ClientProtocol#getBatchedListing}.
+   */
+  BatchedDirectoryListing getBatchedListing(String[] srcs, byte[] startAfter,
+      boolean needLocation, String filter) throws IOException {
+    checkOperation(OperationCategory.READ);
+    final String operationName = "listStatus";
+    BatchedDirectoryListing listing;
+    readLock();
+    try {
+      checkOperation(NameNode.OperationCategory.READ);
+      listing = FSDirStatAndListingOp.getBatchedListing(dir, srcs, startAfter,
+          needLocation, filter);
+    } finally {
+      readUnlock(operationName);
+    }
+    for (HdfsPartialListing l : listing.getListings()) {
+      if (l.getException() == null) {
+        logAuditEvent(true, operationName, srcs[l.getParentIdx()]);
+      } else if (AccessControlException.class.getName().equals(
+          l.getException().getClassName())) {
+        logAuditEvent(false, operationName, srcs[l.getParentIdx()]);
+      }
+    }
+    return listing;
+  }
+
   /////////////////////////////////////////////////////////
   //
   // These methods are called by datanodes
@@ -7491,13 +7579,9 @@ void deleteSnapshot(String snapshotRoot, String snapshotName,
     } finally {
       writeUnlock(operationName);
     }
-    getEditLog().logSync();
-
     // Breaking the pattern as removing blocks have to happen outside of the
     // global lock
-    if (blocksToBeDeleted != null) {
-      removeBlocks(blocksToBeDeleted);
-    }
+    logSyncAndRemoveBlocks(blocksToBeDeleted);
 
     String rootPath = Snapshot.getSnapshotPath(snapshotRoot, snapshotName);
     logAuditEvent(success, operationName, rootPath, null, null);
@@ -26,6 +26,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.util.RwLockMode;
 import org.apache.hadoop.metrics2.lib.MutableRatesWithAggregation;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.Timer;
@@ -36,6 +37,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_DETAILED_METRICS_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_FS_BM_SPLIT_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_FS_BM_SPLIT_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_READ_LOCK_REPORTING_THRESHOLD_MS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT;
@@ -55,10 +58,29 @@
  * most recent snapshot will be lost due to the use of
  * {@link MutableRatesWithAggregation}. However since threads are re-used
  * between operations this should not generally be an issue.
+ *
+ * When dfs.namenode.lock.fs-bm-split.enabled is set, the namespace and the
+ * block management state are guarded by two separate locks. Operations that
+ * take {@link RwLockMode#FS} or {@link RwLockMode#BM} only exclude operations
+ * on the same part of the state, while {@link RwLockMode#GLOBAL} acquires
+ * both locks, namespace first. Hold times of {@link RwLockMode#BM}-only sections
+ * are not reported. By default every {@link RwLockMode} maps onto the
+ * single coarse lock.
+ *
+ * The namespace itself is not split: all namespace writes, such as
+ * create, mkdirs and delete, still exclude each other, even in disjoint
+ * subtrees. The inode map, the children lists and quota counts of shared
+ * ancestors, and the lease manager are only safe under a single writer.
  */
 class FSNamesystemLock {
+  /** Guards the namespace, and everything else unless the lock is split. */
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
+  /**
+   * Guards the block management state if the lock is split, null otherwise.
+   */
+  @VisibleForTesting
+  final ReentrantReadWriteLock bmLock;
 
   private final boolean metricsEnabled;
   private final MutableRatesWithAggregation detailedHoldTimeMetrics;
@@ -119,6 +141,11 @@ public Long initialValue() {
         DFS_NAMENODE_FSLOCK_FAIR_DEFAULT);
     FSNamesystem.LOG.info("fsLock is fair: " + fair);
     this.coarseLock = new ReentrantReadWriteLock(fair);
+    boolean fsBmSplit = conf.getBoolean(DFS_NAMENODE_LOCK_FS_BM_SPLIT_KEY,
+        DFS_NAMENODE_LOCK_FS_BM_SPLIT_DEFAULT);
+    FSNamesystem.LOG.info("fsLock is split into namespace and block " +
+        "management locks: " + fsBmSplit);
+    this.bmLock = fsBmSplit ? new ReentrantReadWriteLock(fair) : null;
     this.timer = timer;
 
     this.writeLockReportingThresholdMs = conf.getLong(
@@ -138,8 +165,32 @@ public Long initialValue() {
     this.detailedHoldTimeMetrics = detailedHoldTimeMetrics;
   }
 
+  /** @return true if the lock is split into namespace and blocks. */
+  boolean isFsBmSplit() {
+    return bmLock != null;
+  }
+
+  private boolean isBmOnly(RwLockMode mode) {
+    return mode == RwLockMode.BM && bmLock != null;
+  }
+
+  private boolean holdsBmLock(RwLockMode mode) {
+    return mode == RwLockMode.GLOBAL && bmLock != null;
+  }
+
   public void readLock() {
+    readLock(RwLockMode.GLOBAL);
+  }
+
+  public void readLock(RwLockMode mode) {
+    if (isBmOnly(mode)) {
+      bmLock.readLock().lock();
+      return;
+    }
     coarseLock.readLock().lock();
+    if (holdsBmLock(mode)) {
+      bmLock.readLock().lock();
+    }
     if (coarseLock.getReadHoldCount() == 1) {
       readLockHeldTimeStampNanos.set(timer.monotonicNowNanos());
     }
@@ -147,16 +198,35 @@ public void readLock() {
 
   public void readLockInterruptibly() throws InterruptedException {
     coarseLock.readLock().lockInterruptibly();
+    if (bmLock != null) {
+      try {
+        bmLock.readLock().lockInterruptibly();
+      } catch (InterruptedException e) {
+        coarseLock.readLock().unlock();
+        throw e;
+      }
+    }
     if (coarseLock.getReadHoldCount() == 1) {
       readLockHeldTimeStampNanos.set(timer.monotonicNowNanos());
     }
   }
 
   public void readUnlock() {
-    readUnlock(OP_NAME_OTHER);
+    readUnlock(RwLockMode.GLOBAL, OP_NAME_OTHER);
   }
 
   public void readUnlock(String opName) {
+    readUnlock(RwLockMode.GLOBAL, opName);
+  }
+
+  public void readUnlock(RwLockMode mode, String opName) {
+    if (isBmOnly(mode)) {
+      bmLock.readLock().unlock();
+      return;
+    }
+    if (holdsBmLock(mode)) {
+      bmLock.readLock().unlock();
+    }
     final boolean needReport = coarseLock.getReadHoldCount() == 1;
     final long readLockIntervalNanos =
         timer.monotonicNowNanos() - readLockHeldTimeStampNanos.get();
@@ -201,7 +271,18 @@ public void readUnlock(String opName) {
   }
   
   public void writeLock() {
+    writeLock(RwLockMode.GLOBAL);
+  }
+
+  public void writeLock(RwLockMode mode) {
+    if (isBmOnly(mode)) {
+      bmLock.writeLock().lock();
+      return;
+    }
     coarseLock.writeLock().lock();
+    if (holdsBmLock(mode)) {
+      bmLock.writeLock().lock();
+    }
     if (coarseLock.getWriteHoldCount() == 1) {
       writeLockHeldTimeStampNanos = timer.monotonicNowNanos();
     }
@@ -209,16 +290,35 @@ public void writeLock() {
 
   public void writeLockInterruptibly() throws InterruptedException {
     coarseLock.writeLock().lockInterruptibly();
+    if (bmLock != null) {
+      try {
+        bmLock.writeLock().lockInterruptibly();
+      } catch (InterruptedException e) {
+        coarseLock.writeLock().unlock();
+        throw e;
+      }
+    }
     if (coarseLock.getWriteHoldCount() == 1) {
       writeLockHeldTimeStampNanos = timer.monotonicNowNanos();
     }
   }
 
   public void writeUnlock() {
-    writeUnlock(OP_NAME_OTHER);
+    writeUnlock(RwLockMode.GLOBAL, OP_NAME_OTHER);
   }
 
   public void writeUnlock(String opName) {
+    writeUnlock(RwLockMode.GLOBAL, opName);
+  }
+
+  public void writeUnlock(RwLockMode mode, String opName) {
+    if (isBmOnly(mode)) {
+      bmLock.writeLock().unlock();
+      return;
+    }
+    if (holdsBmLock(mode)) {
+      bmLock.writeLock().unlock();
+    }
     final boolean needReport = coarseLock.getWriteHoldCount() == 1 &&
         coarseLock.isWriteLockedByCurrentThread();
     final long currentTimeNanos = timer.monotonicNowNanos();
@@ -274,7 +374,31 @@ public int getWriteHoldCount() {
   }
   
   public boolean isWriteLockedByCurrentThread() {
-    return coarseLock.isWriteLockedByCurrentThread();
+    return isWriteLockedByCurrentThread(RwLockMode.GLOBAL);
+  }
+
+  public boolean isWriteLockedByCurrentThread(RwLockMode mode) {
+    boolean fs = coarseLock.isWriteLockedByCurrentThread();
+    if (bmLock == null || mode == RwLockMode.FS) {
+      return fs;
+    }
+    boolean bm = bmLock.isWriteLockedByCurrentThread();
+    return mode == RwLockMode.BM ? bm : fs && bm;
+  }
+
+  /**
+   * @return true if the current thread holds the read or the write lock
+   *         for the given mode.
+   */
+  public boolean hasReadLock(RwLockMode mode) {
+    boolean fs = coarseLock.getReadHoldCount() > 0 ||
+        coarseLock.isWriteLockedByCurrentThread();
+    if (bmLock == null || mode == RwLockMode.FS) {
+      return fs;
+    }
+    boolean bm = bmLock.getReadHoldCount() > 0 ||
+        bmLock.isWriteLockedByCurrentThread();
+    return mode == RwLockMode.BM ? bm : fs && bm;
   }
 
   public Condition newWriteLockCondition() {
@@ -289,7 +413,11 @@ public Condition newWriteLockCondition() {
    * @return int - Number of threads waiting on this lock
    */
   public int getQueueLength() {
-    return coarseLock.getQueueLength();
+    int queueLength = coarseLock.getQueueLength();
+    if (bmLock != null) {
+      queueLength += bmLock.getQueueLength();
+    }
+    return queueLength;
   }
 
   /**
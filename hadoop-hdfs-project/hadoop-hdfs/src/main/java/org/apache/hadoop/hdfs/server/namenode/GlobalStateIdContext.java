@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Set;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The server side {@link AlignmentContext} of the NameNode. The state id is
+ * the last transaction id the NameNode has written, or applied when it is a
+ * standby.
+ * <p>
+ * When the standby serves consistent reads, the reads of
+ * {@link #COORDINATED_READS} wait until the standby has applied the last
+ * transaction their client has seen on any NameNode.
+ */
+@InterfaceAudience.Private
+public class GlobalStateIdContext implements AlignmentContext {
+  /**
+   * The methods of ClientProtocol which a standby may serve.
+   */
+  private static final Set<String> COORDINATED_READS = ImmutableSet.of(
+      "getBlockLocations", "getFileInfo", "getListing", "getBatchedListing");
+
+  private final FSNamesystem namesystem;
+  private final boolean coordinateReads;
+
+  /**
+   * @param namesystem the namesystem whose state to track
+   * @param coordinateReads whether to coordinate reads, as a standby which
+   *   serves them must
+   */
+  GlobalStateIdContext(FSNamesystem namesystem, boolean coordinateReads) {
+    this.namesystem = namesystem;
+    this.coordinateReads = coordinateReads;
+  }
+
+  /**
+   * @return whether the method of ClientProtocol may be served by a standby
+   *   when its client has a state id
+   */
+  public static boolean isCoordinatedRead(String methodName) {
+    return COORDINATED_READS.contains(methodName);
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    header.setStateId(getLastSeenStateId());
+  }
+
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+    // client side, not used by the NameNode
+  }
+
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+    // client side, not used by the NameNode
+  }
+
+  @Override
+  public long getLastSeenStateId() {
+    return namesystem.getFSImage().getLastAppliedOrWrittenTxId();
+  }
+
+  @Override
+  public boolean isCoordinatedCall(String protocolName, String methodName) {
+    return coordinateReads
+        && HdfsConstants.CLIENT_NAMENODE_PROTOCOL_NAME.equals(protocolName)
+        && isCoordinatedRead(methodName);
+  }
+}
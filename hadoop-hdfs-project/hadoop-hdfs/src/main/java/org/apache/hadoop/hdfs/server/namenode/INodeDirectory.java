@@ -70,6 +70,12 @@ public static INodeDirectory valueOf(INode inode, Object path
   final static byte[] ROOT_NAME = DFSUtil.string2Bytes("");
 
   private List<INode> children = null;
+
+  /**
+   * The counts of the subtree as of the last content summary which counted
+   * it, or null if they are not cached or the subtree has changed since.
+   */
+  private volatile CachedContentCounts cachedCounts = null;
   
   /** constructor */
   public INodeDirectory(long id, byte[] name, PermissionStatus permissions,
@@ -211,6 +217,7 @@ public DirectoryWithSnapshotFeature addSnapshotFeature(
         "Directory is already with snapshot");
     DirectoryWithSnapshotFeature sf = new DirectoryWithSnapshotFeature(diffs);
     addFeature(sf);
+    invalidateContentCounts();
     return sf;
   }
   
@@ -262,7 +269,10 @@ public void setSnapshotQuota(int snapshotQuota) {
 
   public Snapshot addSnapshot(int id, String name) throws SnapshotException,
       QuotaExceededException {
-    return getDirectorySnapshottableFeature().addSnapshot(this, id, name);
+    final Snapshot s =
+        getDirectorySnapshottableFeature().addSnapshot(this, id, name);
+    invalidateContentCounts();
+    return s;
   }
 
   public Snapshot removeSnapshot(BlockStoragePolicySuite bsps, String snapshotName,
@@ -288,6 +298,7 @@ public void addSnapshottableFeature() {
       this.removeFeature(s);
     }
     this.addFeature(snapshottable);
+    invalidateContentCounts();
   }
 
   /** remove DirectorySnapshottableFeature */
@@ -327,6 +338,7 @@ public void replaceChild(INode oldChild, final INode newChild,
       withCount.removeReference(oldChild.asReference());
     }
     children.set(i, newChild);
+    invalidateContentCounts();
     
     // replace the instance in the created list of the diff list
     DirectoryWithSnapshotFeature sf = this.getDirectoryWithSnapshotFeature();
@@ -508,6 +520,7 @@ public boolean removeChild(final INode child) {
 
     final INode removed = children.remove(i);
     Preconditions.checkState(removed == child);
+    invalidateContentCounts();
     return true;
   }
 
@@ -563,6 +576,7 @@ private void addChild(final INode node, final int insertionPoint) {
     }
     node.setParent(this);
     children.add(-insertionPoint - 1, node);
+    invalidateContentCounts();
 
     if (node.getGroupName() == null) {
       node.setGroup(getGroupName());
@@ -632,6 +646,9 @@ public ContentSummaryComputationContext computeContentSummary(
       ContentSummaryComputationContext summary) {
     final DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
     if (sf != null) {
+      if (!isContentCountable()) {
+        summary.markUncacheable();
+      }
       sf.computeContentSummary4Snapshot(summary.getBlockStoragePolicySuite(),
           summary.getCounts());
     }
@@ -645,6 +662,22 @@ public ContentSummaryComputationContext computeContentSummary(
 
   protected ContentSummaryComputationContext computeDirectoryContentSummary(
       ContentSummaryComputationContext summary, int snapshotId) {
+    final boolean caching = summary.isCaching()
+        && snapshotId == Snapshot.CURRENT_STATE_ID;
+    if (caching) {
+      final CachedContentCounts cached = cachedCounts;
+      if (cached != null && cached.storagePolicyId == getStoragePolicyID()) {
+        summary.getCounts().addContents(cached.counts);
+        return summary;
+      }
+    }
+    final ContentCounts countsBefore = new ContentCounts.Builder().build();
+    final long yieldCountBefore = summary.getYieldCount();
+    final long uncacheableBefore = summary.getUncacheableCount();
+    if (caching) {
+      countsBefore.addContents(summary.getCounts());
+    }
+
     ReadOnlyList<INode> childrenList = getChildrenList(snapshotId);
     // Explicit traversing is done to enable repositioning after relinquishing
     // and reacquiring locks.
@@ -675,11 +708,53 @@ protected ContentSummaryComputationContext computeDirectoryContentSummary(
 
     // Increment the directory count for this directory.
     summary.getCounts().addContent(Content.DIRECTORY, 1);
+    // Cache the counts if they were all taken under the lock, and no inode
+    // of the subtree may change them without this directory being told.
+    if (caching && summary.getYieldCount() == yieldCountBefore
+        && summary.getUncacheableCount() == uncacheableBefore
+        && isContentCountable()) {
+      final ContentCounts counts = new ContentCounts.Builder().build();
+      counts.addContents(summary.getCounts());
+      counts.subtractContents(countsBefore);
+      if (counts.getFileCount() + counts.getSymlinkCount()
+          + counts.getDirectoryCount() >= summary.getCacheMinINodes()) {
+        cachedCounts = new CachedContentCounts(counts, getStoragePolicyID());
+      }
+    }
     // Relinquish and reacquire locks if necessary.
     summary.yield();
     return summary;
   }
   
+  /**
+   * Forget the cached counts of this directory and of its ancestors, since
+   * the content of the subtree has changed.
+   */
+  void invalidateContentCounts() {
+    for (INodeDirectory dir = this; dir != null; dir = dir.getParent()) {
+      if (dir.cachedCounts != null) {
+        dir.cachedCounts = null;
+      }
+    }
+  }
+
+  /**
+   * @return whether the counts of the directory itself change only with its
+   *         children, that is it is not in a snapshot. A snapshottable
+   *         directory is until its first snapshot, which gets it diffs.
+   */
+  private boolean isContentCountable() {
+    final DirectoryWithSnapshotFeature sf = getDirectoryWithSnapshotFeature();
+    return sf == null || (sf instanceof DirectorySnapshottableFeature
+        && ((DirectorySnapshottableFeature) sf).getNumSnapshots() == 0
+        && sf.getDiffs().asList().isEmpty());
+  }
+
+  @VisibleForTesting
+  boolean isContentCountsCached() {
+    return cachedCounts != null;
+  }
+
   /**
    * This method is usually called by the undo section of rename.
    * 
@@ -919,6 +994,20 @@ public static void dumpTreeRecursively(PrintWriter out,
     }
   }
 
+  /**
+   * The counts of a subtree, and the storage policy the subtree inherited
+   * when it was counted, since the storage type spaces depend on it.
+   */
+  private static final class CachedContentCounts {
+    private final ContentCounts counts;
+    private final byte storagePolicyId;
+
+    CachedContentCounts(ContentCounts counts, byte storagePolicyId) {
+      this.counts = counts;
+      this.storagePolicyId = storagePolicyId;
+    }
+  }
+
   /** A pair of Snapshot and INode objects. */
   public static class SnapshotAndINode {
     public final int snapshotId;
@@ -194,6 +194,7 @@ INodeFile toUnderConstruction(String clientName, String clientMachine) {
     FileUnderConstructionFeature uc = new FileUnderConstructionFeature(
         clientName, clientMachine);
     addFeature(uc);
+    invalidateContentCounts();
     return this;
   }
 
@@ -278,6 +279,7 @@ public FileWithSnapshotFeature addSnapshotFeature(FileDiffList diffs) {
         "File is already with snapshot");
     FileWithSnapshotFeature sf = new FileWithSnapshotFeature(diffs);
     this.addFeature(sf);
+    invalidateContentCounts();
     return sf;
   }
   
@@ -369,6 +371,7 @@ public short getBlockReplication() {
   /** Set the replication factor of this file. */
   public final void setFileReplication(short replication) {
     header = HeaderFormat.REPLICATION.BITS.combine(replication, header);
+    invalidateContentCounts();
   }
 
   /** Set the replication factor of this file. */
@@ -403,6 +406,7 @@ public byte getStoragePolicyID() {
   private void setStoragePolicyID(byte storagePolicyId) {
     header = HeaderFormat.STORAGE_POLICY_ID.BITS.combine(storagePolicyId,
         header);
+    invalidateContentCounts();
   }
 
   public final void setStoragePolicyID(byte storagePolicyId,
@@ -491,6 +495,15 @@ void addBlock(BlockInfoContiguous newblock) {
   /** Set the blocks. */
   public void setBlocks(BlockInfoContiguous[] blocks) {
     this.blocks = blocks;
+    invalidateContentCounts();
+  }
+
+  /** The counts of the ancestors no longer hold when the file changes. */
+  private void invalidateContentCounts() {
+    final INodeDirectory parent = getParent();
+    if (parent != null) {
+      parent.invalidateContentCounts();
+    }
   }
 
   @Override
@@ -602,6 +615,9 @@ public final ContentSummaryComputationContext computeContentSummary(
       final ContentSummaryComputationContext summary) {
     final ContentCounts counts = summary.getCounts();
     FileWithSnapshotFeature sf = getFileWithSnapshotFeature();
+    if (sf != null || isUnderConstruction()) {
+      summary.markUncacheable();
+    }
     long fileLen = 0;
     if (sf == null) {
       fileLen = computeFileSize();
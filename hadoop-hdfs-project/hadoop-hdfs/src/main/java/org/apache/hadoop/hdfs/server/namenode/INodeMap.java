@@ -34,9 +34,10 @@
  */
 public class INodeMap {
   
-  static INodeMap newInstance(INodeDirectory rootDir) {
-    // Compute the map capacity by allocating 1% of total memory
-    int capacity = LightWeightGSet.computeCapacity(1, "INodeMap");
+  static INodeMap newInstance(INodeDirectory rootDir, double percentage) {
+    // Compute the map capacity by allocating the given percentage of total
+    // memory, 1% by default
+    int capacity = LightWeightGSet.computeCapacity(percentage, "INodeMap");
     GSet<INode, INodeWithAdditionalFields> map
         = new LightWeightGSet<INode, INodeWithAdditionalFields>(capacity);
     map.put(rootDir);
@@ -321,6 +321,8 @@ public void destroyAndCollectBlocks(
   @Override
   public ContentSummaryComputationContext computeContentSummary(
       ContentSummaryComputationContext summary) {
+    // the referred inode is also counted in a snapshot
+    summary.markUncacheable();
     return referred.computeContentSummary(summary);
   }
 
@@ -511,6 +513,7 @@ public int getLastSnapshotId() {
     @Override
     public final ContentSummaryComputationContext computeContentSummary(
         ContentSummaryComputationContext summary) {
+      summary.markUncacheable();
       //only count storagespace for WithName
       final QuotaCounts q = new QuotaCounts.Builder().build();
       computeQuotaUsage(summary.getBlockStoragePolicySuite(),
@@ -1807,6 +1807,18 @@ public boolean allowStaleReads() {
       return allowStaleStandbyReads;
     }
 
+    @Override
+    public boolean allowCoordinatedReads() {
+      return Server.isCoordinatedCall();
+    }
+
+    @Override
+    public void notifyEditsApplied() {
+      if (rpcServer != null) {
+        rpcServer.getClientRpcServer().notifyStateIdAdvanced();
+      }
+    }
+
   }
   
   public boolean isStandbyState() {
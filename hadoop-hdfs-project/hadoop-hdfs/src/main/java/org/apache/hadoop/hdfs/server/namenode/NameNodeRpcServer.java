@@ -74,6 +74,7 @@
 import org.apache.hadoop.hdfs.inotify.EventBatchList;
 import org.apache.hadoop.hdfs.protocol.AclException;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BatchedDirectoryListing;
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.BlockStoragePolicy;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveEntry;
@@ -94,6 +95,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.HdfsPartialListing;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
 import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
@@ -348,7 +350,11 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
         .setInstance(clientNNPbService).setBindAddress(bindHost)
         .setPort(rpcAddr.getPort()).setNumHandlers(handlerCount)
         .setVerbose(false)
-        .setSecretManager(namesystem.getDelegationTokenSecretManager()).build();
+        .setSecretManager(namesystem.getDelegationTokenSecretManager())
+        .setAlignmentContext(new GlobalStateIdContext(namesystem, conf.getBoolean(
+            DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_KEY,
+            DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_DEFAULT)))
+        .build();
 
     // Add all the RPC protocols that the namenode implements
     DFSUtil.addPBProtocol(conf, HAServiceProtocolPB.class, haPbService,
@@ -1005,6 +1011,22 @@ public DirectoryListing getListing(String src, byte[] startAfter,
     return files;
   }
 
+  @Override // ClientProtocol
+  public BatchedDirectoryListing getBatchedListing(String[] srcs,
+      byte[] startAfter, boolean needLocation, String filter)
+      throws IOException {
+    checkNNStartup();
+    BatchedDirectoryListing listing = namesystem.getBatchedListing(
+        srcs, startAfter, needLocation, filter);
+    metrics.incrGetListingOps();
+    for (HdfsPartialListing l : listing.getListings()) {
+      if (l.getPartialListing() != null) {
+        metrics.incrFilesInGetListingOps(l.getPartialListing().length);
+      }
+    }
+    return listing;
+  }
+
   @Override // ClientProtocol
   public HdfsFileStatus getFileInfo(String src)  throws IOException {
     checkNNStartup();
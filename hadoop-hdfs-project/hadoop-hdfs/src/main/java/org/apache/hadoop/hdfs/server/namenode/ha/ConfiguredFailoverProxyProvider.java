@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.NameNodeProxies;
 import org.apache.hadoop.hdfs.server.namenode.ha.AbstractNNFailoverProxyProvider;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocols;
+import org.apache.hadoop.ipc.AlignmentContext;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.security.UserGroupInformation;
 
@@ -118,17 +119,43 @@ public Class<T> getInterface() {
    */
   @Override
   public synchronized ProxyInfo<T> getProxy() {
-    AddressRpcProxyPair<T> current = proxies.get(currentProxyIndex);
-    if (current.namenode == null) {
+    return new ProxyInfo<T>(getProxy(currentProxyIndex),
+        proxies.get(currentProxyIndex).address.toString());
+  }
+
+  /**
+   * Lazily initialize the RPC proxy object of the NameNode at the given
+   * index, whether or not it is the current one.
+   */
+  protected synchronized T getProxy(int index) {
+    AddressRpcProxyPair<T> pair = proxies.get(index);
+    if (pair.namenode == null) {
       try {
-        current.namenode = NameNodeProxies.createNonHAProxy(conf,
-            current.address, xface, ugi, false, fallbackToSimpleAuth).getProxy();
+        pair.namenode = NameNodeProxies.createNonHAProxy(conf,
+            pair.address, xface, ugi, false, fallbackToSimpleAuth,
+            getAlignmentContext()).getProxy();
       } catch (IOException e) {
         LOG.error("Failed to create RPC proxy to NameNode", e);
         throw new RuntimeException(e);
       }
     }
-    return new ProxyInfo<T>(current.namenode, current.address.toString());
+    return pair.namenode;
+  }
+
+  /**
+   * @return the alignment context shared by the proxies of all NameNodes,
+   *   or null when the client does not track the state it has seen
+   */
+  protected AlignmentContext getAlignmentContext() {
+    return null;
+  }
+
+  protected synchronized int getCurrentProxyIndex() {
+    return currentProxyIndex;
+  }
+
+  protected int getProxyCount() {
+    return proxies.size();
   }
 
   @Override
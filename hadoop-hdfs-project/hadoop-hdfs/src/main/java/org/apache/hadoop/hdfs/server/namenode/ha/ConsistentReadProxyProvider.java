@@ -0,0 +1,140 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
+import org.apache.hadoop.hdfs.server.namenode.GlobalStateIdContext;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.StandbyException;
+
+/**
+ * A {@link ConfiguredFailoverProxyProvider} which sends the reads of
+ * {@link ClientProtocol} to the standby NameNodes first, and everything else
+ * to the current, i.e. active, NameNode.
+ * <p>
+ * The proxies of all NameNodes share a {@link ClientGSIContext}, so every
+ * request carries the last transaction id the client has seen. A standby with
+ * <code>dfs.ha.standby.consistent-reads.enabled</code> set holds such a read
+ * until it has tailed the edits up to that transaction, so the client sees
+ * its own writes. If no standby can serve a read in time it is sent to the
+ * active NameNode.
+ */
+public class ConsistentReadProxyProvider<T>
+    extends ConfiguredFailoverProxyProvider<T> {
+  private static final Log LOG =
+      LogFactory.getLog(ConsistentReadProxyProvider.class);
+
+  private final ClientGSIContext alignmentContext = new ClientGSIContext();
+  private T readProxy;
+
+  public ConsistentReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    super(conf, uri, xface);
+  }
+
+  @Override
+  protected AlignmentContext getAlignmentContext() {
+    return alignmentContext;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public synchronized ProxyInfo<T> getProxy() {
+    ProxyInfo<T> current = super.getProxy();
+    if (getInterface() != ClientProtocol.class) {
+      return current;
+    }
+    if (readProxy == null) {
+      readProxy = (T) Proxy.newProxyInstance(
+          getInterface().getClassLoader(), new Class<?>[] { getInterface() },
+          new ReadInvocationHandler());
+    }
+    return new ProxyInfo<T>(readProxy, current.proxyInfo);
+  }
+
+  /**
+   * @return whether a standby could not serve a read, so that it should be
+   *   sent to another NameNode
+   */
+  private static boolean shouldTryNext(Throwable t) {
+    if (t instanceof RemoteException) {
+      String className = ((RemoteException) t).getClassName();
+      return StandbyException.class.getName().equals(className)
+          || RetriableException.class.getName().equals(className);
+    }
+    // the standby could not be reached
+    return t instanceof IOException;
+  }
+
+  private class ReadInvocationHandler implements RpcInvocationHandler {
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args)
+        throws Throwable {
+      int current = getCurrentProxyIndex();
+      if (GlobalStateIdContext.isCoordinatedRead(method.getName())
+          && alignmentContext.getLastSeenStateId() != Long.MIN_VALUE) {
+        for (int i = 0; i < getProxyCount(); i++) {
+          if (i == current) {
+            continue;
+          }
+          try {
+            return method.invoke(getProxy(i), args);
+          } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (!shouldTryNext(cause)) {
+              throw cause;
+            }
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("NameNode " + i + " could not serve "
+                  + method.getName() + ": " + cause);
+            }
+          }
+        }
+      }
+      try {
+        return method.invoke(getProxy(current), args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+    @Override
+    public ConnectionId getConnectionId() {
+      return RPC.getConnectionIdForProxy(getProxy(getCurrentProxyIndex()));
+    }
+
+    @Override
+    public void close() throws IOException {
+      // the proxies are closed with the provider
+    }
+  }
+}
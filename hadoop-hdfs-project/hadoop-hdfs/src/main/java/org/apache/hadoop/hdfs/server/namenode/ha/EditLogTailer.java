@@ -23,6 +23,7 @@
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -98,6 +99,13 @@ public class EditLogTailer {
    * available to be read from.
    */
   private final long sleepTimeMs;
+
+  /**
+   * Whether to tail the segment which the active NN is still writing, up to
+   * the transactions committed to the shared edits, rather than only
+   * finalized segments.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -121,8 +129,13 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
           DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY + " is negative.");
     }
     
-    sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
-        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+    sleepTimeMs = conf.getTimeDuration(
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT,
+        TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
     
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
         " sleepTime=" + sleepTimeMs);
@@ -200,6 +213,7 @@ void doTailEdits() throws IOException, InterruptedException {
     // transitionToActive RPC takes the write lock before calling
     // tailer.stop() -- so if we're not interruptible, it will
     // deadlock.
+    long editsLoaded = 0;
     namesystem.writeLockInterruptibly();
     try {
       FSImage image = namesystem.getFSImage();
@@ -211,7 +225,8 @@ void doTailEdits() throws IOException, InterruptedException {
       }
       Collection<EditLogInputStream> streams;
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null,
+            inProgressOk);
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
@@ -227,14 +242,14 @@ void doTailEdits() throws IOException, InterruptedException {
       // Once we have streams to load, errors encountered are legitimate cause
       // for concern, so we don't catch them here. Simple errors reading from
       // disk are ignored.
-      long editsLoaded = 0;
       try {
         editsLoaded = image.loadEdits(streams, namesystem);
       } catch (EditLogInputException elie) {
         editsLoaded = elie.getNumEditsLoaded();
         throw elie;
       } finally {
-        if (editsLoaded > 0 || LOG.isDebugEnabled()) {
+        // tailing in-progress edits loads a few edits very often
+        if ((editsLoaded > 0 && !inProgressOk) || LOG.isDebugEnabled()) {
           LOG.info(String.format("Loaded %d edits starting from txid %d ",
               editsLoaded, lastTxnId));
         }
@@ -246,6 +261,9 @@ void doTailEdits() throws IOException, InterruptedException {
       lastLoadedTxnId = image.getLastAppliedTxId();
     } finally {
       namesystem.writeUnlock();
+      if (editsLoaded > 0) {
+        namesystem.notifyEditsApplied();
+      }
     }
   }
 
@@ -83,4 +83,17 @@ public interface HAContext {
    * while the namespace is not up to date)
    */
   boolean allowStaleReads();
+
+  /**
+   * @return true if the current call is a read which has waited for the
+   * namespace to reach the state its client has seen, so the node may serve
+   * it even while it is a standby
+   */
+  boolean allowCoordinatedReads();
+
+  /**
+   * Let the coordinated reads waiting for the namespace to reach the state
+   * their client has seen proceed, as new edits have been applied.
+   */
+  void notifyEditsApplied();
 }
@@ -111,8 +111,12 @@ public long totalFileOps(){
   final MutableQuantiles[] syncsQuantiles;
   @Metric("Journal transactions batched in sync")
   MutableCounterLong transactionsBatchedInSync;
+  @Metric("Number of RPC calls whose responses waited for one deferred sync")
+  MutableRate deferredSyncBatch;
   @Metric("Block report") MutableRate blockReport;
   final MutableQuantiles[] blockReportQuantiles;
+  @Metric("Namesystem write lock hold time per batch of a full block report")
+  MutableRate blockReportBatchLockHold;
   @Metric("Cache report") MutableRate cacheReport;
   final MutableQuantiles[] cacheReportQuantiles;
 
@@ -287,6 +291,10 @@ public void incrTransactionsBatchedInSync() {
     transactionsBatchedInSync.incr();
   }
 
+  public void addDeferredSyncBatch(int numCalls) {
+    deferredSyncBatch.add(numCalls);
+  }
+
   public void addSync(long elapsed) {
     syncs.add(elapsed);
     for (MutableQuantiles q : syncsQuantiles) {
@@ -305,6 +313,10 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addBlockReportBatchLockHold(long elapsed) {
+    blockReportBatchLockHold.add(elapsed);
+  }
+
   public void addCacheBlockReport(long latency) {
     cacheReport.add(latency);
     for (MutableQuantiles q : cacheReportQuantiles) {
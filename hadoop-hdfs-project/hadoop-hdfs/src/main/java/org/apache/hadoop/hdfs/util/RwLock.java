@@ -42,4 +42,22 @@ public interface RwLock {
 
   /** Check if the current thread holds write lock. */
   public boolean hasWriteLock();
+
+  /** Acquire read lock for the given part of the state. */
+  void readLock(RwLockMode mode);
+
+  /** Release read lock for the given part of the state. */
+  void readUnlock(RwLockMode mode);
+
+  /** Check if the current thread holds read lock for the given mode. */
+  boolean hasReadLock(RwLockMode mode);
+
+  /** Acquire write lock for the given part of the state. */
+  void writeLock(RwLockMode mode);
+
+  /** Release write lock for the given part of the state. */
+  void writeUnlock(RwLockMode mode);
+
+  /** Check if the current thread holds write lock for the given mode. */
+  boolean hasWriteLock(RwLockMode mode);
 }
@@ -1284,4 +1284,59 @@ public void testNonTerminalGlobsOnFS() throws Exception {
   public void testNonTerminalGlobsOnFC() throws Exception {
     testOnFileContext(new TestNonTerminalGlobs(true));
   }
+
+  private static String globPaths(FileSystem fs, String pattern)
+      throws IOException {
+    FileStatus[] statuses = fs.globStatus(new Path(pattern));
+    return statuses == null ? null :
+        StringUtils.join(FileUtil.stat2Paths(statuses), ",");
+  }
+
+  /**
+   * Test that listing the candidates of the glob components concurrently or
+   * in batches finds the same paths, in the same order.
+   */
+  @Test
+  public void testConcurrentAndBatchedGlobs() throws Exception {
+    Path root = new Path("/concurrent");
+    try {
+      for (int d = 0; d < 5; d++) {
+        for (int m = 0; m < 3; m++) {
+          Path dir = new Path(root, "d" + d + "/2026/m" + m);
+          privilegedFs.mkdirs(dir);
+          privilegedFs.createNewFile(new Path(dir, "f0"));
+          privilegedFs.createNewFile(new Path(dir, "f1"));
+        }
+      }
+      privilegedFs.createNewFile(new Path(root, "file"));
+      privilegedFs.mkdirs(new Path(root, "d0/2025"));
+
+      Configuration conf = new Configuration(dfsCluster.getConfiguration(0));
+      conf.setInt(
+          CommonConfigurationKeysPublic.FS_GLOB_LIST_STATUS_NUM_THREADS_KEY,
+          4);
+      FileSystem concurrentFs = FileSystem.newInstance(conf);
+      conf.setBoolean(
+          CommonConfigurationKeysPublic.FS_GLOB_BATCHED_LISTING_KEY, true);
+      FileSystem batchedFs = FileSystem.newInstance(conf);
+      try {
+        for (String pattern : new String[] { "/concurrent/*/2026/*/*",
+            "/concurrent/d[1-3]/*/m?", "/concurrent/*/2026/m1/f0",
+            "/concurrent/*/*/*/f[1-9]", "/concurrent/*", "/concurrent/*/20*",
+            "/concurrent/{d0,file}/*", "/concurrent/*/2026/m*/none*",
+            "/concurrent/missing/*" }) {
+          String expected = globPaths(fs, pattern);
+          assertEquals(pattern, expected, globPaths(concurrentFs, pattern));
+          assertEquals(pattern, expected, globPaths(batchedFs, pattern));
+        }
+        assertEquals(30, batchedFs.globStatus(
+            new Path("/concurrent/*/2026/*/*")).length);
+      } finally {
+        concurrentFs.close();
+        batchedFs.close();
+      }
+    } finally {
+      privilegedFs.delete(root, true);
+    }
+  }
 }
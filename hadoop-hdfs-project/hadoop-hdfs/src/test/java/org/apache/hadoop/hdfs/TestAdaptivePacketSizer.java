@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Test the sizing of the packets by {@link AdaptivePacketSizer}.
+ */
+public class TestAdaptivePacketSizer {
+  private static final int DEFAULT_SIZE = 64 * 1024;
+  private static final int MIN_SIZE = 4 * 1024;
+  private static final int MAX_SIZE = 1024 * 1024;
+  private static final int MAX_PACKETS = 80;
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final DFSWriteMetrics metrics = new DFSWriteMetrics();
+  private final AdaptivePacketSizer sizer = new AdaptivePacketSizer(
+      DEFAULT_SIZE, MIN_SIZE, MAX_SIZE, MAX_PACKETS, metrics);
+
+  /**
+   * Queue full packets and ack them at the given rate and round trip time.
+   * @return the time after the acks
+   */
+  private long writeFullPackets(long now, int numPackets, long bytesPerMs,
+      long rttNanos) {
+    final int size = sizer.getPacketSize();
+    for (int i = 0; i < numPackets; i++) {
+      sizer.packetQueued(size);
+      now += size * MS / bytesPerMs;
+      sizer.packetsAcked(size, rttNanos, now);
+    }
+    return now;
+  }
+
+  @Test
+  public void testDefaultSizeWithoutSamples() {
+    assertEquals(DEFAULT_SIZE, sizer.getPacketSize());
+    sizer.packetsAcked(DEFAULT_SIZE, MS, 0);
+    assertEquals(DEFAULT_SIZE, sizer.getPacketSize());
+  }
+
+  @Test
+  public void testGrowWithBandwidthDelayProduct() {
+    // 1GB/s with a 10ms round trip is 10MB in flight, well over
+    // MAX_PACKETS packets of the default size
+    long now = 0;
+    for (int i = 0; i < 10; i++) {
+      now = writeFullPackets(now, 200, 1024 * 1024, 10 * MS);
+    }
+    final int size = sizer.getPacketSize();
+    assertTrue("size=" + size, size > DEFAULT_SIZE);
+    assertTrue("size=" + size, size <= MAX_SIZE);
+    assertTrue(metrics.getPacketSizeIncreases() > 0);
+    assertEquals(0, metrics.getPacketSizeDecreases());
+  }
+
+  @Test
+  public void testKeepDefaultSizeOnSlowPipeline() {
+    // 10MB/s with a 1ms round trip fills less than a packet
+    writeFullPackets(0, 1000, 10 * 1024, MS);
+    assertEquals(DEFAULT_SIZE, sizer.getPacketSize());
+    assertEquals(0, metrics.getPacketSizeIncreases());
+  }
+
+  @Test
+  public void testShrinkForFlushedWrites() {
+    long now = 0;
+    for (int i = 0; i < 100; i++) {
+      sizer.packetQueued(100);
+      now += MS;
+      sizer.packetsAcked(100, MS, now);
+    }
+    assertEquals(MIN_SIZE, sizer.getPacketSize());
+    assertEquals(1, metrics.getPacketSizeDecreases());
+
+    // larger flushes get larger packets again
+    for (int i = 0; i < 100; i++) {
+      sizer.packetQueued(20 * 1024);
+    }
+    final int size = sizer.getPacketSize();
+    assertTrue("size=" + size, size >= 2 * 20 * 1024);
+    assertTrue("size=" + size, size <= DEFAULT_SIZE);
+    assertEquals(1, metrics.getPacketSizeIncreases());
+  }
+}
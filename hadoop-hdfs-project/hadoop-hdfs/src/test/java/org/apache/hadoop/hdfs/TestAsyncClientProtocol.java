@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathIsNotEmptyDirectoryException;
+import org.apache.hadoop.hdfs.protocol.AsyncClientProtocol;
+import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Tests the asynchronous calls of {@link AsyncClientProtocol}.
+ */
+public class TestAsyncClientProtocol {
+  private static final int NUM_FILES = 50;
+
+  private static MiniDFSCluster cluster;
+  private static FileSystem fs;
+  private static Configuration conf;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    conf = new HdfsConfiguration();
+    // fewer slots than calls, so that callers wait for slots
+    conf.setInt(CommonConfigurationKeys.IPC_CLIENT_ASYNC_CALLS_MAX_KEY, 10);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    fs = cluster.getFileSystem();
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private static AsyncClientProtocol createProxy() throws Exception {
+    return NameNodeProxies.createAsyncProxy(conf,
+        cluster.getNameNode().getNameNodeAddress(),
+        UserGroupInformation.getCurrentUser());
+  }
+
+  @Test(timeout = 60000)
+  public void testAsyncCalls() throws Exception {
+    final Path dir = new Path("/testAsyncCalls");
+    for (int i = 0; i < NUM_FILES; i++) {
+      DFSTestUtil.createFile(fs, new Path(dir, "f" + i), 1, (short) 1, 0);
+    }
+
+    AsyncClientProtocol proxy = createProxy();
+    try {
+      List<ListenableFuture<HdfsFileStatus>> infos =
+          new ArrayList<ListenableFuture<HdfsFileStatus>>();
+      for (int i = 0; i < NUM_FILES; i++) {
+        infos.add(proxy.getFileInfo(dir + "/f" + i));
+      }
+      ListenableFuture<HdfsFileStatus> missing =
+          proxy.getFileInfo(dir + "/missing");
+      ListenableFuture<DirectoryListing> listing = proxy.getListing(
+          dir.toString(), HdfsFileStatus.EMPTY_NAME, false);
+      for (int i = 0; i < NUM_FILES; i++) {
+        HdfsFileStatus status = infos.get(i).get();
+        assertFalse(status.isDir());
+        assertEquals(1, status.getLen());
+      }
+      assertNull(missing.get());
+      assertEquals(NUM_FILES, listing.get().getPartialListing().length);
+
+      List<ListenableFuture<Boolean>> renames =
+          new ArrayList<ListenableFuture<Boolean>>();
+      for (int i = 0; i < NUM_FILES; i++) {
+        renames.add(proxy.rename(dir + "/f" + i, dir + "/g" + i));
+      }
+      for (int i = 0; i < NUM_FILES; i++) {
+        assertTrue(renames.get(i).get());
+        assertTrue(fs.exists(new Path(dir, "g" + i)));
+      }
+      assertFalse(proxy.rename(dir + "/missing", dir + "/g").get());
+
+      // a non-recursive delete of a non-empty directory fails remotely
+      try {
+        proxy.delete(dir.toString(), false).get();
+        fail("Expected an exception to have been thrown");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof RemoteException);
+        assertTrue(((RemoteException) e.getCause()).unwrapRemoteException()
+            instanceof PathIsNotEmptyDirectoryException);
+      }
+      assertTrue(proxy.delete(dir.toString(), true).get());
+      assertFalse(fs.exists(dir));
+      assertNull(proxy.getListing(dir.toString(), HdfsFileStatus.EMPTY_NAME,
+          false).get());
+    } finally {
+      proxy.close();
+    }
+  }
+}
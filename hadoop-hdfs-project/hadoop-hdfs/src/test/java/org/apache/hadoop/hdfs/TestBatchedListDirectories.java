@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.FileNotFoundException;
+import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.PartialListing;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Test listing several directories with one call to the NameNode.
+ */
+public class TestBatchedListDirectories {
+  private static final int LS_LIMIT = 4;
+  private static final int NUM_DIRS = 5;
+  private static final int FILES_PER_DIR = 7;
+
+  private static MiniDFSCluster cluster;
+  private static DistributedFileSystem dfs;
+  private static List<Path> dirs = new ArrayList<Path>();
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_LIST_LIMIT, LS_LIMIT);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+    for (int i = 0; i < NUM_DIRS; i++) {
+      Path dir = new Path("/dir" + i);
+      dirs.add(dir);
+      for (int j = 0; j < FILES_PER_DIR; j++) {
+        DFSTestUtil.createFile(dfs, new Path(dir, "file" + j), 10, (short) 1,
+            0L);
+      }
+      dfs.mkdirs(new Path(dir, "sub"));
+      DFSTestUtil.createFile(dfs, new Path(dir, "sub/file"), 10, (short) 1,
+          0L);
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  /**
+   * Concatenate the partial listings, checking that they come in the order
+   * of the paths.
+   */
+  private static <T extends FileStatus> List<List<T>> getListings(
+      List<Path> paths, RemoteIterator<PartialListing<T>> it)
+      throws Exception {
+    List<List<T>> listings = new ArrayList<List<T>>();
+    int idx = -1;
+    while (it.hasNext()) {
+      PartialListing<T> listing = it.next();
+      if (idx < 0 || !listing.getListedPath().equals(
+          dfs.makeQualified(paths.get(idx)))) {
+        idx++;
+        assertEquals(dfs.makeQualified(paths.get(idx)),
+            listing.getListedPath());
+        listings.add(new ArrayList<T>());
+      }
+      listings.get(idx).addAll(listing.get());
+    }
+    assertEquals(paths.size(), listings.size());
+    return listings;
+  }
+
+  @Test(timeout = 60000)
+  public void testListing() throws Exception {
+    List<List<FileStatus>> listings = getListings(dirs,
+        dfs.batchedListStatusIterator(dirs, null));
+    for (int i = 0; i < NUM_DIRS; i++) {
+      assertEquals(Arrays.asList(dfs.listStatus(dirs.get(i))),
+          listings.get(i));
+    }
+
+    List<List<LocatedFileStatus>> located = getListings(dirs,
+        dfs.batchedListLocatedStatusIterator(dirs, null));
+    for (int i = 0; i < NUM_DIRS; i++) {
+      RemoteIterator<LocatedFileStatus> it =
+          dfs.listLocatedStatus(dirs.get(i));
+      for (LocatedFileStatus status : located.get(i)) {
+        LocatedFileStatus expected = it.next();
+        assertEquals(expected, status);
+        assertEquals(expected.getBlockLocations().length,
+            status.getBlockLocations().length);
+      }
+      assertFalse(it.hasNext());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testErrors() throws Exception {
+    final List<Path> paths = Arrays.asList(dirs.get(0),
+        new Path("/missing"), new Path(dirs.get(1), "file0"), dirs.get(2));
+    List<PartialListing<FileStatus>> listings =
+        new ArrayList<PartialListing<FileStatus>>();
+    RemoteIterator<PartialListing<FileStatus>> it =
+        dfs.batchedListStatusIterator(paths, null);
+    while (it.hasNext()) {
+      listings.add(it.next());
+    }
+    for (PartialListing<FileStatus> listing : listings) {
+      if (listing.getListedPath().equals(dfs.makeQualified(paths.get(1)))) {
+        try {
+          listing.get();
+          fail("Listed a missing path");
+        } catch (FileNotFoundException e) {
+          // expected
+        }
+      } else if (listing.getListedPath().equals(
+          dfs.makeQualified(paths.get(2)))) {
+        // a file is listed as itself
+        assertEquals(Collections.singletonList(
+            dfs.getFileStatus(paths.get(2))), listing.get());
+      }
+    }
+
+    dfs.mkdirs(new Path("/private"));
+    dfs.setPermission(new Path("/private"), new FsPermission((short) 0700));
+    UserGroupInformation user = UserGroupInformation.createUserForTesting(
+        "user", new String[] { "group" });
+    user.doAs(new PrivilegedExceptionAction<Void>() {
+      @Override
+      public Void run() throws Exception {
+        DistributedFileSystem userFs =
+            (DistributedFileSystem) cluster.getFileSystem().newInstance(
+                cluster.getFileSystem().getUri(), cluster.getConfiguration(0));
+        RemoteIterator<PartialListing<FileStatus>> it =
+            userFs.batchedListStatusIterator(Arrays.asList(
+                new Path("/private"), dirs.get(0)), null);
+        try {
+          it.next().get();
+          fail("Listed a directory without permission");
+        } catch (AccessControlException e) {
+          // expected
+        }
+        int count = 0;
+        while (it.hasNext()) {
+          count += it.next().get().size();
+        }
+        assertEquals(FILES_PER_DIR + 1, count);
+        userFs.close();
+        return null;
+      }
+    });
+  }
+
+  @Test(timeout = 60000)
+  public void testGlobFilter() throws Exception {
+    Path dir = new Path("/glob");
+    for (String name : new String[] { "a", "a1", "a2", "ab", "b1", "b2",
+        "c", "d1", "part-0", "part-1", "x" }) {
+      dfs.mkdirs(new Path(dir, name));
+    }
+    assertEquals(Arrays.asList("a1", "a2", "ab"), listNames(dir, "a?"));
+    assertEquals(Arrays.asList("a2", "b2"), listNames(dir, "*2"));
+    assertEquals(Arrays.asList("a1", "b1", "d1"), listNames(dir, "[abd]1"));
+    assertEquals(Arrays.asList("c", "x"), listNames(dir, "{x,c}"));
+    assertEquals(Arrays.asList("part-0", "part-1"), listNames(dir, "part-*"));
+    assertEquals(Collections.<String>emptyList(), listNames(dir, "z*"));
+    assertEquals(11, listNames(dir, "*").size());
+
+    // the filter applies to the entries of every directory
+    List<List<FileStatus>> listings = getListings(dirs,
+        dfs.batchedListStatusIterator(dirs, "file[0-2]"));
+    for (List<FileStatus> listing : listings) {
+      assertEquals(3, listing.size());
+    }
+  }
+
+  /**
+   * The scan budget of a batch, 16 children per entry of dfs.ls.limit, runs
+   * out when the NameNode starts on the second directory. It has to be
+   * listed again from its first entry.
+   */
+  @Test(timeout = 60000)
+  public void testScanBudgetExhaustedAtDirectory() throws Exception {
+    Path first = new Path("/budget/first");
+    Path second = new Path("/budget/second");
+    // one scan to start on the directory and one per child
+    int children = LS_LIMIT * 16 - 2;
+    for (int i = 0; i < children; i++) {
+      dfs.mkdirs(new Path(first, "f" + i));
+    }
+    dfs.mkdirs(new Path(second, "ax"));
+    dfs.mkdirs(new Path(second, "bx"));
+
+    // the filter has no prefix, so every child of the first one is scanned
+    List<List<FileStatus>> listings = getListings(
+        Arrays.asList(first, second),
+        dfs.batchedListStatusIterator(Arrays.asList(first, second), "*x"));
+    assertEquals(0, listings.get(0).size());
+    assertEquals(2, listings.get(1).size());
+    assertEquals("ax", listings.get(1).get(0).getPath().getName());
+    assertEquals("bx", listings.get(1).get(1).getPath().getName());
+  }
+
+  private static List<String> listNames(Path dir, String glob)
+      throws Exception {
+    List<String> names = new ArrayList<String>();
+    RemoteIterator<FileStatus> it = dfs.listStatusIterator(dir, glob);
+    while (it.hasNext()) {
+      names.add(it.next().getPath().getName());
+    }
+    return names;
+  }
+
+  @Test(timeout = 60000)
+  public void testListFiles() throws Exception {
+    List<Path> files = new ArrayList<Path>();
+    RemoteIterator<LocatedFileStatus> it = dfs.listFiles(new Path("/"), true);
+    while (it.hasNext()) {
+      LocatedFileStatus status = it.next();
+      assertTrue(status.isFile());
+      files.add(status.getPath());
+    }
+    for (Path dir : dirs) {
+      for (int j = 0; j < FILES_PER_DIR; j++) {
+        assertTrue(files.remove(dfs.makeQualified(new Path(dir, "file" + j))));
+      }
+      assertTrue(files.remove(dfs.makeQualified(new Path(dir, "sub/file"))));
+    }
+    assertTrue(files.toString(), files.isEmpty());
+
+    Path file = new Path(dirs.get(0), "file0");
+    it = dfs.listFiles(file, true);
+    assertEquals(dfs.makeQualified(file), it.next().getPath());
+    assertFalse(it.hasNext());
+    try {
+      dfs.listFiles(new Path("/missing"), true);
+      fail("Listed a missing path");
+    } catch (FileNotFoundException e) {
+      // expected
+    }
+  }
+}
@@ -22,6 +22,7 @@
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.conf.Configuration;
@@ -222,6 +223,51 @@ private void runAdjustChunkBoundary(
     }
   }
 
+  /**
+   * Write through a pipeline which acks cumulatively, with adaptively sized
+   * packets, and verify that all the data is written and acked.
+   */
+  @Test(timeout=120000)
+  public void testCumulativeAcksAndAdaptivePacketSize() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(
+        DFSConfigKeys.DFS_CLIENT_WRITE_CUMULATIVE_ACKS_ENABLED_KEY, true);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_ADAPTIVE_ENABLED_KEY, true);
+    MiniDFSCluster dfsCluster = null;
+    try {
+      dfsCluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+      DistributedFileSystem fs = dfsCluster.getFileSystem();
+      Path file = new Path("/testCumulativeAcks");
+      byte[] data = new byte[3 * 1024 * 1024 + 123];
+      new Random(0xBEEFL).nextBytes(data);
+
+      FSDataOutputStream os = fs.create(file, (short) 3);
+      // small flushed records, then bulk writes
+      int pos = 0;
+      for (int i = 0; i < 50; i++, pos += 100) {
+        os.write(data, pos, 100);
+        os.hflush();
+      }
+      os.write(data, pos, data.length - pos);
+      os.close();
+
+      Assert.assertArrayEquals(data, DFSTestUtil.readFileBuffer(fs, file));
+      DFSWriteMetrics metrics = fs.getClient().getWriteMetrics();
+      Assert.assertTrue(metrics.getAcksReceived() > 0);
+      Assert.assertTrue(
+          metrics.getAcksReceived() <= metrics.getPacketsAcked());
+      Assert.assertEquals(metrics.getPacketsSent(),
+          metrics.getPacketsAcked());
+      // the packets shrank for the flushed records
+      Assert.assertTrue(metrics.getPacketSizeDecreases() > 0);
+    } finally {
+      if (dfsCluster != null) {
+        dfsCluster.shutdown();
+      }
+    }
+  }
+
   @AfterClass
   public static void tearDown() {
     cluster.shutdown();
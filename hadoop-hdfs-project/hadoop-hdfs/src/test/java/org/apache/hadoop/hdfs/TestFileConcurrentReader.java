@@ -306,6 +306,25 @@ public void testUnfinishedBlockCRCErrorNormalTransferVerySmallWrite()
     runTestUnfinishedBlockCRCError(false, SyncType.SYNC, SMALL_WRITE_SIZE);
   }
 
+  @Test (timeout = 30000)
+  public void testUnfinishedBlockCRCErrorTransferToVerifyChecksum()
+    throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_TRANSFER_VERIFY_CHECKSUM_KEY,
+        true);
+    runTestUnfinishedBlockCRCError(true, SyncType.SYNC, SMALL_WRITE_SIZE, conf);
+  }
+
+  @Test (timeout = 30000)
+  public void testUnfinishedBlockCRCErrorNormalTransferVerifyChecksum()
+    throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_TRANSFER_VERIFY_CHECKSUM_KEY,
+        true);
+    runTestUnfinishedBlockCRCError(false, SyncType.SYNC, SMALL_WRITE_SIZE,
+        conf);
+  }
+
   // fails due to issue w/append, disable 
   @Ignore
   public void _testUnfinishedBlockCRCErrorNormalTransferAppend()
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the cache of file status and block locations of {@link DFSClient}.
+ */
+public class TestMetadataCache {
+  private static final String NN_METRICS = "NameNodeActivity";
+  private static final long SEED = 0xFEEDL;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+  private DFSClient client;
+  private DFSMetadataCacheMetrics metrics;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.DFS_CLIENT_METADATA_CACHE_PATHS_KEY,
+        "/warehouse/, /tmp/cached");
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    client = fs.getClient();
+    metrics = client.getMetadataCacheMetrics();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private static long getFileInfoOps() {
+    return getLongCounter("FileInfoOps", getMetrics(NN_METRICS));
+  }
+
+  @Test(timeout = 60000)
+  public void testFileStatus() throws Exception {
+    DFSTestUtil.createFile(fs, new Path("/warehouse/t1/part-0"), 1024,
+        (short) 1, SEED);
+    long ops = getFileInfoOps();
+    HdfsFileStatus status = client.getFileInfo("/warehouse/t1/part-0");
+    assertEquals(1024, status.getLen());
+    assertEquals(1, metrics.getFileStatusMisses());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(status, client.getFileInfo("/warehouse/t1/part-0"));
+    }
+    assertEquals(10, metrics.getFileStatusHits());
+    assertEquals(ops + 1, getFileInfoOps());
+
+    // directories are not cached
+    assertTrue(client.getFileInfo("/warehouse/t1").isDir());
+    assertTrue(client.getFileInfo("/warehouse/t1").isDir());
+    assertEquals(10, metrics.getFileStatusHits());
+
+    // neither are the paths outside the prefixes
+    DFSTestUtil.createFile(fs, new Path("/warehouse2/part-0"), 1024,
+        (short) 1, SEED);
+    client.getFileInfo("/warehouse2/part-0");
+    client.getFileInfo("/warehouse2/part-0");
+    assertEquals(10, metrics.getFileStatusHits());
+    assertEquals(3, metrics.getFileStatusMisses());
+  }
+
+  @Test(timeout = 60000)
+  public void testInvalidation() throws Exception {
+    Path file = new Path("/warehouse/t1/part-0");
+    DFSTestUtil.createFile(fs, file, 1024, (short) 1, SEED);
+    assertNotNull(client.getFileInfo(file.toString()));
+
+    // the client's own changes show right away
+    fs.setReplication(file, (short) 2);
+    assertEquals(2, client.getFileInfo(file.toString()).getReplication());
+    fs.rename(new Path("/warehouse/t1"), new Path("/warehouse/t2"));
+    assertNull(client.getFileInfo(file.toString()));
+    assertNotNull(client.getFileInfo("/warehouse/t2/part-0"));
+    fs.delete(new Path("/warehouse"), true);
+    assertNull(client.getFileInfo("/warehouse/t2/part-0"));
+
+    // appends and overwrites show once the stream is closed
+    DFSTestUtil.createFile(fs, file, 1024, (short) 1, SEED);
+    assertEquals(1024, client.getFileInfo(file.toString()).getLen());
+    DFSTestUtil.appendFile(fs, file, 100);
+    assertEquals(1124, client.getFileInfo(file.toString()).getLen());
+    assertEquals(1124, client.getLocatedBlocks(file.toString(), 0)
+        .getFileLength());
+    DFSTestUtil.createFile(fs, file, 10, (short) 1, SEED);
+    assertEquals(10, client.getFileInfo(file.toString()).getLen());
+    assertEquals(10, client.getLocatedBlocks(file.toString(), 0)
+        .getFileLength());
+  }
+
+  @Test(timeout = 60000)
+  public void testBlockLocations() throws Exception {
+    Path file = new Path("/tmp/cached/part-0");
+    DFSTestUtil.createFile(fs, file, 1024, 5 * 1024, 1024, (short) 1, SEED);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(5 * 1024, DFSTestUtil.readFileBuffer(fs, file).length);
+    }
+    assertTrue(metrics.getBlockLocationHits() >= 2);
+    long misses = metrics.getBlockLocationMisses();
+
+    // the streams get copies which they may change
+    LocatedBlocks blocks = client.getLocatedBlocks(file.toString(), 0);
+    blocks.getLocatedBlocks().clear();
+    assertEquals(5, client.getLocatedBlocks(file.toString(), 0)
+        .locatedBlockCount());
+    assertEquals(misses, metrics.getBlockLocationMisses());
+
+    // files under construction are not cached
+    Path open = new Path("/tmp/cached/part-1");
+    fs.create(open).close();
+    fs.append(open).hflush();
+    assertTrue(client.getLocatedBlocks(open.toString(), 0)
+        .isUnderConstruction());
+    client.getLocatedBlocks(open.toString(), 0);
+    assertEquals(misses + 2, metrics.getBlockLocationMisses());
+  }
+
+  @Test
+  public void testPrefixes() {
+    MetadataCache cache = new MetadataCache(
+        Arrays.asList("/a/b/", "/c", ""), 10, 60000,
+        new DFSMetadataCacheMetrics());
+    assertTrue(cache.isCached("/a/b"));
+    assertTrue(cache.isCached("/a/b/c"));
+    assertTrue(cache.isCached("/c/d"));
+    assertFalse(cache.isCached("/a"));
+    assertFalse(cache.isCached("/a/bc"));
+    assertFalse(cache.isCached("/cd"));
+    assertTrue(new MetadataCache(Arrays.asList("/"), 10, 60000,
+        new DFSMetadataCacheMetrics()).isCached("/x"));
+  }
+}
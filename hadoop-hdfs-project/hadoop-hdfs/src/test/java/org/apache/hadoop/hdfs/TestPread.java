@@ -23,6 +23,7 @@
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -41,6 +42,7 @@
 import org.apache.hadoop.fs.ChecksumException;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -49,6 +51,8 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
 import org.apache.hadoop.hdfs.server.datanode.SimulatedFSDataset;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.log4j.Level;
@@ -685,6 +689,66 @@ public Boolean get() {
     }
   }
 
+  /**
+   * Test vectored reads of ranges within and across blocks, with and
+   * without the vectored read thread pool.
+   */
+  @Test(timeout = 120000)
+  public void testVectoredReadDFS() throws Exception {
+    for (int threads : new int[] { 0, 4 }) {
+      Configuration conf = new HdfsConfiguration();
+      conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, blockSize);
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_VECTORED_THREADS_KEY, threads);
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MERGE_GAP_KEY, 512);
+      conf.setInt(DFSConfigKeys.DFS_CLIENT_READ_VECTORED_MAX_MERGED_SIZE_KEY,
+          2 * blockSize);
+      MiniDFSCluster cluster =
+          new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+      FileSystem fileSys = cluster.getFileSystem();
+      try {
+        Path file1 = new Path("vectoredreadtest.dat");
+        writeFile(fileSys, file1);
+        byte[] expected = new byte[12 * blockSize];
+        FSDataInputStream stm = fileSys.open(file1);
+        stm.readFully(0, expected);
+
+        List<FileRange> ranges = new ArrayList<FileRange>();
+        ranges.add(new FileRange(5 * blockSize - 100, 3 * blockSize + 200));
+        ranges.add(new FileRange(0, 100));
+        ranges.add(new FileRange(300, blockSize));
+        ranges.add(new FileRange(2 * blockSize, 0));
+        ranges.add(new FileRange(11 * blockSize, blockSize - 100));
+        FileRange pastEof = new FileRange(12 * blockSize - 10, 20);
+        ranges.add(pastEof);
+        ByteBufferPool pool = new ElasticByteBufferPool();
+        stm.readVectored(ranges, pool);
+        for (FileRange range : ranges) {
+          if (range == pastEof) {
+            try {
+              range.getData().get();
+              Assert.fail("Read past the end of the file");
+            } catch (ExecutionException e) {
+              assertTrue(e.getCause() instanceof EOFException);
+            }
+            continue;
+          }
+          ByteBuffer data = range.getData().get();
+          assertEquals(range.getLength(), data.remaining());
+          byte[] actual = new byte[range.getLength()];
+          data.get(actual);
+          checkAndEraseData(actual, (int) range.getOffset(), expected,
+              "Vectored read of " + range);
+          pool.putBuffer(data);
+        }
+        stm.close();
+        cleanupFile(fileSys, file1);
+      } finally {
+        fileSys.close();
+        cluster.shutdown();
+      }
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     new TestPread().testPreadDFS();
   }
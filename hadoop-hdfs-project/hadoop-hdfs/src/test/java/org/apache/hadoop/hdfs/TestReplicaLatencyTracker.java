@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.junit.Test;
+
+/**
+ * Test the replica ordering and hedged read timing of
+ * {@link ReplicaLatencyTracker}.
+ */
+public class TestReplicaLatencyTracker {
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final DatanodeInfo[] nodes = {
+      DFSTestUtil.getDatanodeDescriptor("1.1.1.1", "/r1"),
+      DFSTestUtil.getDatanodeDescriptor("2.2.2.2", "/r1"),
+      DFSTestUtil.getDatanodeDescriptor("3.3.3.3", "/r1"),
+      DFSTestUtil.getDatanodeDescriptor("4.4.4.4", "/r2"),
+      DFSTestUtil.getDatanodeDescriptor("5.5.5.5", "/r2"),
+  };
+
+  @Test
+  public void testOrderWithinRacks() {
+    ReplicaLatencyTracker tracker =
+        new ReplicaLatencyTracker(true, 2, 60000, 0);
+    // the NameNode order until a replica has been sampled
+    assertNull(tracker.order(nodes));
+
+    tracker.addRead(nodes[0], 50 * MS, 0, 0);
+    tracker.addRead(nodes[1], 5 * MS, 0, 0);
+    tracker.addRead(nodes[3], 1 * MS, 0, 0);
+    tracker.addRead(nodes[4], 40 * MS, 0, 0);
+    // the slow replicas go last within their rack, but not across racks;
+    // the replica which has not been sampled keeps its place
+    assertArrayEquals(new int[] { 1, 2, 0, 3, 4 }, tracker.order(nodes));
+
+    // replicas which are not much slower keep their order
+    for (int i = 0; i < 20; i++) {
+      tracker.addRead(nodes[0], 6 * MS, 0, 0);
+    }
+    assertEquals(0, tracker.order(nodes)[0]);
+  }
+
+  @Test
+  public void testThroughput() {
+    ReplicaLatencyTracker tracker =
+        new ReplicaLatencyTracker(true, 2, 60000, 0);
+    // the same latency, but 64KB take 1ms from one and 20ms from the other
+    tracker.addRead(nodes[0], MS, 1024 * 1024, 16 * 20 * MS);
+    tracker.addRead(nodes[1], MS, 1024 * 1024, 16 * MS);
+    assertEquals(21, tracker.getReadMillis(nodes[0]), 0.01);
+    assertEquals(2, tracker.getReadMillis(nodes[1]), 0.01);
+    assertArrayEquals(new int[] { 1, 2, 0, 3, 4 }, tracker.order(nodes));
+
+    // small reads do not sample the rate
+    tracker.addRead(nodes[0], MS, 1024, 1000 * MS);
+    assertEquals(21, tracker.getReadMillis(nodes[0]), 0.01);
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    ReplicaLatencyTracker tracker = new ReplicaLatencyTracker(true, 2, 1, 0);
+    tracker.addRead(nodes[0], 50 * MS, 0, 0);
+    tracker.addRead(nodes[1], 5 * MS, 0, 0);
+    Thread.sleep(10);
+    assertEquals(-1, tracker.getReadMillis(nodes[0]), 0);
+    assertNull(tracker.order(nodes));
+  }
+
+  @Test
+  public void testDisabled() {
+    ReplicaLatencyTracker tracker =
+        new ReplicaLatencyTracker(false, 2, 60000, 0);
+    tracker.addRead(nodes[0], 50 * MS, 0, 0);
+    tracker.addRead(nodes[1], 5 * MS, 0, 0);
+    assertNull(tracker.order(nodes));
+  }
+
+  @Test
+  public void testHedgedReadThreshold() {
+    ReplicaLatencyTracker tracker =
+        new ReplicaLatencyTracker(true, 2, 60000, 90);
+    for (int i = 1; i < ReplicaLatencyTracker.MIN_READ_TIME_SAMPLES; i++) {
+      tracker.addPositionedReadTime(i * MS);
+    }
+    // the configured threshold until enough reads have been sampled
+    assertEquals(500, tracker.getHedgedReadThreshold(500));
+    for (int i = 0; i < ReplicaLatencyTracker.READ_TIME_WINDOW; i++) {
+      tracker.addPositionedReadTime((i % 100 + 1) * MS);
+    }
+    long threshold = tracker.getHedgedReadThreshold(500);
+    assertTrue("Threshold " + threshold, threshold >= 85 && threshold <= 95);
+    // but never more than the configured threshold
+    assertEquals(20, tracker.getHedgedReadThreshold(20));
+
+    // a static threshold unless a percentile is configured
+    tracker = new ReplicaLatencyTracker(true, 2, 60000, 0);
+    for (int i = 0; i < ReplicaLatencyTracker.READ_TIME_WINDOW; i++) {
+      tracker.addPositionedReadTime(MS);
+    }
+    assertEquals(500, tracker.getHedgedReadThreshold(500));
+  }
+}
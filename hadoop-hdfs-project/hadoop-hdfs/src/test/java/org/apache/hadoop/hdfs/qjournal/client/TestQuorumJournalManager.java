@@ -935,6 +935,40 @@ public void testSelectInputStreamsNotOnBoundary() throws Exception {
   }
   
   
+  @Test
+  public void testSelectInputStreamsInProgress() throws Exception {
+    writeSegment(cluster, qjm, 1, 3, true);
+    EditLogOutputStream stm = writeSegment(cluster, qjm, 4, 3, false);
+
+    QuorumJournalManager readerQjm = closeLater(createSpyingQJM());
+    List<EditLogInputStream> streams = Lists.newArrayList();
+    readerQjm.selectInputStreams(streams, 0, true);
+    try {
+      assertEquals(2, streams.size());
+      assertEquals(4, streams.get(1).getFirstTxId());
+      assertEquals(6, streams.get(1).getLastTxId());
+      assertTrue(streams.get(1).isInProgress());
+      verifyEdits(streams, 1, 6);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    // Tail from the middle of the segment in progress as it grows
+    writeTxns(stm, 7, 2);
+    stm.setReadyToFlush();
+    stm.flush();
+    readerQjm.selectInputStreams(streams, 6, true);
+    try {
+      assertEquals(1, streams.size());
+      assertEquals(8, streams.get(0).getLastTxId());
+      verifyEdits(streams, 6, 8);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+  }
+
   private QuorumJournalManager createSpyingQJM()
       throws IOException, URISyntaxException {
     AsyncLogger.Factory spyFactory = new AsyncLogger.Factory() {
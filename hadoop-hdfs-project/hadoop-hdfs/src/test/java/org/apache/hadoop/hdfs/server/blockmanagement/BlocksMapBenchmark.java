@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.util.LightWeightGSet;
+
+/**
+ * Main class for a heap footprint and lookup latency benchmark of the
+ * {@link BlocksMap}.
+ * <p>
+ * The benchmark fills a blocks map with sequentially allocated block IDs,
+ * the way the NameNode allocates them, and reports the heap taken by the
+ * hash table and by the block records, followed by the latency of random
+ * lookups of existing blocks.
+ * <p>
+ * Usage:
+ * <pre>
+ * BlocksMapBenchmark [-blocks N] [-lookups M] [-allocationPercent P]
+ * </pre>
+ * Running it at 100M+ blocks needs a correspondingly large heap, e.g.
+ * <code>-Xmx40g</code>. Heap numbers are taken from
+ * {@link Runtime#totalMemory()} and {@link Runtime#freeMemory()} after
+ * requesting a GC and are therefore approximate.
+ */
+public class BlocksMapBenchmark {
+  private static final Log LOG = LogFactory.getLog(BlocksMapBenchmark.class);
+
+  private static final String USAGE = "Usage: BlocksMapBenchmark"
+      + " [-blocks N] [-lookups M] [-allocationPercent P]";
+  private static final short REPLICATION = 3;
+
+  private long numBlocks = 1000000L;
+  private long numLookups = -1;
+  private double allocationPercent =
+      DFSConfigKeys.DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT_DEFAULT;
+
+  /** Number of lookups which found their block during the last run. */
+  private long found;
+
+  BlocksMapBenchmark(String[] args) {
+    for (int i = 0; i < args.length; i++) {
+      if (i == args.length - 1) {
+        throw new IllegalArgumentException(USAGE);
+      }
+      if (args[i].equals("-blocks")) {
+        numBlocks = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-lookups")) {
+        numLookups = Long.parseLong(args[++i]);
+      } else if (args[i].equals("-allocationPercent")) {
+        allocationPercent = Double.parseDouble(args[++i]);
+      } else {
+        throw new IllegalArgumentException(USAGE);
+      }
+    }
+    if (numLookups < 0) {
+      numLookups = numBlocks;
+    }
+  }
+
+  long getFound() {
+    return found;
+  }
+
+  void run() {
+    final long firstId = SequentialBlockIdGenerator.LAST_RESERVED_BLOCK_ID + 1;
+    final long heapBase = usedHeap();
+    BlocksMap blocksMap = new BlocksMap(
+        LightWeightGSet.computeCapacity(allocationPercent, "BlocksMap"));
+    final long heapTable = usedHeap();
+
+    long start = System.nanoTime();
+    for (long i = 0; i < numBlocks; i++) {
+      BlockInfoContiguous b = new BlockInfoContiguous(
+          new Block(firstId + i, 0, 1001L), REPLICATION);
+      blocksMap.addBlockCollection(b, null);
+    }
+    final long insertNanos = System.nanoTime() - start;
+    final long heapFilled = usedHeap();
+
+    Random r = new Random(0xb10c5);
+    Block key = new Block();
+    found = 0;
+    start = System.nanoTime();
+    for (long i = 0; i < numLookups; i++) {
+      long id = firstId + (long) (r.nextDouble() * numBlocks);
+      key.set(id, 0, 1001L);
+      if (blocksMap.getStoredBlock(key) != null) {
+        found++;
+      }
+    }
+    final long lookupNanos = System.nanoTime() - start;
+
+    LOG.info("--- BlocksMap benchmark ---");
+    LOG.info("# blocks: " + blocksMap.size());
+    LOG.info("Table capacity: " + blocksMap.getCapacity()
+        + " (" + allocationPercent + "% of max heap)");
+    LOG.info("Table heap (bytes): " + (heapTable - heapBase));
+    LOG.info("Record heap (bytes): " + (heapFilled - heapTable));
+    LOG.info("Bytes per block: "
+        + (numBlocks == 0 ? 0 : (heapFilled - heapBase) / numBlocks));
+    LOG.info("Average insert (ns): "
+        + (numBlocks == 0 ? 0 : insertNanos / numBlocks));
+    LOG.info("# lookups: " + numLookups + ", found: " + found);
+    LOG.info("Average lookup (ns): "
+        + (numLookups == 0 ? 0 : lookupNanos / numLookups));
+    blocksMap.close();
+  }
+
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+
+  public static void main(String[] args) {
+    new BlocksMapBenchmark(args).run();
+  }
+}
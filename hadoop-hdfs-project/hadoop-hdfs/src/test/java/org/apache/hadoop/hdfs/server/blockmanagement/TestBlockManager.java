@@ -89,6 +89,8 @@
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -185,6 +187,64 @@ private void doBasicTest(int testIndex) {
         rackB.contains(pipeline[1].getDatanodeDescriptor()));
   }
   
+  /**
+   * Test that the targets are chosen by several workers, and that the work
+   * is scheduled in batches.
+   */
+  @Test
+  public void testParallelReplicationWork() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.set(DFSConfigKeys.NET_TOPOLOGY_SCRIPT_FILE_NAME_KEY, "need to set a dummy value here so it assumes a multi-rack cluster");
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BATCH_SIZE_KEY, 3);
+    bm = new BlockManager(fsn, conf);
+    try {
+      bm.maxReplicationStreams = 100;
+      bm.replicationStreamsHardLimit = 100;
+      addNodes(nodes);
+      List<Block> blocks = new ArrayList<Block>();
+      for (int i = 0; i < 20; i++) {
+        blocks.add(addBlockOnNodes(i, getNodes(0, 1)));
+      }
+      List<List<Block>> blocksToReplicate = new ArrayList<List<Block>>();
+      blocksToReplicate.add(new ArrayList<Block>());
+      blocksToReplicate.add(blocks);
+      assertEquals(20, bm.computeReplicationWorkForBlocks(blocksToReplicate));
+      Mockito.verify(fsn, Mockito.times(1 + 7)).writeLock();
+
+      for (Block block : blocks) {
+        assertEquals(1, bm.pendingReplications.getNumReplicas(block));
+      }
+      for (BlockTargetPair pair : nodes.get(0).getReplicationCommand(20)) {
+        assertEquals(1, pair.targets.length);
+        assertTrue(rackB.contains(pair.targets[0].getDatanodeDescriptor()));
+      }
+    } finally {
+      bm.close();
+    }
+  }
+
+  @Test
+  public void testReplicationCapacity() {
+    bm.maxReplicationStreams = 4;
+    addNodes(nodes);
+    HeartbeatManager hbm = bm.getDatanodeManager().getHeartbeatManager();
+    for (DatanodeDescriptor dn : nodes) {
+      hbm.addDatanode(dn);
+    }
+    assertEquals(6 * 4, bm.getReplicationCapacity());
+
+    BlockInfoContiguous block = addBlockOnNodes(0, getNodes(0));
+    nodes.get(0).addBlockToBeReplicated(block, getStorages(1, 2)
+        .toArray(new DatanodeStorageInfo[2]));
+    assertEquals(6 * 4 - 1, bm.getReplicationCapacity());
+
+    // never less than the multiplier times the live nodes
+    bm.maxReplicationStreams = 1;
+    assertEquals(6 * bm.blocksReplWorkMultiplier,
+        bm.getReplicationCapacity());
+  }
+
 
   /**
    * Regression test for HDFS-1480
@@ -997,6 +1057,174 @@ public void run() {
     }
   }
 
+  /**
+   * A full block report runs on the queue thread without the write lock of
+   * the queue, so that it can release the lock between batches of replicas.
+   */
+  @Test
+  public void testFullBlockReportRunsUnlocked() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    final MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      final FSNamesystem fsn = cluster.getNamesystem();
+      final BlockManager bm = fsn.getBlockManager();
+      boolean locked = bm.runBlockOp(new Callable<Boolean>() {
+        @Override
+        public Boolean call() {
+          return fsn.hasWriteLock();
+        }
+      });
+      assertFalse(locked);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Process first and subsequent full block reports in batches of a few
+   * replicas, releasing the write lock between batches.
+   */
+  @Test
+  public void testBatchedBlockReport() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY, 2);
+    bm = new BlockManager(fsn, conf);
+    DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    BlockInfoContiguous[] blocks = new BlockInfoContiguous[5];
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = addBlockToBM(100 + i);
+      builder.add(new FinalizedReplica(blocks[i], null, null));
+    }
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(), null);
+    assertEquals(1, ds.getBlockReportCount());
+    assertEquals(blocks.length, ds.numBlocks());
+    // 5 replicas in batches of 2
+    verify(fsn, Mockito.times(3)).writeUnlock();
+
+    // the second report goes through the diff, and drops the last two
+    // replicas
+    reset(fsn);
+    doReturn(true).when(fsn).hasWriteLock();
+    builder = BlockListAsLongs.builder();
+    for (int i = 0; i < 3; i++) {
+      builder.add(new FinalizedReplica(blocks[i], null, null));
+    }
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(), null);
+    assertEquals(2, ds.getBlockReportCount());
+    assertEquals(3, ds.numBlocks());
+    for (int i = 0; i < blocks.length; i++) {
+      assertEquals(i < 3, blocks[i].findStorageInfo(ds) >= 0);
+    }
+  }
+
+  /**
+   * A full block report is abandoned if its storage is removed while the
+   * write lock is released between two batches.
+   */
+  @Test
+  public void testBatchedBlockReportStorageRemoved() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY, 1);
+    bm = new BlockManager(fsn, conf);
+    final DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        BlockListAsLongs.EMPTY, null);
+    assertEquals(1, ds.getBlockReportCount());
+
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    for (int i = 0; i < 3; i++) {
+      builder.add(new FinalizedReplica(addBlockToBM(200 + i), null, null));
+    }
+    // the node goes away the first time the lock is released
+    final AtomicBoolean removed = new AtomicBoolean();
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        if (removed.compareAndSet(false, true)) {
+          bm.getDatanodeManager().removeDatanode(node);
+        }
+        return null;
+      }
+    }).when(fsn).writeUnlock();
+    try {
+      bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+          builder.build(), null);
+      Assert.fail("Expected the block report to be abandoned");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("was removed", e);
+    }
+    assertTrue(removed.get());
+    // the delimiter of the report diff must not be left on the storage
+    assertEquals(0, ds.numBlocks());
+    assertEquals(1, ds.getBlockReportCount());
+  }
+
+  /**
+   * A replica with a stale generation stamp is not marked corrupt if the
+   * block is recovered to that generation stamp while the write lock is
+   * released between two batches of a full block report.
+   */
+  @Test
+  public void testBatchedBlockReportGenStampChanged() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_BLOCKREPORT_BATCH_SIZE_KEY, 1);
+    bm = new BlockManager(fsn, conf);
+    final DatanodeDescriptor node = nodes.get(0);
+    DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        BlockListAsLongs.EMPTY, null);
+    assertEquals(1, ds.getBlockReportCount());
+
+    final BlockInfoContiguous[] blocks = new BlockInfoContiguous[2];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = addBlockToBM(300 + i);
+    }
+    final Block reported = new Block(blocks[1].getBlockId(),
+        blocks[1].getNumBytes(), blocks[1].getGenerationStamp() + 1);
+    BlockListAsLongs.Builder builder = BlockListAsLongs.builder();
+    builder.add(new FinalizedReplica(blocks[0], null, null));
+    builder.add(new FinalizedReplica(reported, null, null));
+    // the second block gets the reported generation stamp the first time the
+    // lock is released after the first replica has been added
+    Mockito.doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        if (blocks[0].findStorageInfo(node.getStorageInfos()[0]) >= 0) {
+          blocks[1].setGenerationStamp(reported.getGenerationStamp());
+        }
+        return null;
+      }
+    }).when(fsn).writeUnlock();
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()),
+        builder.build(), null);
+    assertEquals(2, ds.getBlockReportCount());
+    assertEquals(0, bm.numCorruptReplicas(blocks[1]));
+    assertTrue(blocks[1].findStorageInfo(ds) >= 0);
+    assertEquals(2, ds.numBlocks());
+  }
+
   // spam the block manager with IBRs to verify queuing is occurring.
   @Test
   public void testAsyncIBR() throws Exception {
@@ -0,0 +1,62 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.blockmanagement;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.util.LightWeightGSet;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestBlocksMapBenchmark {
+
+  /**
+   * Runs {@link BlocksMapBenchmark} on a small number of blocks.
+   */
+  @Test(timeout = 60000)
+  public void testBlocksMapBenchmark() {
+    BlocksMapBenchmark bench = new BlocksMapBenchmark(new String[] {
+        "-blocks", "10000", "-lookups", "20000", "-allocationPercent", "0.1"});
+    bench.run();
+    assertEquals(20000, bench.getFound());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadArguments() {
+    new BlocksMapBenchmark(new String[] {"-blocks"});
+  }
+
+  /**
+   * The blocks map capacity follows
+   * {@link DFSConfigKeys#DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT}.
+   */
+  @Test
+  public void testConfiguredCapacity() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setFloat(DFSConfigKeys.DFS_NAMENODE_BLOCKS_MAP_ALLOCATION_PERCENT,
+        0.5f);
+    FSNamesystem fsn = Mockito.mock(FSNamesystem.class);
+    BlockManager bm = new BlockManager(fsn, conf);
+    assertEquals(LightWeightGSet.computeCapacity(0.5, "BlocksMap"),
+        bm.blocksMap.getCapacity());
+  }
+}
@@ -61,6 +61,7 @@
 import org.apache.hadoop.hdfs.server.protocol.VolumeFailureSummary;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.metrics2.util.MBeans;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.DataChecksum;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 
@@ -520,6 +521,7 @@ public byte[] loadLastPartialChunkChecksum(
   private final SimulatedVolume volume;
   private final String datanodeUuid;
   private final DataNode datanode;
+  private final AutoCloseableLock datasetLock = new AutoCloseableLock();
   
 
   public SimulatedFSDataset(DataStorage storage, Configuration conf) {
@@ -1345,5 +1347,15 @@ public boolean getPinning(ExtendedBlock b) throws IOException {
   public boolean isDeletingBlock(String bpid, long blockId) {
     throw new UnsupportedOperationException();
   }
+
+  @Override
+  public AutoCloseableLock acquireDatasetLock() {
+    return datasetLock.acquire();
+  }
+
+  @Override
+  public AutoCloseableLock acquireDatasetReadLock() {
+    return datasetLock.acquire();
+  }
 }
 
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.SocketOutputStream;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test the checksum verification of the block data sent by
+ * {@link BlockSender}, with and without transferTo().
+ */
+public class TestBlockSender {
+  private static final int FILE_LEN = 3 * 1024 * 1024 + 123;
+  private static final int BYTES_PER_CHECKSUM = 512;
+
+  private MiniDFSCluster cluster;
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private ExtendedBlock createFile(boolean transferToAllowed)
+      throws IOException {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY, BYTES_PER_CHECKSUM);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_TRANSFERTO_ALLOWED_KEY,
+        transferToAllowed);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    DistributedFileSystem fs = cluster.getFileSystem();
+    Path file = new Path("/file");
+    DFSTestUtil.createFile(fs, file, FILE_LEN, (short) 1, 0xBEEFL);
+    return DFSTestUtil.getFirstBlock(fs, file);
+  }
+
+  private long sendBlock(ExtendedBlock block, boolean verifyChecksum)
+      throws IOException, InterruptedException {
+    return sendBlock(block, verifyChecksum, -1);
+  }
+
+  /**
+   * Send the block over a socket, as to a client.
+   * @param truncateTo if not negative, truncate the block file to this
+   *   length once the sender is open
+   * @return the number of bytes received at the other end
+   */
+  private long sendBlock(ExtendedBlock block, boolean verifyChecksum,
+      long truncateTo) throws IOException, InterruptedException {
+    DataNode dn = cluster.getDataNodes().get(0);
+    ServerSocketChannel server = ServerSocketChannel.open();
+    SocketChannel client = null;
+    SocketChannel peer = null;
+    try {
+      server.socket().bind(new InetSocketAddress("localhost", 0));
+      client = SocketChannel.open(server.socket().getLocalSocketAddress());
+      peer = server.accept();
+      final AtomicLong received = new AtomicLong();
+      final InputStream in = Channels.newInputStream(peer);
+      Thread drainer = new Thread() {
+        @Override
+        public void run() {
+          byte[] buf = new byte[64 * 1024];
+          try {
+            for (int n; (n = in.read(buf)) >= 0; ) {
+              received.addAndGet(n);
+            }
+          } catch (IOException e) {
+            // the sender closed the connection
+          }
+        }
+      };
+      drainer.start();
+
+      SocketOutputStream sockOut = new SocketOutputStream(client, 0);
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(sockOut));
+      BlockSender sender = new BlockSender(block, 0, -1, false,
+          verifyChecksum, true, dn, null,
+          CachingStrategy.newDefaultStrategy(), IoClass.CLIENT_READ);
+      if (truncateTo >= 0) {
+        RandomAccessFile raf =
+            new RandomAccessFile(cluster.getBlockFile(0, block), "rw");
+        try {
+          raf.setLength(truncateTo);
+        } finally {
+          raf.close();
+        }
+      }
+      try {
+        long sent = sender.sendBlock(out, sockOut, null);
+        assertEquals(FILE_LEN + 4 * ((FILE_LEN + BYTES_PER_CHECKSUM - 1)
+            / BYTES_PER_CHECKSUM), sent);
+      } finally {
+        client.close();
+        drainer.join();
+      }
+      return received.get();
+    } finally {
+      IOUtils.cleanup(null, client, peer, server);
+    }
+  }
+
+  private void testVerifyChecksum(boolean transferToAllowed)
+      throws Exception {
+    ExtendedBlock block = createFile(transferToAllowed);
+    long received = sendBlock(block, true);
+    assertTrue("Received only " + received + " bytes", received > FILE_LEN);
+
+    assertTrue(cluster.corruptReplica(0, block));
+    // without verification, the corrupt data is sent as is
+    sendBlock(block, false);
+    try {
+      sendBlock(block, true);
+      fail("Sent a corrupt replica");
+    } catch (ChecksumException e) {
+      assertTrue(e.getPos() >= 0 && e.getPos() < FILE_LEN);
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testVerifyChecksumWithTransferTo() throws Exception {
+    testVerifyChecksum(true);
+  }
+
+  @Test(timeout = 120000)
+  public void testVerifyChecksumWithoutTransferTo() throws Exception {
+    testVerifyChecksum(false);
+  }
+
+  /**
+   * A replica truncated while it is sent with transferTo and verified fails
+   * the send, instead of faulting on the missing part of the file.
+   */
+  @Test(timeout = 120000)
+  public void testVerifyChecksumOfTruncatedReplica() throws Exception {
+    ExtendedBlock block = createFile(true);
+    try {
+      sendBlock(block, true, FILE_LEN / 2);
+      fail("Sent a truncated replica");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+}
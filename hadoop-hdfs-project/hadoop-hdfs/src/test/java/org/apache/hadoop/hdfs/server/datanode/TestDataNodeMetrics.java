@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
 import static org.apache.hadoop.test.MetricsAsserts.assertQuantileGauges;
 import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
@@ -113,6 +114,31 @@ public void testSendDataPacketMetrics() throws Exception {
     }
   }
 
+  @Test
+  public void testVolumeIoSchedulerMetrics() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_MAX_OUTSTANDING_KEY, 2);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      // Create and read a 1 byte file
+      Path tmpfile = new Path("/tmp.txt");
+      DFSTestUtil.createFile(fs, tmpfile,
+          (long)1, (short)1, 1L);
+      DFSTestUtil.readFile(fs, tmpfile);
+      DataNode datanode = cluster.getDataNodes().get(0);
+      MetricsRecordBuilder rb = getMetrics(datanode.getMetrics().name());
+      // 1 data packet written, 2 packets read
+      assertCounter("ClientWriteIoWaitNanosNumOps", (long)1, rb);
+      assertCounter("ClientReadIoWaitNanosNumOps", (long)2, rb);
+      assertCounter("ReplicationIoWaitNanosNumOps", (long)0, rb);
+      assertGauge("ClientReadIoQueueDepth", 0, rb);
+    } finally {
+      if (cluster != null) {cluster.shutdown();}
+    }
+  }
+
   @Test
   public void testReceivePacketMetrics() throws Exception {
     Configuration conf = new HdfsConfiguration();
@@ -59,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.FsDatasetTestUtil;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.test.GenericTestUtils;
+import org.apache.hadoop.util.AutoCloseableLock;
 import org.apache.hadoop.util.Time;
 import org.junit.Test;
 
@@ -100,7 +101,7 @@ private List<LocatedBlock> createFile(String fileNamePrefix,
 
   /** Truncate a block file */
   private long truncateBlockFile() throws IOException {
-    synchronized (fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File f = b.getBlockFile();
         File mf = b.getMetaFile();
@@ -125,7 +126,7 @@ private long truncateBlockFile() throws IOException {
 
   /** Delete a block file */
   private long deleteBlockFile() {
-    synchronized(fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File f = b.getBlockFile();
         File mf = b.getMetaFile();
@@ -141,7 +142,7 @@ private long deleteBlockFile() {
 
   /** Delete block meta file */
   private long deleteMetaFile() {
-    synchronized(fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       for (ReplicaInfo b : FsDatasetTestUtil.getReplicas(fds, bpid)) {
         File file = b.getMetaFile();
         // Delete a metadata file
@@ -160,7 +161,7 @@ private long deleteMetaFile() {
    * @throws IOException
    */
   private void duplicateBlock(long blockId) throws IOException {
-    synchronized (fds) {
+    try (AutoCloseableLock lock = fds.acquireDatasetLock()) {
       ReplicaInfo b = FsDatasetTestUtil.fetchReplicaInfo(fds, bpid, blockId);
       for (FsVolumeSpi v : fds.getVolumes()) {
         if (v.getStorageID().equals(b.getVolume().getStorageID())) {
@@ -379,6 +380,72 @@ public void testDeleteBlockOnTransientStorage() throws Exception {
     }
   }
 
+  /** Make the block directories look like they have not changed lately */
+  private void backdateBlockDirs(File dir) {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        if (file.isDirectory()) {
+          backdateBlockDirs(file);
+        }
+      }
+    }
+    assertTrue(dir.setLastModified(Time.now() - 60000));
+  }
+
+  @Test (timeout=300000)
+  public void testIncrementalScan() throws Exception {
+    Configuration conf = new HdfsConfiguration(CONF);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INCREMENTAL_KEY,
+        true);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      client = cluster.getFileSystem().getClient();
+      DataNode dataNode = cluster.getDataNodes().get(0);
+      createFile(GenericTestUtils.getMethodName(), BLOCK_LENGTH * 100, false);
+      for (FsVolumeSpi volume : fds.getVolumes()) {
+        backdateBlockDirs(volume.getFinalizedDir(bpid));
+      }
+      scanner = new DirectoryScanner(dataNode, fds, conf);
+      scanner.setRetainDiffs(true);
+
+      // The directories are skipped once they matched the blocks in memory
+      scan(100, 0, 0, 0, 0, 0);
+      assertEquals(0, scanner.stats.get(bpid).skippedDirs);
+      scan(100, 0, 0, 0, 0, 0);
+      long skipped = scanner.stats.get(bpid).skippedDirs;
+      assertTrue(skipped > 0);
+      for (FsVolumeSpi volume : fds.getVolumes()) {
+        assertTrue(new File(volume.getFinalizedDir(bpid).getParentFile(),
+            DirectoryScanner.LeafDigests.FILE_NAME).exists());
+      }
+
+      // A directory which has changed is listed again
+      long blockId = deleteMetaFile();
+      scan(100, 1, 1, 0, 0, 1);
+      assertEquals(skipped - 1, scanner.stats.get(bpid).skippedDirs);
+      verifyGenStamp(blockId, GenerationStamp.GRANDFATHER_GENERATION_STAMP);
+      scan(100, 0, 0, 0, 0, 0);
+
+      // The digests outlive the scanner
+      scanner.shutdown();
+      scanner = new DirectoryScanner(dataNode, fds, conf);
+      scanner.setRetainDiffs(true);
+      scan(100, 0, 0, 0, 0, 0);
+      assertTrue(scanner.stats.get(bpid).skippedDirs > 0);
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+        scanner = null;
+      }
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
   @Test (timeout=600000)
   public void testDirectoryScanner() throws Exception {
     // Run the test with and without parallel scanning
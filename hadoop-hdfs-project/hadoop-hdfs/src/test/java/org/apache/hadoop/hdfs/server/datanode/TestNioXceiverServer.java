@@ -0,0 +1,226 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.BlockReader;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.RemoteBlockReader2;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Test the DataNode serving its connections with a {@link NioXceiverServer}.
+ */
+public class TestNioXceiverServer {
+  private static final int FILE_LEN = 4096;
+  private static final int NUM_CONNECTIONS = 1000;
+  private static final int EVENT_LOOPS = 2;
+  private static final int WORKERS = 8;
+  private static final int VOLUME_WORKERS = 4;
+
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_ENABLED_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_EVENT_LOOPS_KEY,
+        EVENT_LOOPS);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_WORKERS_KEY, WORKERS);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_XCEIVER_NIO_VOLUME_WORKERS_KEY,
+        VOLUME_WORKERS);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_MAX_RECEIVER_THREADS_KEY,
+        2 * NUM_CONNECTIONS);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    IOUtils.cleanup(null, fs);
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  @Test
+  public void testGetRequestLength() {
+    ByteBuffer buf = ByteBuffer.allocate(512);
+    assertEquals(-1, NioXceiverServer.getRequestLength(buf));
+    buf.putShort((short) DataTransferProtocol.DATA_TRANSFER_VERSION);
+    buf.put((byte) 81);
+    assertEquals(-1, NioXceiverServer.getRequestLength(buf));
+    // a two byte varint of 300
+    buf.put((byte) 0xac);
+    assertEquals(-1, NioXceiverServer.getRequestLength(buf));
+    buf.put((byte) 0x02);
+    assertEquals(3 + 2 + 300, NioXceiverServer.getRequestLength(buf));
+
+    // a version mismatch is handed to the DataXceiver right away
+    buf.clear();
+    buf.putShort((short) 1);
+    buf.put((byte) 81);
+    assertEquals(3, NioXceiverServer.getRequestLength(buf));
+  }
+
+  @Test(timeout = 120000)
+  public void testWriteAndRead() throws Exception {
+    Path file = new Path("/file");
+    // the pipeline of the write and the reads go through the event loops
+    DFSTestUtil.createFile(fs, file, 3 * FILE_LEN, (short) 3, 0);
+    byte[] expected = DFSTestUtil.readFileBuffer(fs, file);
+    for (int i = 0; i < 10; i++) {
+      assertTrue(Arrays.equals(expected,
+          DFSTestUtil.readFileBuffer(fs, file)));
+    }
+    // the block checksums are read on the workers of the volumes
+    FileChecksum checksum = fs.getFileChecksum(file);
+    assertEquals(checksum, fs.getFileChecksum(file));
+  }
+
+  /**
+   * More open pipelines than workers do not wait for each other, as the
+   * writes do not run on the workers.
+   */
+  @Test(timeout = 120000)
+  public void testMoreWritesThanWorkers() throws Exception {
+    byte[] data = new byte[FILE_LEN];
+    List<FSDataOutputStream> outs = new ArrayList<FSDataOutputStream>();
+    try {
+      for (int i = 0; i < 2 * WORKERS; i++) {
+        FSDataOutputStream out = fs.create(new Path("/file" + i), (short) 3);
+        outs.add(out);
+        out.write(data);
+        out.hflush();
+      }
+    } finally {
+      IOUtils.cleanup(null, outs.toArray(new FSDataOutputStream[outs.size()]));
+    }
+    for (int i = 0; i < 2 * WORKERS; i++) {
+      assertTrue(Arrays.equals(data,
+          DFSTestUtil.readFileBuffer(fs, new Path("/file" + i))));
+    }
+  }
+
+  /**
+   * Many concurrent connections, each reading a block, are served by a
+   * bounded number of threads.
+   */
+  @Test(timeout = 300000)
+  public void testManyConnections() throws Exception {
+    Path file = new Path("/file");
+    DFSTestUtil.createFile(fs, file, FILE_LEN, (short) 1, 0);
+    final LocatedBlock lb = DFSTestUtil.getAllBlocks(fs, file).get(0);
+    final DatanodeInfo dnInfo = lb.getLocations()[0];
+    final DataNode dn = cluster.getDataNode(dnInfo.getIpcPort());
+    final int initialXceivers = dn.getXceiverCount();
+    InetSocketAddress addr = NetUtils.createSocketAddr(dnInfo.getXferAddr());
+
+    final List<Peer> peers = new ArrayList<Peer>();
+    try {
+      for (int i = 0; i < NUM_CONNECTIONS; i++) {
+        Socket sock = NetUtils.getDefaultSocketFactory(conf).createSocket();
+        sock.connect(addr, HdfsServerConstants.READ_TIMEOUT);
+        sock.setSoTimeout(HdfsServerConstants.READ_TIMEOUT);
+        peers.add(TcpPeerServer.peerFromSocket(sock));
+      }
+      GenericTestUtils.waitFor(new Supplier<Boolean>() {
+        @Override
+        public Boolean get() {
+          return dn.getXceiverCount() >= initialXceivers + NUM_CONNECTIONS;
+        }
+      }, 100, 60000);
+
+      // read the block over every connection
+      ExecutorService readers = Executors.newFixedThreadPool(16);
+      List<Future<Integer>> reads = new ArrayList<Future<Integer>>();
+      for (final Peer peer : peers) {
+        reads.add(readers.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            BlockReader reader = RemoteBlockReader2.newBlockReader("/file",
+                lb.getBlock(), lb.getBlockToken(), 0, FILE_LEN, true,
+                "TestNioXceiverServer", peer, dnInfo, null,
+                CachingStrategy.newDefaultStrategy());
+            byte[] buf = new byte[FILE_LEN];
+            reader.readFully(buf, 0, FILE_LEN);
+            reader.close();
+            return buf.length;
+          }
+        }));
+      }
+      for (Future<Integer> read : reads) {
+        assertEquals(FILE_LEN, read.get().intValue());
+      }
+      readers.shutdown();
+
+      // the readers closed the connections, which did not hold a thread each
+      int maxThreads = EVENT_LOOPS + WORKERS
+          + VOLUME_WORKERS * dn.getFSDataset().getVolumes().size();
+      int threads = dn.getXferServer().getNioServer().getThreadGroup()
+          .activeCount();
+      assertTrue("Too many threads: " + threads, threads <= maxThreads);
+    } finally {
+      IOUtils.cleanup(null, peers.toArray(new Peer[peers.size()]));
+    }
+
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return dn.getXferServer().getNumNioConnections() == 0;
+      }
+    }, 100, 60000);
+  }
+}
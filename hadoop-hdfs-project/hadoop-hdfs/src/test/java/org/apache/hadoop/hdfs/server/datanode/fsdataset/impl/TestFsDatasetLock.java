@@ -0,0 +1,163 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.util.AutoCloseableLock;
+import org.junit.Test;
+
+/**
+ * Unit test for the FsDatasetLock class
+ */
+public class TestFsDatasetLock {
+  private static final int STRIPES = 16;
+
+  /** Take a lock in a new thread, which holds it until released. */
+  private static class Holder extends Thread {
+    private final FsDatasetLock lock;
+    private final long blockId;
+    private final CountDownLatch acquired = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    /** @param blockId the block to lock, or -1 for the write lock */
+    Holder(FsDatasetLock lock, long blockId) {
+      this.lock = lock;
+      this.blockId = blockId;
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      try (AutoCloseableLock l = blockId < 0 ? lock.acquireWriteLock()
+          : lock.acquireBlockLock(blockId)) {
+        acquired.countDown();
+        release.await();
+      } catch (InterruptedException e) {
+        // the test is over
+      }
+    }
+
+    boolean awaitAcquired(long ms) throws InterruptedException {
+      return acquired.await(ms, TimeUnit.MILLISECONDS);
+    }
+
+    void release() throws InterruptedException {
+      release.countDown();
+      join();
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testBlockLocks() throws Exception {
+    FsDatasetLock lock = new FsDatasetLock(STRIPES, null);
+    Holder first = new Holder(lock, 1);
+    first.start();
+    assertTrue(first.awaitAcquired(10000));
+
+    // another stripe is not blocked
+    Holder other = new Holder(lock, 2);
+    other.start();
+    assertTrue(other.awaitAcquired(10000));
+    other.release();
+
+    // the same stripe is
+    Holder same = new Holder(lock, 1 + STRIPES);
+    same.start();
+    assertFalse(same.awaitAcquired(100));
+    first.release();
+    assertTrue(same.awaitAcquired(10000));
+    same.release();
+  }
+
+  @Test(timeout = 60000)
+  public void testWriteLock() throws Exception {
+    FsDatasetLock lock = new FsDatasetLock(STRIPES, null);
+    Holder block = new Holder(lock, 1);
+    block.start();
+    assertTrue(block.awaitAcquired(10000));
+
+    // the write lock waits for the block locks to be released
+    Holder writer = new Holder(lock, -1);
+    writer.start();
+    assertFalse(writer.awaitAcquired(100));
+    block.release();
+    assertTrue(writer.awaitAcquired(10000));
+
+    // and keeps the block locks out
+    Holder other = new Holder(lock, 2);
+    other.start();
+    assertFalse(other.awaitAcquired(100));
+    writer.release();
+    assertTrue(other.awaitAcquired(10000));
+    other.release();
+
+    // the holder of the write lock can still take the other locks
+    try (AutoCloseableLock w = lock.acquireWriteLock()) {
+      assertTrue(lock.isWriteLockedByCurrentThread());
+      try (AutoCloseableLock r = lock.acquireReadLock();
+           AutoCloseableLock b = lock.acquireBlockLock(3)) {
+        assertEquals(2, lock.getReadLockCount());
+      }
+    }
+    assertEquals(0, lock.getReadLockCount());
+  }
+
+  @Test(timeout = 60000)
+  public void testWaitMetrics() throws Exception {
+    DefaultMetricsSystem.setMiniClusterMode(true);
+    DataNodeMetrics metrics = DataNodeMetrics.create(new Configuration(),
+        "TestFsDatasetLock");
+    try {
+      FsDatasetLock lock = new FsDatasetLock(STRIPES, metrics);
+      // no wait, no sample
+      lock.acquireBlockLock(1).release();
+      lock.acquireReadLock().release();
+      lock.acquireWriteLock().release();
+      assertCounter("BlockLockWaitNanosNumOps", 0L,
+          getMetrics(metrics.name()));
+      assertCounter("DatasetReadLockWaitNanosNumOps", 0L,
+          getMetrics(metrics.name()));
+      assertCounter("DatasetWriteLockWaitNanosNumOps", 0L,
+          getMetrics(metrics.name()));
+
+      Holder first = new Holder(lock, 1);
+      first.start();
+      assertTrue(first.awaitAcquired(10000));
+      Holder same = new Holder(lock, 1);
+      same.start();
+      assertFalse(same.awaitAcquired(100));
+      first.release();
+      same.release();
+      assertCounter("BlockLockWaitNanosNumOps", 1L,
+          getMetrics(metrics.name()));
+    } finally {
+      DefaultMetricsSystem.instance().unregisterSource(metrics.name());
+    }
+  }
+}
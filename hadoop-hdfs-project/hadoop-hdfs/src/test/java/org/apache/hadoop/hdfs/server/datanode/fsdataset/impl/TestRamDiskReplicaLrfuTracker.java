@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.RamDiskReplicaTracker.RamDiskReplica;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for the eviction order of {@link RamDiskReplicaLrfuTracker}.
+ */
+public class TestRamDiskReplicaLrfuTracker {
+  private static final String BPID = "BP-TEST";
+  private static final long HALF_LIFE_MS = 1000;
+
+  private RamDiskReplicaLrfuTracker tracker;
+
+  @Before
+  public void setUp() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setClass(DFSConfigKeys.DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_KEY,
+        RamDiskReplicaLrfuTracker.class, RamDiskReplicaTracker.class);
+    conf.setLong(
+        DFSConfigKeys.DFS_DATANODE_RAM_DISK_REPLICA_TRACKER_LRFU_HALF_LIFE_MS_KEY,
+        HALF_LIFE_MS);
+    tracker = (RamDiskReplicaLrfuTracker)
+        RamDiskReplicaTracker.getInstance(conf, null);
+  }
+
+  private void addPersistedReplica(long blockId) {
+    tracker.addReplica(BPID, blockId, null);
+    RamDiskReplica replica = tracker.dequeueNextReplicaToPersist();
+    assertEquals(blockId, replica.getBlockId());
+    tracker.recordEndLazyPersist(BPID, blockId,
+        new File[] { new File("meta"), new File("block") });
+  }
+
+  private long nextBlockToEvict() {
+    RamDiskReplica replica = tracker.getNextCandidateForEviction();
+    return replica == null ? -1 : replica.getBlockId();
+  }
+
+  @Test
+  public void testKeys() {
+    final long now = 100 * HALF_LIFE_MS;
+    // a second read ranks like one read a half-life later
+    assertEquals(now + HALF_LIFE_MS, tracker.getKeyOnRead(now, now));
+    // the older reads count for little
+    long key = tracker.getKeyOnRead(now - 10 * HALF_LIFE_MS, now);
+    assertTrue(key >= now && key <= now + 2);
+    // the keys grow with the number of reads
+    long previous = tracker.getKeyOnRead(now, now);
+    for (int i = 0; i < 5; i++) {
+      key = tracker.getKeyOnRead(previous, now);
+      assertTrue(key > previous);
+      previous = key;
+    }
+  }
+
+  @Test
+  public void testFrequentlyReadReplicasAreEvictedLast() {
+    for (long blockId = 1; blockId <= 3; blockId++) {
+      addPersistedReplica(blockId);
+    }
+    assertEquals(0, tracker.numReplicasNotPersisted());
+
+    // block 2 is read more often than block 3, though less recently.
+    for (int i = 0; i < 3; i++) {
+      tracker.touch(BPID, 2);
+    }
+    tracker.touch(BPID, 3);
+
+    assertEquals(1, nextBlockToEvict());
+    assertEquals(3, nextBlockToEvict());
+    assertEquals(2, nextBlockToEvict());
+    assertEquals(-1, nextBlockToEvict());
+  }
+
+  @Test
+  public void testEvictionHistory() {
+    addPersistedReplica(1);
+    assertFalse(tracker.isRecentlyEvicted(BPID, 1));
+    assertEquals(1, nextBlockToEvict());
+    tracker.discardReplica(BPID, 1, false);
+    tracker.recordEviction(BPID, 1);
+    assertNull(tracker.getReplica(BPID, 1));
+    assertTrue(tracker.isRecentlyEvicted(BPID, 1));
+    assertFalse(tracker.isRecentlyEvicted("BP-OTHER", 1));
+
+    // only the most recent evictions are remembered
+    for (long blockId = 2;
+         blockId < 2 + RamDiskReplicaTracker.MAX_EVICTED_HISTORY; blockId++) {
+      tracker.recordEviction(BPID, blockId);
+    }
+    assertFalse(tracker.isRecentlyEvicted(BPID, 1));
+    assertTrue(tracker.isRecentlyEvicted(BPID, 2));
+  }
+}
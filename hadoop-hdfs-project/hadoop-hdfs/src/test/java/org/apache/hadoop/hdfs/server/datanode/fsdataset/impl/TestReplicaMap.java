@@ -17,12 +17,16 @@
  */
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
+import java.util.Collection;
+
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -30,7 +34,7 @@
  * Unit test for ReplicasMap class
  */
 public class TestReplicaMap {
-  private final ReplicaMap map = new ReplicaMap(TestReplicaMap.class);
+  private final ReplicaMap map = new ReplicaMap();
   private final String bpid = "BP-TEST";
   private final  Block block = new Block(1234, 1234, 1234);
   
@@ -107,4 +111,22 @@ public void testRemove() {
     map.add(bpid, new FinalizedReplica(block, null, null));
     assertNotNull(map.remove(bpid, block.getBlockId()));
   }
+
+  @Test
+  public void testReplicasIsACopy() {
+    Collection<ReplicaInfo> replicas = map.replicas(bpid);
+    assertEquals(1, replicas.size());
+
+    // the map changes while the copy is iterated
+    for (ReplicaInfo r : replicas) {
+      map.remove(bpid, r.getBlockId());
+      map.add(bpid, new FinalizedReplica(new Block(1), null, null));
+    }
+    assertEquals(1, replicas.size());
+    assertNull(map.get(bpid, block.getBlockId()));
+
+    // removing from the copy does not remove from the map
+    map.replicas(bpid).clear();
+    assertEquals(1, map.size(bpid));
+  }
 }
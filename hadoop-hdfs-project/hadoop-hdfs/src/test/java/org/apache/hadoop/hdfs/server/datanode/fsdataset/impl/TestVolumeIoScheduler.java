@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
+import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.impl.VolumeIoScheduler.IoClass;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Unit test for the VolumeIoScheduler class
+ */
+public class TestVolumeIoScheduler {
+  private static final long LONG_DEADLINE = 600000;
+
+  private final List<IoClass> admitted =
+      Collections.synchronizedList(new ArrayList<IoClass>());
+
+  /** Acquire the scheduler in a new thread, then release it right away. */
+  private Thread startRequest(final VolumeIoScheduler scheduler,
+      final IoClass ioClass) {
+    Thread t = new Thread() {
+      @Override
+      public void run() {
+        try {
+          scheduler.acquire(ioClass);
+          admitted.add(ioClass);
+          scheduler.release();
+        } catch (InterruptedIOException e) {
+          // the request was abandoned
+        }
+      }
+    };
+    t.start();
+    return t;
+  }
+
+  private static void waitForQueueLength(final VolumeIoScheduler scheduler,
+      final IoClass ioClass, final int length) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return scheduler.getQueueLength(ioClass) == length;
+      }
+    }, 10, 10000);
+  }
+
+  @Test
+  public void testDisabled() throws Exception {
+    Configuration conf = new Configuration();
+    VolumeIoScheduler scheduler = VolumeIoScheduler.create(conf, null);
+    assertFalse(scheduler.isEnabled());
+    for (int i = 0; i < 10; i++) {
+      scheduler.acquire(IoClass.SCANNER);
+    }
+    scheduler.release();
+
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_MAX_OUTSTANDING_KEY, 4);
+    assertTrue(VolumeIoScheduler.create(conf, null).isEnabled());
+  }
+
+  @Test(timeout = 60000)
+  public void testPriority() throws Exception {
+    VolumeIoScheduler scheduler = new VolumeIoScheduler(1, new long[] {
+        LONG_DEADLINE, LONG_DEADLINE, LONG_DEADLINE, LONG_DEADLINE }, null);
+    scheduler.acquire(IoClass.CLIENT_READ);
+
+    List<Thread> threads = new ArrayList<Thread>();
+    IoClass[] order = { IoClass.SCANNER, IoClass.REPLICATION,
+        IoClass.CLIENT_WRITE, IoClass.CLIENT_READ };
+    for (IoClass ioClass : order) {
+      threads.add(startRequest(scheduler, ioClass));
+      waitForQueueLength(scheduler, ioClass, 1);
+    }
+    scheduler.release();
+    for (Thread t : threads) {
+      t.join();
+    }
+    // admitted by their priority, not by their arrival
+    assertEquals(IoClass.CLIENT_READ, admitted.get(0));
+    assertEquals(IoClass.CLIENT_WRITE, admitted.get(1));
+    assertEquals(IoClass.REPLICATION, admitted.get(2));
+    assertEquals(IoClass.SCANNER, admitted.get(3));
+  }
+
+  @Test(timeout = 60000)
+  public void testDeadline() throws Exception {
+    VolumeIoScheduler scheduler = new VolumeIoScheduler(1, new long[] {
+        LONG_DEADLINE, LONG_DEADLINE, LONG_DEADLINE, 1 }, null);
+    scheduler.acquire(IoClass.CLIENT_READ);
+
+    Thread scan = startRequest(scheduler, IoClass.SCANNER);
+    waitForQueueLength(scheduler, IoClass.SCANNER, 1);
+    Thread read = startRequest(scheduler, IoClass.CLIENT_READ);
+    waitForQueueLength(scheduler, IoClass.CLIENT_READ, 1);
+    Thread.sleep(10);
+
+    scheduler.release();
+    scan.join();
+    read.join();
+    // the scan waited past its deadline, so it goes before the read
+    assertEquals(IoClass.SCANNER, admitted.get(0));
+    assertEquals(IoClass.CLIENT_READ, admitted.get(1));
+  }
+
+  @Test(timeout = 60000)
+  public void testInterrupt() throws Exception {
+    VolumeIoScheduler scheduler = new VolumeIoScheduler(1, new long[] {
+        LONG_DEADLINE, LONG_DEADLINE, LONG_DEADLINE, LONG_DEADLINE }, null);
+    scheduler.acquire(IoClass.CLIENT_WRITE);
+    Thread scan = startRequest(scheduler, IoClass.SCANNER);
+    waitForQueueLength(scheduler, IoClass.SCANNER, 1);
+    scan.interrupt();
+    scan.join();
+    assertEquals(0, scheduler.getQueueLength(IoClass.SCANNER));
+    assertTrue(admitted.isEmpty());
+
+    // the abandoned request did not take the admission
+    scheduler.release();
+    Thread read = startRequest(scheduler, IoClass.CLIENT_READ);
+    read.join();
+    assertEquals(IoClass.CLIENT_READ, admitted.get(0));
+
+    Thread.currentThread().interrupt();
+    try {
+      scheduler.acquire(IoClass.SCANNER);
+      scheduler.release();
+    } finally {
+      // admitted right away, the interrupt is left for the caller
+      assertTrue(Thread.interrupted());
+    }
+  }
+
+  @Test(timeout = 60000)
+  public void testMetrics() throws Exception {
+    DefaultMetricsSystem.setMiniClusterMode(true);
+    DataNodeMetrics metrics = DataNodeMetrics.create(new Configuration(),
+        "TestVolumeIoScheduler");
+    try {
+      VolumeIoScheduler scheduler = new VolumeIoScheduler(1, new long[] {
+          LONG_DEADLINE, LONG_DEADLINE, LONG_DEADLINE, LONG_DEADLINE },
+          metrics);
+      scheduler.acquire(IoClass.CLIENT_READ);
+      Thread scan = startRequest(scheduler, IoClass.SCANNER);
+      waitForQueueLength(scheduler, IoClass.SCANNER, 1);
+      assertGauge("ScannerIoQueueDepth", 1, getMetrics(metrics.name()));
+      assertGauge("ClientReadIoQueueDepth", 0, getMetrics(metrics.name()));
+
+      scheduler.release();
+      scan.join();
+      assertGauge("ScannerIoQueueDepth", 0, getMetrics(metrics.name()));
+      assertCounter("ClientReadIoWaitNanosNumOps", 1L,
+          getMetrics(metrics.name()));
+      assertCounter("ScannerIoWaitNanosNumOps", 1L,
+          getMetrics(metrics.name()));
+    } finally {
+      DefaultMetricsSystem.instance().unregisterSource(metrics.name());
+    }
+  }
+
+  @Test
+  public void testWrongDeadlines() {
+    Configuration conf = new Configuration();
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_MAX_OUTSTANDING_KEY, 4);
+    conf.set(DFSConfigKeys.DFS_DATANODE_VOLUME_IO_SCHEDULER_DEADLINES_MS_KEY,
+        "10,20");
+    try {
+      VolumeIoScheduler.create(conf, null);
+      fail("Expected exception not thrown");
+    } catch (IllegalArgumentException expected) { }
+  }
+}
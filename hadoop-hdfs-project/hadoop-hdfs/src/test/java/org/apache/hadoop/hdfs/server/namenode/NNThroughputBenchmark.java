@@ -115,6 +115,11 @@
  * <li>-keepResults do not clean up the name-space after execution.</li>
  * <li>-useExisting do not recreate the name-space, use existing data.</li>
  * </ol>
+ *
+ * The number of threads may also be given as a comma separated list,
+ * e.g. <tt>-op mkdirs -threads 1,4,16,64</tt>. The selected operations are
+ * then run once per thread count, which shows how the name-node throughput
+ * scales with the number of concurrent handlers.
  * 
  * The benchmark first generates inputs for each thread so that the
  * input generation overhead does not effect the resulting statistics.
@@ -1454,6 +1459,84 @@ public static void runBenchmark(Configuration conf, String[] args)
     }
   }
 
+  /**
+   * Create the statistics objects for the requested operations.
+   */
+  private List<OperationStatsBase> getOperations(String type, boolean runAll,
+      List<String> args, URI nnUri) {
+    List<OperationStatsBase> ops = new ArrayList<OperationStatsBase>();
+    OperationStatsBase opStat = null;
+    if(runAll || CreateFileStats.OP_CREATE_NAME.equals(type)) {
+      opStat = new CreateFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || MkdirsStats.OP_MKDIRS_NAME.equals(type)) {
+      opStat = new MkdirsStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || OpenFileStats.OP_OPEN_NAME.equals(type)) {
+      opStat = new OpenFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || DeleteFileStats.OP_DELETE_NAME.equals(type)) {
+      opStat = new DeleteFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || FileStatusStats.OP_FILE_STATUS_NAME.equals(type)) {
+      opStat = new FileStatusStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || RenameFileStats.OP_RENAME_NAME.equals(type)) {
+      opStat = new RenameFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || BlockReportStats.OP_BLOCK_REPORT_NAME.equals(type)) {
+      opStat = new BlockReportStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || ReplicationStats.OP_REPLICATION_NAME.equals(type)) {
+      if (nnUri.getScheme() != null && nnUri.getScheme().equals("hdfs")) {
+        LOG.warn("The replication test is ignored as it does not support " +
+            "standalone namenode in another process or on another host. ");
+      } else {
+        opStat = new ReplicationStats(args);
+        ops.add(opStat);
+      }
+    }
+    if(runAll || CleanAllStats.OP_CLEAN_NAME.equals(type)) {
+      opStat = new CleanAllStats(args);
+      ops.add(opStat);
+    }
+    if (ops.isEmpty()) {
+      printUsage();
+    }
+    return ops;
+  }
+
+  /**
+   * Get the values of the -threads option, which may be a comma separated
+   * list of thread counts; a single null entry if the option is not given.
+   */
+  private static String[] getThreadCounts(List<String> args) {
+    int tIndex = args.indexOf("-threads");
+    if (tIndex < 0 || tIndex + 1 >= args.size()) {
+      return new String[] {null};
+    }
+    return StringUtils.getTrimmedStrings(args.get(tIndex + 1));
+  }
+
+  /**
+   * Copy the arguments replacing the value of -threads with the given one.
+   */
+  private static List<String> withThreads(List<String> args, String threads) {
+    List<String> copy = new ArrayList<String>(args);
+    int tIndex = copy.indexOf("-threads");
+    if (threads != null && tIndex >= 0) {
+      copy.set(tIndex + 1, threads);
+    }
+    return copy;
+  }
+
   /**
    * Main method of the benchmark.
    * @param aArgs command line parameters
@@ -1466,58 +1549,16 @@ public int run(String[] aArgs) throws Exception {
 
     String type = args.get(1);
     boolean runAll = OperationStatsBase.OP_ALL_NAME.equals(type);
+    List<String> originalArgs = new ArrayList<String>(args);
+    String[] threadCounts = getThreadCounts(args);
 
     final URI nnUri = FileSystem.getDefaultUri(config);
     // Start the NameNode
     String[] argv = new String[] {};
 
-    List<OperationStatsBase> ops = new ArrayList<OperationStatsBase>();
-    OperationStatsBase opStat = null;
     try {
-      if(runAll || CreateFileStats.OP_CREATE_NAME.equals(type)) {
-        opStat = new CreateFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || MkdirsStats.OP_MKDIRS_NAME.equals(type)) {
-        opStat = new MkdirsStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || OpenFileStats.OP_OPEN_NAME.equals(type)) {
-        opStat = new OpenFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || DeleteFileStats.OP_DELETE_NAME.equals(type)) {
-        opStat = new DeleteFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || FileStatusStats.OP_FILE_STATUS_NAME.equals(type)) {
-        opStat = new FileStatusStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || RenameFileStats.OP_RENAME_NAME.equals(type)) {
-        opStat = new RenameFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || BlockReportStats.OP_BLOCK_REPORT_NAME.equals(type)) {
-        opStat = new BlockReportStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || ReplicationStats.OP_REPLICATION_NAME.equals(type)) {
-        if (nnUri.getScheme() != null && nnUri.getScheme().equals("hdfs")) {
-          LOG.warn("The replication test is ignored as it does not support " +
-              "standalone namenode in another process or on another host. ");
-        } else {
-          opStat = new ReplicationStats(args);
-          ops.add(opStat);
-        }
-      }
-      if(runAll || CleanAllStats.OP_CLEAN_NAME.equals(type)) {
-        opStat = new CleanAllStats(args);
-        ops.add(opStat);
-      }
-      if (ops.isEmpty()) {
-        printUsage();
-      }
+      List<OperationStatsBase> ops = getOperations(
+          type, runAll, withThreads(originalArgs, threadCounts[0]), nnUri);
 
       if (nnUri.getScheme() == null || nnUri.getScheme().equals("file")) {
         LOG.info("Remote NameNode is not specified. Creating one.");
@@ -1542,14 +1583,22 @@ public int run(String[] aArgs) throws Exception {
             DFSTestUtil.getRefreshUserMappingsProtocolProxy(config, nnUri);
         getBlockPoolId(dfs);
       }
-      // run each benchmark
-      for(OperationStatsBase op : ops) {
-        LOG.info("Starting benchmark: " + op.getOpName());
-        op.benchmark();
-        op.cleanUp();
+      // run each benchmark, once for every requested number of threads
+      List<OperationStatsBase> results = new ArrayList<OperationStatsBase>();
+      for(int i = 0; i < threadCounts.length; i++) {
+        if(i > 0) {
+          ops = getOperations(type, runAll,
+              withThreads(originalArgs, threadCounts[i]), nnUri);
+        }
+        for(OperationStatsBase op : ops) {
+          LOG.info("Starting benchmark: " + op.getOpName());
+          op.benchmark();
+          op.cleanUp();
+        }
+        results.addAll(ops);
       }
       // print statistics
-      for(OperationStatsBase op : ops) {
+      for(OperationStatsBase op : results) {
         LOG.info("");
         op.printResults();
       }
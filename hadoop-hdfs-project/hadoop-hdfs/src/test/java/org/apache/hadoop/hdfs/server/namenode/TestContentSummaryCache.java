@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.StorageType;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test that the cached content summary counts of the directories follow the
+ * changes of the namespace.
+ */
+public class TestContentSummaryCache {
+  private static final int BLOCK_SIZE = 1024;
+  private static final short REPLICATION = 1;
+  private static final long SEED = 0;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem dfs;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_CONTENT_SUMMARY_CACHE_MIN_INODES_KEY, 3);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .build();
+    cluster.waitActive();
+    dfs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  private INodeDirectory getDirectory(String path) throws Exception {
+    return cluster.getNamesystem().getFSDirectory().getINode(path)
+        .asDirectory();
+  }
+
+  /**
+   * Check the content summary of a directory against the one computed
+   * without the cache.
+   */
+  private void checkContentSummary(String path) throws Exception {
+    final FSDirectory fsdir = cluster.getNamesystem().getFSDirectory();
+    ContentSummary cs = dfs.getContentSummary(new Path(path));
+    ContentSummary expected = fsdir.getINode(path).computeContentSummary(
+        fsdir.getBlockStoragePolicySuite());
+    assertEquals(expected.toString(true), cs.toString(true));
+    for (StorageType t : StorageType.values()) {
+      assertEquals(expected.getTypeConsumed(t), cs.getTypeConsumed(t));
+    }
+  }
+
+  private void createFile(String path, long len) throws Exception {
+    DFSTestUtil.createFile(dfs, new Path(path), len, REPLICATION, SEED);
+  }
+
+  @Test(timeout = 120000)
+  public void testCountsFollowChanges() throws Exception {
+    dfs.mkdirs(new Path("/a/b/c"));
+    createFile("/a/b/c/f1", 2 * BLOCK_SIZE);
+    createFile("/a/b/c/f2", 2 * BLOCK_SIZE);
+    createFile("/a/b/f3", BLOCK_SIZE);
+    createFile("/a/d/f4", BLOCK_SIZE);
+    checkContentSummary("/a");
+    assertTrue(getDirectory("/a").isContentCountsCached());
+    assertTrue(getDirectory("/a/b/c").isContentCountsCached());
+    // too small to be cached
+    assertFalse(getDirectory("/a/d").isContentCountsCached());
+
+    createFile("/a/b/c/f5", 100);
+    assertFalse(getDirectory("/a").isContentCountsCached());
+    assertFalse(getDirectory("/a/b/c").isContentCountsCached());
+    checkContentSummary("/a");
+    checkContentSummary("/a/b");
+
+    dfs.setReplication(new Path("/a/b/c/f5"), (short) 3);
+    checkContentSummary("/a");
+
+    dfs.rename(new Path("/a/b/c"), new Path("/a/d/c"));
+    checkContentSummary("/a/b");
+    checkContentSummary("/a/d");
+    checkContentSummary("/a");
+
+    dfs.delete(new Path("/a/d/c/f1"), false);
+    checkContentSummary("/a");
+
+    // files under construction are counted as they are written
+    FSDataOutputStream out = dfs.append(new Path("/a/d/c/f2"));
+    out.write(new byte[100]);
+    out.hflush();
+    checkContentSummary("/a");
+    assertFalse(getDirectory("/a").isContentCountsCached());
+    out.close();
+    checkContentSummary("/a");
+    assertTrue(getDirectory("/a").isContentCountsCached());
+
+    createFile("/a/b/f6", BLOCK_SIZE);
+    checkContentSummary("/a");
+    assertTrue(dfs.truncate(new Path("/a/b/f6"), 0));
+    checkContentSummary("/a");
+
+    createFile("/a/b/f7", BLOCK_SIZE);
+    createFile("/a/b/f8", BLOCK_SIZE);
+    checkContentSummary("/a");
+    dfs.concat(new Path("/a/b/f7"), new Path[] { new Path("/a/b/f8") });
+    checkContentSummary("/a");
+
+    // the storage type spaces of the subtree depend on the policy
+    dfs.setStoragePolicy(new Path("/a/d"),
+        HdfsConstants.ONESSD_STORAGE_POLICY_NAME);
+    checkContentSummary("/a");
+    checkContentSummary("/a/d/c");
+    dfs.setStoragePolicy(new Path("/a"),
+        HdfsConstants.ALLSSD_STORAGE_POLICY_NAME);
+    checkContentSummary("/a/b");
+    dfs.rename(new Path("/a/b"), new Path("/b"));
+    checkContentSummary("/b");
+    checkContentSummary("/");
+  }
+
+  @Test(timeout = 120000)
+  public void testSnapshots() throws Exception {
+    dfs.mkdirs(new Path("/a/b/c"));
+    createFile("/a/b/c/f1", BLOCK_SIZE);
+    createFile("/a/b/c/f2", BLOCK_SIZE);
+    createFile("/a/b/f3", BLOCK_SIZE);
+    checkContentSummary("/a");
+
+    dfs.allowSnapshot(new Path("/a/b"));
+    dfs.createSnapshot(new Path("/a/b"), "s1");
+    checkContentSummary("/a");
+    assertFalse(getDirectory("/a").isContentCountsCached());
+
+    // deleted files are still counted while they are in a snapshot
+    dfs.delete(new Path("/a/b/c/f1"), false);
+    checkContentSummary("/a");
+    dfs.rename(new Path("/a/b/c/f2"), new Path("/a/f2"));
+    checkContentSummary("/a");
+    dfs.setReplication(new Path("/a/b/f3"), (short) 2);
+    checkContentSummary("/a");
+    dfs.deleteSnapshot(new Path("/a/b"), "s1");
+    checkContentSummary("/a");
+    checkContentSummary("/a/b/c");
+  }
+
+  @Test(timeout = 120000)
+  public void testCountedOnLoad() throws Exception {
+    dfs.mkdirs(new Path("/a/b"));
+    createFile("/a/b/f1", BLOCK_SIZE);
+    createFile("/a/b/f2", BLOCK_SIZE);
+    cluster.restartNameNode();
+    dfs = cluster.getFileSystem();
+    assertTrue(getDirectory("/a").isContentCountsCached());
+    assertTrue(getDirectory("/").isContentCountsCached());
+    checkContentSummary("/");
+  }
+}
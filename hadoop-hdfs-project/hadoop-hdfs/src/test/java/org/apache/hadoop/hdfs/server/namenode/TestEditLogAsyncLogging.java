@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests that namespace operations survive a restart when IPC handlers
+ * do not wait for their edits to be synced.
+ */
+public class TestEditLogAsyncLogging {
+  private static final String NN_METRICS = "NameNodeActivity";
+  private static final int NUM_THREADS = 8;
+  private static final int OPS_PER_THREAD = 20;
+
+  @Test(timeout = 120000)
+  public void testConcurrentOpsAreDurable() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    // fewer handlers than concurrent clients
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_HANDLER_COUNT_KEY, 2);
+    MiniDFSCluster cluster = null;
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        final Path dir = new Path("/async/t" + t);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+              assertTrue(fs.mkdirs(new Path(dir, "d" + i)));
+              DFSTestUtil.createFile(fs, new Path(dir, "f" + i), 1024,
+                  (short) 1, i);
+              if (i % 2 == 0) {
+                assertTrue(fs.delete(new Path(dir, "f" + i), false));
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> f : futures) {
+        f.get();
+      }
+      assertTrue(getLongCounter("DeferredSyncBatchNumOps",
+          getMetrics(NN_METRICS)) > 0);
+
+      cluster.restartNameNode();
+      FileSystem restarted = cluster.getFileSystem();
+      for (int t = 0; t < NUM_THREADS; t++) {
+        Path dir = new Path("/async/t" + t);
+        for (int i = 0; i < OPS_PER_THREAD; i++) {
+          assertTrue(restarted.isDirectory(new Path(dir, "d" + i)));
+          Path file = new Path(dir, "f" + i);
+          if (i % 2 == 0) {
+            assertFalse(restarted.exists(file));
+          } else {
+            assertEquals(1024, restarted.getFileStatus(file).getLen());
+          }
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * A NameNode which crashes after a delete, before its edit is synced,
+   * restarts with the file. Its replicas must not have been invalidated.
+   */
+  @Test(timeout = 120000)
+  public void testCrashBeforeSyncOfDelete() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    File backup = new File(MiniDFSCluster.getBaseDirectory(), "backup");
+    ExecutorService deleter = Executors.newSingleThreadExecutor();
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      final FileSystem fs = cluster.getFileSystem();
+      final Path file = new Path("/file");
+      DFSTestUtil.createFile(fs, file, 1024, (short) 1, 0);
+      ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, file);
+      File replica = cluster.getBlockFile(0, block);
+      assertTrue(replica.exists());
+
+      // hold the sync of the delete
+      FSEditLog editLog =
+          NameNodeAdapter.spyOnEditLog(cluster.getNameNode());
+      final AtomicBoolean hold = new AtomicBoolean(true);
+      final CountDownLatch syncing = new CountDownLatch(1);
+      final CountDownLatch crashed = new CountDownLatch(1);
+      doAnswer(new Answer<Void>() {
+        @Override
+        public Void answer(InvocationOnMock invocation) throws Throwable {
+          if (hold.compareAndSet(true, false)) {
+            syncing.countDown();
+            crashed.await();
+          }
+          invocation.callRealMethod();
+          return null;
+        }
+      }).when(editLog).logSync(anyLong());
+      Future<Boolean> delete = deleter.submit(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          return fs.delete(file, false);
+        }
+      });
+      assertTrue("The delete did not sync",
+          syncing.await(30, TimeUnit.SECONDS));
+
+      // no replica is invalidated while the delete is not durable
+      assertEquals(0, cluster.getNamesystem().getBlockManager()
+          .getPendingDeletionBlocksCount());
+      assertTrue(replica.exists());
+
+      // the NameNode crashes: keep its storage as it is now
+      cluster.stopDataNode(0);
+      for (URI dir : cluster.getNameDirs(0)) {
+        File nameDir = new File(dir);
+        FileUtils.copyDirectory(nameDir, new File(backup, nameDir.getName()));
+      }
+      crashed.countDown();
+      assertTrue(delete.get());
+      cluster.shutdown();
+      for (URI dir : cluster.getNameDirs(0)) {
+        File nameDir = new File(dir);
+        FileUtil.fullyDelete(nameDir);
+        FileUtils.copyDirectory(new File(backup, nameDir.getName()), nameDir);
+      }
+
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1)
+          .format(false).build();
+      cluster.waitActive();
+      FileSystem restarted = cluster.getFileSystem();
+      assertEquals(1024,
+          DFSTestUtil.readFileBuffer(restarted, file).length);
+    } finally {
+      deleter.shutdownNow();
+      FileUtil.fullyDelete(backup);
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+}
@@ -20,6 +20,7 @@
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.spy;
 
@@ -497,7 +498,7 @@ public Void answer(InvocationOnMock invocation) throws Throwable {
           return null;
         }
       };
-      doAnswer(blockingSync).when(editLog).logSync();
+      doAnswer(blockingSync).when(editLog).logSync(anyLong());
       
       doAnEditThread.start();
       LOG.info("Main thread: waiting to just before logSync...");
@@ -22,6 +22,7 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import org.junit.Assert;
@@ -43,6 +44,8 @@
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoContiguous;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.StartupOption;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
 import org.apache.hadoop.test.GenericTestUtils;
@@ -77,6 +80,134 @@ public void testNativeCompression() throws IOException {
     setCompressCodec(conf, "org.apache.hadoop.io.compress.Lz4Codec");
   }
 
+  @Test
+  public void testParallelSaveAndLoad() throws IOException {
+    testPersistHelper(getParallelConf());
+  }
+
+  /**
+   * Images without sub-sections are still loaded when parallel loading is
+   * enabled.
+   */
+  @Test
+  public void testParallelLoadWithoutSubSections() throws IOException {
+    Configuration conf = getParallelConf();
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+        Integer.MAX_VALUE);
+    testPersistHelper(conf);
+  }
+
+  /**
+   * Save an image with sub-sections, check they are indexed in the summary
+   * and that the namespace is loaded back in parallel.
+   */
+  @Test(timeout=120000)
+  public void testParallelSubSections() throws IOException {
+    Configuration conf = getParallelConf();
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+      cluster.waitActive();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      final int numDirs = 5, filesPerDir = 20;
+      for (int i = 0; i < numDirs; i++) {
+        for (int j = 0; j < filesPerDir; j++) {
+          FSDataOutputStream out = fs.create(new Path("/d" + i + "/f" + j));
+          out.writeBytes("data" + j);
+          out.close();
+        }
+      }
+
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+
+      FileSummary summary = loadNewestImageSummary(cluster);
+      assertTrue(countSections(summary, SectionName.INODE_SUB) > 1);
+      assertTrue(countSections(summary, SectionName.INODE_DIR_SUB) > 1);
+      assertEquals(1, countSections(summary, SectionName.INODE));
+      assertEquals(1, countSections(summary, SectionName.INODE_DIR));
+
+      cluster.restartNameNode();
+      cluster.waitActive();
+      fs = cluster.getFileSystem();
+      for (int i = 0; i < numDirs; i++) {
+        assertEquals(filesPerDir, fs.listStatus(new Path("/d" + i)).length);
+        for (int j = 0; j < filesPerDir; j++) {
+          assertEquals(("data" + j).length(),
+              fs.getFileStatus(new Path("/d" + i + "/f" + j)).getLen());
+        }
+      }
+      // 1 root, the directories and the files
+      assertEquals(1 + numDirs + numDirs * filesPerDir,
+          cluster.getNamesystem().dir.getInodeMapSize());
+      assertEquals(numDirs * filesPerDir,
+          cluster.getNamesystem().getBlocksTotal());
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Sub-sections are not written for compressed images.
+   */
+  @Test
+  public void testNoSubSectionsWithCompression() throws IOException {
+    Configuration conf = getParallelConf();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_COMPRESS_KEY, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      fs.mkdirs(new Path("/a/b"));
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      FileSummary summary = loadNewestImageSummary(cluster);
+      assertEquals(0, countSections(summary, SectionName.INODE_SUB));
+      assertEquals(0, countSections(summary, SectionName.INODE_DIR_SUB));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static Configuration getParallelConf() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 4);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    return conf;
+  }
+
+  private static FileSummary loadNewestImageSummary(MiniDFSCluster cluster)
+      throws IOException {
+    File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+        0);
+    File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+        .getAbsolutePath());
+    RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+    try {
+      return FSImageUtil.loadSummary(raFile);
+    } finally {
+      raFile.close();
+    }
+  }
+
+  private static int countSections(FileSummary summary, SectionName name) {
+    int count = 0;
+    for (FileSummary.Section s : summary.getSectionsList()) {
+      if (SectionName.fromString(s.getName()) == name) {
+        count++;
+      }
+    }
+    return count;
+  }
+
   private void setCompressCodec(Configuration conf, String compressCodec)
       throws IOException {
     conf.set(DFSConfigKeys.DFS_IMAGE_COMPRESSION_CODEC_KEY, compressCodec);
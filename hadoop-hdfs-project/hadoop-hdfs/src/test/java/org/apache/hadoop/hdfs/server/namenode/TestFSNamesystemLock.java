@@ -21,6 +21,7 @@
 import com.google.common.base.Supplier;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.util.RwLockMode;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableRatesWithAggregation;
@@ -41,6 +42,7 @@
 
 import static org.junit.Assert.*;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_FAIR_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_LOCK_FS_BM_SPLIT_KEY;
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
 import static org.apache.hadoop.test.MetricsAsserts.assertGauge;
 
@@ -360,4 +362,95 @@ public void testDetailedHoldMetrics() throws Exception {
     assertCounter("FSNWriteLockBazNanosNumOps", 1L, rb);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testCoarseLockModes() {
+    FSNamesystemLock rwLock = new FSNamesystemLock(new Configuration(), null);
+    assertFalse(rwLock.isFsBmSplit());
+
+    // every mode maps onto the same coarse lock
+    rwLock.readLock(RwLockMode.BM);
+    assertEquals(1, rwLock.getReadHoldCount());
+    assertTrue(rwLock.hasReadLock(RwLockMode.GLOBAL));
+    assertTrue(rwLock.hasReadLock(RwLockMode.FS));
+    rwLock.readUnlock(RwLockMode.BM, "bm");
+    assertEquals(0, rwLock.getReadHoldCount());
+
+    rwLock.writeLock(RwLockMode.FS);
+    assertTrue(rwLock.isWriteLockedByCurrentThread());
+    assertTrue(rwLock.isWriteLockedByCurrentThread(RwLockMode.BM));
+    rwLock.writeUnlock(RwLockMode.FS, "fs");
+    assertFalse(rwLock.isWriteLockedByCurrentThread());
+  }
+
+  @Test
+  public void testFsBmSplitLockModes() {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_LOCK_FS_BM_SPLIT_KEY, true);
+    FSNamesystemLock rwLock = new FSNamesystemLock(conf, null);
+    assertTrue(rwLock.isFsBmSplit());
+
+    rwLock.writeLock(RwLockMode.FS);
+    assertTrue(rwLock.isWriteLockedByCurrentThread(RwLockMode.FS));
+    assertFalse(rwLock.isWriteLockedByCurrentThread(RwLockMode.BM));
+    assertFalse(rwLock.isWriteLockedByCurrentThread());
+    rwLock.writeUnlock(RwLockMode.FS, "fs");
+
+    rwLock.readLock(RwLockMode.BM);
+    assertTrue(rwLock.hasReadLock(RwLockMode.BM));
+    assertFalse(rwLock.hasReadLock(RwLockMode.FS));
+    assertFalse(rwLock.hasReadLock(RwLockMode.GLOBAL));
+    rwLock.readUnlock(RwLockMode.BM, "bm");
+
+    rwLock.writeLock();
+    assertTrue(rwLock.isWriteLockedByCurrentThread(RwLockMode.FS));
+    assertTrue(rwLock.isWriteLockedByCurrentThread(RwLockMode.BM));
+    assertTrue(rwLock.isWriteLockedByCurrentThread());
+    rwLock.writeUnlock();
+    assertFalse(rwLock.hasReadLock(RwLockMode.FS));
+    assertFalse(rwLock.hasReadLock(RwLockMode.BM));
+  }
+
+  /**
+   * With the split lock a namespace writer must not block a block manager
+   * reader, while a global writer blocks both.
+   */
+  @Test(timeout=30000)
+  public void testFsBmSplitLockIndependence() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFS_NAMENODE_LOCK_FS_BM_SPLIT_KEY, true);
+    final FSNamesystemLock rwLock = new FSNamesystemLock(conf, null);
+    ExecutorService helper = Executors.newSingleThreadExecutor();
+    try {
+      rwLock.writeLock(RwLockMode.FS);
+      final CountDownLatch bmRead = new CountDownLatch(1);
+      helper.execute(new Runnable() {
+        @Override
+        public void run() {
+          rwLock.readLock(RwLockMode.BM);
+          bmRead.countDown();
+          rwLock.readUnlock(RwLockMode.BM, "bm");
+        }
+      });
+      assertTrue("BM reader was blocked by FS writer",
+          bmRead.await(10, TimeUnit.SECONDS));
+      rwLock.writeUnlock(RwLockMode.FS, "fs");
+
+      rwLock.writeLock();
+      final CountDownLatch bmReadGlobal = new CountDownLatch(1);
+      helper.execute(new Runnable() {
+        @Override
+        public void run() {
+          rwLock.readLock(RwLockMode.BM);
+          bmReadGlobal.countDown();
+          rwLock.readUnlock(RwLockMode.BM, "bm");
+        }
+      });
+      assertFalse("BM reader was not blocked by global writer",
+          bmReadGlobal.await(500, TimeUnit.MILLISECONDS));
+      rwLock.writeUnlock();
+      assertTrue(bmReadGlobal.await(10, TimeUnit.SECONDS));
+    } finally {
+      helper.shutdownNow();
+    }
+  }
+}
@@ -56,6 +56,24 @@ public void testNNThroughput() throws Exception {
     NNThroughputBenchmark.runBenchmark(conf, new String[] {"-op", "all"});
   }
 
+  /**
+   * This test runs the create and mkdirs benchmarks for several thread
+   * counts with the namesystem lock split into namespace and blocks.
+   */
+  @Test(timeout = 120000)
+  public void testNNThroughputThreadScaling() throws Exception {
+    for (String op : new String[] {"mkdirs", "create"}) {
+      Configuration conf = new HdfsConfiguration();
+      File nameDir = new File(MiniDFSCluster.getBaseDirectory(), "name");
+      conf.set(DFSConfigKeys.DFS_NAMENODE_NAME_DIR_KEY,
+          nameDir.getAbsolutePath());
+      conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_LOCK_FS_BM_SPLIT_KEY, true);
+      DFSTestUtil.formatNameNode(conf);
+      NNThroughputBenchmark.runBenchmark(conf,
+          new String[] {"-op", op, "-threads", "1,4"});
+    }
+  }
+
   /**
    * This test runs all benchmarks defined in {@link NNThroughputBenchmark},
    * with explicit local -fs option.
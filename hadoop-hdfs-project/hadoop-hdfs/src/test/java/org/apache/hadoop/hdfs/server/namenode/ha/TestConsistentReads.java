@@ -0,0 +1,105 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.qjournal.MiniQJMHACluster;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test reads served by the standby NameNode to clients using the
+ * {@link ConsistentReadProxyProvider}.
+ */
+public class TestConsistentReads {
+  private MiniQJMHACluster qjmhaCluster;
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+
+  private void startCluster(boolean consistentReads) throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY, true);
+    conf.set(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, "100ms");
+    conf.setBoolean(DFSConfigKeys.DFS_HA_STANDBY_CONSISTENT_READS_KEY,
+        consistentReads);
+    conf.setInt(
+        CommonConfigurationKeysPublic.IPC_CLIENT_CONNECTION_MAXIDLETIME_KEY,
+        0);
+    qjmhaCluster = new MiniQJMHACluster.Builder(conf).build();
+    cluster = qjmhaCluster.getDfsCluster();
+    cluster.transitionToActive(0);
+
+    Configuration clientConf = new Configuration(conf);
+    clientConf.set(DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX + "."
+        + MiniQJMHACluster.NAMESERVICE,
+        ConsistentReadProxyProvider.class.getName());
+    fs = FileSystem.get(new URI("hdfs://" + MiniQJMHACluster.NAMESERVICE),
+        clientConf);
+  }
+
+  @After
+  public void shutdown() throws IOException {
+    IOUtils.cleanup(null, fs);
+    if (qjmhaCluster != null) {
+      qjmhaCluster.shutdown();
+    }
+  }
+
+  @Test(timeout = 120000)
+  public void testReadYourWritesFromStandby() throws Exception {
+    startCluster(true);
+    for (int i = 0; i < 10; i++) {
+      Path dir = new Path("/dir" + i);
+      assertTrue(fs.mkdirs(dir));
+      // the standby waits until it has tailed the mkdirs
+      assertTrue(fs.getFileStatus(dir).isDirectory());
+      assertEquals(i + 1, fs.listStatus(new Path("/")).length);
+    }
+
+    // Without the active, the reads can only be served by the standby
+    cluster.shutdownNameNode(0);
+    assertTrue(cluster.getNameNode(1).isStandbyState());
+    assertTrue(fs.exists(new Path("/dir9")));
+    assertEquals(10, fs.listStatus(new Path("/")).length);
+  }
+
+  @Test(timeout = 120000)
+  public void testStandbyWithoutConsistentReads() throws Exception {
+    startCluster(false);
+    for (int i = 0; i < 3; i++) {
+      Path dir = new Path("/dir" + i);
+      assertTrue(fs.mkdirs(dir));
+      // the standby rejects the reads, which are served by the active
+      assertTrue(fs.getFileStatus(dir).isDirectory());
+      assertEquals(i + 1, fs.listStatus(new Path("/")).length);
+    }
+  }
+}
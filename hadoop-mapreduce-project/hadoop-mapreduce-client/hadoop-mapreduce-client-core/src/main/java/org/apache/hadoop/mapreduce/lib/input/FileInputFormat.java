@@ -28,9 +28,11 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BatchListingOperations;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.PartialListing;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
 import org.apache.hadoop.fs.BlockLocation;
@@ -297,25 +299,17 @@ private List<FileStatus> singleThreadedListStatus(JobContext job, Path[] dirs,
       } else if (matches.length == 0) {
         errors.add(new IOException("Input Pattern " + p + " matches 0 files"));
       } else {
+        List<Path> globDirs = new ArrayList<Path>();
         for (FileStatus globStat: matches) {
           if (globStat.isDirectory()) {
-            RemoteIterator<LocatedFileStatus> iter =
-                fs.listLocatedStatus(globStat.getPath());
-            while (iter.hasNext()) {
-              LocatedFileStatus stat = iter.next();
-              if (inputFilter.accept(stat.getPath())) {
-                if (recursive && stat.isDirectory()) {
-                  addInputPathRecursively(result, fs, stat.getPath(),
-                      inputFilter);
-                } else {
-                  result.add(stat);
-                }
-              }
-            }
+            globDirs.add(globStat.getPath());
           } else {
+            addDirectoryListings(result, fs, globDirs, inputFilter,
+                recursive);
             result.add(globStat);
           }
         }
+        addDirectoryListings(result, fs, globDirs, inputFilter, recursive);
       }
     }
 
@@ -324,6 +318,46 @@ private List<FileStatus> singleThreadedListStatus(JobContext job, Path[] dirs,
     }
     return result;
   }
+
+  /**
+   * Add the entries of the given directories into the results, in order,
+   * and empty the list of directories. When the file system supports it,
+   * several directories are listed with one call.
+   */
+  private void addDirectoryListings(List<FileStatus> result, FileSystem fs,
+      List<Path> dirs, PathFilter inputFilter, boolean recursive)
+      throws IOException {
+    if (dirs.size() > 1 && fs instanceof BatchListingOperations) {
+      RemoteIterator<PartialListing<LocatedFileStatus>> listings =
+          ((BatchListingOperations) fs).batchedListLocatedStatusIterator(
+              dirs, null);
+      while (listings.hasNext()) {
+        for (LocatedFileStatus stat : listings.next().get()) {
+          addDirectoryEntry(result, fs, stat, inputFilter, recursive);
+        }
+      }
+    } else {
+      for (Path dir : dirs) {
+        RemoteIterator<LocatedFileStatus> iter = fs.listLocatedStatus(dir);
+        while (iter.hasNext()) {
+          addDirectoryEntry(result, fs, iter.next(), inputFilter, recursive);
+        }
+      }
+    }
+    dirs.clear();
+  }
+
+  private void addDirectoryEntry(List<FileStatus> result, FileSystem fs,
+      LocatedFileStatus stat, PathFilter inputFilter, boolean recursive)
+      throws IOException {
+    if (inputFilter.accept(stat.getPath())) {
+      if (recursive && stat.isDirectory()) {
+        addInputPathRecursively(result, fs, stat.getPath(), inputFilter);
+      } else {
+        result.add(stat);
+      }
+    }
+  }
   
   /**
    * Add files in the input path recursively into the results.
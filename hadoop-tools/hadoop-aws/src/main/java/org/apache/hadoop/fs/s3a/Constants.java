@@ -108,6 +108,16 @@ public class Constants {
   public static final String FAST_BUFFER_SIZE = "fs.s3a.fast.buffer.size";
   public static final int DEFAULT_FAST_BUFFER_SIZE = 1048576; //1MB
 
+  // largest gap between two ranges of a vectored read to read over
+  public static final String VECTORED_READ_MIN_SEEK_SIZE =
+      "fs.s3a.vectored.read.min.seek.size";
+  public static final int DEFAULT_VECTORED_READ_MIN_SEEK_SIZE = 131072; //128K
+
+  // largest size of a GET merged from the ranges of a vectored read
+  public static final String VECTORED_READ_MAX_MERGED_SIZE =
+      "fs.s3a.vectored.read.max.merged.size";
+  public static final int DEFAULT_VECTORED_READ_MAX_MERGED_SIZE = 1048576; //1MB
+
   // private | public-read | public-read-write | authenticated-read |
   // log-delivery-write | bucket-owner-read | bucket-owner-full-control
   public static final String CANNED_ACL = "fs.s3a.acl.default";
@@ -92,6 +92,8 @@ public class S3AFileSystem extends FileSystem {
   private TransferManager transfers;
   private ThreadPoolExecutor threadPoolExecutor;
   private long multiPartThreshold;
+  private int vectoredReadMinSeekSize;
+  private int vectoredReadMaxMergedSize;
   public static final Logger LOG = LoggerFactory.getLogger(S3AFileSystem.class);
   private CannedAccessControlList cannedACL;
   private String serverSideEncryptionAlgorithm;
@@ -212,6 +214,10 @@ public void initialize(URI name, Configuration conf) throws IOException {
     multiPartThreshold = conf.getLong(MIN_MULTIPART_THRESHOLD,
       DEFAULT_MIN_MULTIPART_THRESHOLD);
     enableMultiObjectsDelete = conf.getBoolean(ENABLE_MULTI_DELETE, true);
+    vectoredReadMinSeekSize = conf.getInt(VECTORED_READ_MIN_SEEK_SIZE,
+      DEFAULT_VECTORED_READ_MIN_SEEK_SIZE);
+    vectoredReadMaxMergedSize = conf.getInt(VECTORED_READ_MAX_MERGED_SIZE,
+      DEFAULT_VECTORED_READ_MAX_MERGED_SIZE);
 
     if (partSize < 5 * 1024 * 1024) {
       LOG.error(MULTIPART_SIZE + " must be at least 5 MB");
@@ -465,7 +471,9 @@ public FSDataInputStream open(Path f, int bufferSize)
     }
 
     return new FSDataInputStream(new S3AInputStream(bucket, pathToKey(f),
-      fileStatus.getLen(), s3, statistics, s3IsRequesterPays));
+      fileStatus.getLen(), s3, statistics, s3IsRequesterPays,
+      threadPoolExecutor, vectoredReadMinSeekSize,
+      vectoredReadMaxMergedSize));
   }
 
   /**
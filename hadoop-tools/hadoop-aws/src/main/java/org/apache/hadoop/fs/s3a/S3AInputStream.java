@@ -22,9 +22,14 @@
 import com.amazonaws.services.s3.model.GetObjectRequest;
 import com.amazonaws.services.s3.model.S3Object;
 import com.amazonaws.services.s3.model.S3ObjectInputStream;
+import org.apache.hadoop.fs.CombinedFileRange;
 import org.apache.hadoop.fs.FSExceptionMessages;
 import org.apache.hadoop.fs.FSInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.IOUtils;
 
 import org.slf4j.Logger;
 
@@ -32,6 +37,11 @@
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 public class S3AInputStream extends FSInputStream {
   private long pos;
@@ -48,6 +58,10 @@ public class S3AInputStream extends FSInputStream {
    * This boolean stores whether the S3 Requester Pays flag is enabled or not.
    */
   private boolean isRequesterPays = false;
+  /** Runs the GETs of vectored reads, or null to run them in the caller */
+  private final Executor vectoredReadExecutor;
+  private final int vectoredReadMinSeekSize;
+  private final int vectoredReadMaxMergedSize;
 
   public S3AInputStream(String bucket, String key, long contentLength, AmazonS3Client client,
                         FileSystem.Statistics stats) {
@@ -57,6 +71,17 @@ public S3AInputStream(final String s3Bucket, final String s3BucketKey,
                         final long contentLen, final AmazonS3Client s3Client,
                         final FileSystem.Statistics fsStats,
                         final boolean doesRequesterPays) {
+    this(s3Bucket, s3BucketKey, contentLen, s3Client, fsStats,
+        doesRequesterPays, null, Constants.DEFAULT_VECTORED_READ_MIN_SEEK_SIZE,
+        Constants.DEFAULT_VECTORED_READ_MAX_MERGED_SIZE);
+  }
+  public S3AInputStream(final String s3Bucket, final String s3BucketKey,
+                        final long contentLen, final AmazonS3Client s3Client,
+                        final FileSystem.Statistics fsStats,
+                        final boolean doesRequesterPays,
+                        final Executor vectoredReadExecutor,
+                        final int vectoredReadMinSeekSize,
+                        final int vectoredReadMaxMergedSize) {
     this.bucket = s3Bucket;
     this.key = s3BucketKey;
     this.contentLength = contentLen;
@@ -66,6 +91,9 @@ public S3AInputStream(final String s3Bucket, final String s3BucketKey,
     this.closed = false;
     this.wrappedStream = null;
     this.isRequesterPays = doesRequesterPays;
+    this.vectoredReadExecutor = vectoredReadExecutor;
+    this.vectoredReadMinSeekSize = vectoredReadMinSeekSize;
+    this.vectoredReadMaxMergedSize = vectoredReadMaxMergedSize;
   }
 
   private void openIfNeeded() throws IOException {
@@ -191,6 +219,78 @@ public synchronized int read(byte[] buf, int off, int len) throws IOException {
     return byteRead;
   }
 
+  /**
+   * Read the ranges with one ranged GET per merged range. Ranges closer
+   * than fs.s3a.vectored.read.min.seek.size are merged, as reading over the
+   * gap is cheaper than another request. The GETs run concurrently on the
+   * thread pool of the file system.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges,
+      final ByteBufferPool bufferPool) throws IOException {
+    checkNotClosed();
+    List<FileRange> sorted = VectoredReadUtils.prepareRanges(ranges);
+    List<FileRange> inFile = new ArrayList<>(sorted.size());
+    for (FileRange range : sorted) {
+      if (range.getOffset() + range.getLength() > contentLength) {
+        VectoredReadUtils.fail(range, new EOFException(
+            "End of file reached before reading " + range + " of " + key));
+      } else {
+        inFile.add(range);
+      }
+    }
+    for (final CombinedFileRange combined : VectoredReadUtils
+        .mergeSortedRanges(inFile, 1, vectoredReadMinSeekSize,
+            vectoredReadMaxMergedSize)) {
+      Runnable read = new Runnable() {
+        @Override
+        public void run() {
+          readCombinedRange(combined, bufferPool);
+        }
+      };
+      if (vectoredReadExecutor == null) {
+        read.run();
+        continue;
+      }
+      try {
+        vectoredReadExecutor.execute(read);
+      } catch (RejectedExecutionException e) {
+        LOG.debug("Vectored read rejected, reading in current thread");
+        read.run();
+      }
+    }
+  }
+
+  private void readCombinedRange(CombinedFileRange combined,
+      ByteBufferPool bufferPool) {
+    ByteBuffer data = VectoredReadUtils.allocate(bufferPool,
+        combined.getLength());
+    try {
+      if (combined.getLength() > 0) {
+        GetObjectRequest request = new GetObjectRequest(bucket, key);
+        request.setRange(combined.getOffset(),
+            combined.getOffset() + combined.getLength() - 1);
+        request.setRequesterPays(isRequesterPays);
+        S3ObjectInputStream in = client.getObject(request).getObjectContent();
+        try {
+          IOUtils.readFully(in, data.array(), data.arrayOffset(),
+              combined.getLength());
+        } finally {
+          in.close();
+        }
+        if (stats != null) {
+          stats.incrementBytesRead(combined.getLength());
+        }
+      }
+    } catch (Exception e) {
+      LOG.debug("Failed to read " + combined + " of " + key, e);
+      bufferPool.putBuffer(data);
+      VectoredReadUtils.fail(combined, e);
+      return;
+    }
+    VectoredReadUtils.complete(combined, data, bufferPool);
+  }
+
   private void checkNotClosed() throws IOException {
     if (closed) {
       throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);